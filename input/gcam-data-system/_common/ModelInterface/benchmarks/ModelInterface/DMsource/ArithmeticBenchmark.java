@@ -0,0 +1,298 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.Random;
+
+/**
+ * A check and benchmark of the elementwise arithmetic in ComponentManipulator.  The
+ * operations are run over a set of global half degree grids, which include NaNs,
+ * infinities and zeros, and compared bit for bit against the element at a time loops
+ * they replaced.  Times are reported for each.
+ * Run with: java ModelInterface.DMsource.ArithmeticBenchmark [iterations]
+ */
+public class ArithmeticBenchmark {
+	private static final int NUM_ROWS = 360;
+	private static final int NUM_COLS = 720;
+	private static final int NUM_REGIONS = 4;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		Random rand = new Random(0);
+		Wrapper[] R1 = createVar(rand);
+		Wrapper[] R2 = createVar(rand);
+		double scalar = 1.7;
+		boolean allSame = true;
+
+		// run everything before timing any of it, otherwise the first operations
+		// timed include compiling the shared kernels and seem slower than they are
+		for(int i = 0; i < iterations; ++i) {
+			for(int op = 0; op < 7; ++op) {
+				reference(op, R1, R2, scalar);
+				current(op, R1, R2, scalar);
+			}
+		}
+
+		for(int op = 0; op < 7; ++op) {
+			Wrapper[] expected = null;
+			Wrapper[] actual = null;
+			long referenceTime = 0;
+			long kernelTime = 0;
+			for(int i = 0; i < iterations; ++i) {
+				long start = System.nanoTime();
+				expected = reference(op, R1, R2, scalar);
+				referenceTime += System.nanoTime() - start;
+				start = System.nanoTime();
+				actual = current(op, R1, R2, scalar);
+				kernelTime += System.nanoTime() - start;
+			}
+			allSame &= report(OP_NAMES[op], sameBits(expected, actual), referenceTime, kernelTime, iterations);
+		}
+
+		if(!allSame) {
+			System.out.println("Results differ");
+			System.exit(1);
+		}
+	}
+
+	private static final String[] OP_NAMES = { "addVar", "addVar scalar", "subtractVar", "multiplyVar",
+		"multiplyVar scalar", "divideVar", "divideVar scalar" };
+
+	private static Wrapper[] current(int op, Wrapper[] R1, Wrapper[] R2, double scalar) {
+		switch(op) {
+			case 0: return ComponentManipulator.addVar(R1, R2);
+			case 1: return ComponentManipulator.addVar(R1, scalar);
+			case 2: return ComponentManipulator.subtractVar(R1, R2);
+			case 3: return ComponentManipulator.multiplyVar(R1, R2);
+			case 4: return ComponentManipulator.multiplyVar(R1, scalar);
+			case 5: return ComponentManipulator.divideVar(R1, R2);
+			default: return ComponentManipulator.divideVar(R1, scalar);
+		}
+	}
+
+	/**
+	 * The element at a time loops the operations used to be implemented with.  Each
+	 * operation keeps its own loop as it did in ComponentManipulator, sharing one loop
+	 * with a switch would make the compiled code for every operation slower.
+	 */
+	private static Wrapper[] reference(int op, Wrapper[] R1, Wrapper[] R2, double scalar) {
+		switch(op) {
+			case 0: return oldAddVar(R1, R2);
+			case 1: return oldAddVar(R1, scalar);
+			case 2: return oldSubtractVar(R1, R2);
+			case 3: return oldMultiplyVar(R1, R2);
+			case 4: return oldMultiplyVar(R1, scalar);
+			case 5: return oldDivideVar(R1, R2);
+			default: return oldDivideVar(R1, scalar);
+		}
+	}
+
+	private static Wrapper[] oldAddVar(Wrapper[] R1, Wrapper[] R2) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdM2 = R2[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					if(Double.isNaN(holdM1[iY][iX])) {
+						holdMR[iY][iX] = Double.isNaN(holdM2[iY][iX]) ? Double.NaN : holdM2[iY][iX];
+					} else if(Double.isNaN(holdM2[iY][iX])) {
+						holdMR[iY][iX] = holdM1[iY][iX];
+					} else {
+						holdMR[iY][iX] = holdM1[iY][iX] + holdM2[iY][iX];
+					}
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] oldAddVar(Wrapper[] R1, double change) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					holdMR[iY][iX] = Double.isNaN(holdM1[iY][iX]) ? Double.NaN : holdM1[iY][iX] + change;
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] oldSubtractVar(Wrapper[] R1, Wrapper[] R2) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdM2 = R2[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					if(Double.isNaN(holdM1[iY][iX])) {
+						holdMR[iY][iX] = Double.NaN;
+					} else if(Double.isNaN(holdM2[iY][iX])) {
+						holdMR[iY][iX] = holdM1[iY][iX];
+					} else {
+						holdMR[iY][iX] = holdM1[iY][iX] - holdM2[iY][iX];
+					}
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] oldMultiplyVar(Wrapper[] R1, Wrapper[] R2) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdM2 = R2[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					if(Double.isNaN(holdM1[iY][iX]) || Double.isNaN(holdM2[iY][iX])) {
+						holdMR[iY][iX] = Double.NaN;
+					} else {
+						holdMR[iY][iX] = holdM1[iY][iX] * holdM2[iY][iX];
+					}
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] oldMultiplyVar(Wrapper[] R1, double factor) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					holdMR[iY][iX] = Double.isNaN(holdM1[iY][iX]) ? Double.NaN : holdM1[iY][iX] * factor;
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] oldDivideVar(Wrapper[] R1, Wrapper[] R2) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdM2 = R2[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					if(Double.isNaN(holdM1[iY][iX]) || Double.isNaN(holdM2[iY][iX])) {
+						holdMR[iY][iX] = Double.NaN;
+					} else {
+						holdMR[iY][iX] = holdM1[iY][iX] / holdM2[iY][iX];
+					}
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] oldDivideVar(Wrapper[] R1, double factor) {
+		Wrapper[] toReturn = new Wrapper[R1.length];
+		for(int i = 0; i < R1.length; i++) {
+			double[][] holdM1 = R1[i].data;
+			double[][] holdMR = new double[holdM1.length][holdM1[0].length];
+			for(int iY = 0; iY < holdM1.length; iY++) {
+				for(int iX = 0; iX < holdM1[0].length; iX++) {
+					holdMR[iY][iX] = Double.isNaN(holdM1[iY][iX]) ? Double.NaN : holdM1[iY][iX] / factor;
+				}
+			}
+			toReturn[i] = R1[i].makeCopy();
+			toReturn[i].data = holdMR;
+		}
+		return toReturn;
+	}
+
+	private static Wrapper[] createVar(Random rand) {
+		Wrapper[] var = new Wrapper[NUM_REGIONS];
+		for(int i = 0; i < NUM_REGIONS; ++i) {
+			double[][] data = new double[NUM_ROWS / NUM_REGIONS][NUM_COLS];
+			for(int row = 0; row < data.length; ++row) {
+				for(int col = 0; col < data[0].length; ++col) {
+					int kind = rand.nextInt(100);
+					if(kind < 20) {
+						data[row][col] = Double.NaN;
+					} else if(kind < 22) {
+						data[row][col] = 0;
+					} else if(kind < 23) {
+						data[row][col] = rand.nextBoolean() ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+					} else {
+						data[row][col] = rand.nextGaussian() * 1000;
+					}
+				}
+			}
+			var[i] = new DataWrapper();
+			var[i].setData(data);
+		}
+		return var;
+	}
+
+	private static boolean sameBits(Wrapper[] var1, Wrapper[] var2) {
+		for(int i = 0; i < var1.length; ++i) {
+			double[][] data1 = var1[i].getData();
+			double[][] data2 = var2[i].getData();
+			for(int row = 0; row < data1.length; ++row) {
+				for(int col = 0; col < data1[0].length; ++col) {
+					// use the raw bits so that even the kind of NaN must match
+					if(Double.doubleToRawLongBits(data1[row][col]) != Double.doubleToRawLongBits(data2[row][col])) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean report(String name, boolean same, long beforeTime, long afterTime, int iterations) {
+		System.out.println(name+": "+(same ? "identical" : "DIFFERENT")+", before "
+				+(beforeTime / iterations / 1000)+" us, after "+(afterTime / iterations / 1000)+" us");
+		return same;
+	}
+}
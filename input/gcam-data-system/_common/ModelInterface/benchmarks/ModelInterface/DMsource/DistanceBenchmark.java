@@ -0,0 +1,338 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A benchmark for ComponentManipulator.distanceToData and maskDistanceFrom over global
+ * grids.  Builds a synthetic land/ocean map split into several regions, checks at a
+ * coarse resolution that the results are exactly the same as comparing every pair of
+ * cells, and then times the commands at 0.5 and 0.25 degree resolution.  Since comparing
+ * every pair at those resolutions would take hours the brute force time for
+ * distanceToData is estimated from a sample of the target cells.
+ * Run with: java ModelInterface.DMsource.DistanceBenchmark
+ */
+public class DistanceBenchmark {
+	/**
+	 * Number of latitude bands the globe is split into, each is treated as a region.
+	 */
+	private static final int NUM_REGIONS = 6;
+
+	/**
+	 * Number of target cells to time the brute force search with.
+	 */
+	private static final int BRUTE_FORCE_SAMPLE = 500;
+
+	/**
+	 * Distance in km to extend the mask when timing maskDistanceFrom.
+	 */
+	private static final double MASK_DISTANCE = 100;
+
+	/**
+	 * A wrapper which reports a fixed region ID so that the region mask output
+	 * can be checked.
+	 */
+	private static class BenchmarkWrapper extends ReferenceWrapper {
+		private final double regionID;
+		public BenchmarkWrapper(double regionID, double res, double y, double h) {
+			super("region "+regionID, res, -180, y, 360, h);
+			this.regionID = regionID;
+		}
+		public Wrapper makeCopy() {
+			BenchmarkWrapper copy = new BenchmarkWrapper(regionID, res, y, height);
+			copy.data = null;
+			return copy;
+		}
+		public double getInternalRegionID(int level) {
+			return regionID;
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Checking results at 2 degrees");
+		if(!check(2.0)) {
+			System.out.println("Results differ from a brute force search");
+			System.exit(1);
+		}
+		if(!checkMask(2.0)) {
+			System.out.println("Mask differs from a brute force search");
+			System.exit(1);
+		}
+		System.out.println("Results are identical");
+		run(0.5);
+		run(0.25);
+		runMask(0.5);
+		runMask(0.25);
+	}
+
+	private static boolean checkMask(double res) {
+		Wrapper[] land = createVar(res, true, 0);
+		Wrapper[] ocean = createVar(res, false, 0);
+		Wrapper[] maskOut = copyShape(ocean);
+		// use a distance of a few cells so that there are cells on both sides
+		ComponentManipulator.maskDistanceFrom(land, ocean, maskOut, 500, 0.5);
+
+		Wrapper[] bruteMaskOut = copyShape(ocean);
+		bruteForceMask(land, ocean, bruteMaskOut, 500, 0.5);
+		return sameData(maskOut, bruteMaskOut);
+	}
+
+	private static void runMask(double res) {
+		Wrapper[] land = createVar(res, true, 0);
+		Wrapper[] ocean = createVar(res, false, 0);
+		Wrapper[] maskOut = copyShape(ocean);
+		long start = System.currentTimeMillis();
+		ComponentManipulator.maskDistanceFrom(land, ocean, maskOut, MASK_DISTANCE, 0.5);
+		System.out.println("maskDistanceFrom "+res+" degrees, "+MASK_DISTANCE+" km: "
+				+(System.currentTimeMillis() - start)+" ms");
+	}
+
+	private static boolean check(double res) {
+		Wrapper[] land = createVar(res, true, 0);
+		Wrapper[] weight = createWeights(land);
+		Wrapper[] ocean = createVar(res, false, 0);
+		Wrapper[] distanceOut = copyShape(ocean);
+		Wrapper[] regionOut = copyShape(ocean);
+		ComponentManipulator.distanceToData(land, weight, ocean, distanceOut, regionOut, 0, 0.5);
+
+		Wrapper[] bruteDistanceOut = copyShape(ocean);
+		Wrapper[] bruteRegionOut = copyShape(ocean);
+		List<DistanceStruct> structs = createStructs(ocean, bruteDistanceOut, bruteRegionOut);
+		bruteForce(land, weight, 0.5, structs, structs.size());
+		return sameData(distanceOut, bruteDistanceOut) && sameData(regionOut, bruteRegionOut);
+	}
+
+	private static void run(double res) {
+		Wrapper[] land = createVar(res, true, 0);
+		Wrapper[] weight = createWeights(land);
+		Wrapper[] ocean = createVar(res, false, 0);
+		Wrapper[] distanceOut = copyShape(ocean);
+		Wrapper[] regionOut = copyShape(ocean);
+		long start = System.currentTimeMillis();
+		ComponentManipulator.distanceToData(land, weight, ocean, distanceOut, regionOut, 0, 0.5);
+		long indexTime = System.currentTimeMillis() - start;
+
+		List<DistanceStruct> structs = createStructs(ocean, copyShape(ocean), copyShape(ocean));
+		start = System.currentTimeMillis();
+		bruteForce(land, weight, 0.5, structs, BRUTE_FORCE_SAMPLE);
+		long sampleTime = System.currentTimeMillis() - start;
+		double bruteForceEstimate = (double)sampleTime / BRUTE_FORCE_SAMPLE * structs.size();
+		System.out.println(res+" degrees, "+structs.size()+" target cells: "+indexTime
+				+" ms, brute force estimated at "+Math.round(bruteForceEstimate)+" ms");
+	}
+
+	/**
+	 * Create a global var split into latitude bands with either land or ocean cells
+	 * set to 1 and the rest NaN.
+	 */
+	private static Wrapper[] createVar(double res, boolean isLand, long seed) {
+		int numRows = (int)Math.round(180 / res);
+		int rowsPerRegion = (int)Math.ceil((double)numRows / NUM_REGIONS);
+		List<Wrapper> regions = new ArrayList<Wrapper>();
+		for(int startRow = 0; startRow < numRows; startRow += rowsPerRegion) {
+			int regionRows = Math.min(rowsPerRegion, numRows - startRow);
+			double y = -90 + startRow * res;
+			Wrapper region = new BenchmarkWrapper(regions.size(), res, y, regionRows * res);
+			double[][] data = region.getData();
+			for(int row = 0; row < data.length; ++row) {
+				// row 0 is the upper corner
+				double lat = y + (data.length - row - 0.5) * res;
+				for(int col = 0; col < data[0].length; ++col) {
+					double lon = -180 + (col + 0.5) * res;
+					boolean cellIsLand = Math.sin(Math.toRadians(lat) * 3) 
+						* Math.cos(Math.toRadians(lon) * 2) + Math.sin(Math.toRadians(lon) * 5) * 0.3 > 0.2;
+					data[row][col] = cellIsLand == isLand ? 1 : Double.NaN;
+				}
+			}
+			regions.add(region);
+		}
+		return regions.toArray(new Wrapper[0]);
+	}
+
+	/**
+	 * Create weights with only a few distinct values so that there will be ties.
+	 */
+	private static Wrapper[] createWeights(Wrapper[] var) {
+		Random rand = new Random(0);
+		Wrapper[] weights = copyShape(var);
+		for(int i = 0; i < var.length; ++i) {
+			double[][] data = new double[var[i].getData().length][var[i].getData()[0].length];
+			for(int row = 0; row < data.length; ++row) {
+				for(int col = 0; col < data[0].length; ++col) {
+					data[row][col] = rand.nextInt(3);
+				}
+			}
+			weights[i].setData(data);
+		}
+		return weights;
+	}
+
+	private static Wrapper[] copyShape(Wrapper[] var) {
+		Wrapper[] copy = new Wrapper[var.length];
+		for(int i = 0; i < var.length; ++i) {
+			copy[i] = var[i].makeCopy();
+		}
+		return copy;
+	}
+
+	/**
+	 * Set up the output data and DistanceStructs the same way distanceToData does.
+	 */
+	private static List<DistanceStruct> createStructs(Wrapper[] targetData, Wrapper[] distanceOut, Wrapper[] regionMaskOut) {
+		List<DistanceStruct> distancesToFind = new ArrayList<DistanceStruct>();
+		for(int rIndex = 0; rIndex < targetData.length; ++rIndex) {
+			double currLat = targetData[rIndex].getY() * (Math.PI / 180);
+			double currLon = targetData[rIndex].getX() * (Math.PI / 180);
+			double res = targetData[rIndex].getRes() * (Math.PI / 180);
+			double[][] currDataArr = targetData[rIndex].getData();
+			double[][] currDistanceArr = new double[currDataArr.length][currDataArr[0].length];
+			double[][] currRegionArr = new double[currDataArr.length][currDataArr[0].length];
+			distanceOut[rIndex].setData(currDistanceArr);
+			regionMaskOut[rIndex].setData(currRegionArr);
+			for(int row = currDataArr.length-1; row >= 0; --row) {
+				currLon = targetData[rIndex].getX() * (Math.PI / 180);
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					if(Double.isNaN(currDataArr[row][col])) {
+						currDistanceArr[row][col] = Double.NaN;
+						currRegionArr[row][col] = Double.NaN;
+					} else {
+						currDistanceArr[row][col] = Double.MAX_VALUE;
+						distancesToFind.add(new DistanceStruct(currLat, currLon, distanceOut[rIndex],
+									regionMaskOut[rIndex], row, col));
+					}
+					currLon += res;
+				}
+				currLat += res;
+			}
+		}
+		return distancesToFind;
+	}
+
+	/**
+	 * The original brute force search comparing every cell in distanceFrom to the first
+	 * numStructs DistanceStructs.
+	 */
+	private static void bruteForce(Wrapper[] distanceFrom, Wrapper[] distanceFromWeight, double minDataValue,
+			List<DistanceStruct> structs, int numStructs) {
+		List<DistanceStruct> distancesToFind = structs.subList(0, Math.min(numStructs, structs.size()));
+		for(int rIndex = 0; rIndex < distanceFrom.length; ++rIndex) {
+			double currLat = distanceFrom[rIndex].getY() * (Math.PI / 180);
+			double currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
+			double res = distanceFrom[rIndex].getRes() * (Math.PI / 180);
+			double[][] currDataArr = distanceFrom[rIndex].getData();
+			double[][] currWeightArr = distanceFromWeight[rIndex].getData();
+			double currRegionID = distanceFrom[rIndex].getInternalRegionID(0);
+			for(int row = currDataArr.length-1; row >= 0; --row) {
+				currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
+						double currWeight = currWeightArr[row][col];
+						for(DistanceStruct currStruct : distancesToFind) {
+							double distance = currStruct.getDistanceTo(currLat, currLon);
+							if(distance < currStruct.getCurrMinDistance() || (distance == currStruct.getCurrMinDistance() && currWeight > currStruct.getCurrRegionWeight())) {
+								currStruct.setDistance(distance, currRegionID, currWeight);
+							}
+						}
+					}
+					currLon += res;
+				}
+				currLat += res;
+			}
+		}
+	}
+
+	/**
+	 * The original brute force maskDistanceFrom which checks every cell in distanceFrom
+	 * against every cell in targetData.
+	 */
+	private static void bruteForceMask(Wrapper[] distanceFrom, Wrapper[] targetData, Wrapper[] distanceOut,
+			double maxDistance, double minDataValue) {
+		List<DistanceStruct> distancesToFind = new ArrayList<DistanceStruct>();
+		for(int rIndex = 0; rIndex < targetData.length; ++rIndex) {
+			double currLat = targetData[rIndex].getY() * (Math.PI / 180);
+			double currLon = targetData[rIndex].getX() * (Math.PI / 180);
+			double res = targetData[rIndex].getRes() * (Math.PI / 180);
+			double[][] currDataArr = targetData[rIndex].getData();
+			double[][] currDistanceArr = new double[currDataArr.length][currDataArr[0].length];
+			distanceOut[rIndex].setData(currDistanceArr);
+			for(int row = currDataArr.length-1; row >= 0; --row) {
+				currLon = targetData[rIndex].getX() * (Math.PI / 180);
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					currDistanceArr[row][col] = Double.NaN;
+					distancesToFind.add(new DistanceStruct(currLat, currLon, distanceOut[rIndex],
+								null, row, col));
+					currLon += res;
+				}
+				currLat += res;
+			}
+		}
+		for(int rIndex = 0; rIndex < distanceFrom.length; ++rIndex) {
+			double currLat = distanceFrom[rIndex].getY() * (Math.PI / 180);
+			double currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
+			double res = distanceFrom[rIndex].getRes() * (Math.PI / 180);
+			double[][] currDataArr = distanceFrom[rIndex].getData();
+			for(int row = currDataArr.length-1; row >= 0; --row) {
+				currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
+						for(Iterator<DistanceStruct> it = distancesToFind.iterator(); it.hasNext(); ) {
+							DistanceStruct currStruct = it.next();
+							if(currStruct.getDistanceTo(currLat, currLon) <= maxDistance) {
+								currStruct.setDistance(1, 0, 0);
+								it.remove();
+							}
+						}
+					}
+					currLon += res;
+				}
+				currLat += res;
+			}
+		}
+	}
+
+	private static boolean sameData(Wrapper[] var1, Wrapper[] var2) {
+		for(int i = 0; i < var1.length; ++i) {
+			double[][] data1 = var1[i].getData();
+			double[][] data2 = var2[i].getData();
+			for(int row = 0; row < data1.length; ++row) {
+				for(int col = 0; col < data1[0].length; ++col) {
+					if(Double.doubleToLongBits(data1[row][col]) != Double.doubleToLongBits(data2[row][col])) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.Random;
+
+/**
+ * A check and benchmark of evaluating chains of elementwise DM commands lazily.  Each
+ * chain is run as the individual ComponentManipulator operations, which create a full
+ * grid for every step, and as a single LazyGrid expression.  The results are compared
+ * bit for bit and the times and number of grids created are reported.
+ * Run with: java ModelInterface.DMsource.LazyGridBenchmark [iterations]
+ */
+public class LazyGridBenchmark {
+	private static final int NUM_ROWS = 360;
+	private static final int NUM_COLS = 720;
+	private static final int NUM_REGIONS = 24;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		Random rand = new Random(0);
+		Wrapper[] A = createVar(rand);
+		Wrapper[] B = createVar(rand);
+		Wrapper[] C = createVar(rand);
+		Wrapper[] D = createVar(rand);
+		boolean allSame = true;
+
+		// run everything before timing any of it so that neither way is timed
+		// while the shared kernels are still being compiled
+		for(int i = 0; i < iterations; ++i) {
+			shortEager(A, B);
+			shortLazy(A, B);
+			longEager(A, B, C, D);
+			longLazy(A, B, C, D);
+		}
+
+		// divide then multiplyScalar then parseGreaterThan
+		Wrapper[] expected = null;
+		Wrapper[] actual = null;
+		long eagerTime = 0;
+		long lazyTime = 0;
+		for(int i = 0; i < iterations; ++i) {
+			long start = System.nanoTime();
+			expected = shortEager(A, B);
+			eagerTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			actual = shortLazy(A, B);
+			lazyTime += System.nanoTime() - start;
+		}
+		allSame &= report("divide, multiplyScalar, parseGreaterThan", 3, sameBits(expected, actual),
+				eagerTime, lazyTime, iterations);
+
+		// ((A * B + C) - D) / 2 with A used twice, ending in parseLessThanOrEqual
+		eagerTime = 0;
+		lazyTime = 0;
+		for(int i = 0; i < iterations; ++i) {
+			long start = System.nanoTime();
+			expected = longEager(A, B, C, D);
+			eagerTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			actual = longLazy(A, B, C, D);
+			lazyTime += System.nanoTime() - start;
+		}
+		allSame &= report("seven step chain", 7, sameBits(expected, actual), eagerTime, lazyTime, iterations);
+
+		if(!allSame) {
+			System.out.println("Results differ");
+			System.exit(1);
+		}
+	}
+
+	private static Wrapper[] shortEager(Wrapper[] A, Wrapper[] B) {
+		return ComponentManipulator.greaterThan(
+				ComponentManipulator.multiplyVar(ComponentManipulator.divideVar(A, B), 100), 5, true);
+	}
+
+	private static Wrapper[] shortLazy(Wrapper[] A, Wrapper[] B) {
+		return LazyGrid.withLimit(LazyGrid.Op.GREATER_THAN,
+				LazyGrid.withScalar(LazyGrid.Op.MULTIPLY,
+					LazyGrid.combine(LazyGrid.Op.DIVIDE, LazyGrid.of(A), LazyGrid.of(B)), 100), 5, true).evaluate();
+	}
+
+	private static Wrapper[] longEager(Wrapper[] A, Wrapper[] B, Wrapper[] C, Wrapper[] D) {
+		Wrapper[] sum = ComponentManipulator.addVar(ComponentManipulator.multiplyVar(A, B), C);
+		Wrapper[] diff = ComponentManipulator.subtractVar(sum, D);
+		Wrapper[] scaled = ComponentManipulator.divideVar(ComponentManipulator.addVar(diff, A), 2);
+		return ComponentManipulator.lessThanOrEqual(ComponentManipulator.addVar(scaled, -1), 1000, false);
+	}
+
+	private static Wrapper[] longLazy(Wrapper[] A, Wrapper[] B, Wrapper[] C, Wrapper[] D) {
+		LazyGrid lazyA = LazyGrid.of(A);
+		LazyGrid lazySum = LazyGrid.combine(LazyGrid.Op.ADD,
+				LazyGrid.combine(LazyGrid.Op.MULTIPLY, lazyA, LazyGrid.of(B)), LazyGrid.of(C));
+		LazyGrid lazyDiff = LazyGrid.combine(LazyGrid.Op.SUBTRACT, lazySum, LazyGrid.of(D));
+		LazyGrid lazyScaled = LazyGrid.withScalar(LazyGrid.Op.DIVIDE,
+				LazyGrid.combine(LazyGrid.Op.ADD, lazyDiff, lazyA), 2);
+		return LazyGrid.withLimit(LazyGrid.Op.LESS_THAN_OR_EQUAL,
+				LazyGrid.withScalar(LazyGrid.Op.ADD, lazyScaled, -1), 1000, false).evaluate();
+	}
+
+	private static Wrapper[] createVar(Random rand) {
+		Wrapper[] var = new Wrapper[NUM_REGIONS];
+		for(int i = 0; i < NUM_REGIONS; ++i) {
+			double[][] data = new double[NUM_ROWS / NUM_REGIONS][NUM_COLS];
+			for(int row = 0; row < data.length; ++row) {
+				for(int col = 0; col < data[0].length; ++col) {
+					int kind = rand.nextInt(100);
+					if(kind < 20) {
+						data[row][col] = Double.NaN;
+					} else if(kind < 22) {
+						data[row][col] = 0;
+					} else if(kind < 23) {
+						data[row][col] = rand.nextBoolean() ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+					} else {
+						data[row][col] = rand.nextGaussian() * 1000;
+					}
+				}
+			}
+			var[i] = new DataWrapper();
+			var[i].setData(data);
+		}
+		return var;
+	}
+
+	private static boolean sameBits(Wrapper[] expected, Wrapper[] actual) {
+		for(int i = 0; i < expected.length; ++i) {
+			double[][] e = expected[i].getData();
+			double[][] a = actual[i].getData();
+			for(int row = 0; row < e.length; ++row) {
+				for(int col = 0; col < e[row].length; ++col) {
+					if(Double.doubleToRawLongBits(e[row][col]) != Double.doubleToRawLongBits(a[row][col])) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean report(String name, int steps, boolean same, long eagerTime, long lazyTime, int iterations) {
+		System.out.println(name+": "+(same ? "identical" : "DIFFERENT")
+				+", one grid at a time "+(eagerTime / iterations / 1000)+" us ("+steps+" grids)"
+				+", lazy "+(lazyTime / iterations / 1000)+" us (1 grid)");
+		return same;
+	}
+}
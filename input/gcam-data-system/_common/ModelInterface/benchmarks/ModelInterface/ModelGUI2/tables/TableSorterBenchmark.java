@@ -0,0 +1,123 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.tables;
+
+import java.util.Random;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A simple benchmark for the TableSorter.  Builds a table with 1M cells, which
+ * is similar in shape to a large technology query with a few label columns
+ * followed by years of data, and times sorting it by a single data column, by
+ * a label column, and by a label column then a data column.
+ * Run with: java ModelInterface.ModelGUI2.tables.TableSorterBenchmark [rows]
+ */
+public class TableSorterBenchmark {
+	private static final int NUM_COLS = 10;
+	private static final int NUM_LABEL_COLS = 2;
+
+	/**
+	 * A table with label columns of repeating Strings followed by columns
+	 * of random Doubles, some of which are missing.
+	 */
+	private static class BenchmarkTableModel extends AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		private final Object[][] cells;
+
+		public BenchmarkTableModel(int numRows, long seed) {
+			Random rand = new Random(seed);
+			cells = new Object[numRows][NUM_COLS];
+			for(int row = 0; row < numRows; ++row) {
+				cells[row][0] = "scenario "+rand.nextInt(20);
+				cells[row][1] = "region "+rand.nextInt(200);
+				for(int col = NUM_LABEL_COLS; col < NUM_COLS; ++col) {
+					cells[row][col] = rand.nextInt(50) == 0 ? null : new Double(rand.nextInt(10000) / 10.0);
+				}
+			}
+		}
+		public int getRowCount() {
+			return cells.length;
+		}
+		public int getColumnCount() {
+			return NUM_COLS;
+		}
+		public Class getColumnClass(int col) {
+			return col < NUM_LABEL_COLS ? String.class : Double.class;
+		}
+		public Object getValueAt(int row, int col) {
+			return cells[row][col];
+		}
+	}
+
+	public static void main(String[] args) {
+		int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		BenchmarkTableModel model = new BenchmarkTableModel(numRows, 0);
+		System.out.println("Rows: "+numRows+" Cells: "+(numRows * NUM_COLS));
+		// warm up once so we are not timing class loading and the JIT
+		time("warm up", model, new int[] { 5 }, new int[] { TableSorter.ASCENDING });
+		time("data column", model, new int[] { 5 }, new int[] { TableSorter.ASCENDING });
+		time("label column", model, new int[] { 1 }, new int[] { TableSorter.DESCENDING });
+		time("label then data column", model, new int[] { 0, 7 }, 
+				new int[] { TableSorter.ASCENDING, TableSorter.DESCENDING });
+	}
+
+	private static void time(String name, BenchmarkTableModel model, int[] cols, int[] directions) {
+		TableSorter sorter = new TableSorter(model);
+		for(int i = 0; i < cols.length; ++i) {
+			sorter.setSortingStatus(cols[i], directions[i]);
+		}
+		long start = System.currentTimeMillis();
+		// the sort is done lazily the first time a row is requested
+		sorter.modelIndex(0);
+		long end = System.currentTimeMillis();
+		if(!isSorted(sorter, cols, directions)) {
+			System.out.println(name+": rows are not in order");
+		}
+		System.out.println(name+": "+(end - start)+" ms");
+	}
+
+	private static boolean isSorted(TableSorter sorter, int[] cols, int[] directions) {
+		for(int row = 1; row < sorter.getRowCount(); ++row) {
+			for(int i = 0; i < cols.length; ++i) {
+				Comparable prev = (Comparable)sorter.getValueAt(row - 1, cols[i]);
+				Comparable curr = (Comparable)sorter.getValueAt(row, cols[i]);
+				int comparison = prev == null ? (curr == null ? 0 : -1) : (curr == null ? 1 : prev.compareTo(curr));
+				comparison *= directions[i];
+				if(comparison > 0) {
+					return false;
+				} else if(comparison < 0) {
+					break;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,168 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.util.Random;
+
+/**
+ * Times adding gridded data to a {@link FlatIndex} a {@link DataBlock} at a time, the
+ * way the readers used to, against adding the same data as a {@link GridRaster}.  Each
+ * layout is set up to look like one of the readers: a cell for cell asc or flt file, a
+ * finer NetCDF file which gets aggregated, and a NetCDF file with longitudes from 0 to
+ * 360 which is stored south to north.  The grids built each way are checked to be the
+ * same before the times are printed.
+ * <p>
+ * Usage: RasterIngestBenchmark [working resolution] [repetitions]
+ * </p>
+ */
+public class RasterIngestBenchmark
+{
+  /**
+   * A FlatIndex which keeps hold of the repository it creates so the grids built
+   * each way can be compared.
+   */
+  private static class CheckedIndex extends FlatIndex
+  {
+    DataRepository repository;
+
+    protected DataRepository createRepository(int xSize, int ySize)
+    {
+      repository = super.createRepository(xSize, ySize);
+      return repository;
+    }
+  }
+
+  public static void main(String[] args)
+  {
+    double res = args.length > 0 ? Double.parseDouble(args[0]) : 0.5;
+    int reps = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    run("asc/flt at working resolution, averaged", makeRaster(res, false, false), res, true, reps);
+    run("asc/flt at working resolution, additive", makeRaster(res, false, false), res, false, reps);
+    run("NetCDF at a fifth of working resolution", makeRaster(res/5, false, false), res, false, reps);
+    run("NetCDF 0-360 stored south to north", makeRaster(res, true, true), res, true, reps);
+  }
+
+  private static GridRaster makeRaster(double cellRes, boolean wrap, boolean flip)
+  {
+    //stop half a cell short of the edges so rounding in the steps can not add a
+    //column or row past them
+    double[] colX = GridRaster.axis((wrap ? 0 : -180), (wrap ? 360 : 180)-cellRes/2, cellRes, false);
+    if(wrap)
+    {
+      for(int col = 0; col < colX.length; col++)
+      {
+        if(colX[col] >= 180)
+        {
+          colX[col] -= 360;
+        }
+      }
+    }
+    double[] rowY = flip ? GridRaster.axis(-90, 90-cellRes/2, cellRes, false)
+        : GridRaster.axis((90-cellRes), -90-cellRes/2, -cellRes, false);
+    GridRaster raster = new GridRaster(colX, rowY, cellRes, cellRes, true);
+    Random rand = new Random(42);
+    for(int row = 0; row < raster.getRows(); row++)
+    {
+      for(int col = 0; col < raster.getCols(); col++)
+      {
+        //leave some missing like the ocean would be
+        if(rand.nextDouble() < 0.7)
+        {
+          raster.set(row, col, rand.nextDouble()*100);
+        }
+      }
+    }
+    return raster;
+  }
+
+  private static void run(String name, GridRaster raster, double res, boolean avg, int reps)
+  {
+    long blockTime = Long.MAX_VALUE;
+    long rasterTime = Long.MAX_VALUE;
+    for(int i = 0; i < reps; i++)
+    {
+      CheckedIndex blockIndex = new CheckedIndex();
+      blockIndex.fillWorld(res);
+      long start = System.nanoTime();
+      for(int row = 0; row < raster.getRows(); row++)
+      {
+        for(int col = 0; col < raster.getCols(); col++)
+        {
+          if(raster.hasValue(row, col))
+          {
+            blockIndex.addData(raster.toBlock(row, col, "bench", 2005), avg);
+          }
+        }
+      }
+      blockTime = Math.min(blockTime, System.nanoTime()-start);
+
+      CheckedIndex rasterIndex = new CheckedIndex();
+      rasterIndex.fillWorld(res);
+      start = System.nanoTime();
+      rasterIndex.addRaster("bench", 2005, raster, avg);
+      rasterTime = Math.min(rasterTime, System.nanoTime()-start);
+
+      if(i == 0 && !sameGrid(blockIndex.repository, rasterIndex.repository, res))
+      {
+        System.out.println(name+": GridRaster result differs from adding DataBlocks");
+        System.exit(1);
+      }
+    }
+    System.out.println(name+" ("+raster.getRows()+"x"+raster.getCols()+" cells)");
+    System.out.println("\tDataBlock per cell: "+(blockTime/1000000)+" ms");
+    System.out.println("\tGridRaster:         "+(rasterTime/1000000)+" ms");
+  }
+
+  /**
+   * Checks that every cell of the world has the same value in both repositories,
+   * allowing for the additions being done in a different order.
+   */
+  private static boolean sameGrid(DataRepository expected, DataRepository actual, double res)
+  {
+    int xSize = (int)Math.round(360/res);
+    int ySize = (int)Math.round(180/res);
+    for(int X = 0; X < xSize; X++)
+    {
+      for(int Y = 0; Y < ySize; Y++)
+      {
+        double e = expected.getValue("bench", 2005, X, Y);
+        double a = actual.getValue("bench", 2005, X, Y);
+        if(Double.isNaN(e) != Double.isNaN(a)
+            || Math.abs(e-a) > 1e-9*Math.max(1, Math.abs(e)))
+        {
+          System.out.println("\tcell "+X+","+Y+": "+e+" != "+a);
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,314 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times extracting a full set of country sized regions from a {@link FlatIndex}.  The
+ * countries are made up at the usual 5 minute mask resolution by cutting the land into
+ * uneven pieces so their bounds overlap like real country masks do.  First the weights
+ * are found for every region by walking the bits under each cell, the way inRegion used
+ * to, then with {@link RegionMask#inRegion} a cell at a time and with
+ * {@link RegionMask#coverage}.  Then all of the regions are extracted one at a time and
+ * with a pool of threads.  How much space the packed masks take and how long they take
+ * to go through a {@link RegionMaskCache} is reported first.
+ * <p>
+ * Usage: RegionExtractBenchmark [threads] [working resolution] [variables] [times]
+ * </p>
+ */
+public class RegionExtractBenchmark
+{
+  private static final double MASK_RES = 1.0/12.0;
+
+  public static void main(String[] args)
+  {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    double res = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+    int numVars = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    int numTimes = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    long start = System.nanoTime();
+    List<RegionMask> masks = makeCountries();
+    System.out.println("made "+masks.size()+" country masks in "+((System.nanoTime()-start)/1000000)+" ms");
+    timeCache(masks);
+
+    FlatIndex index = new FlatIndex();
+    index.fillWorld(res);
+    fillLayer(index, DataBuilder.LAND_FRACTION, 0, res, false);
+    for(int v = 0; v < numVars; v++)
+    {
+      for(int t = 0; t < numTimes; t++)
+      {
+        fillLayer(index, "var"+v, 2005+t*5, res, true);
+      }
+    }
+
+    //the weights alone
+    int cols = (int)Math.round(360/res);
+    int rows = (int)Math.round(180/res);
+    double maxDiff = 0;
+    long bitWalkTime = 0;
+    long inRegionTime = 0;
+    long coverageTime = 0;
+    for(int i = 0; i < masks.size(); i++)
+    {
+      RegionMask m = masks.get(i);
+      int minX = (int)Math.max(0, Math.floor((m.x+180)/res));
+      int minY = (int)Math.max(0, Math.floor((m.y+90)/res));
+      int maxX = (int)Math.min(cols, Math.ceil((m.x+m.width+180)/res));
+      int maxY = (int)Math.min(rows, Math.ceil((m.y+m.height+90)/res));
+      double[][] walked = new double[maxY-minY][maxX-minX];
+      double[][] perCell = new double[maxY-minY][maxX-minX];
+      start = System.nanoTime();
+      for(int Y = minY; Y < maxY; Y++)
+      {
+        for(int X = minX; X < maxX; X++)
+        {
+          walked[Y-minY][X-minX] = walkBits(m, (X*res-180), (Y*res-90), res, res);
+        }
+      }
+      bitWalkTime += System.nanoTime()-start;
+      start = System.nanoTime();
+      for(int Y = minY; Y < maxY; Y++)
+      {
+        for(int X = minX; X < maxX; X++)
+        {
+          perCell[Y-minY][X-minX] = m.inRegion((X*res-180), (Y*res-90), res, res);
+        }
+      }
+      inRegionTime += System.nanoTime()-start;
+      start = System.nanoTime();
+      double[][] covered = m.coverage(minX, minY, (maxY-minY), (maxX-minX), res);
+      coverageTime += System.nanoTime()-start;
+      for(int r = 0; r < walked.length; r++)
+      {
+        for(int c = 0; c < walked[r].length; c++)
+        {
+          maxDiff = Math.max(maxDiff, Math.abs(walked[r][c]-perCell[r][c]));
+          maxDiff = Math.max(maxDiff, Math.abs(walked[r][c]-covered[r][c]));
+        }
+      }
+    }
+    System.out.println("region weights for "+masks.size()+" regions at "+res+" resolution");
+    System.out.println("\twalking the bit mask per cell: "+(bitWalkTime/1000000)+" ms");
+    System.out.println("\tinRegion per cell:             "+(inRegionTime/1000000)+" ms");
+    System.out.println("\tcoverage:                      "+(coverageTime/1000000)+" ms");
+    System.out.println("\tlargest difference: "+maxDiff);
+
+    //whole extraction
+    start = System.nanoTime();
+    Map<String, Map> serial = index.extractMasks(masks, 1);
+    long serialTime = System.nanoTime()-start;
+    start = System.nanoTime();
+    Map<String, Map> parallel = index.extractMasks(masks, threads);
+    long parallelTime = System.nanoTime()-start;
+    System.out.println("extracting "+(numVars*numTimes+1)+" layers for "+masks.size()+" regions");
+    System.out.println("\t1 thread:   "+(serialTime/1000000)+" ms");
+    System.out.println("\t"+threads+" threads: "+(parallelTime/1000000)+" ms");
+    System.out.println("\tsame result: "+serial.equals(parallel));
+  }
+
+  /**
+   * Reports how much space the packed masks take and times saving them to and reading
+   * them back from a {@link RegionMaskCache}.
+   */
+  private static void timeCache(List<RegionMask> masks)
+  {
+    long packedBytes = 0;
+    long byteBytes = 0;
+    for(int i = 0; i < masks.size(); i++)
+    {
+      RegionMask m = masks.get(i);
+      packedBytes += m.getMaskWords() == null ? 0 : m.getMaskWords().length*8L;
+      byteBytes += (long)m.getMaskRows()*m.getMaskCols();
+    }
+    System.out.println("mask bits packed: "+(packedBytes/1024)+" KB, a byte each: "+(byteBytes/1024)+" KB");
+
+    File dir = new File(System.getProperty("java.io.tmpdir"), "mask-cache-bench-"+System.nanoTime());
+    RegionMaskCache cache = new RegionMaskCache(dir);
+    long start = System.nanoTime();
+    cache.save("benchmark countries", masks);
+    long saveTime = System.nanoTime()-start;
+    start = System.nanoTime();
+    List<RegionMask> cached = cache.load("benchmark countries");
+    long loadTime = System.nanoTime()-start;
+    boolean same = cached != null && cached.size() == masks.size();
+    for(int i = 0; same && i < masks.size(); i++)
+    {
+      same = cached.get(i).name.equals(masks.get(i).name) && cached.get(i).equals(masks.get(i))
+        && Arrays.equals(cached.get(i).getMaskWords(), masks.get(i).getMaskWords());
+    }
+    System.out.println("mask cache: saved in "+(saveTime/1000000)+" ms, read in "+(loadTime/1000000)+" ms, same masks: "+same);
+    File[] entries = dir.listFiles();
+    for(int i = 0; entries != null && i < entries.length; i++)
+    {
+      entries[i].delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Finds the portion of a cell in a region by checking every bit of the mask under
+   * it, which is how {@link RegionMask#inRegion} used to work.
+   */
+  private static double walkBits(RegionMask m, double X, double Y, double W, double H)
+  {
+    int maskCols = m.getMaskCols();
+    double maskTop = m.y+m.height;
+    int firstCol = Math.max(0, (int)Math.floor((X-m.x)/m.resolution+1e-6));
+    int lastCol = Math.min(maskCols, (int)Math.ceil((X+W-m.x)/m.resolution-1e-6));
+    int firstRow = Math.max(0, (int)Math.floor((maskTop-(Y+H))/m.resolution+1e-6));
+    int lastRow = Math.min(m.getMaskRows(), (int)Math.ceil((maskTop-Y)/m.resolution-1e-6));
+    double toReturn = 0;
+    for(int i = firstRow; i < lastRow; i++)
+    {
+      double bitY = maskTop-(i+1)*m.resolution;
+      for(int k = firstCol; k < lastCol; k++)
+      {
+        if(m.isSet(i, k))
+        {
+          double bitX = m.x+k*m.resolution;
+          double dX = Math.min(bitX+m.resolution, X+W)-Math.max(bitX, X);
+          double dY = Math.min(bitY+m.resolution, Y+H)-Math.max(bitY, Y);
+          if(dX > 0 && dY > 0)
+          {
+            toReturn += (dX*dY)/(W*H);
+          }
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Cuts the world into about 200 pieces with wavy borders and drops the parts which
+   * are meant to be ocean.
+   */
+  static List<RegionMask> makeCountries()
+  {
+    int cols = (int)Math.round(360/MASK_RES);
+    int rows = (int)Math.round(180/MASK_RES);
+    int blocksX = 20;
+    int blocksY = 10;
+    int[] country = new int[cols*rows];
+    int numCountries = blocksX*blocksY;
+    int[] minCol = new int[numCountries];
+    int[] maxCol = new int[numCountries];
+    int[] minRow = new int[numCountries];
+    int[] maxRow = new int[numCountries];
+    Arrays.fill(minCol, Integer.MAX_VALUE);
+    Arrays.fill(minRow, Integer.MAX_VALUE);
+    Arrays.fill(maxCol, -1);
+    Arrays.fill(maxRow, -1);
+    for(int row = 0; row < rows; row++)
+    {
+      double lat = -90+(row+0.5)*MASK_RES;
+      for(int col = 0; col < cols; col++)
+      {
+        double lon = -180+(col+0.5)*MASK_RES;
+        int id = -1;
+        if(isLand(lon, lat))
+        {
+          int bx = (int)Math.floor((lon+180+4*Math.sin(lat*0.2))/(360.0/blocksX));
+          int by = (int)Math.floor((lat+90+4*Math.sin(lon*0.3))/(180.0/blocksY));
+          bx = Math.max(0, Math.min(blocksX-1, bx));
+          by = Math.max(0, Math.min(blocksY-1, by));
+          id = by*blocksX+bx;
+          minCol[id] = Math.min(minCol[id], col);
+          maxCol[id] = Math.max(maxCol[id], col);
+          minRow[id] = Math.min(minRow[id], row);
+          maxRow[id] = Math.max(maxRow[id], row);
+        }
+        country[row*cols+col] = id;
+      }
+    }
+
+    List<RegionMask> masks = new ArrayList<RegionMask>();
+    RegionMask[] byId = new RegionMask[numCountries];
+    for(int id = 0; id < numCountries; id++)
+    {
+      if(maxCol[id] < 0)
+      {
+        continue;
+      }
+      RegionMask m = new RegionMask("country"+id, MASK_RES);
+      m.x = -180+minCol[id]*MASK_RES;
+      m.y = -90+minRow[id]*MASK_RES;
+      m.width = (maxCol[id]-minCol[id]+1)*MASK_RES;
+      m.height = (maxRow[id]-minRow[id]+1)*MASK_RES;
+      m.makeMatrix();
+      byId[id] = m;
+      masks.add(m);
+    }
+    for(int row = 0; row < rows; row++)
+    {
+      for(int col = 0; col < cols; col++)
+      {
+        int id = country[row*cols+col];
+        if(id >= 0)
+        {
+          //mask rows count down from the top
+          byId[id].setBit(maxRow[id]-row, col-minCol[id]);
+        }
+      }
+    }
+    return masks;
+  }
+
+  /**
+   * Whether a point is meant to be on land, about half of the world is.
+   */
+  static boolean isLand(double lon, double lat)
+  {
+    return Math.sin(lon*0.05)*Math.cos(lat*0.07)+0.3*Math.sin(lon*0.4+lat*0.3) < 0.35;
+  }
+
+  private static void fillLayer(FlatIndex index, String varName, double time, double res, boolean random)
+  {
+    double[] colX = GridRaster.axis(-180, 180, res, false);
+    double[] rowY = GridRaster.axis((90-res), -90, -res, true);
+    GridRaster raster = new GridRaster(colX, rowY, res, res, true);
+    Random rand = new Random(varName.hashCode()+(long)time);
+    for(int row = 0; row < raster.getRows(); row++)
+    {
+      for(int col = 0; col < raster.getCols(); col++)
+      {
+        raster.set(row, col, random ? rand.nextDouble()*100 : 1.0);
+      }
+    }
+    index.addRaster(varName, time, raster, true);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares a {@link TileIndex} with a {@link FlatIndex} and a {@link TreeIndex}.  Each
+ * index is filled with the same layers, which apart from the land fraction only have
+ * values over land like most inputs, and then every country from {@link RegionExtractBenchmark} is extracted from it
+ * one after another.  The time to fill and extract and roughly how much of the heap the
+ * filled index takes are reported for each, and the regions from the tiled and flat
+ * indicies are checked to hash the same.  The flat and tiled indicies are run more than
+ * once since the first pass mostly times the JIT.  The tree is slow to fill at fine
+ * resolutions so it is only run once and can be left out.
+ * <p>
+ * Usage: TileIndexBenchmark [working resolution] [variables] [times] [passes] [include tree]
+ * </p>
+ */
+public class TileIndexBenchmark
+{
+  public static void main(String[] args)
+  {
+    double res = args.length > 0 ? Double.parseDouble(args[0]) : 0.5;
+    int numVars = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int numTimes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int passes = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+    boolean withTree = args.length > 4 ? Boolean.parseBoolean(args[4]) : true;
+
+    List<RegionMask> masks = RegionExtractBenchmark.makeCountries();
+    System.out.println("extracting "+masks.size()+" regions with "+(numVars*numTimes+1)
+        +" layers at "+res+" resolution");
+
+    int[] flat = null;
+    int[] tiled = null;
+    for(int i = 0; i < passes; i++)
+    {
+      flat = run("FlatIndex", new FlatIndex(), masks, res, numVars, numTimes);
+      tiled = run("TileIndex", new TileIndex(), masks, res, numVars, numTimes);
+    }
+    if(withTree)
+    {
+      run("TreeIndex", new TreeIndex(-180, 180, -90, 90), masks, res, numVars, numTimes);
+    }
+    System.out.println("tiled regions same as flat: "+Arrays.equals(flat, tiled));
+  }
+
+  /**
+   * Fills and extracts from one index, reporting how long each took.
+   * @return The hash of each extracted region in the same order as the masks, so
+   *         that the regions themselves do not have to be kept.
+   */
+  private static int[] run(String name, DataIndex index, List<RegionMask> masks, double res, int numVars, int numTimes)
+  {
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    index.fillWorld(res);
+    fillLayer(index, DataBuilder.LAND_FRACTION, 0, res, false);
+    for(int v = 0; v < numVars; v++)
+    {
+      for(int t = 0; t < numTimes; t++)
+      {
+        fillLayer(index, "var"+v, 2005+t*5, res, true);
+      }
+    }
+    long fillTime = System.nanoTime()-start;
+    long heapUsed = usedHeap()-heapBefore;
+
+    int[] regions = new int[masks.size()];
+    start = System.nanoTime();
+    for(int i = 0; i < masks.size(); i++)
+    {
+      Map region = index.extractMask(masks.get(i));
+      regions[i] = region == null ? 0 : region.hashCode();
+    }
+    long extractTime = System.nanoTime()-start;
+
+    System.out.println(name);
+    System.out.println("\tfill:    "+(fillTime/1000000)+" ms, about "+(heapUsed/(1024*1024))+" MB of heap");
+    System.out.println("\textract: "+(extractTime/1000000)+" ms");
+    return regions;
+  }
+
+  /**
+   * Adds a layer of random values over the land, or of 1 over the whole world.
+   */
+  private static void fillLayer(DataIndex index, String varName, double time, double res, boolean landOnly)
+  {
+    double[] colX = GridRaster.axis(-180, 180, res, false);
+    double[] rowY = GridRaster.axis((90-res), -90, -res, true);
+    GridRaster raster = new GridRaster(colX, rowY, res, res, true);
+    Random rand = new Random(varName.hashCode()+(long)time);
+    for(int row = 0; row < raster.getRows(); row++)
+    {
+      for(int col = 0; col < raster.getCols(); col++)
+      {
+        if(!landOnly)
+        {
+          raster.set(row, col, 1.0);
+        } else if(RegionExtractBenchmark.isLand(raster.getX(col)+res/2, raster.getY(row)+res/2))
+        {
+          raster.set(row, col, rand.nextDouble()*100);
+        }
+      }
+    }
+    index.addRaster(varName, time, raster, true);
+  }
+
+  private static long usedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 3; i++)
+    {
+      System.gc();
+    }
+    return runtime.totalMemory()-runtime.freeMemory();
+  }
+}
@@ -54,228 +54,182 @@ import org.apache.commons.math.*;
 public final class ComponentManipulator
 {
   static Logger log = Logger.getLogger("DataManipulation");
+  /**
+   * The fewest regions an operation must cover before the regions are spread
+   * across threads.
+   */
+  private static final int MIN_PARALLEL_REGIONS = 8;
+  /**
+   * The fewest grid rows a distance mask must cover before the rows are
+   * spread across threads.
+   */
+  private static final int MIN_PARALLEL_ROWS = 16;
+  
+  /**
+   * A reduction over regions where the result for each region is an array of totals.
+   * The totals from neighbouring regions are added together pairwise so that the
+   * regions can be summed in parallel and the rounding does not build up as it does
+   * with a single running total.
+   */
+  private static abstract class RegionTotals implements RangeExecutor.RangeReduction<double[]>
+  {
+    public double[] combine(double[] left, double[] right)
+    {
+      for(int i = 0; i < left.length; i++)
+      {
+        left[i] += right[i];
+      }
+      return left;
+    }
+  }
+  /**
+   * Sums the totals for each region using a tree of adds.
+   * @param numRegions The number of regions to sum over.
+   * @param numTotals The number of totals kept for each region.
+   * @param totals Calculates the totals for a region.
+   * @return The combined totals, all zero if there are no regions.
+   */
+  private static double[] sumRegions(int numRegions, int numTotals, RegionTotals totals)
+  {
+    double[] sum = RangeExecutor.reduce(numRegions, MIN_PARALLEL_REGIONS, totals);
+    return sum == null ? new double[numTotals] : sum;
+  }
   
 //*****************************************************************************
 //*****************Component Manipulators**************************************
 //*****************************************************************************
   
-  public static Wrapper[] addVar(Wrapper[] R1, Wrapper[] R2)
+  public static Wrapper[] addVar(final Wrapper[] R1, final Wrapper[] R2)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdM1, holdM2, holdMR;
-    Wrapper[] toReturn = new Wrapper[R1.length];
+    final Wrapper[] toReturn = new Wrapper[R1.length];
     
-    for(int i = 0; i < R1.length; i++)
+    RangeExecutor.execute(R1.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdM1 = R1[i].data;
-      holdM2 = R2[i].data;
-      holdMR = new double[holdM1.length][holdM1[0].length];
-      for(int iY = 0; iY < holdM1.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdM1[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if(Double.isNaN(holdM1[iY][iX]))
-          {
-            if(Double.isNaN(holdM2[iY][iX]))
-            {
-              holdMR[iY][iX] = Double.NaN;
-            } else
-            {
-              holdMR[iY][iX] = holdM2[iY][iX];
-            }
-          } else if(Double.isNaN(holdM2[iY][iX]))
-          {
-            holdMR[iY][iX] = holdM1[iY][iX];
-          } else
-          {
-            holdMR[iY][iX] = holdM1[iY][iX] + holdM2[iY][iX];
-          }
+          toReturn[i] = R1[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R1[i].data);
+          GridKernels.add(R1[i].data, R2[i].data, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R1[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
-  public static Wrapper[] addVar(Wrapper[] R, double change)
+  public static Wrapper[] addVar(final Wrapper[] R, final double change)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdMR, holdMS;
-    Wrapper[] toReturn = new Wrapper[R.length];
+    final Wrapper[] toReturn = new Wrapper[R.length];
     
-    for(int i = 0; i < R.length; i++)
+    RangeExecutor.execute(R.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdMS = R[i].data;
-      holdMR = new double[holdMS.length][holdMS[0].length];
-      for(int iY = 0; iY < holdMR.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdMR[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if(Double.isNaN(holdMS[iY][iX]))
-          {
-            holdMR[iY][iX] = Double.NaN;
-          } else
-          {
-            holdMR[iY][iX] = holdMS[iY][iX] + change;
-          }
+          toReturn[i] = R[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R[i].data);
+          GridKernels.add(R[i].data, change, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
-  public static Wrapper[] subtractVar(Wrapper[] R1, Wrapper[] R2)
+  public static Wrapper[] subtractVar(final Wrapper[] R1, final Wrapper[] R2)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdM1, holdM2, holdMR;
-    Wrapper[] toReturn = new Wrapper[R1.length];
+    final Wrapper[] toReturn = new Wrapper[R1.length];
     
-    for(int i = 0; i < R1.length; i++)
+    RangeExecutor.execute(R1.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdM1 = R1[i].data;
-      holdM2 = R2[i].data;
-      holdMR = new double[holdM1.length][holdM1[0].length];
-      for(int iY = 0; iY < holdM1.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdM1[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if(Double.isNaN(holdM1[iY][iX]))
-          {
-            holdMR[iY][iX] = Double.NaN;
-          } else if(Double.isNaN(holdM2[iY][iX]))
-          {
-            holdMR[iY][iX] = holdM1[iY][iX];
-          } else
-          {
-            holdMR[iY][iX] = holdM1[iY][iX] - holdM2[iY][iX];
-          }
+          toReturn[i] = R1[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R1[i].data);
+          GridKernels.subtract(R1[i].data, R2[i].data, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R1[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
-  public static Wrapper[] multiplyVar(Wrapper[] R1, Wrapper[] R2)
+  public static Wrapper[] multiplyVar(final Wrapper[] R1, final Wrapper[] R2)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdM1, holdM2, holdMR;
-    Wrapper[] toReturn = new Wrapper[R1.length];
+    final Wrapper[] toReturn = new Wrapper[R1.length];
     
-    for(int i = 0; i < R1.length; i++)
+    RangeExecutor.execute(R1.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdM1 = R1[i].data;
-      holdM2 = R2[i].data;
-      holdMR = new double[holdM1.length][holdM1[0].length];
-      for(int iY = 0; iY < holdM1.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdM1[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if((Double.isNaN(holdM1[iY][iX]))||(Double.isNaN(holdM2[iY][iX])))
-          {
-            holdMR[iY][iX] = Double.NaN;
-          } else
-          {
-            holdMR[iY][iX] = (holdM1[iY][iX] * holdM2[iY][iX]);
-          }
+          toReturn[i] = R1[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R1[i].data);
+          GridKernels.multiply(R1[i].data, R2[i].data, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R1[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
-  public static Wrapper[] multiplyVar(Wrapper[] R, double factor)
+  public static Wrapper[] multiplyVar(final Wrapper[] R, final double factor)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdMR, holdMS;
-    Wrapper[] toReturn = new Wrapper[R.length];
+    final Wrapper[] toReturn = new Wrapper[R.length];
     
-    for(int i = 0; i < R.length; i++)
+    RangeExecutor.execute(R.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdMS = R[i].data;
-      holdMR = new double[holdMS.length][holdMS[0].length];
-      for(int iY = 0; iY < holdMR.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdMR[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if(Double.isNaN(holdMS[iY][iX]))
-          {
-            holdMR[iY][iX] = Double.NaN;
-          } else
-          {
-            holdMR[iY][iX] = (holdMS[iY][iX] * factor);
-          }
+          toReturn[i] = R[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R[i].data);
+          GridKernels.multiply(R[i].data, factor, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
-  public static Wrapper[] divideVar(Wrapper[] R1, Wrapper[] R2)
+  public static Wrapper[] divideVar(final Wrapper[] R1, final Wrapper[] R2)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdM1, holdM2, holdMR;
-    Wrapper[] toReturn = new Wrapper[R1.length];
+    final Wrapper[] toReturn = new Wrapper[R1.length];
     
-    for(int i = 0; i < R1.length; i++)
+    RangeExecutor.execute(R1.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdM1 = R1[i].data;
-      holdM2 = R2[i].data;
-      holdMR = new double[holdM1.length][holdM1[0].length];
-      for(int iY = 0; iY < holdM1.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdM1[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if((Double.isNaN(holdM1[iY][iX]))||(Double.isNaN(holdM2[iY][iX])))
-          {
-            holdMR[iY][iX] = Double.NaN;
-          } else
-          {
-            holdMR[iY][iX] = (holdM1[iY][iX] / holdM2[iY][iX]);
-          }
+          toReturn[i] = R1[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R1[i].data);
+          GridKernels.divide(R1[i].data, R2[i].data, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R1[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
-  public static Wrapper[] divideVar(Wrapper[] R, double factor)
+  public static Wrapper[] divideVar(final Wrapper[] R, final double factor)
   {
     log.log(Level.FINER, "begin function");
-    double[][] holdMR, holdMS;
-    Wrapper[] toReturn = new Wrapper[R.length];
+    final Wrapper[] toReturn = new Wrapper[R.length];
     
-    for(int i = 0; i < R.length; i++)
+    RangeExecutor.execute(R.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask()
     {
-      holdMS = R[i].data;
-      holdMR = new double[holdMS.length][holdMS[0].length];
-      for(int iY = 0; iY < holdMR.length; iY++)
+      public void run(int start, int end)
       {
-        for(int iX = 0; iX < holdMR[0].length; iX++)
+        for(int i = start; i < end; i++)
         {
-          if(Double.isNaN(holdMS[iY][iX]))
-          {
-            holdMR[iY][iX] = Double.NaN;
-          } else
-          {
-            holdMR[iY][iX] = (holdMS[iY][iX] / factor);
-          }
+          toReturn[i] = R[i].makeCopy();
+          toReturn[i].data = GridKernels.allocateLike(R[i].data);
+          GridKernels.divide(R[i].data, factor, toReturn[i].data);
         }
       }
-      
-      toReturn[i] = R[i].makeCopy();
-      toReturn[i].data = holdMR;
-    }
+    });
     return toReturn;
   }
   public static Wrapper[] greaterThan(Wrapper[] R, double limit, boolean snap)
@@ -1057,65 +1011,64 @@ public final class ComponentManipulator
     toReturn[0].data = holdMR;
     return toReturn;
   }
-  public static Wrapper[] sumValues(Wrapper[] R)
+  public static Wrapper[] sumValues(final Wrapper[] R)
   {
     log.log(Level.FINER, "begin function");
     double[][] holdMR = new double[1][1];
-    double[][] holdMS;
     DataWrapper[] toReturn = new DataWrapper[1];
     
-    holdMR[0][0] = 0;
-    
-    for(int i = 0; i < R.length; i++)
+    holdMR[0][0] = sumRegions(R.length, 1, new RegionTotals()
     {
-      holdMS = R[i].data;
-      for(int iY = 0; iY < holdMS.length; iY++)
-        for(int iX = 0; iX < holdMS[0].length; iX++)
-        {
-          if(!Double.isNaN(holdMS[iY][iX]))
+      public double[] reduce(int i)
+      {
+        double[][] holdMS = R[i].data;
+        double[] total = new double[1];
+        for(int iY = 0; iY < holdMS.length; iY++)
+          for(int iX = 0; iX < holdMS[0].length; iX++)
           {
-            holdMR[0][0] += holdMS[iY][iX];
+            if(!Double.isNaN(holdMS[iY][iX]))
+            {
+              total[0] += holdMS[iY][iX];
+            }
           }
-        }
-    }
+        return total;
+      }
+    })[0];
     
     toReturn[0] = new DataWrapper();
     toReturn[0].data = holdMR;
     return toReturn;
   }
-  public static Wrapper[] sumValues(Wrapper[] R, Wrapper[] weight, Wrapper[] landFract, double x, double y, double h)
+  public static Wrapper[] sumValues(final Wrapper[] R, final Wrapper[] weight, final Wrapper[] landFract, double x, double y, double h)
   {
     log.log(Level.FINER, "begin function");
     double[][] holdMR = new double[1][1];
-    double[][] holdMS;
-    double[][] holdMW;
-    double[][] holdMLF;
     //int wX, wY; //the double indexs for weight
     DataWrapper[] toReturn = new DataWrapper[1];
     
-    holdMR[0][0] = 0;
-    
-    for(int i = 0; i < R.length; i++)
+    holdMR[0][0] = sumRegions(R.length, 1, new RegionTotals()
     {
-      holdMS = R[i].data;
-      holdMW = weight[i].data;
-      holdMLF = landFract[i].data;
-      double sumLandFract = 0.0;
-      for(int iY = 0; iY < holdMS.length; iY++)
+      public double[] reduce(int i)
       {
-        //wY = (int)(((iY*R[i].getRes())+((y+h)-(R[i].getY()+R[i].getH())))/R[i].getRes());
-        for(int iX = 0; iX < holdMS[0].length; iX++)
+        double[][] holdMS = R[i].data;
+        double[][] holdMW = weight[i].data;
+        double[][] holdMLF = landFract[i].data;
+        double[] total = new double[1];
+        for(int iY = 0; iY < holdMS.length; iY++)
         {
-          if(!Double.isNaN(holdMS[iY][iX]))
+          //wY = (int)(((iY*R[i].getRes())+((y+h)-(R[i].getY()+R[i].getH())))/R[i].getRes());
+          for(int iX = 0; iX < holdMS[0].length; iX++)
           {
-            //wX = (int)((((iX*R[i].getRes())+R[i].getX())-x)/R[i].getRes());
-            holdMR[0][0] += (holdMS[iY][iX]*holdMW[iY][iX]*holdMLF[iY][iX]);
-	    sumLandFract += holdMLF[iY][iX];
+            if(!Double.isNaN(holdMS[iY][iX]))
+            {
+              //wX = (int)((((iX*R[i].getRes())+R[i].getX())-x)/R[i].getRes());
+              total[0] += (holdMS[iY][iX]*holdMW[iY][iX]*holdMLF[iY][iX]);
+            }
           }
         }
+        return total;
       }
-      //holdMR[0][0] /= sumLandFract;
-    }
+    })[0];
     
     toReturn[0] = new DataWrapper();
     toReturn[0].data = holdMR;
@@ -1336,67 +1289,70 @@ public final class ComponentManipulator
     toReturn[0].data = holdMR;
     return toReturn;
   }
-  public static Wrapper[] avgOverRegion(Wrapper[] R)
+  public static Wrapper[] avgOverRegion(final Wrapper[] R)
   {
     log.log(Level.FINER, "begin function");
     double[][] holdMR = new double[1][1];
-    double[][] holdMS;
     DataWrapper[] toReturn = new DataWrapper[1];
-    int count = 0;
     
-    holdMR[0][0] = 0;
-    
-    for(int i = 0; i < R.length; i++)
+    //totals are the sum followed by the count
+    double[] totals = sumRegions(R.length, 2, new RegionTotals()
     {
-      holdMS = R[i].data;
-      for(int iY = 0; iY < holdMS.length; iY++)
-        for(int iX = 0; iX < holdMS[0].length; iX++)
-        {
-          if(!Double.isNaN(holdMS[iY][iX]))
+      public double[] reduce(int i)
+      {
+        double[][] holdMS = R[i].data;
+        double[] total = new double[2];
+        for(int iY = 0; iY < holdMS.length; iY++)
+          for(int iX = 0; iX < holdMS[0].length; iX++)
           {
-            holdMR[0][0] += holdMS[iY][iX];
-            count++;
+            if(!Double.isNaN(holdMS[iY][iX]))
+            {
+              total[0] += holdMS[iY][iX];
+              total[1]++;
+            }
           }
-        }
-    }
-    holdMR[0][0] = (holdMR[0][0]/count);
+        return total;
+      }
+    });
+    holdMR[0][0] = (totals[0]/totals[1]);
     
     toReturn[0] = new DataWrapper();
     toReturn[0].data = holdMR;
     return toReturn;
   }
-  public static Wrapper[] avgOverRegion(Wrapper[] R, Wrapper[] weight, double x, double y, double h)
+  public static Wrapper[] avgOverRegion(final Wrapper[] R, final Wrapper[] weight, double x, double y, double h)
   {
     log.log(Level.FINER, "begin function");
     double[][] holdMR = new double[1][1];
-    double[][] holdMS;
-    double[][] holdMW;
     DataWrapper[] toReturn = new DataWrapper[1];
-    int count = 0;
     //int wY, wX;
     //used to use double[][] for weight which is why that absurd math is below
     
-    holdMR[0][0] = 0;
-    
-    for(int i = 0; i < R.length; i++)
+    //totals are the weighted sum followed by the count
+    double[] totals = sumRegions(R.length, 2, new RegionTotals()
     {
-      holdMS = R[i].data;
-      holdMW = weight[i].data;
-      for(int iY = 0; iY < holdMS.length; iY++)
+      public double[] reduce(int i)
       {
-        //wY = (int)(((iY*R[i].getRes())+((y+h)-(R[i].getY()+R[i].getH())))/R[i].getRes());
-        for(int iX = 0; iX < holdMS[0].length; iX++)
+        double[][] holdMS = R[i].data;
+        double[][] holdMW = weight[i].data;
+        double[] total = new double[2];
+        for(int iY = 0; iY < holdMS.length; iY++)
         {
-          if(!Double.isNaN(holdMS[iY][iX]))
+          //wY = (int)(((iY*R[i].getRes())+((y+h)-(R[i].getY()+R[i].getH())))/R[i].getRes());
+          for(int iX = 0; iX < holdMS[0].length; iX++)
           {
-            //wX = (int)((((iX*R[i].getRes())+R[i].getRes())-x)/R[i].getRes());
-            holdMR[0][0] += (holdMS[iY][iX]*holdMW[iY][iX]);
-            count++;
+            if(!Double.isNaN(holdMS[iY][iX]))
+            {
+              //wX = (int)((((iX*R[i].getRes())+R[i].getRes())-x)/R[i].getRes());
+              total[0] += (holdMS[iY][iX]*holdMW[iY][iX]);
+              total[1]++;
+            }
           }
         }
+        return total;
       }
-    }
-    holdMR[0][0] = (holdMR[0][0]/count);
+    });
+    holdMR[0][0] = (totals[0]/totals[1]);
     
     toReturn[0] = new DataWrapper();
     toReturn[0].data = holdMR;
@@ -1613,7 +1569,7 @@ public final class ComponentManipulator
     }
     return toReturn;
   }
-  public static Wrapper[] freqAnalysis(Wrapper[] R, Wrapper[] weight, Wrapper[] landFract, int bnum, boolean avg)
+  public static Wrapper[] freqAnalysis(final Wrapper[] R, final Wrapper[] weight, final Wrapper[] landFract, final int bnum, final boolean avg)
   {
     log.log(Level.FINER, "begin function");
     /*
@@ -1626,21 +1582,10 @@ public final class ComponentManipulator
     final double PI = 3.1415926535;
     
     double max = largestValue(R)[0].data[0][0];
-    double min = smallestValue(R)[0].data[0][0];
-    double factor = ((max*1.0001)-min)/bnum; //makes sure max value goes in last bucket
-    int store; //the index this value will be added to
-    double area; //the area of the current cell we are in in km^2
-    double[][] holdMS;
-    double[][] holdW;
-    double[][] holdLF;
+    final double min = smallestValue(R)[0].data[0][0];
+    final double factor = ((max*1.0001)-min)/bnum; //makes sure max value goes in last bucket
     DataWrapper[] toReturn = new DataWrapper[bnum];
     
-    double circumAtLat; //the circumference of the earth at a specific latitude
-    double totalWidth; //width in km of the region
-    double totalHeight; //height in km of the region
-    double blockWidth; //eidth in km of a block of data
-    double blockHeight; //height in km of a block of data
-    
     for(int i = 0; i < bnum; i++)
     {
       toReturn[i] = new DataWrapper();
@@ -1651,41 +1596,58 @@ public final class ComponentManipulator
     }
     toReturn[bnum-1].data[0][2] = max;
     
-    for(int i = 0; i < R.length; i++)
+    double[] buckets = sumRegions(R.length, bnum, new RegionTotals()
     {
-      totalHeight = (POLAR_CIRCUM/(360/R[i].getH()));
-      blockHeight = (totalHeight/R[i].data.length);
-      
-      holdMS = R[i].data;
-      holdW = weight[i].data;
-      holdLF = landFract[i].data;
-      for(int iY = 0; iY < holdMS.length; iY++)
-        for(int iX = 0; iX < holdMS[0].length; iX++)
-        {
-          if(!Double.isNaN(holdMS[iY][iX]))
+      public double[] reduce(int i)
+      {
+        double circumAtLat; //the circumference of the earth at a specific latitude
+        double totalWidth; //width in km of the region
+        double totalHeight; //height in km of the region
+        double blockWidth; //eidth in km of a block of data
+        double blockHeight; //height in km of a block of data
+        int store; //the index this value will be added to
+        double area; //the area of the current cell we are in in km^2
+        double[] bucketTotals = new double[bnum];
+        
+        totalHeight = (POLAR_CIRCUM/(360/R[i].getH()));
+        blockHeight = (totalHeight/R[i].data.length);
+        
+        double[][] holdMS = R[i].data;
+        double[][] holdW = weight[i].data;
+        double[][] holdLF = landFract[i].data;
+        for(int iY = 0; iY < holdMS.length; iY++)
+          for(int iX = 0; iX < holdMS[0].length; iX++)
           {
-            circumAtLat = Math.abs(EQUAT_CIRCUM*Math.cos((R[i].getY()+(R[i].getRes()/2)+((holdMS.length-1-iY)*R[i].getRes()))*(PI/180)));
-            //circumAtLat = Math.abs(EQUAT_CIRCUM*Math.cos((R[i].getY()+((iY)*R[i].getRes()))*(PI/180)));
-            totalWidth = (circumAtLat/(360/(R[i].getW())));
-            blockWidth = (totalWidth/R[i].data[iY].length);
-            area = blockWidth*blockHeight;
-            
-            store = (int)Math.floor((holdMS[iY][iX]-min)/factor);
-            
-            //toReturn[store].data[0][1] += (area);
-        // If not averaged, then simply adds vars, otherwise returns land area (would need to adjust data var by landfract if want cell area)
-	    if(!avg) {
-		    toReturn[store].data[0][1] += holdMS[iY][iX];
-	    } else {
-		    toReturn[store].data[0][1] += (area*holdMS[iY][iX]*holdW[iY][iX]*holdLF[iY][iX]);
-	    }
+            if(!Double.isNaN(holdMS[iY][iX]))
+            {
+              circumAtLat = Math.abs(EQUAT_CIRCUM*Math.cos((R[i].getY()+(R[i].getRes()/2)+((holdMS.length-1-iY)*R[i].getRes()))*(PI/180)));
+              //circumAtLat = Math.abs(EQUAT_CIRCUM*Math.cos((R[i].getY()+((iY)*R[i].getRes()))*(PI/180)));
+              totalWidth = (circumAtLat/(360/(R[i].getW())));
+              blockWidth = (totalWidth/R[i].data[iY].length);
+              area = blockWidth*blockHeight;
+              
+              store = (int)Math.floor((holdMS[iY][iX]-min)/factor);
+              
+              //bucketTotals[store] += (area);
+              // If not averaged, then simply adds vars, otherwise returns land area (would need to adjust data var by landfract if want cell area)
+              if(!avg) {
+                bucketTotals[store] += holdMS[iY][iX];
+              } else {
+                bucketTotals[store] += (area*holdMS[iY][iX]*holdW[iY][iX]*holdLF[iY][iX]);
+              }
+            }
           }
-        }
+        return bucketTotals;
+      }
+    });
+    for(int i = 0; i < bnum; i++)
+    {
+      toReturn[i].data[0][1] = buckets[i];
     }
     
     return toReturn;
   }
-  public static Wrapper[] freqAnalysis(Wrapper[] R, Wrapper[] split, Wrapper[] weight, Wrapper[] landFract, int bnum, boolean avg)
+  public static Wrapper[] freqAnalysis(final Wrapper[] R, final Wrapper[] split, final Wrapper[] weight, final Wrapper[] landFract, final int bnum, final boolean avg)
   {
     log.log(Level.FINER, "begin function");
     /*
@@ -1698,21 +1660,10 @@ public final class ComponentManipulator
     final double PI = 3.1415926535;
     
     double max = largestValue(split)[0].data[0][0];
-    double min = smallestValue(split)[0].data[0][0];
-    double factor = ((max*1.0001)-min)/bnum; //makes sure max value goes in last bucket
-    int store; //the index this value will be added to
-    double area; //the area of the current cell we are in in km^2
-    double[][] holdMS, holdMM;
-    double[][] holdW;
-    double[][] holdLF;
+    final double min = smallestValue(split)[0].data[0][0];
+    final double factor = ((max*1.0001)-min)/bnum; //makes sure max value goes in last bucket
     DataWrapper[] toReturn = new DataWrapper[bnum];
     
-    double circumAtLat; //the circumference of the earth at a specific latitude
-    double totalWidth; //width in km of the region
-    double totalHeight; //height in km of the region
-    double blockWidth; //eidth in km of a block of data
-    double blockHeight; //height in km of a block of data
-    
     for(int i = 0; i < bnum; i++)
     {
       toReturn[i] = new DataWrapper();
@@ -1723,41 +1674,58 @@ public final class ComponentManipulator
     }
     toReturn[bnum-1].data[0][2] = max;
     
-    for(int i = 0; i < R.length; i++)
+    double[] buckets = sumRegions(R.length, bnum, new RegionTotals()
     {
-      totalHeight = (POLAR_CIRCUM/(360/R[i].getH()));
-      blockHeight = (totalHeight/R[i].data.length);
-      
-      holdMS = R[i].data;
-      holdMM = split[i].data;
-      holdW = weight[i].data;
-      holdLF = landFract[i].data;
-      for(int iY = 0; iY < holdMS.length; iY++)
-        for(int iX = 0; iX < holdMS[0].length; iX++)
-        {
-		if(holdMS[iY][iX] != holdMM[iY][iX] &&
-				!(Double.isNaN(holdMS[iY][iX]) && Double.isNaN(holdMM[iY][iX]))) {
-			System.out.println("Not same: "+i+" -- "+iX+", "+iY);
-			System.out.println("Data: "+holdMS[iY][iX]+" split: "+holdMM[iY][iX]);
-			System.out.println("Data NaN: "+Double.isNaN(holdMS[iY][iX])+" split NaN: "+Double.isNaN(holdMM[iY][iX]));
-		}
-          if(!Double.isNaN(holdMS[iY][iX]) /*&& !Double.isNaN(holdMM[iY][iX])*/)
-          {
-            circumAtLat = Math.abs(EQUAT_CIRCUM*Math.cos((R[i].getY()+(R[i].getRes()/2)+((holdMS.length-1-iY)*R[i].getRes()))*(PI/180)));
-            totalWidth = (circumAtLat/(360/(R[i].getW())));
-            blockWidth = (totalWidth/R[i].data[iY].length);
-            area = blockWidth*blockHeight;
-            
-            store = (int)Math.floor((holdMM[iY][iX]-min)/factor);
-            
-       // If not averaged, then simply adds vars, otherwise returns land area (would need to adjust data var by landfract if want cell area)
-	    if(!avg) {
-		    toReturn[store].data[0][1] += holdMS[iY][iX];
-	    } else {
-		    toReturn[store].data[0][1] += (area*holdMS[iY][iX]*holdW[iY][iX]*holdLF[iY][iX]);
-	    }
+      public double[] reduce(int i)
+      {
+        double circumAtLat; //the circumference of the earth at a specific latitude
+        double totalWidth; //width in km of the region
+        double totalHeight; //height in km of the region
+        double blockWidth; //eidth in km of a block of data
+        double blockHeight; //height in km of a block of data
+        int store; //the index this value will be added to
+        double area; //the area of the current cell we are in in km^2
+        double[] bucketTotals = new double[bnum];
+        
+        totalHeight = (POLAR_CIRCUM/(360/R[i].getH()));
+        blockHeight = (totalHeight/R[i].data.length);
+        
+        double[][] holdMS = R[i].data;
+        double[][] holdMM = split[i].data;
+        double[][] holdW = weight[i].data;
+        double[][] holdLF = landFract[i].data;
+        for(int iY = 0; iY < holdMS.length; iY++)
+          for(int iX = 0; iX < holdMS[0].length; iX++)
+          {
+            if(holdMS[iY][iX] != holdMM[iY][iX] &&
+                !(Double.isNaN(holdMS[iY][iX]) && Double.isNaN(holdMM[iY][iX]))) {
+              System.out.println("Not same: "+i+" -- "+iX+", "+iY);
+              System.out.println("Data: "+holdMS[iY][iX]+" split: "+holdMM[iY][iX]);
+              System.out.println("Data NaN: "+Double.isNaN(holdMS[iY][iX])+" split NaN: "+Double.isNaN(holdMM[iY][iX]));
+            }
+            if(!Double.isNaN(holdMS[iY][iX]) /*&& !Double.isNaN(holdMM[iY][iX])*/)
+            {
+              circumAtLat = Math.abs(EQUAT_CIRCUM*Math.cos((R[i].getY()+(R[i].getRes()/2)+((holdMS.length-1-iY)*R[i].getRes()))*(PI/180)));
+              totalWidth = (circumAtLat/(360/(R[i].getW())));
+              blockWidth = (totalWidth/R[i].data[iY].length);
+              area = blockWidth*blockHeight;
+              
+              store = (int)Math.floor((holdMM[iY][iX]-min)/factor);
+              
+              // If not averaged, then simply adds vars, otherwise returns land area (would need to adjust data var by landfract if want cell area)
+              if(!avg) {
+                bucketTotals[store] += holdMS[iY][iX];
+              } else {
+                bucketTotals[store] += (area*holdMS[iY][iX]*holdW[iY][iX]*holdLF[iY][iX]);
+              }
+            }
           }
-        }
+        return bucketTotals;
+      }
+    });
+    for(int i = 0; i < bnum; i++)
+    {
+      toReturn[i].data[0][1] = buckets[i];
     }
     
     return toReturn;
@@ -1883,10 +1851,10 @@ public final class ComponentManipulator
     }
   }
   /**
-   * Calculate minimum distance from distanceFrom to targetData.  This algorithm take a brute force approach
-   * to find this value by calculating the distance between each non-NaN value (and where values in distanceFrom
-   * are greater than the minDataValue threshold) and keeping track of the min.  This command utilizes the
-   * DistanceStruct to help organize and keep track of results as well as calculute distance.
+   * Calculate minimum distance from distanceFrom to targetData.  The non-NaN values in distanceFrom (where
+   * values are greater than the minDataValue threshold) are put into a DistanceIndex so that each cell only
+   * needs to be compared to nearby cells, the results are the same as comparing every pair of cells.  This
+   * command utilizes the DistanceStruct to help organize and keep track of results as well as calculute distance.
    * @param distanceFrom Var to calc distance from such as land.
    * @param distanceFromWeight The weights for distanceFrom since for ties in distance we want
    * 			       to use the region ID of the region with the greater weight.
@@ -1938,48 +1906,18 @@ public final class ComponentManipulator
 		  }
 	  }
 
-	  // process each cell for which we are calculating distance from
-	  for(int rIndex = 0; rIndex < distanceFrom.length; ++rIndex) {
-		  // all latitude and longitudes are in radians
-		  double currLat = distanceFrom[rIndex].getY() * (Math.PI / 180);
-		  double currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
-		  double res = distanceFrom[rIndex].getRes() * (Math.PI / 180);
-		  double[][] currDataArr = distanceFrom[rIndex].getData();
-		  double[][] currWeightArr = distanceFromWeight[rIndex].getData();
-		  double currRegionID = distanceFrom[rIndex].getInternalRegionID(regionLevel);
-
-		  // go through the data arr backwards since distanceFrom.getY is of the lower corner
-		  // and row 0 is the upper corner
-		  for(int row = currDataArr.length-1; row >= 0; --row) {
-			  currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
-			  for(int col = 0; col < currDataArr[0].length; ++col) {
-				  // only consider cells which are non-NaN and the value is above the
-				  // min value threshold
-				  if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
-					  double currWeight = currWeightArr[row][col];
-					  // brute force search through all valid distance to cells
-					  for(Iterator<DistanceStruct> it = distancesToFind.iterator(); it.hasNext(); ) {
-						  DistanceStruct currStruct = it.next();
-						  double distance = currStruct.getDistanceTo(currLat, currLon);
-						  // set a new min distance if the curr distance is less the current min
-						  // or there is a tie in distance but the current region's cell weight
-						  // is greater than the curr region's cell weight
-						  if(distance < currStruct.getCurrMinDistance() || (distance == currStruct.getCurrMinDistance() && currWeight > currStruct.getCurrRegionWeight())) {
-							  currStruct.setDistance(distance, currRegionID, currWeight);
-						  }
-					  }
-				  }
-				  currLon += res;
-			  }
-			  currLat += res;
-		  }
-	  }
+	  // index the cells we are calculating distance from so that each cell only
+	  // needs to be compared to the ones which are near it
+	  DistanceIndex distanceFromIndex = new DistanceIndex(distanceFrom, distanceFromWeight, regionLevel, minDataValue);
+	  log.log(Level.FINE, "Finding min distance from "+distanceFromIndex.size()+" cells to "+distancesToFind.size()+" cells");
+	  distanceFromIndex.findNearest(distancesToFind);
   }
   /**
    * Create a mask out of distanceFrom and extend it to include grid cells within the given distance threshold.
-   * This algorithm does a brute force search from valid values in distanceFrom(non-NaN and values greater than
-   * minDataValue) to ANY cell in targetData.  Note that this command is very time intensive since there are no
-   * constraints in targetData even though chances are most cells would not be contained in the mask.
+   * Valid values in distanceFrom (non-NaN and values greater than minDataValue) are put into a LatitudeBandIndex
+   * so that for each cell in targetData only the cells in distanceFrom which could be within maxDistance need
+   * to be checked, the results are the same as checking every pair of cells.  The rows of targetData are split
+   * up across all of the available processors.
    * @param distanceFrom The var to start the a distance search from.
    * @param targetData The var to calc distances to, should the distance be less than or equal to maxDistance
    * 		       distanceOut will be set with a value of 1.
@@ -1988,75 +1926,48 @@ public final class ComponentManipulator
    * @param maxDistance A max distance threshold in km.
    * @param minDataValue A minimum value threshold of data in distanceFrom to consider.
    */
-  public static void maskDistanceFrom(Wrapper[] distanceFrom, Wrapper[] targetData, Wrapper[] distanceOut, double maxDistance, double minDataValue) {
-	  // use a linked list since all we need is sequential access and will be preforming random
-	  // deletes which should suits a linked list better than an array based list
-	  List<DistanceStruct> distancesToFind = new LinkedList<DistanceStruct>();
+  public static void maskDistanceFrom(Wrapper[] distanceFrom, Wrapper[] targetData, final Wrapper[] distanceOut, final double maxDistance, double minDataValue) {
+	  // keep track of every row in targetData so that they can be split up
+	  final List<int[]> rowsToFind = new ArrayList<int[]>();
+	  final double[][] targetLats = new double[targetData.length][];
+	  final double[][] targetLons = new double[targetData.length][];
 
-	  // initialize the output var and set up the list of grid cells which need to get calculated
+	  // initialize the output var with all NaNs and ALL cells will be
+	  // considered for inclusion into the mask
 	  for(int rIndex = 0; rIndex < targetData.length; ++rIndex) {
-		  // all latitude and longitudes are in radians
-		  double currLat = targetData[rIndex].getY() * (Math.PI / 180);
-		  double currLon = targetData[rIndex].getX() * (Math.PI / 180);
-		  double res = targetData[rIndex].getRes() * (Math.PI / 180);
 		  double[][] currDataArr = targetData[rIndex].getData();
 		  double[][] currDistanceArr = new double[currDataArr.length][currDataArr[0].length];
-		  distanceOut[rIndex].setData(currDistanceArr);
-
-		  // go through the data arr backwards since targetData.getY is of the lower corner
-		  // and row 0 is the upper corner
-		  for(int row = currDataArr.length-1; row >= 0; --row) {
-			  currLon = targetData[rIndex].getX() * (Math.PI / 180);
-			  for(int col = 0; col < currDataArr[0].length; ++col) {
-				  // initialize the mask with all NaNs and ALL cells will be
-				  // considered for inclusion into the mask
-				  currDistanceArr[row][col] = Double.NaN;
-				  // note that we are not concerned about region masks so just pass null
-				  // the DistanceStruct will know to ignore it
-				  distancesToFind.add(new DistanceStruct(currLat, currLon, distanceOut[rIndex],
-							  null, row, col));
-				  currLon += res;
-			  }
-			  currLat += res;
+		  for(int row = 0; row < currDistanceArr.length; ++row) {
+			  Arrays.fill(currDistanceArr[row], Double.NaN);
+			  rowsToFind.add(new int[] { rIndex, row });
 		  }
+		  distanceOut[rIndex].setData(currDistanceArr);
+		  // all latitude and longitudes are in radians
+		  targetLats[rIndex] = LatitudeBandIndex.accumulateLats(targetData[rIndex], currDataArr.length);
+		  targetLons[rIndex] = LatitudeBandIndex.accumulateLons(targetData[rIndex], currDataArr[0].length);
 	  }
 
-	  // process each cell for which we are calculating distance from
-	  for(int rIndex = 0; rIndex < distanceFrom.length; ++rIndex) {
-		  // all latitude and longitudes are in radians
-		  double currLat = distanceFrom[rIndex].getY() * (Math.PI / 180);
-		  double currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
-		  double res = distanceFrom[rIndex].getRes() * (Math.PI / 180);
-		  double[][] currDataArr = distanceFrom[rIndex].getData();
+	  // index the cells we are calculating distance from so that only those which
+	  // are near a target cell need to be checked
+	  final LatitudeBandIndex distanceFromIndex = new LatitudeBandIndex(distanceFrom, minDataValue);
 
-		  // go through the data arr backwards since distanceFrom.getY is of the lower corner
-		  // and row 0 is the upper corner
-		  for(int row = currDataArr.length-1; row >= 0; --row) {
-			  currLon = distanceFrom[rIndex].getX() * (Math.PI / 180);
-			  for(int col = 0; col < currDataArr[0].length; ++col) {
-				  // only consider cells which are non-NaN and the value is above the
-				  // min value threshold
-				  if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
-					  // brute force search through all valid distance to cells
-					  for(Iterator<DistanceStruct> it = distancesToFind.iterator(); it.hasNext(); ) {
-						  DistanceStruct currStruct = it.next();
-						  double distance = currStruct.getDistanceTo(currLat, currLon);
-						  // if the distance is less than or equal to the maxDistance
-						  // threshold then set the mask to a value of 1
-						  if(distance <= maxDistance) {
-							  // we don't need to worry about region IDs so just pass
-							  // anything
-							  currStruct.setDistance(1, 0, 0);
-							  // since this value has already been set we won't need to
-							  // consider it again so remove it from the cells to search
-							  it.remove();
-						  }
+	  RangeExecutor.execute(rowsToFind.size(), MIN_PARALLEL_ROWS, new RangeExecutor.RangeTask() {
+		  public void run(int start, int end) {
+			  for(int i = start; i < end; ++i) {
+				  int rIndex = rowsToFind.get(i)[0];
+				  int row = rowsToFind.get(i)[1];
+				  double currLat = targetLats[rIndex][row];
+				  double[] currLons = targetLons[rIndex];
+				  double[] currDistanceRow = distanceOut[rIndex].getData()[row];
+				  for(int col = 0; col < currLons.length; ++col) {
+					  // if the distance is less than or equal to the maxDistance
+					  // threshold then set the mask to a value of 1
+					  if(distanceFromIndex.anyWithin(currLat, currLons[col], maxDistance)) {
+						  currDistanceRow[col] = 1;
 					  }
 				  }
-				  currLon += res;
 			  }
-			  currLat += res;
 		  }
-	  }
+	  });
   }
 }
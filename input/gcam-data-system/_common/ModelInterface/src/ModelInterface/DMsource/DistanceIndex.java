@@ -0,0 +1,393 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.List;
+
+/**
+ * A spatial index over the valid grid cells of a var which is used to find the closest
+ * of those cells to any other grid cell without having to check every one of them.  The
+ * cells are stored in a 3D k-d tree by their position on the unit sphere, since straight
+ * line distance between those points always increases with great circle distance this
+ * lets the search skip any part of the tree which is too far away to beat the current
+ * closest cell.  The distance that is kept is always calculated by
+ * DistanceStruct.getDistanceTo so that results are exactly the same as checking every cell.
+ * Ties are also resolved in the same way as a brute force search through the cells in grid
+ * order would: the closest cell wins, for equal distances the cell with the greater weight
+ * wins, and for equal weights the cell which comes first in grid order wins.
+ */
+public class DistanceIndex {
+	/**
+	 * Constant of the radius of the earth in kilometers, same as DistanceStruct.
+	 */
+	private static final double EARTH_RADIUS = 6371;
+
+	/**
+	 * Additional angle in radians to search beyond the current closest distance.  The
+	 * spherical law of cosines looses precision for very small distances so this makes
+	 * sure we do not skip cells which would calculate to the same distance.
+	 */
+	private static final double ANGLE_TOLERANCE = 1e-6;
+
+	/**
+	 * Ranges of the tree with this many cells or less are just searched linearly.
+	 */
+	private static final int LEAF_SIZE = 8;
+
+	/**
+	 * Target lists smaller than this are not worth splitting up across threads.
+	 */
+	private static final int MIN_PARALLEL_TARGETS = 1000;
+
+	/**
+	 * Latitude and longitude of each cell in radians.
+	 */
+	private final double[] lat;
+	private final double[] lon;
+
+	/**
+	 * Position of each cell on the unit sphere indexed by axis.
+	 */
+	private final double[][] coords;
+
+	/**
+	 * The weight and region ID of each cell.
+	 */
+	private final double[] weight;
+	private final double[] regionID;
+
+	/**
+	 * The position of each cell when going through the data in grid order, used to
+	 * break ties the same way as a brute force search.
+	 */
+	private final int[] gridOrder;
+
+	/**
+	 * The axis the tree was split along for each range which was split at that index.
+	 */
+	private final byte[] splitAxis;
+
+	/**
+	 * Build an index over the cells of data which are not NaN and at least minDataValue.
+	 * @param data The data to index, such as land.
+	 * @param weights The weights for data which are used to break ties in distance.
+	 * @param regionLevel The region level to use when getting a region ID.
+	 * @param minDataValue The minimum data value to consider.
+	 */
+	public DistanceIndex(Wrapper[] data, Wrapper[] weights, int regionLevel, double minDataValue) {
+		// count the valid cells first so that we can allocate just what we need
+		int numCells = 0;
+		for(int rIndex = 0; rIndex < data.length; ++rIndex) {
+			double[][] currDataArr = data[rIndex].getData();
+			for(int row = 0; row < currDataArr.length; ++row) {
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
+						++numCells;
+					}
+				}
+			}
+		}
+		lat = new double[numCells];
+		lon = new double[numCells];
+		weight = new double[numCells];
+		regionID = new double[numCells];
+		gridOrder = new int[numCells];
+		int cellIndex = 0;
+		for(int rIndex = 0; rIndex < data.length; ++rIndex) {
+			// all latitude and longitudes are in radians
+			double currLat = data[rIndex].getY() * (Math.PI / 180);
+			double currLon = data[rIndex].getX() * (Math.PI / 180);
+			double res = data[rIndex].getRes() * (Math.PI / 180);
+			double[][] currDataArr = data[rIndex].getData();
+			double[][] currWeightArr = weights[rIndex].getData();
+			double currRegionID = data[rIndex].getInternalRegionID(regionLevel);
+
+			// go through the data arr backwards since data.getY is of the lower corner
+			// and row 0 is the upper corner, coordinates are accumulated the same way
+			// as when building DistanceStructs so that distances are exactly the same
+			for(int row = currDataArr.length-1; row >= 0; --row) {
+				currLon = data[rIndex].getX() * (Math.PI / 180);
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
+						lat[cellIndex] = currLat;
+						lon[cellIndex] = currLon;
+						weight[cellIndex] = currWeightArr[row][col];
+						regionID[cellIndex] = currRegionID;
+						gridOrder[cellIndex] = cellIndex;
+						++cellIndex;
+					}
+					currLon += res;
+				}
+				currLat += res;
+			}
+		}
+
+		coords = new double[3][numCells];
+		for(int i = 0; i < numCells; ++i) {
+			coords[0][i] = Math.cos(lat[i]) * Math.cos(lon[i]);
+			coords[1][i] = Math.cos(lat[i]) * Math.sin(lon[i]);
+			coords[2][i] = Math.sin(lat[i]);
+		}
+		splitAxis = new byte[numCells];
+		build(0, numCells);
+	}
+
+	/**
+	 * Get the number of cells in the index.
+	 * @return The number of valid cells which were indexed.
+	 */
+	public int size() {
+		return lat.length;
+	}
+
+	/**
+	 * Recursively split the range of cells at the median along the axis with the
+	 * greatest spread.
+	 * @param lo The first cell in the range.
+	 * @param hi One past the last cell in the range.
+	 */
+	private void build(int lo, int hi) {
+		if(hi - lo <= LEAF_SIZE) {
+			return;
+		}
+		int axis = 0;
+		double maxSpread = -1;
+		for(int currAxis = 0; currAxis < 3; ++currAxis) {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			double[] currCoords = coords[currAxis];
+			for(int i = lo; i < hi; ++i) {
+				min = Math.min(min, currCoords[i]);
+				max = Math.max(max, currCoords[i]);
+			}
+			if(max - min > maxSpread) {
+				maxSpread = max - min;
+				axis = currAxis;
+			}
+		}
+		int mid = (lo + hi) >>> 1;
+		select(coords[axis], lo, hi - 1, mid);
+		splitAxis[mid] = (byte)axis;
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	/**
+	 * Partially sort the cells from left to right so that the cell at k is in its
+	 * sorted position along the given axis, all cells before it are less than or equal
+	 * and all cells after it are greater than or equal.
+	 */
+	private void select(double[] axisCoords, int left, int right, int k) {
+		while(right > left) {
+			double pivot = axisCoords[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while(i <= j) {
+				while(axisCoords[i] < pivot) {
+					++i;
+				}
+				while(axisCoords[j] > pivot) {
+					--j;
+				}
+				if(i <= j) {
+					swap(i, j);
+					++i;
+					--j;
+				}
+			}
+			if(k <= j) {
+				right = j;
+			} else if(k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		swap(lat, i, j);
+		swap(lon, i, j);
+		swap(weight, i, j);
+		swap(regionID, i, j);
+		swap(coords[0], i, j);
+		swap(coords[1], i, j);
+		swap(coords[2], i, j);
+		int temp = gridOrder[i];
+		gridOrder[i] = gridOrder[j];
+		gridOrder[j] = temp;
+	}
+
+	private static void swap(double[] arr, int i, int j) {
+		double temp = arr[i];
+		arr[i] = arr[j];
+		arr[j] = temp;
+	}
+
+	/**
+	 * Find the closest indexed cell to each of the given DistanceStructs and set the
+	 * distance, region ID, and weight into them.  DistanceStructs for which no cell could
+	 * be found, which only happens if nothing was indexed, are left untouched.  The
+	 * search is split up across all of the available processors.
+	 * @param targets The grid cells to calculate the min distance for.
+	 */
+	public void findNearest(final List<DistanceStruct> targets) {
+		RangeExecutor.execute(targets.size(), MIN_PARALLEL_TARGETS, new RangeExecutor.RangeTask() {
+			public void run(int start, int end) {
+				findNearest(targets, start, end);
+			}
+		});
+	}
+
+	/**
+	 * Find the closest cells for a range of the targets on the current thread.
+	 */
+	private void findNearest(List<DistanceStruct> targets, int start, int end) {
+		Query query = new Query();
+		for(int i = start; i < end; ++i) {
+			query.find(targets.get(i));
+		}
+	}
+
+	/**
+	 * The state of a search for a single DistanceStruct.  Each thread uses its own
+	 * so that the index itself is never modified during a search.
+	 */
+	private class Query {
+		private DistanceStruct target;
+		private final double[] targetCoords = new double[3];
+		private double minDistance;
+		private double searchRadiusSq;
+		/**
+		 * All of the cells found so far which are at exactly minDistance.
+		 */
+		private int[] ties = new int[4];
+		private int numTies;
+
+		public void find(DistanceStruct target) {
+			this.target = target;
+			double targetLat = target.getLatRadians();
+			double targetLon = target.getLonRadians();
+			targetCoords[0] = Math.cos(targetLat) * Math.cos(targetLon);
+			targetCoords[1] = Math.cos(targetLat) * Math.sin(targetLon);
+			targetCoords[2] = Math.sin(targetLat);
+			minDistance = Double.MAX_VALUE;
+			searchRadiusSq = Double.POSITIVE_INFINITY;
+			numTies = 0;
+			search(0, lat.length);
+			if(numTies == 0) {
+				return;
+			}
+
+			// order the ties as they would have been found in grid order and
+			// keep the first with the greatest weight
+			for(int i = 1; i < numTies; ++i) {
+				int curr = ties[i];
+				int j = i - 1;
+				while(j >= 0 && gridOrder[ties[j]] > gridOrder[curr]) {
+					ties[j + 1] = ties[j];
+					--j;
+				}
+				ties[j + 1] = curr;
+			}
+			int closest = ties[0];
+			for(int i = 1; i < numTies; ++i) {
+				if(weight[ties[i]] > weight[closest]) {
+					closest = ties[i];
+				}
+			}
+			target.setDistance(minDistance, regionID[closest], weight[closest]);
+		}
+
+		private void search(int lo, int hi) {
+			if(hi - lo <= LEAF_SIZE) {
+				for(int i = lo; i < hi; ++i) {
+					check(i);
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			int axis = splitAxis[mid];
+			double diff = targetCoords[axis] - coords[axis][mid];
+			check(mid);
+			// search the side of the split the target is on first so that we
+			// are likely to be able to skip the other side
+			if(diff < 0) {
+				search(lo, mid);
+				if(diff * diff <= searchRadiusSq) {
+					search(mid + 1, hi);
+				}
+			} else {
+				search(mid + 1, hi);
+				if(diff * diff <= searchRadiusSq) {
+					search(lo, mid);
+				}
+			}
+		}
+
+		private void check(int cell) {
+			// the straight line distance is much cheaper to calculate so use it to
+			// skip cells which are definitely too far away
+			double dx = targetCoords[0] - coords[0][cell];
+			double dy = targetCoords[1] - coords[1][cell];
+			double dz = targetCoords[2] - coords[2][cell];
+			if(dx * dx + dy * dy + dz * dz > searchRadiusSq) {
+				return;
+			}
+			double distance = target.getDistanceTo(lat[cell], lon[cell]);
+			// note a NaN distance fails both checks and is ignored just as it
+			// would have been by a brute force search
+			if(distance < minDistance) {
+				minDistance = distance;
+				numTies = 0;
+				addTie(cell);
+				double searchAngle = minDistance / EARTH_RADIUS + ANGLE_TOLERANCE;
+				if(searchAngle >= Math.PI) {
+					searchRadiusSq = Double.POSITIVE_INFINITY;
+				} else {
+					// convert the angle to the straight line distance through the sphere
+					double chord = 2 * Math.sin(searchAngle / 2) + ANGLE_TOLERANCE;
+					searchRadiusSq = chord * chord;
+				}
+			} else if(distance == minDistance) {
+				addTie(cell);
+			}
+		}
+
+		private void addTie(int cell) {
+			if(numTies == ties.length) {
+				int[] newTies = new int[ties.length * 2];
+				System.arraycopy(ties, 0, newTies, 0, numTies);
+				ties = newTies;
+			}
+			ties[numTies++] = cell;
+		}
+	}
+}
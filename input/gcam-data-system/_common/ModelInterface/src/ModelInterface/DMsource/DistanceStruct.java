@@ -95,6 +95,20 @@ public class DistanceStruct {
 		this.xIndex = xIndex;
 		currRegionWeight = 0;
 	}
+	/**
+	 * Returns the latitude of this grid cell.
+	 * @return Latitude in radians.
+	 */
+	public double getLatRadians() {
+		return latRadians;
+	}
+	/**
+	 * Returns the longitude of this grid cell.
+	 * @return Longitude in radians.
+	 */
+	public double getLonRadians() {
+		return lonRadians;
+	}
 	/**
 	 * Returns the current value set for the minimum distance.
 	 * @return Current value from the data matrix
@@ -132,6 +146,19 @@ public class DistanceStruct {
 	 * @return The distance to the given point.
 	 */
 	public double getDistanceTo(double latRadiansTo, double lonRadiansTo) {
+		return getDistance(latRadians, lonRadians, latRadiansTo, lonRadiansTo);
+	}
+	/**
+	 * Utility method to compute the distance in kilometers between two points without
+	 * having to create a DistanceStruct.  Gives exactly the same result as
+	 * getDistanceTo on a DistanceStruct at latRadians, lonRadians.
+	 * @param latRadians Latitude in radians of the first point.
+	 * @param lonRadians Longitude in radians of the first point.
+	 * @param latRadiansTo Latitude in radians of the point to calculate distance to.
+	 * @param lonRadiansTo Longitude in radians of the point to calculate distance to.
+	 * @return The distance between the points.
+	 */
+	public static double getDistance(double latRadians, double lonRadians, double latRadiansTo, double lonRadiansTo) {
 		// constant of the radius of the earth in kilometers
 		final double earthRadius = 6371;
 		// spherical law of cosines
@@ -38,8 +38,13 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -66,75 +71,157 @@ import ModelInterface.ModelGUI2.ScenarioListItem;
  * @author Pralit Patel
  */
 public class EmissionsDownscaler {
+	static Logger log = Logger.getLogger("DataManipulation");
+
+	/**
+	 * The base year used when the command does not give one.
+	 */
+	private static final int DEFAULT_BASE_YEAR = 2005;
+
+	/**
+	 * We define a max allowed convergence year if the user reads in one greater
+	 * than this we will assume no convergence in emissions and the base year
+	 * pattern will be used.
+	 */
+	private static final int MAX_CONV_YEAR = 5000;
+
+	/**
+	 * The number of queries run for each scenario: population, GDP, and emissions.
+	 */
+	private static final int NUM_QUERIES = 3;
+
+	/**
+	 * The fewest regions or countries worth splitting between threads, each one
+	 * means summing a variable over the whole region so this is small.
+	 */
+	private static final int MIN_PARALLEL_REGIONS = 2;
+
 	/**
 	 * Start point to do downscaling gathers all the data and checks for consisteny,
-	 * then starts the calculations.
+	 * then starts the calculations.  Each scenario given in the command is downscaled
+	 * in turn while the queries for the scenarios after it are still running, all
+	 * through the same database connection.
 	 * @param command The xml command that tells us where to get our data.
 	 * @param driver The ManipulationDriver that is running this command. 
 	 */
 	public static boolean doDownscaling(Element command, ManipulationDriver driver) {
-		// log class to use for all logging output
-		final Logger log = Logger.getLogger("DataManipulation"); 
 		Element currInfo;
-		// TODO: get base year
-		final int BASE_YEAR = 2005;
-		// we define a max allowed convergence year if the user reads in one greater
-		// than this we will assume no convergence in emissions and the base year
-		// pattern will be used
-		final int MAX_CONV_YEAR = 5000;
+		currInfo = command.getChild("base-year");
+		final int BASE_YEAR = currInfo == null ? DEFAULT_BASE_YEAR : Integer.valueOf(currInfo.getAttributeValue("value"));
 		currInfo = command.getChild("convergent-year");
 		final int CONV_YEAR = Integer.valueOf(currInfo.getAttributeValue("value"));
 		if(CONV_YEAR > MAX_CONV_YEAR) {
 			log.warning("Convergence year "+CONV_YEAR+" is greater than the max: "
 					+MAX_CONV_YEAR+" we will assume no emissions convergence.");
 		}
-		final List<Region> minicamRegions = ((superRegion)driver.regionList.get("World-MiniCAM")).data;
+		currInfo = command.getChild("model-regions");
+		final String modelRegionsName = currInfo == null ? "World-MiniCAM" : currInfo.getAttributeValue("name");
+		final List<Region> minicamRegions = ((superRegion)driver.regionList.get(modelRegionsName)).data;
 		currInfo = command.getChild("show-query-table");
 		final boolean showQueryTable = currInfo == null;
+		final List<Element> scenarios = (List<Element>)command.getChildren("scenario");
 
 		// Initialize and get data from the xml database that has the model's
-		// output
-		BaseTableModel populationTable = null;
-		BaseTableModel gdpTable = null;
-		BaseTableModel emissTable = null;
+		// output, the queries for every scenario are started here and
+		// collected as each scenario is downscaled
+		final ExecutorService queryPool = Executors.newFixedThreadPool(NUM_QUERIES);
+		final List<List<Future<BaseTableModel>>> scenarioTables = new ArrayList<List<Future<BaseTableModel>>>(scenarios.size());
 		try {
-			// set up all additional conf values
-			currInfo = command.getChild("xmldb-location");
-			final String dbLocation = currInfo.getAttributeValue("value");
-			currInfo = command.getChild("scenario");
-			final String scnName = currInfo.getAttributeValue("name");
-			final String scnDate = currInfo.getAttributeValue("date");
-			final Object[] scenarioList = new Object[1];
-			scenarioList[0] = new ScenarioListItem(null, scnName, scnDate);
-			// hard coded as all regions
-			final Object[] regionList = new Object[minicamRegions.size()];
-			for(int i = 0; i < minicamRegions.size(); ++i) {
-				regionList[i] = minicamRegions.get(i).name.equals("China/CPA") ?
-					"China" : minicamRegions.get(i).name;
-			}
-
-			XMLDB.openDatabase(dbLocation, null);
-			populationTable = getModelData(command.getChild("populationQuery"), 
-					scenarioList, regionList);
-			gdpTable = getModelData(command.getChild("gdpQuery"), 
-					scenarioList, regionList);
-			emissTable = getModelData(command.getChild("emissionsQuery"),
-					scenarioList, regionList);
-			if(showQueryTable) {
-				javax.swing.JDialog jd = new javax.swing.JDialog();
-				javax.swing.JTable tbl = new javax.swing.JTable(emissTable);
-				javax.swing.JScrollPane sp = new javax.swing.JScrollPane(tbl);
-				jd.setContentPane(sp);
-				jd.pack();
-				jd.setVisible(true);
-			}
-		} catch(Exception e) {
-			log.severe("Error getting data from database: "+e);
-			e.printStackTrace();
-			return false;
+			try {
+				// set up all additional conf values
+				currInfo = command.getChild("xmldb-location");
+				final String dbLocation = currInfo.getAttributeValue("value");
+				// all of the model regions
+				final Object[] regionList = new Object[minicamRegions.size()];
+				for(int i = 0; i < minicamRegions.size(); ++i) {
+					regionList[i] = minicamRegions.get(i).name.equals("China/CPA") ?
+						"China" : minicamRegions.get(i).name;
+				}
+				final org.w3c.dom.Element[] queries = new org.w3c.dom.Element[NUM_QUERIES];
+				queries[0] = getQuery(command.getChild("populationQuery"));
+				queries[1] = getQuery(command.getChild("gdpQuery"));
+				queries[2] = getQuery(command.getChild("emissionsQuery"));
+
+				XMLDB.openDatabase(dbLocation, null);
+				for(Iterator<Element> it = scenarios.iterator(); it.hasNext(); ) {
+					currInfo = it.next();
+					final Object[] scenarioList = new Object[1];
+					scenarioList[0] = new ScenarioListItem(null, currInfo.getAttributeValue("name"),
+							currInfo.getAttributeValue("date"));
+					final List<Future<BaseTableModel>> tables = new ArrayList<Future<BaseTableModel>>(NUM_QUERIES);
+					for(int i = 0; i < NUM_QUERIES; ++i) {
+						tables.add(queryPool.submit(getModelData(new QueryGenerator(queries[i]), 
+										scenarioList, regionList)));
+					}
+					scenarioTables.add(tables);
+				}
+			} catch(Exception e) {
+				log.severe("Error getting data from database: "+e);
+				e.printStackTrace();
+				return false;
+			}
+
+			for(int scn = 0; scn < scenarios.size(); ++scn) {
+				final String scnName = scenarios.get(scn).getAttributeValue("name");
+				final BaseTableModel[] tables = new BaseTableModel[NUM_QUERIES];
+				try {
+					for(int i = 0; i < NUM_QUERIES; ++i) {
+						tables[i] = scenarioTables.get(scn).get(i).get();
+					}
+				} catch(ExecutionException e) {
+					log.severe("Error getting data from database: "+e.getCause());
+					e.getCause().printStackTrace();
+					return false;
+				} catch(InterruptedException e) {
+					log.severe("Interrupted while getting data from database");
+					Thread.currentThread().interrupt();
+					return false;
+				}
+				if(scn == scenarios.size()-1) {
+					// all model data must have be retrieved by this point
+					XMLDB.closeDatabase();
+				}
+				if(showQueryTable) {
+					javax.swing.JDialog jd = new javax.swing.JDialog();
+					javax.swing.JTable tbl = new javax.swing.JTable(tables[2]);
+					javax.swing.JScrollPane sp = new javax.swing.JScrollPane(tbl);
+					jd.setContentPane(sp);
+					jd.pack();
+					jd.setVisible(true);
+				}
+				// only need to tell the results apart when there is more than one scenario
+				final String scnSuffix = scenarios.size() == 1 ? "" : "_"+scnName;
+				log.fine("Downscaling scenario "+scnName);
+				if(!downscaleScenario(command, driver, BASE_YEAR, CONV_YEAR, minicamRegions, 
+							tables[0], tables[1], tables[2], scnSuffix)) {
+					return false;
+				}
+			}
+			return true;
 		} finally {
+			queryPool.shutdownNow();
 			XMLDB.closeDatabase();
 		}
+	}
+
+	/**
+	 * Downscales the model results for one scenario to countries and creates the
+	 * gridded output variable.
+	 * @param command The xml command that tells us where to get our data.
+	 * @param driver The ManipulationDriver that is running this command. 
+	 * @param BASE_YEAR The year the read in data is for.
+	 * @param CONV_YEAR The year by which country values converge.
+	 * @param minicamRegions The model regions.
+	 * @param populationTable The model population by region.
+	 * @param gdpTable The model GDP per capita by region.
+	 * @param emissTable The model emissions by region.
+	 * @param scnSuffix Added to the names of the outputs to tell scenarios apart.
+	 * @return True if the downscaling was successful.
+	 */
+	private static boolean downscaleScenario(Element command, final ManipulationDriver driver, final int BASE_YEAR,
+			final int CONV_YEAR, final List<Region> minicamRegions, final BaseTableModel populationTable,
+			final BaseTableModel gdpTable, final BaseTableModel emissTable, final String scnSuffix) {
+		Element currInfo;
 		final int popBaseYearIndex = populationTable.findColumn(String.valueOf(BASE_YEAR));
 		if(popBaseYearIndex == -1) {
 			log.severe("Could not find base year "+BASE_YEAR+" in the table column names");
@@ -268,20 +355,32 @@ public class EmissionsDownscaler {
 			log.severe("Could not find base year column in tables.");
 			return false;
 		}
-		for(int j = 0; j < populationTable.getRowCount(); ++j) {
-			final String currMinicamRegionName = checkRegion((String)populationTable.getValueAt(j, popRegionIndex));
-			Region currRegion = null;
-			for(Iterator<Region> it = minicamRegions.iterator(); it.hasNext(); ) {
-				Region tempRegion = it.next();
-				if(tempRegion.name.equals(currMinicamRegionName)) {
-					currRegion = tempRegion;
-					break;
+		// summing the base year maps over each region is by far the most work so
+		// those sums are spread over all of the processors
+		final double[] GDP_r_BY_sum = new double[populationTable.getRowCount()];
+		final double[] E_r_BY_sum = new double[populationTable.getRowCount()];
+		RangeExecutor.execute(populationTable.getRowCount(), MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask() {
+			public void run(int start, int end) {
+				for(int j = start; j < end; ++j) {
+					final String currMinicamRegionName = checkRegion((String)populationTable.getValueAt(j, popRegionIndex));
+					Region currRegion = null;
+					for(Iterator<Region> it = minicamRegions.iterator(); it.hasNext(); ) {
+						Region tempRegion = it.next();
+						if(tempRegion.name.equals(currMinicamRegionName)) {
+							currRegion = tempRegion;
+							break;
+						}
+					}
+					assert(currRegion != null);
+					GDP_r_BY_sum[j] = getVariableSumValues(gdpVarName, baseTimeStr, currRegion);
+					E_r_BY_sum[j] = getVariableSumValues(emissVarName, baseTimeStr, currRegion);
 				}
 			}
-			assert(currRegion != null);
+		});
+		for(int j = 0; j < populationTable.getRowCount(); ++j) {
+			final String currMinicamRegionName = checkRegion((String)populationTable.getValueAt(j, popRegionIndex));
 			final double US90_TO_US95 = 0.001305215;
-			double GDPpc_BY_temp = getVariableSumValues(gdpVarName, baseTimeStr,
-					currRegion);
+			double GDPpc_BY_temp = GDP_r_BY_sum[j];
 			GDPpc_BY_temp /= US90_TO_US95;
 			GDPpc_BY_temp /= (Double)populationTable.getValueAt(j, popBaseYearIndex);
 			GDPpc_r_BY.put(currMinicamRegionName, GDPpc_BY_temp);
@@ -293,8 +392,7 @@ public class EmissionsDownscaler {
 			GDPpc_Diff_r_BY.put(currMinicamRegionName, gdp_diff_BY);
 
 			// convert from data read to MTC what model uses
-			double E_BY_temp = getVariableSumValues(emissVarName, baseTimeStr,
-					currRegion);
+			double E_BY_temp = E_r_BY_sum[j];
 			E_BY_temp *= emissConvFactor;
 			E_r_BY.put(currMinicamRegionName, E_BY_temp);
 			tempMap = new HashMap<String, Double>();
@@ -405,23 +503,32 @@ public class EmissionsDownscaler {
 			return false;
 		}
 		*/
-		final Set<String> countryNames = POPc.get(BASE_YEAR).keySet();
+		final List<String> countryNames = new ArrayList<String>(POPc.get(BASE_YEAR).keySet());
 		final Map<String, Double> GDPpc_BY = new HashMap<String, Double>(countryNames.size());
 		final Map<String, Double> GDPpc_grc = new HashMap<String, Double>(countryNames.size());
 		final Map<String, Double> E_c_BY = new HashMap<String, Double>(countryNames.size());
 		final Map<String, Double> EI_c_BY = new HashMap<String, Double>(countryNames.size());
 		final Map<String, Double> EI_grc = new HashMap<String, Double>(countryNames.size());
-		for(Iterator<String> it = countryNames.iterator(); it.hasNext(); ) {
-			final String currCountry = it.next();
+		final double[] GDP_c_BY_sum = new double[countryNames.size()];
+		final double[] E_c_BY_sum = new double[countryNames.size()];
+		RangeExecutor.execute(countryNames.size(), MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask() {
+			public void run(int start, int end) {
+				for(int c = start; c < end; ++c) {
+					final Region currRegion = (Region)driver.regionList.get(countryNames.get(c));
+					GDP_c_BY_sum[c] = getVariableSumValues(gdpVarName, baseTimeStr, currRegion);
+					E_c_BY_sum[c] = getVariableSumValues(emissVarName, baseTimeStr, currRegion);
+				}
+			}
+		});
+		for(int c = 0; c < countryNames.size(); ++c) {
+			final String currCountry = countryNames.get(c);
 			// convert from 95US$ (data read) to 90US$/person what model uses
 			final double US90_TO_US95 = 0.001305215;
-			double GDPpc_BY_temp = getVariableSumValues(gdpVarName, baseTimeStr,
-					(Region)driver.regionList.get(currCountry));
+			double GDPpc_BY_temp = GDP_c_BY_sum[c];
 			GDPpc_BY_temp /= US90_TO_US95;
 			GDPpc_BY_temp /= POPc.get(BASE_YEAR).get(currCountry);
 
-			double E_c_BY_temp = getVariableSumValues(emissVarName, baseTimeStr,
-					(Region)driver.regionList.get(currCountry));
+			double E_c_BY_temp = E_c_BY_sum[c];
 			E_c_BY_temp *= emissConvFactor;
 			if(GDPpc_BY_temp != 0.0 && E_c_BY_temp != 0.0) {
 				Region currMiniCAMRegion = getSuperRegion(minicamRegions, currCountry);
@@ -728,7 +835,7 @@ public class EmissionsDownscaler {
 		currInfo = command.getChild("emissions-csv-out");
 		if(currInfo != null) {
 			try {
-				dumpMapToCSV(E_ct.entrySet().iterator(), currInfo.getAttributeValue("file"));
+				dumpMapToCSV(E_ct.entrySet().iterator(), scenarioFileName(currInfo.getAttributeValue("file"), scnSuffix));
 			} catch(Exception e) {
 				log.warning("Could not write emissions csv file: "+e);
 			}
@@ -736,7 +843,7 @@ public class EmissionsDownscaler {
 		currInfo = command.getChild("population-csv-out");
 		if(currInfo != null) {
 			try {
-				dumpMapToCSV(POPc.entrySet().iterator(), currInfo.getAttributeValue("file"));
+				dumpMapToCSV(POPc.entrySet().iterator(), scenarioFileName(currInfo.getAttributeValue("file"), scnSuffix));
 			} catch(Exception e) {
 				log.warning("Could not write population csv file: "+e);
 			}
@@ -744,13 +851,13 @@ public class EmissionsDownscaler {
 		currInfo = command.getChild("gdp-csv-out");
 		if(currInfo != null) {
 			try {
-				dumpMapToCSV(GDPpc_ct.entrySet().iterator(), currInfo.getAttributeValue("file"));
+				dumpMapToCSV(GDPpc_ct.entrySet().iterator(), scenarioFileName(currInfo.getAttributeValue("file"), scnSuffix));
 			} catch(Exception e) {
 				log.warning("Could not write gdp csv file: "+e);
 			}
 		}
 		currInfo = command.getChild("emissions-out-varname");
-		createOutputVar(currInfo.getAttributeValue("value"), E_ct, emissVarName, baseTimeStr, driver, emissConvFactor);
+		createOutputVar(currInfo.getAttributeValue("value")+scnSuffix, E_ct, emissVarName, baseTimeStr, driver, emissConvFactor);
 		return true;
 	}
 
@@ -793,27 +900,54 @@ public class EmissionsDownscaler {
 	}
 
 	/**
-	 * Gets data from the model output by running a query against an xml
-	 * database.
+	 * Gets the query to run from the command.
 	 * @param query The element who's child is the query to be run.
-	 * @param scnarioList A list with the scnearios to look in, there should only be one.
-	 * @param regionList A list with the region names to look in.  Usually just global. 
-	 * @return A table that is created by running the query
-	 * @throws Exception If there was an error while building the query or table.
+	 * @return The query as the standard org.w3c.dom.Element which is what the
+	 * 	query generator expects.
+	 * @throws Exception If the query could not be converted.
 	 */
-	private static BaseTableModel getModelData(Element query, Object[] scenarioList, Object[] regionList) throws Exception {
-		assert(XMLDB.getInstance() != null);
-		assert(scenarioList.length == 1);
-		// have to get the query and convert it to the standard org.w3c.dom.Element 
-		// which is what the query generator expects
+	private static org.w3c.dom.Element getQuery(Element query) throws Exception {
 		final Element queryChild = (Element)query.getChildren().get(0);
 		queryChild.detach();
 		final DOMOutputter domConverter = new DOMOutputter();
-		final QueryGenerator qg = new QueryGenerator(domConverter.output(new Document(queryChild)).getDocumentElement());
+		return domConverter.output(new Document(queryChild)).getDocumentElement();
+	}
+
+	/**
+	 * Gets data from the model output by running a query against an xml
+	 * database.  The query is run when the returned task is called so that
+	 * several may be run at once.
+	 * @param qg The query to be run, which must not be shared with other tasks.
+	 * @param scnarioList A list with the scnearios to look in, there should only be one.
+	 * @param regionList A list with the region names to look in.  Usually just global. 
+	 * @return A task which creates the table by running the query.
+	 */
+	private static Callable<BaseTableModel> getModelData(final QueryGenerator qg, final Object[] scenarioList,
+			final Object[] regionList) {
+		assert(scenarioList.length == 1);
 		assert(qg.isValid());
 		// could get complicated when trying to get data from tables
 		assert(!qg.isGroup());
-		return new ComboTableModel(qg, scenarioList, regionList, null, null, null);
+		return new Callable<BaseTableModel>() {
+			public BaseTableModel call() throws Exception {
+				assert(XMLDB.getInstance() != null);
+				return new ComboTableModel(qg, scenarioList, regionList, null, null, null);
+			}
+		};
+	}
+
+	/**
+	 * Adds the scenario suffix to a file name, before the extension if there is one.
+	 * @param file The file name given in the command.
+	 * @param scnSuffix The suffix for the scenario, may be empty.
+	 * @return The file name to use for the scenario.
+	 */
+	private static String scenarioFileName(String file, String scnSuffix) {
+		final int extIndex = file.lastIndexOf('.');
+		if(extIndex <= file.lastIndexOf(File.separatorChar)) {
+			return file+scnSuffix;
+		}
+		return file.substring(0, extIndex)+scnSuffix+file.substring(extIndex);
 	}
 
 	/**
@@ -909,9 +1043,11 @@ public class EmissionsDownscaler {
 	 * @param convFactor Conversion factor to convert base year units to working units.
 	 */
 	private static void createOutputVar(String outVarName, Map<Integer, Map<String, Double>> downscaledData,
-			ReferenceVariable inVarName, String baseYear, ManipulationDriver driver, double convFactor) {
+			ReferenceVariable inVarName, String baseYear, final ManipulationDriver driver, final double convFactor) {
 		// to avoid summing base year values too much we will do it once and store it in the map
-		Map<String, Double> baseYearSumCache = new HashMap<String, Double>();
+		final Map<String, Double> baseYearSumCache = new ConcurrentHashMap<String, Double>();
+		final List<ReferenceVariable> outYears = new ArrayList<ReferenceVariable>(downscaledData.size());
+		final List<Map<String, Double>> countryMaps = new ArrayList<Map<String, Double>>(downscaledData.size());
 
 		// set up the out var as a group variable by time
 		GroupVariable outVar = new GroupVariable(outVarName);
@@ -936,32 +1072,55 @@ public class EmissionsDownscaler {
 			outCurrYear.units = units;
 			outVar.addData(outCurrYear);
 			driver.variableList.put(outVarName+outCurrYear.name, outCurrYear);
-			Map<String, Double> countryMap = currTime.getValue();
-			for(Iterator<Map.Entry<String, Double>> itCountry = countryMap.entrySet().iterator(); itCountry.hasNext(); ) {
-				Map.Entry<String, Double> currCountryData = itCountry.next();
-				Region currRegion = (Region)driver.regionList.get(currCountryData.getKey());
-				if(currRegion == null) {
-					// this means that regions that did not match up will never have their emissions
-					// scale from the base year map
-					continue;
-				}
-				Wrapper[] workingVar = currRegion.extractRegion(outCurrYear);
-				double countrySum;
-				if(baseYearSumCache.containsKey(currCountryData.getKey())) {
-					countrySum = baseYearSumCache.get(currCountryData.getKey());
-				} else {
-					// Multiply by the conversion factor here so that the units cancel with the calculated
-					// units.  This will leave us with the units of the base year map.
-					countrySum = ComponentManipulator.sumValues(workingVar)[0].getData()[0][0] * convFactor;
-					baseYearSumCache.put(currCountryData.getKey(), countrySum);
-				}
-				double currRatio = currCountryData.getValue() / countrySum;
-				Wrapper[] ret = ComponentManipulator.multiplyVar(workingVar, currRatio);
-				assert(workingVar.length == ret.length);
-				for(int i = 0; i < workingVar.length; ++i) {
-					workingVar[i].setData(ret[i].getData());
+			outYears.add(outCurrYear);
+			countryMaps.add(currTime.getValue());
+		}
+		// each year only changes its own copy of the data so they can all be
+		// distributed at once
+		RangeExecutor.execute(outYears.size(), MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask() {
+			public void run(int start, int end) {
+				for(int year = start; year < end; ++year) {
+					distributeYear(outYears.get(year), countryMaps.get(year), driver, convFactor, baseYearSumCache);
 				}
 			}
+		});
+	}
+
+	/**
+	 * Scales each country's grid cells in one year of the output variable from the
+	 * base year map to the downscaled country value.
+	 * @param outCurrYear The output variable for the year which starts as the base year map.
+	 * @param countryMap The downscaled data for the year by country.
+	 * @param driver The manipulator driver which will be used to get access to Regions.
+	 * @param convFactor Conversion factor to convert base year units to working units.
+	 * @param baseYearSumCache The base year sums which have been calculated by country.
+	 */
+	private static void distributeYear(ReferenceVariable outCurrYear, Map<String, Double> countryMap,
+			ManipulationDriver driver, double convFactor, Map<String, Double> baseYearSumCache) {
+		for(Iterator<Map.Entry<String, Double>> itCountry = countryMap.entrySet().iterator(); itCountry.hasNext(); ) {
+			Map.Entry<String, Double> currCountryData = itCountry.next();
+			Region currRegion = (Region)driver.regionList.get(currCountryData.getKey());
+			if(currRegion == null) {
+				// this means that regions that did not match up will never have their emissions
+				// scale from the base year map
+				continue;
+			}
+			Wrapper[] workingVar = currRegion.extractRegion(outCurrYear);
+			double countrySum;
+			if(baseYearSumCache.containsKey(currCountryData.getKey())) {
+				countrySum = baseYearSumCache.get(currCountryData.getKey());
+			} else {
+				// Multiply by the conversion factor here so that the units cancel with the calculated
+				// units.  This will leave us with the units of the base year map.
+				countrySum = ComponentManipulator.sumValues(workingVar)[0].getData()[0][0] * convFactor;
+				baseYearSumCache.put(currCountryData.getKey(), countrySum);
+			}
+			double currRatio = currCountryData.getValue() / countrySum;
+			Wrapper[] ret = ComponentManipulator.multiplyVar(workingVar, currRatio);
+			assert(workingVar.length == ret.length);
+			for(int i = 0; i < workingVar.length; ++i) {
+				workingVar[i].setData(ret[i].getData());
+			}
 		}
 	}
 
@@ -0,0 +1,179 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+/**
+ * Elementwise kernels over the grids held by Wrappers.  These implement the NaN handling
+ * of the basic ComponentManipulator arithmetic once so that each operation is a single
+ * tight loop per row, with the row arrays pulled out of the grid up front rather than
+ * indexing through the grid for every element.  The single element versions are shared
+ * with {@link LazyGrid} so that both give exactly the same results.
+ * <p>
+ * The NaN rules follow ComponentManipulator: for add a NaN on one side is ignored and
+ * only NaN + NaN is NaN, for subtract only a NaN on the left gives NaN, and for multiply
+ * and divide a NaN on either side gives NaN.
+ * </p>
+ */
+public final class GridKernels {
+	private GridKernels() {
+	}
+
+	/**
+	 * Allocate a new grid of the same shape as the given one.
+	 * @param shape The grid to get the shape from.
+	 * @return A new grid with all zeros.
+	 */
+	public static double[][] allocateLike(double[][] shape) {
+		return new double[shape.length][shape.length > 0 ? shape[0].length : 0];
+	}
+
+	static double add(double a, double b) {
+		if(Double.isNaN(a)) {
+			return Double.isNaN(b) ? Double.NaN : b;
+		} else if(Double.isNaN(b)) {
+			return a;
+		} else {
+			return a + b;
+		}
+	}
+
+	static double subtract(double a, double b) {
+		if(Double.isNaN(a)) {
+			return Double.NaN;
+		} else if(Double.isNaN(b)) {
+			return a;
+		} else {
+			return a - b;
+		}
+	}
+
+	static double multiply(double a, double b) {
+		return Double.isNaN(a) || Double.isNaN(b) ? Double.NaN : a * b;
+	}
+
+	static double divide(double a, double b) {
+		return Double.isNaN(a) || Double.isNaN(b) ? Double.NaN : a / b;
+	}
+
+	/**
+	 * out = a + b
+	 */
+	public static void add(double[][] a, double[][] b, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] bRow = b[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = add(aRow[col], bRow[col]);
+			}
+		}
+	}
+
+	/**
+	 * out = a + value, NaNs in a are left as NaN.
+	 */
+	public static void add(double[][] a, double value, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = Double.isNaN(aRow[col]) ? Double.NaN : aRow[col] + value;
+			}
+		}
+	}
+
+	/**
+	 * out = a - b
+	 */
+	public static void subtract(double[][] a, double[][] b, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] bRow = b[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = subtract(aRow[col], bRow[col]);
+			}
+		}
+	}
+
+	/**
+	 * out = a * b
+	 */
+	public static void multiply(double[][] a, double[][] b, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] bRow = b[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = multiply(aRow[col], bRow[col]);
+			}
+		}
+	}
+
+	/**
+	 * out = a * value, NaNs in a are left as NaN.
+	 */
+	public static void multiply(double[][] a, double value, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = Double.isNaN(aRow[col]) ? Double.NaN : aRow[col] * value;
+			}
+		}
+	}
+
+	/**
+	 * out = a / b
+	 */
+	public static void divide(double[][] a, double[][] b, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] bRow = b[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = divide(aRow[col], bRow[col]);
+			}
+		}
+	}
+
+	/**
+	 * out = a / value, NaNs in a are left as NaN.
+	 */
+	public static void divide(double[][] a, double value, double[][] out) {
+		for(int row = 0; row < out.length; ++row) {
+			final double[] aRow = a[row];
+			final double[] outRow = out[row];
+			for(int col = 0; col < outRow.length; ++col) {
+				outRow[col] = Double.isNaN(aRow[col]) ? Double.NaN : aRow[col] / value;
+			}
+		}
+	}
+}
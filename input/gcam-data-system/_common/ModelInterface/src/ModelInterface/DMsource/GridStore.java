@@ -0,0 +1,199 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Keeps region grids in a file rather than on the heap.  Each grid is a slice of the
+ * file which is read in with positional reads the first time it is used.  The copy is
+ * only softly held so it will be dropped when memory runs low and paged back in when
+ * it is next used, which lets runs with many variables and times work without every
+ * grid being in memory at once.  Grids which are paged must not be changed by those
+ * who use them as changes are lost when they are dropped.
+ */
+public final class GridStore {
+	static Logger log = Logger.getLogger("DataManipulation");
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final File tempFile;
+	private long end;
+	private final AtomicLong pageIns = new AtomicLong();
+
+	private GridStore(File f, boolean writable, boolean temporary) throws IOException {
+		file = new RandomAccessFile(f, writable ? "rw" : "r");
+		channel = file.getChannel();
+		tempFile = temporary ? f : null;
+		end = channel.size();
+	}
+
+	/**
+	 * Create a store in a new temporary file which grids can be added to.  The file
+	 * is removed when the store is closed or the program exits.
+	 * @return The empty store.
+	 * @throws IOException If the file could not be created.
+	 */
+	public static GridStore createTemporary() throws IOException {
+		File f = File.createTempFile("gridstore", ".tmp");
+		f.deleteOnExit();
+		return new GridStore(f, true, true);
+	}
+
+	/**
+	 * Open an existing file of grids which are stored as rows of doubles so that
+	 * pages can be made for them without copying.
+	 * @param fileName The file which holds the grids.
+	 * @return The store which can only be read.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public static GridStore open(String fileName) throws IOException {
+		return new GridStore(new File(fileName), false, false);
+	}
+
+	/**
+	 * Write a grid to the end of the store.  The grid passed in is kept as the
+	 * resident copy until it is dropped.
+	 * @param grid The grid to store, all rows must be the same length.
+	 * @return The page for the grid.
+	 * @throws IOException If the grid could not be written.
+	 */
+	public synchronized Page add(double[][] grid) throws IOException {
+		int rows = grid.length;
+		int cols = rows == 0 ? 0 : grid[0].length;
+		long offset = end;
+		ByteBuffer rowBuffer = ByteBuffer.allocate(cols * 8);
+		for(int i = 0; i < rows; ++i) {
+			rowBuffer.clear();
+			rowBuffer.asDoubleBuffer().put(grid[i]);
+			while(rowBuffer.hasRemaining()) {
+				end += channel.write(rowBuffer, end);
+			}
+		}
+		Page page = new Page(offset, rows, cols);
+		page.resident = new SoftReference<double[][]>(grid);
+		return page;
+	}
+
+	/**
+	 * Get a page for a grid which is already in the store.
+	 * @param offset Where the first row of the grid starts in the file.
+	 * @param rows Number of rows in the grid.
+	 * @param cols Number of columns in the grid.
+	 * @return The page for the grid which will be read the first time it is used.
+	 */
+	public Page page(long offset, int rows, int cols) {
+		return new Page(offset, rows, cols);
+	}
+
+	/**
+	 * @return The number of times grids have been read in from the file.
+	 */
+	public long getPageIns() {
+		return pageIns.get();
+	}
+
+	/**
+	 * @return The number of bytes of grids in the store.
+	 */
+	public long getSize() {
+		return end;
+	}
+
+	public synchronized void close() throws IOException {
+		channel.close();
+		file.close();
+		if(tempFile != null) {
+			tempFile.delete();
+		}
+	}
+
+	private double[][] read(long offset, int rows, int cols) throws IOException {
+		double[][] grid = new double[rows][cols];
+		ByteBuffer rowBuffer = ByteBuffer.allocate(cols * 8);
+		long position = offset;
+		for(int i = 0; i < rows; ++i) {
+			rowBuffer.clear();
+			while(rowBuffer.hasRemaining()) {
+				int read = channel.read(rowBuffer, position);
+				if(read < 0) {
+					throw new EOFException("Grid at "+offset+" is past the end of the store");
+				}
+				position += read;
+			}
+			rowBuffer.flip();
+			rowBuffer.asDoubleBuffer().get(grid[i]);
+		}
+		pageIns.incrementAndGet();
+		return grid;
+	}
+
+	/**
+	 * A grid in the store.
+	 */
+	public final class Page {
+		private final long offset;
+		private final int rows;
+		private final int cols;
+		private volatile SoftReference<double[][]> resident = new SoftReference<double[][]>(null);
+
+		private Page(long offset, int rows, int cols) {
+			this.offset = offset;
+			this.rows = rows;
+			this.cols = cols;
+		}
+
+		/**
+		 * Get the grid, reading it in from the file if it is not in memory.
+		 * @return The grid which must not be changed.
+		 */
+		public double[][] get() {
+			double[][] grid = resident.get();
+			if(grid == null) {
+				try {
+					grid = read(offset, rows, cols);
+				} catch(IOException e) {
+					e.printStackTrace();
+					throw new RuntimeException("Could not page in grid at "+offset, e);
+				}
+				resident = new SoftReference<double[][]>(grid);
+			}
+			return grid;
+		}
+	}
+}
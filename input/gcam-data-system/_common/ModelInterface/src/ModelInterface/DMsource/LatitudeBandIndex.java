@@ -0,0 +1,255 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of the valid grid cells of a var organized into latitude bands, one band per
+ * grid row, which is used to check if there are any cells within a given distance of a
+ * point.  The bands are sorted by latitude so that only those within the angular radius
+ * of the point need to be looked at, and within each band the cells are sorted by
+ * longitude so that only the cells within the longitude range that could be inside the
+ * radius are visited.  The distance check itself is always done with
+ * DistanceStruct.getDistance so that results are exactly the same as checking every cell.
+ */
+public class LatitudeBandIndex {
+	/**
+	 * Constant of the radius of the earth in kilometers, same as DistanceStruct.
+	 */
+	private static final double EARTH_RADIUS = 6371;
+
+	/**
+	 * Additional angle in radians to search beyond the requested radius.  The
+	 * spherical law of cosines looses precision for very small distances so this
+	 * makes sure we do not skip cells which would calculate to be just inside.
+	 */
+	private static final double ANGLE_TOLERANCE = 1e-6;
+
+	/**
+	 * The latitude in radians of each band in increasing order.
+	 */
+	private final double[] bandLat;
+
+	/**
+	 * The longitudes in radians of the valid cells in each band in increasing order.
+	 */
+	private final double[][] bandLons;
+
+	/**
+	 * A single grid row with at least one valid cell.
+	 */
+	private static class Band implements Comparable<Band> {
+		final double lat;
+		final double[] lons;
+		Band(double lat, double[] lons) {
+			this.lat = lat;
+			this.lons = lons;
+		}
+		public int compareTo(Band other) {
+			return Double.compare(lat, other.lat);
+		}
+	}
+
+	/**
+	 * Build an index over the cells of data which are not NaN and at least minDataValue.
+	 * @param data The data to index, such as coastlines or cities.
+	 * @param minDataValue The minimum data value to consider.
+	 */
+	public LatitudeBandIndex(Wrapper[] data, double minDataValue) {
+		List<Band> bands = new ArrayList<Band>();
+		for(int rIndex = 0; rIndex < data.length; ++rIndex) {
+			// all latitude and longitudes are in radians
+			double currLat = data[rIndex].getY() * (Math.PI / 180);
+			double res = data[rIndex].getRes() * (Math.PI / 180);
+			double[][] currDataArr = data[rIndex].getData();
+			double[] lons = accumulateLons(data[rIndex], currDataArr[0].length);
+			double[] validLons = new double[lons.length];
+
+			// go through the data arr backwards since data.getY is of the lower corner
+			// and row 0 is the upper corner
+			for(int row = currDataArr.length-1; row >= 0; --row) {
+				int numValid = 0;
+				for(int col = 0; col < currDataArr[0].length; ++col) {
+					if(!Double.isNaN(currDataArr[row][col]) && currDataArr[row][col] >= minDataValue) {
+						validLons[numValid++] = lons[col];
+					}
+				}
+				if(numValid > 0) {
+					bands.add(new Band(currLat, Arrays.copyOf(validLons, numValid)));
+				}
+				currLat += res;
+			}
+		}
+		Collections.sort(bands);
+		bandLat = new double[bands.size()];
+		bandLons = new double[bands.size()][];
+		for(int i = 0; i < bandLat.length; ++i) {
+			bandLat[i] = bands.get(i).lat;
+			bandLons[i] = bands.get(i).lons;
+		}
+	}
+
+	/**
+	 * Calculate the longitude of each column the same way grid cells are iterated
+	 * over elsewhere, by accumulating the resolution, so that the coordinates and
+	 * therefore the distances are exactly the same.
+	 * @param wrapper The wrapper to get the coordinates from.
+	 * @param numCols The number of columns in the wrapper's data.
+	 * @return The longitude in radians of each column.
+	 */
+	public static double[] accumulateLons(Wrapper wrapper, int numCols) {
+		double[] lons = new double[numCols];
+		double currLon = wrapper.getX() * (Math.PI / 180);
+		double res = wrapper.getRes() * (Math.PI / 180);
+		for(int col = 0; col < numCols; ++col) {
+			lons[col] = currLon;
+			currLon += res;
+		}
+		return lons;
+	}
+
+	/**
+	 * Calculate the latitude of each row, see accumulateLons.  Note that the last
+	 * row is at the lower corner of the wrapper.
+	 * @param wrapper The wrapper to get the coordinates from.
+	 * @param numRows The number of rows in the wrapper's data.
+	 * @return The latitude in radians of each row.
+	 */
+	public static double[] accumulateLats(Wrapper wrapper, int numRows) {
+		double[] lats = new double[numRows];
+		double currLat = wrapper.getY() * (Math.PI / 180);
+		double res = wrapper.getRes() * (Math.PI / 180);
+		for(int row = numRows-1; row >= 0; --row) {
+			lats[row] = currLat;
+			currLat += res;
+		}
+		return lats;
+	}
+
+	/**
+	 * Check if there is any indexed cell within maxDistance of the given point.
+	 * @param lat Latitude in radians of the point.
+	 * @param lon Longitude in radians of the point.
+	 * @param maxDistance The distance threshold in km.
+	 * @return True if the distance to some cell is less than or equal to maxDistance.
+	 */
+	public boolean anyWithin(double lat, double lon, double maxDistance) {
+		double searchAngle = maxDistance / EARTH_RADIUS + ANGLE_TOLERANCE;
+		for(int band = lowerBound(bandLat, lat - searchAngle); band < bandLat.length 
+				&& bandLat[band] <= lat + searchAngle; ++band) {
+			double[] lons = bandLons[band];
+			double lonRange = getLonRange(lat, bandLat[band], searchAngle);
+			if(lonRange >= Math.PI) {
+				if(anyWithin(lat, lon, band, 0, lons.length, maxDistance)) {
+					return true;
+				}
+				continue;
+			}
+			// longitudes may not be in the same range as the point so also
+			// look around the point shifted by a full circle
+			for(int shift = -2; shift <= 2; ++shift) {
+				double centerLon = lon + shift * 2 * Math.PI;
+				int start = lowerBound(lons, centerLon - lonRange);
+				int end = upperBound(lons, centerLon + lonRange);
+				if(start < end && anyWithin(lat, lon, band, start, end, maxDistance)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean anyWithin(double lat, double lon, int band, int start, int end, double maxDistance) {
+		double[] lons = bandLons[band];
+		for(int i = start; i < end; ++i) {
+			if(DistanceStruct.getDistance(lat, lon, bandLat[band], lons[i]) <= maxDistance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calculate how far in longitude from a point at lat a cell at bandLat could be and
+	 * still be within searchAngle.
+	 * @return The longitude range in radians, PI or more means every longitude.
+	 */
+	private static double getLonRange(double lat, double bandLat, double searchAngle) {
+		double cosLats = Math.cos(lat) * Math.cos(bandLat);
+		// near a pole the whole band could be in range
+		if(searchAngle >= Math.PI || cosLats < 1e-9) {
+			return Math.PI;
+		}
+		double minCosLon = (Math.cos(searchAngle) - Math.sin(lat) * Math.sin(bandLat)) / cosLats;
+		if(minCosLon <= -1) {
+			return Math.PI;
+		}
+		return Math.acos(Math.min(minCosLon, 1)) + ANGLE_TOLERANCE;
+	}
+
+	/**
+	 * Find the first index in a sorted array with a value greater than the given value.
+	 */
+	private static int upperBound(double[] arr, double value) {
+		int lo = 0;
+		int hi = arr.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(arr[mid] <= value) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Find the first index in a sorted array with a value greater than or equal
+	 * to the given value.
+	 */
+	private static int lowerBound(double[] arr, double value) {
+		int lo = 0;
+		int hi = arr.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(arr[mid] < value) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
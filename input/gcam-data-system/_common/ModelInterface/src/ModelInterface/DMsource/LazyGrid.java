@@ -0,0 +1,365 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An elementwise expression over the grids of variables which has not been calculated
+ * yet.  Expressions are built up from the data of variables and the basic arithmetic and
+ * limit operations, and an expression may be used in any number of later expressions.
+ * Nothing is calculated until {@link #evaluate()} is called, at which point the whole
+ * expression is done in a single pass over the grids, one row at a time, so that none of
+ * the intermediate grids are ever created.  The expression is first flattened into a list
+ * of steps, each of which only uses the rows of steps before it, so that calculating a
+ * row is a plain loop over the steps.
+ * <p>
+ * The results are exactly the same as running the matching ComponentManipulator
+ * operations one after another.
+ * </p>
+ */
+public abstract class LazyGrid {
+	/**
+	 * The operations which may be used in an expression.
+	 */
+	public enum Op {
+		ADD, SUBTRACT, MULTIPLY, DIVIDE, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQUAL
+	}
+
+	/**
+	 * The fewest regions an expression must cover before the regions are spread
+	 * across threads.
+	 */
+	private static final int MIN_PARALLEL_REGIONS = 8;
+
+	/**
+	 * The expressions this one uses, either may be null if it is not needed.
+	 */
+	private final LazyGrid left;
+	private final LazyGrid right;
+
+	private LazyGrid(LazyGrid left, LazyGrid right) {
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Create an expression which is just the given data.  The data is not copied so
+	 * it must not be changed while the expression is in use.
+	 * @param data The wrappers holding the data.
+	 * @return An expression for the data.
+	 */
+	public static LazyGrid of(Wrapper[] data) {
+		return new Leaf(data);
+	}
+
+	/**
+	 * Create an expression which combines two expressions of the same shape element by
+	 * element.  The result takes the shape of the left expression.
+	 * @param op One of ADD, SUBTRACT, MULTIPLY, or DIVIDE.
+	 * @param left The left side of the operation.
+	 * @param right The right side of the operation.
+	 * @return An expression for the result.
+	 */
+	public static LazyGrid combine(Op op, LazyGrid left, LazyGrid right) {
+		return new Binary(op, left, right);
+	}
+
+	/**
+	 * Create an expression which applies a scalar to every element of an expression.
+	 * @param op One of ADD, SUBTRACT, MULTIPLY, or DIVIDE.
+	 * @param left The expression to apply the scalar to.
+	 * @param value The scalar.
+	 * @return An expression for the result.
+	 */
+	public static LazyGrid withScalar(Op op, LazyGrid left, double value) {
+		return new Scalar(op, left, value, Double.NaN);
+	}
+
+	/**
+	 * Create an expression which keeps the elements which pass a limit.
+	 * @param op One of GREATER_THAN, LESS_THAN, or LESS_THAN_OR_EQUAL.
+	 * @param left The expression to check.
+	 * @param limit The limit to check against.
+	 * @param snap Whether failing elements are set to the limit, otherwise they are NaN.
+	 * @return An expression for the result.
+	 */
+	public static LazyGrid withLimit(Op op, LazyGrid left, double limit, boolean snap) {
+		return new Scalar(op, left, limit, snap ? limit : Double.NaN);
+	}
+
+	/**
+	 * Get the wrappers which the result takes its shape and position from.
+	 * @return The wrappers to copy for the result.
+	 */
+	protected abstract Wrapper[] template();
+
+	/**
+	 * Calculate a row of this expression.
+	 * @param region The index of the region.
+	 * @param row The index of the row in that region.
+	 * @param leftRow The same row of the left expression, or null if there is none.
+	 * @param rightRow The same row of the right expression, or null if there is none.
+	 * @param outRow The buffer to write the row into, null for data which is just read.
+	 * @return The values in the row, which must not be changed.
+	 */
+	protected abstract double[] row(int region, int row, double[] leftRow, double[] rightRow, double[] outRow);
+
+	/**
+	 * Add this expression and those it uses to the list of steps, such that every
+	 * expression comes after the ones it uses.  An expression which is used more than
+	 * once is only added once.
+	 * @param steps The steps in the order they must be calculated.
+	 * @param ids The index of each expression in the steps.
+	 */
+	private void addSteps(List<LazyGrid> steps, Map<LazyGrid, Integer> ids) {
+		if(ids.containsKey(this)) {
+			return;
+		}
+		if(left != null) {
+			left.addSteps(steps, ids);
+		}
+		if(right != null) {
+			right.addSteps(steps, ids);
+		}
+		ids.put(this, steps.size());
+		steps.add(this);
+	}
+
+	/**
+	 * Create wrappers with the shape of the result but without calculating it.  Every
+	 * element is NaN and all of the rows of a region are the same array so that they
+	 * take almost no memory.
+	 * @return Wrappers with the shape of the result.
+	 */
+	public Wrapper[] placeholder() {
+		Wrapper[] template = template();
+		Wrapper[] toReturn = new Wrapper[template.length];
+		for(int i = 0; i < template.length; ++i) {
+			double[][] shape = GridKernels.allocateLike(template[i].data);
+			double[] nanRow = new double[shape.length > 0 ? shape[0].length : 0];
+			Arrays.fill(nanRow, Double.NaN);
+			Arrays.fill(shape, nanRow);
+			toReturn[i] = template[i].makeCopy();
+			toReturn[i].data = shape;
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Calculate the expression.
+	 * @return New wrappers with the results.
+	 */
+	public Wrapper[] evaluate() {
+		final Wrapper[] template = template();
+		final List<LazyGrid> stepList = new ArrayList<LazyGrid>();
+		final Map<LazyGrid, Integer> ids = new IdentityHashMap<LazyGrid, Integer>();
+		addSteps(stepList, ids);
+		final LazyGrid[] steps = stepList.toArray(new LazyGrid[stepList.size()]);
+		final int[] leftSteps = new int[steps.length];
+		final int[] rightSteps = new int[steps.length];
+		for(int step = 0; step < steps.length; ++step) {
+			leftSteps[step] = steps[step].left == null ? -1 : ids.get(steps[step].left);
+			rightSteps[step] = steps[step].right == null ? -1 : ids.get(steps[step].right);
+		}
+		final Wrapper[] toReturn = new Wrapper[template.length];
+		RangeExecutor.execute(template.length, MIN_PARALLEL_REGIONS, new RangeExecutor.RangeTask() {
+			public void run(int start, int end) {
+				final int last = steps.length - 1;
+				final double[][] buffers = new double[steps.length][];
+				final double[][] rows = new double[steps.length][];
+				for(int i = start; i < end; ++i) {
+					double[][] out = GridKernels.allocateLike(template[i].data);
+					final int numCols = out.length > 0 ? out[0].length : 0;
+					for(int step = 0; step < last; ++step) {
+						if(!(steps[step] instanceof Leaf) && (buffers[step] == null || buffers[step].length != numCols)) {
+							buffers[step] = new double[numCols];
+						}
+					}
+					for(int row = 0; row < out.length; ++row) {
+						// the last step is the whole expression so it can write
+						// straight into the result
+						buffers[last] = out[row];
+						for(int step = 0; step <= last; ++step) {
+							rows[step] = steps[step].row(i, row,
+									leftSteps[step] < 0 ? null : rows[leftSteps[step]],
+									rightSteps[step] < 0 ? null : rows[rightSteps[step]], buffers[step]);
+						}
+					}
+					toReturn[i] = template[i].makeCopy();
+					toReturn[i].data = out;
+				}
+			}
+		});
+		return toReturn;
+	}
+
+	private static final class Leaf extends LazyGrid {
+		private final Wrapper[] data;
+
+		Leaf(Wrapper[] data) {
+			super(null, null);
+			this.data = data;
+		}
+
+		protected Wrapper[] template() {
+			return data;
+		}
+
+		protected double[] row(int region, int row, double[] leftRow, double[] rightRow, double[] outRow) {
+			// rows are read straight from the data
+			return data[region].data[row];
+		}
+
+		public Wrapper[] evaluate() {
+			Wrapper[] toReturn = new Wrapper[data.length];
+			for(int i = 0; i < data.length; ++i) {
+				double[][] copy = GridKernels.allocateLike(data[i].data);
+				for(int row = 0; row < copy.length; ++row) {
+					System.arraycopy(data[i].data[row], 0, copy[row], 0, copy[row].length);
+				}
+				toReturn[i] = data[i].makeCopy();
+				toReturn[i].data = copy;
+			}
+			return toReturn;
+		}
+	}
+
+	private static final class Binary extends LazyGrid {
+		private final Op op;
+
+		Binary(Op op, LazyGrid left, LazyGrid right) {
+			super(left, right);
+			this.op = op;
+		}
+
+		protected Wrapper[] template() {
+			return super.left.template();
+		}
+
+		protected double[] row(int region, int row, double[] leftRow, double[] rightRow, double[] outRow) {
+			switch(op) {
+				case ADD:
+					for(int col = 0; col < outRow.length; ++col) {
+						outRow[col] = GridKernels.add(leftRow[col], rightRow[col]);
+					}
+					break;
+				case SUBTRACT:
+					for(int col = 0; col < outRow.length; ++col) {
+						outRow[col] = GridKernels.subtract(leftRow[col], rightRow[col]);
+					}
+					break;
+				case MULTIPLY:
+					for(int col = 0; col < outRow.length; ++col) {
+						outRow[col] = GridKernels.multiply(leftRow[col], rightRow[col]);
+					}
+					break;
+				case DIVIDE:
+					for(int col = 0; col < outRow.length; ++col) {
+						outRow[col] = GridKernels.divide(leftRow[col], rightRow[col]);
+					}
+					break;
+				default:
+					throw new UnsupportedOperationException(op+" needs a scalar");
+			}
+			return outRow;
+		}
+	}
+
+	private static final class Scalar extends LazyGrid {
+		private final Op op;
+		private final double value;
+		private final double fail;
+
+		Scalar(Op op, LazyGrid left, double value, double fail) {
+			super(left, null);
+			this.op = op;
+			this.value = value;
+			this.fail = fail;
+		}
+
+		protected Wrapper[] template() {
+			return super.left.template();
+		}
+
+		protected double[] row(int region, int row, double[] leftRow, double[] rightRow, double[] outRow) {
+			// NaNs always stay NaN
+			switch(op) {
+				case ADD:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr + value;
+					}
+					break;
+				case SUBTRACT:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr - value;
+					}
+					break;
+				case MULTIPLY:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr * value;
+					}
+					break;
+				case DIVIDE:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr / value;
+					}
+					break;
+				case GREATER_THAN:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr > value ? curr : fail;
+					}
+					break;
+				case LESS_THAN:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr < value ? curr : fail;
+					}
+					break;
+				case LESS_THAN_OR_EQUAL:
+					for(int col = 0; col < outRow.length; ++col) {
+						final double curr = leftRow[col];
+						outRow[col] = Double.isNaN(curr) ? Double.NaN : curr <= value ? curr : fail;
+					}
+					break;
+			}
+			return outRow;
+		}
+	}
+}
@@ -50,12 +50,17 @@ package ModelInterface.DMsource;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.text.SimpleDateFormat;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 
 import org.jdom.*;
 import org.jdom.filter.ContentFilter;
+import org.jdom.filter.ElementFilter;
 import org.jdom.input.*;
 
 import ucar.ma2.DataType;
@@ -71,6 +76,7 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.SAXException;
 
 import ModelInterface.PPsource.DataBuilder;
+import ModelInterface.PPsource.RegionDataFile;
 
 
 /**
@@ -86,7 +92,7 @@ import ModelInterface.PPsource.DataBuilder;
 public class ManipulationDriver
 {
   public TreeMap regionList; //master list of all regions, regular and super
-  public TreeMap variableList; //master list of all variables, reference or data
+  public ConcurrentSkipListMap variableList; //master list of all variables, reference or data, which commands running in parallel may update
   public TreeMap dataAvgAdd; //a mapping of data names to wether they are averaged or added on aggregation
   public TreeMap dataRef; //a listing of the references for each data type for which one was supplied
   public TreeMap dataUnits; //a listing of the units which each variables values represent
@@ -100,6 +106,41 @@ public class ManipulationDriver
   private double resolution; //the resolution which data is stored at
   private int numAtomicRegions; //the number of lowest level regions (i dont think i even use this anymore)
   Logger log = Logger.getLogger("DataManipulation"); //log class to use for all logging output
+  /**
+   * Commands which only read their argument variables and write their target
+   * variables, these may be run at the same time as each other when the user has
+   * asked for commands to be run in parallel.
+   */
+  private static final Set INDEPENDENT_COMMANDS = new HashSet(Arrays.asList(new String[] {
+    "add", "subtract", "addScalar", "multiply", "divide", "multiplyScalar",
+    "divideScalar", "parseGreaterThan", "parseLessThan", "parseLessThanOrEqual",
+    "maskCombineOr", "maskCombineAnd", "maskRemain", "maskRemove", "countGreaterThan",
+    "countLessThan", "countElements", "largestValue", "smallestValue", "sumValues",
+    "sumArea", "sumRegionArea", "avgOverRegion", "avgOverRegionByArea", "avgVariables",
+    "avgVariablesOverRegion", "avgVariablesOverRegionByArea", "weightValues",
+    "divByAreaFract", "multByAreaFract"
+  }));
+  /**
+   * The fewest commands in a batch before they are run at the same time.
+   */
+  private static final int MIN_PARALLEL_COMMANDS = 2;
+  /**
+   * The fewest variables written to a NetCDF file before their time slices are
+   * built at the same time.
+   */
+  private static final int MIN_PARALLEL_NETCDF_VARIABLES = 2;
+  /**
+   * Elementwise commands which only build up an expression for their target when
+   * the user has asked for lazy evaluation.
+   */
+  private static final Set LAZY_COMMANDS = new HashSet(Arrays.asList(new String[] {
+    "add", "subtract", "multiply", "divide", "addScalar", "multiplyScalar",
+    "divideScalar", "parseGreaterThan", "parseLessThan", "parseLessThanOrEqual"
+  }));
+  private boolean lazy; //whether elementwise commands are only calculated once needed
+  private Map pendingData = Collections.synchronizedMap(new WeakHashMap()); //variables with their uncalculated expressions
+  private GridStore pageStore; //file region data is paged out to, null when it is all kept in memory
+  private GridStore sourcePageStore; //binary data source which region data is paged in from directly
   
 //*****************************************************************************
 //*****************Class Constructors******************************************
@@ -116,7 +157,7 @@ public class ManipulationDriver
     cSource = "commands.xml";
     log.log(Level.CONFIG, "ManipuationDriver file names: out.xml, regionDef.xml, commands.xml");
     regionList = new TreeMap();
-    variableList = new TreeMap();
+    variableList = new ConcurrentSkipListMap();
     dataAvgAdd = new TreeMap();
     dataRef = new TreeMap();
     dataUnits = new TreeMap();
@@ -137,7 +178,7 @@ public class ManipulationDriver
     cSource = c;
     log.log(Level.CONFIG, "ManipuationDriver file names: "+d+", "+r+", "+c);
     regionList = new TreeMap();
-    variableList = new TreeMap();
+    variableList = new ConcurrentSkipListMap();
     dataAvgAdd = new TreeMap();
     dataRef = new TreeMap();
     dataUnits = new TreeMap();
@@ -160,14 +201,20 @@ public class ManipulationDriver
     System.in.read();
     System.out.println("...going");
     */
-    log.log(Level.FINE, "Calling makeStreams");
-    makeStreams();
-    log.log(Level.FINE, "Building lowest-level regions");
-    //buildRegionData();
-    log.log(Level.FINE, "Creating the region hierarchy");
-    buildRegionHierarchy();
-    log.log(Level.FINE, "Parsing user input");
-    inputParser();
+    try
+    {
+      log.log(Level.FINE, "Calling makeStreams");
+      makeStreams();
+      log.log(Level.FINE, "Building lowest-level regions");
+      //buildRegionData();
+      log.log(Level.FINE, "Creating the region hierarchy");
+      buildRegionHierarchy();
+      log.log(Level.FINE, "Parsing user input");
+      inputParser();
+    } finally
+    {
+      closePageStores();
+    }
     /*
     } catch(IOException e){}
     */
@@ -252,15 +299,250 @@ public class ManipulationDriver
     Element root = cDocument.getRootElement();
     coms = root.getChildren();
     
-    for(int i = 0; i < coms.size(); i++)
+    lazy = "true".equals(root.getAttributeValue("lazy"));
+    if("true".equals(root.getAttributeValue("parallel")))
     {
-      currCom = (Element)coms.get(i);
-      runCommand(currCom);
+      log.log(Level.FINE, "Running independent commands in parallel");
+      runCommandsInParallel(coms);
+    } else
+    {
+      for(int i = 0; i < coms.size(); i++)
+      {
+        currCom = (Element)coms.get(i);
+        runCommand(currCom);
+      }
     }
     // TODO: figure out a better way to know when to write these out.
     CSVFileManager.getInstance().writeAllCSVFiles();
+    if(pageStore != null)
+    {
+      long pageIns = pageStore.getPageIns()+(sourcePageStore == null ? 0 : sourcePageStore.getPageIns());
+      log.log(Level.INFO, "Region data was paged in "+pageIns+" times");
+    }
+    long cacheHits = superRegion.getCacheHits();
+    long cacheLookups = cacheHits+superRegion.getCacheMisses();
+    if(cacheLookups > 0)
+    {
+      log.log(Level.INFO, "Region composite cache hit rate "+(100*cacheHits/cacheLookups)+"% ("
+          +cacheHits+" of "+cacheLookups+")");
+    }
     log.log(Level.FINER, "All user commands have been parsed");
   }
+  /**
+   * Closes the files region data was paged to and from once the commands are done
+   * with it, which also removes the temporary page file.
+   */
+  private void closePageStores()
+  {
+    try
+    {
+      if(pageStore != null)
+      {
+        pageStore.close();
+      }
+      if(sourcePageStore != null)
+      {
+        sourcePageStore.close();
+      }
+    } catch(IOException e)
+    {
+      log.log(Level.WARNING, "Could not close the region data page files: "+e);
+    }
+    pageStore = null;
+    sourcePageStore = null;
+  }
+  /**
+   * Runs the commands in order but lets consecutive commands which do not depend on
+   * each other run at the same time. A command can join the current batch if it is one
+   * of the {@link #INDEPENDENT_COMMANDS}, it does not use a variable which a command
+   * already in the batch writes, and it does not write a variable which they use. Any
+   * other command waits for the batch to finish and is then run on its own, so output
+   * and changes to groups happen in the same order as a serial run.
+   * @param coms The command elements in the order they were given.
+   */
+  private void runCommandsInParallel(List coms)
+  {
+    List batch = new ArrayList();
+    Set batchReads = new HashSet();
+    Set batchWrites = new HashSet();
+    Element currCom;
+    
+    for(int i = 0; i < coms.size(); i++)
+    {
+      currCom = (Element)coms.get(i);
+      if(!INDEPENDENT_COMMANDS.contains(currCom.getName()))
+      {
+        runBatch(batch);
+        batchReads.clear();
+        batchWrites.clear();
+        runCommand(currCom);
+        continue;
+      }
+      Set reads = new HashSet();
+      Set writes = new HashSet();
+      collectVariableNames(currCom, reads, writes);
+      if(!Collections.disjoint(reads, batchWrites) || !Collections.disjoint(writes, batchWrites)
+          || !Collections.disjoint(writes, batchReads))
+      { //depends on something in the current batch so wait for it to finish
+        runBatch(batch);
+        batchReads.clear();
+        batchWrites.clear();
+      }
+      batch.add(currCom);
+      batchReads.addAll(reads);
+      batchWrites.addAll(writes);
+    }
+    runBatch(batch);
+  }
+  /**
+   * Runs all of the commands in the batch at the same time and waits for them to
+   * finish. The batch is emptied once they are done.
+   * @param batch Commands which do not depend on each other.
+   */
+  private void runBatch(final List batch)
+  {
+    if(batch.size() == 1)
+    {
+      runCommand((Element)batch.get(0));
+    } else if(batch.size() > 1)
+    {
+      log.log(Level.FINER, "running "+batch.size()+" commands at once");
+      // the operations the commands call share the same pool of threads, the
+      // commands themselves work on their operations so none of them wait on
+      // threads that are busy with other commands
+      RangeExecutor.execute(batch.size(), MIN_PARALLEL_COMMANDS, new RangeExecutor.RangeTask()
+      {
+        public void run(int start, int end)
+        {
+          for(int i = start; i < end; i++)
+          {
+            runCommand((Element)batch.get(i));
+          }
+        }
+      });
+    }
+    batch.clear();
+  }
+  /**
+   * Finds the names of the variables a command may use and the ones it will write.
+   * Targets are written and every other attribute value is assumed to be a variable
+   * which is read, which may find names which are not variables but that only stops
+   * a command from running early.
+   * @param command The command or part of a command to check.
+   * @param reads Set to add the names which are read to.
+   * @param writes Set to add the names which are written to.
+   */
+  private void collectVariableNames(Element command, Set reads, Set writes)
+  {
+    List children = command.getChildren();
+    Element currChild;
+    List attrs;
+    
+    for(int i = 0; i < children.size(); i++)
+    {
+      currChild = (Element)children.get(i);
+      if(currChild.getName().equals("target"))
+      {
+        writes.add(currChild.getAttributeValue("name"));
+      } else
+      {
+        attrs = currChild.getAttributes();
+        for(int k = 0; k < attrs.size(); k++)
+        {
+          reads.add(((Attribute)attrs.get(k)).getValue());
+        }
+        collectVariableNames(currChild, reads, writes);
+      }
+    }
+  }
+  /**
+   * Calculates any variables the command needs which are still waiting on a lazy
+   * expression. Lazy commands only need the scalars and masks they read from other
+   * variables, while every other command gets all of the variables it mentions. A
+   * release does not need anything calculated as the expression is just dropped.
+   * @param command The command about to be run.
+   */
+  private void prepareLazyCommand(Element command)
+  {
+    if(pendingData.isEmpty() || command.getName().equals("releaseVar"))
+    {
+      return;
+    }
+    Set reads = new HashSet();
+    Set writes = new HashSet();
+    if(LAZY_COMMANDS.contains(command.getName()))
+    {
+      Element currInfo = command.getChild("scalar");
+      if(currInfo != null)
+      {
+        reads.add(currInfo.getAttributeValue("name"));
+      }
+      currInfo = command.getChild("mask");
+      if(currInfo != null)
+      { //limit by region is calculated straight away
+        collectVariableNames(command, reads, writes);
+      }
+    } else
+    {
+      collectVariableNames(command, reads, writes);
+      reads.addAll(writes);
+    }
+    Iterator it = reads.iterator();
+    Variable currVar;
+    while(it.hasNext())
+    {
+      currVar = (Variable)variableList.get(it.next());
+      if(currVar != null)
+      {
+        materialise(currVar);
+      }
+    }
+  }
+  /**
+   * Whether the result of an elementwise command should be left as an expression.
+   * @param VD The variable the result will be put in.
+   * @param V The variable the command reads.
+   * @return True if running lazily and neither variable is a group.
+   */
+  private boolean canDefer(Variable VD, Variable V)
+  {
+    return lazy && !VD.isGroup() && !V.isGroup();
+  }
+  /**
+   * Gets an expression for the data in a variable, which is its pending expression
+   * if it has not been calculated yet.
+   * @param var The variable to get the data of.
+   * @return Expression for the data in the variable.
+   */
+  private LazyGrid lazyData(Variable var)
+  {
+    LazyGrid pending = (LazyGrid)pendingData.get(var);
+    return pending != null ? pending : LazyGrid.of(var.getData());
+  }
+  /**
+   * Leaves the data of a variable to be calculated when it is needed. Until then the
+   * variable holds data of the right shape which is all NaN.
+   * @param var The variable the data is for.
+   * @param expression The expression for the data.
+   */
+  private void deferData(Variable var, LazyGrid expression)
+  {
+    var.setData(expression.placeholder());
+    pendingData.put(var, expression);
+  }
+  /**
+   * Calculates the data of a variable if it is still waiting on an expression.
+   * @param var The variable which needs its data.
+   */
+  private synchronized void materialise(Variable var)
+  {
+    LazyGrid pending = (LazyGrid)pendingData.remove(var);
+    if(pending != null)
+    {
+      log.log(Level.FINER, "calculating "+var.name);
+      var.setData(pending.evaluate());
+    }
+  }
   
 //*****************************************************************************
 //******************Input Command Runners**************************************
@@ -705,7 +987,13 @@ public class ManipulationDriver
       VD = V1.getShape(VDname);
       variableList.put(VDname, VD);
       
-      VD.setData(ComponentManipulator.addVar(V1.getData(), V2.getData()));
+      if(canDefer(VD, V1))
+      {
+        deferData(VD, LazyGrid.combine(LazyGrid.Op.ADD, lazyData(V1), lazyData(V2)));
+      } else
+      {
+        VD.setData(ComponentManipulator.addVar(V1.getData(), V2.getData()));
+      }
     } else
     {
       log.log(Level.WARNING, "Command Failed: variables of different shapes.");
@@ -738,7 +1026,13 @@ public class ManipulationDriver
       VD = V1.getShape(VDname);
       variableList.put(VDname, VD);
       
-      VD.setData(ComponentManipulator.subtractVar(V1.getData(), V2.getData()));
+      if(canDefer(VD, V1))
+      {
+        deferData(VD, LazyGrid.combine(LazyGrid.Op.SUBTRACT, lazyData(V1), lazyData(V2)));
+      } else
+      {
+        VD.setData(ComponentManipulator.subtractVar(V1.getData(), V2.getData()));
+      }
     } else
     {
       log.log(Level.WARNING, "Command Failed: variables of different shapes.");
@@ -775,7 +1069,13 @@ public class ManipulationDriver
     VDest = VSource.getShape(VDname);
     variableList.put(VDname, VDest);
     
-    VDest.setData(ComponentManipulator.addVar(VSource.getData(), change));
+    if(canDefer(VDest, VSource))
+    {
+      deferData(VDest, LazyGrid.withScalar(LazyGrid.Op.ADD, lazyData(VSource), change));
+    } else
+    {
+      VDest.setData(ComponentManipulator.addVar(VSource.getData(), change));
+    }
   }
   /**
    * Multiplys the corresponding positions in the two passed variables. Requires
@@ -801,7 +1101,13 @@ public class ManipulationDriver
       VD = V1.getShape(VDname);
       variableList.put(VDname, VD);
       
-      VD.setData(ComponentManipulator.multiplyVar(V1.getData(), V2.getData()));
+      if(canDefer(VD, V1))
+      {
+        deferData(VD, LazyGrid.combine(LazyGrid.Op.MULTIPLY, lazyData(V1), lazyData(V2)));
+      } else
+      {
+        VD.setData(ComponentManipulator.multiplyVar(V1.getData(), V2.getData()));
+      }
 	    if(V1.isReference() && (!((ReferenceVariable)V1).avg && !((ReferenceVariable)V2).avg)) {
 		    log.log(Level.WARNING, "Warning double weighting "+VDname);
 	    }
@@ -871,7 +1177,13 @@ public class ManipulationDriver
       VD = V1.getShape(VDname);
       variableList.put(VDname, VD);
       
-      VD.setData(ComponentManipulator.divideVar(V1.getData(), V2.getData()));
+      if(canDefer(VD, V1))
+      {
+        deferData(VD, LazyGrid.combine(LazyGrid.Op.DIVIDE, lazyData(V1), lazyData(V2)));
+      } else
+      {
+        VD.setData(ComponentManipulator.divideVar(V1.getData(), V2.getData()));
+      }
     } else
     {
       log.log(Level.WARNING, "Command Failed: variables of different shapes.");
@@ -919,10 +1231,16 @@ public class ManipulationDriver
         change = holdChange.getData()[0].data[0][0];
       }
       VDest = VSource.getShape(VDname);
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
-    VDest.setData(ComponentManipulator.multiplyVar(VSource.getData(), change));
+    if(canDefer(VDest, VSource))
+    {
+      deferData(VDest, LazyGrid.withScalar(LazyGrid.Op.MULTIPLY, lazyData(VSource), change));
+    } else
+    {
+      VDest.setData(ComponentManipulator.multiplyVar(VSource.getData(), change));
+    }
   }
   /**
    * Divides every position in the sent variable by the scalar.
@@ -966,13 +1284,19 @@ public class ManipulationDriver
         change = holdChange.getData()[0].data[0][0];
       }
       VDest = VSource.getShape(VDname);
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     if(change == 0)
     {
       log.log(Level.SEVERE, "Attempting to divide by a scalar of 0!");
     }
-    VDest.setData(ComponentManipulator.divideVar(VSource.getData(), change));
+    if(canDefer(VDest, VSource))
+    {
+      deferData(VDest, LazyGrid.withScalar(LazyGrid.Op.DIVIDE, lazyData(VSource), change));
+    } else
+    {
+      VDest.setData(ComponentManipulator.divideVar(VSource.getData(), change));
+    }
   }
   /**
    * Allows only values greater than either a scalar or corresponding
@@ -1028,7 +1352,13 @@ public class ManipulationDriver
       VDest = VSource.getShape(VDname);
       variableList.put(VDname, VDest);
       
-      VDest.setData(ComponentManipulator.greaterThan(VSource.getData(), limit, snap));
+      if(canDefer(VDest, VSource))
+      {
+        deferData(VDest, LazyGrid.withLimit(LazyGrid.Op.GREATER_THAN, lazyData(VSource), limit, snap));
+      } else
+      {
+        VDest.setData(ComponentManipulator.greaterThan(VSource.getData(), limit, snap));
+      }
     }
   }
   /**
@@ -1085,7 +1415,13 @@ public class ManipulationDriver
       VDest = VSource.getShape(VDname);
       variableList.put(VDname, VDest);
       
-      VDest.setData(ComponentManipulator.lessThan(VSource.getData(), limit, snap));
+      if(canDefer(VDest, VSource))
+      {
+        deferData(VDest, LazyGrid.withLimit(LazyGrid.Op.LESS_THAN, lazyData(VSource), limit, snap));
+      } else
+      {
+        VDest.setData(ComponentManipulator.lessThan(VSource.getData(), limit, snap));
+      }
     }
   }
 /**
@@ -1145,7 +1481,11 @@ public class ManipulationDriver
 		  VDest = VSource.getShape(VDname);
 		  variableList.put(VDname, VDest);
 
-		  VDest.setData(ComponentManipulator.lessThanOrEqual(VSource.getData(), limit, snap));
+		  if(canDefer(VDest, VSource)) {
+			  deferData(VDest, LazyGrid.withLimit(LazyGrid.Op.LESS_THAN_OR_EQUAL, lazyData(VSource), limit, snap));
+		  } else {
+			  VDest.setData(ComponentManipulator.lessThanOrEqual(VSource.getData(), limit, snap));
+		  }
 	  }
   }
   /**
@@ -1567,7 +1907,7 @@ public class ManipulationDriver
       //creating new datavariable to hold result
       VDest = new DataVariable();
       VDest.name = VDname;
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
 
     VDest.setData(ComponentManipulator.countElements(VSource.getData()));
@@ -1754,7 +2094,7 @@ public class ManipulationDriver
       //creating new datavariable to hold result
       VDest = new DataVariable();
       VDest.name = VDname;
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
     VDest.setData(ComponentManipulator.largestValue(VSource.getData()));
@@ -1785,7 +2125,7 @@ public class ManipulationDriver
       //creating new datavariable to hold result
       VDest = new DataVariable();
       VDest.name = VDname;
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
     VDest.setData(ComponentManipulator.smallestValue(VSource.getData()));
@@ -1947,7 +2287,7 @@ public class ManipulationDriver
       }
       //creating new datavariable to hold result
       VDest = VSource.getShape(VDname);
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
     VDest.setData(ComponentManipulator.avgVariables(sendData));
@@ -1994,7 +2334,7 @@ public class ManipulationDriver
       }
       //creating new datavariable to hold result
       VDest = new DataVariable(VDname);
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
     if((VSource.isReference())&&(((ReferenceVariable)VSource).avg))
@@ -2050,7 +2390,7 @@ public class ManipulationDriver
       }
       //creating new datavariable to hold result
       VDest = new DataVariable(VDname);
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
     if((VSource.isReference())&&(((ReferenceVariable)VSource).avg))
@@ -2322,12 +2662,12 @@ public class ManipulationDriver
       VShape = (Region)regionList.get(currInfo.getAttributeValue("value"));
       
       VDest = VSource.getShape(VDname);
-      variableList.put(VDname, VDest);
+      VDest = addVariable(VDname, VDest);
     }
     
     VDest.setData(VShape.extractRegion((ReferenceVariable)VSource));
-    ((ReferenceVariable)VDest).weight = VShape.getWorkingM("weight", "0");
-    ((ReferenceVariable)VDest).landFract = VShape.getWorkingM(DataBuilder.LAND_FRACTION, "0.0");
+    ((ReferenceVariable)VDest).weight = VShape.getWorkingView("weight", "0");
+    ((ReferenceVariable)VDest).landFract = VShape.getWorkingView(DataBuilder.LAND_FRACTION, "0.0");
   }
   /**
    * Give the user access to a contained Child varialbe in the passed
@@ -2716,7 +3056,6 @@ public class ManipulationDriver
 	  String fileName;
 	  double res;
 	  boolean missing_value_test = false;
-	  double[][] myData;
 	  float degHold;
 	  float missingValue = Float.NaN;
 	  Element currInfo;
@@ -2899,9 +3238,12 @@ public class ManipulationDriver
 		  ArrayFloat latArr = new ArrayFloat.D1(latDim.getLength());
 		  ArrayFloat lonArr = new ArrayFloat.D1(lonDim.getLength());
 		  ArrayInt timeArr = new ArrayInt.D1(timeDim.getLength());
-		  // add the actual data for each source variable
+		  // find the times for each source variable up front so that the data can
+		  // then be written for several variables at once
+		  final List<String> outNames = new ArrayList<String>(sourceVars.size());
+		  final List<List<Map.Entry<String, ReferenceVariable>>> outTimes =
+			  new ArrayList<List<Map.Entry<String, ReferenceVariable>>>(sourceVars.size());
 		  for(Iterator source = sourceVars.iterator(); source.hasNext(); ) {
-			  ArrayFloat dataArr = new ArrayFloat.D3(timeDim.getLength(), latDim.getLength(), lonDim.getLength());
 			  currInfo = (Element)source.next();
 			  var = getVariable(currInfo.getAttributeValue("name"));
 			  if(!var.isGroup()) {
@@ -2915,52 +3257,65 @@ public class ManipulationDriver
 			  } else if(var.isGroup() && ((GroupVariable)var).isTime) {
 				  GroupVariable varG = (GroupVariable)var;
 				  timeSet = new ArrayList((Set<Map.Entry<String, ReferenceVariable>>)varG.data.entrySet());
-				  // use the first in group as ref for all since they should
-				  // all have the same shape
-				  varR = timeSet.get(0).getValue();
 			  } else {
 				  // don't know about this one
 				  log.log(Level.WARNING, "Variable: "+currInfo.getAttributeValue("name")+" is not grouped by time.");
 				  return;
 			  }
+			  outNames.add(var.name);
+			  outTimes.add(timeSet);
+		  }
 
-			  //filling the array with the data
-			  Index ima = dataArr.getIndex();
-			  for(int t = 0; t < timeDim.getLength(); t++) {
-				  myData = timeSet.get(t).getValue().buildWorldMatrix();
-				  for(int i = 0; i < latDim.getLength(); i++)
-				  {
-					  for(int j = 0; j < lonDim.getLength(); j++)
-					  {
-						  // we want to flip the y so that (0,0) in the matrix
-						  // is the lower left i.e. (-90, -180)
-						  double currVal =  myData[(latDim.getLength() - i) - 1][j];
-						  if ( Double.isNaN(currVal) ) {
-							  dataArr.setFloat( ima.set(t,i,j), missingValue );
-						  } else {
-							  dataArr.setFloat( ima.set(t,i,j), (float)currVal );
+		  // add the actual data for each source variable one time slice at a time,
+		  // only a single slice per variable is held in memory rather than every
+		  // time for it, the writes themselves have to take turns on the file
+		  final NetcdfFileWriteable outFile = ncfile;
+		  final int numLat = latDim.getLength();
+		  final int numLon = lonDim.getLength();
+		  final int numTimes = timeDim.getLength();
+		  final float fillValue = missingValue;
+		  try {
+			  RangeExecutor.execute(outNames.size(), MIN_PARALLEL_NETCDF_VARIABLES, new RangeExecutor.RangeTask() {
+				  public void run(int start, int end) {
+					  double[] world = new double[numLat * numLon];
+					  ArrayFloat sliceArr = new ArrayFloat.D3(1, numLat, numLon);
+					  Index ima = sliceArr.getIndex();
+					  for(int v = start; v < end; ++v) {
+						  List<Map.Entry<String, ReferenceVariable>> times = outTimes.get(v);
+						  for(int t = 0; t < numTimes; t++) {
+							  times.get(t).getValue().fillWorldSlice(world);
+							  // the rows are already flipped so that (0,0) in the
+							  // slice is the lower left i.e. (-90, -180)
+							  for(int i = 0; i < numLat; i++)
+							  {
+								  for(int j = 0; j < numLon; j++)
+								  {
+									  double currVal = world[i*numLon + j];
+									  if ( Double.isNaN(currVal) ) {
+										  sliceArr.setFloat( ima.set(0,i,j), fillValue );
+									  } else {
+										  sliceArr.setFloat( ima.set(0,i,j), (float)currVal );
+									  }
+								  }
+							  }
+							  try {
+								  synchronized(outFile) {
+									  outFile.write(outNames.get(v), new int[] {t, 0, 0}, sliceArr);
+								  }
+							  } catch (IOException e) {
+								  throw new RuntimeException(e);
+							  } catch (InvalidRangeException e) {
+								  throw new RuntimeException(e);
+							  }
 						  }
 					  }
 				  }
-				  myData = null;
-				  // TODO: this is arbitrary and not sure if it is even necesary
-				  // only garbage collect every 25th time
-				  if(t % 25 == 0) {
-					  System.gc();
-				  }
-			  }
-			  try {
-				  ncfile.write(var.name, dataArr);
-				  ncfile.flush();
-			  } catch (IOException e) {
-				  log.log(Level.SEVERE, "NetCDF file failed to write data values -> "+e);
-				  e.printStackTrace();
-				  System.exit(0);
-			  } catch (InvalidRangeException e) {
-				  log.log(Level.SEVERE, "NetCDF file failed to write data values -> "+e);
-				  e.printStackTrace();
-				  System.exit(0);
-			  }
+			  });
+		  } catch (RuntimeException e) {
+			  // includes being interrupted, which RangeExecutor reports as a CancellationException
+			  log.log(Level.SEVERE, "NetCDF file failed to write data values -> "+(e.getCause() != null ? e.getCause() : e));
+			  e.printStackTrace();
+			  System.exit(0);
 		  }
 		  //filling array with latitude degrees
 		  Index iml = latArr.getIndex();
@@ -3701,7 +4056,7 @@ public class ManipulationDriver
       toAddVar.put(timeName, toAddTime);
     }
     //end getting time
-    toAdd.data.put(varName, toAddVar);
+    toAdd.setData(varName, toAddVar);
   //end getting weight
     
     //begin getting variables loop
@@ -3744,7 +4099,7 @@ public class ManipulationDriver
       }
       //end getting time
       //System.out.println("just added -> '"+varName+"'");
-      toAdd.data.put(varName, toAddVar);
+      toAdd.setData(varName, toAddVar);
     }
     //end getting varialbes
     
@@ -4186,20 +4541,60 @@ public class ManipulationDriver
 		  try
 		  {
 			  SAXBuilder builder = new SAXBuilder();
+			  // the commands are read first so that only the data they use
+			  // needs to be kept when streaming in the data
+			  rDocument = builder.build(rSource);
+			  log.log(Level.FINER, "region document parsed");
+			  cDocument = builder.build(cSource);
+			  log.log(Level.FINER, "command document parsed");
 			  //dDocument = builder.build(dSource);
 			  dDocument = null;
+			  if("true".equals(cDocument.getRootElement().getAttributeValue("pageData"))) {
+				  pageStore = GridStore.createTemporary();
+				  if(RegionDataFile.isRegionDataFile(dSource)) {
+					  sourcePageStore = GridStore.open(dSource);
+				  }
+			  }
 			  try {
-				  XMLReader saxReader = XMLReaderFactory.createXMLReader();
-				  saxReader.setContentHandler(new DataContentHandler());
-				  saxReader.parse(dSource);
+				  List heapPools = new ArrayList();
+				  Iterator it = ManagementFactory.getMemoryPoolMXBeans().iterator();
+				  while(it.hasNext()) {
+					  MemoryPoolMXBean pool = (MemoryPoolMXBean)it.next();
+					  if(pool.getType() == MemoryType.HEAP) {
+						  pool.resetPeakUsage();
+						  heapPools.add(pool);
+					  }
+				  }
+				  long startTime = System.currentTimeMillis();
+				  Map referencedFields = findReferencedFields(cDocument.getRootElement());
+				  int skippedVars, skippedTimes;
+				  if(RegionDataFile.isRegionDataFile(dSource)) {
+					  int[] skipped = readRegionDataFile(referencedFields);
+					  skippedVars = skipped[0];
+					  skippedTimes = skipped[1];
+				  } else {
+					  XMLReader saxReader = XMLReaderFactory.createXMLReader();
+					  DataContentHandler handler = new DataContentHandler(referencedFields);
+					  saxReader.setContentHandler(handler);
+					  saxReader.parse(dSource);
+					  skippedVars = handler.skippedVars;
+					  skippedTimes = handler.skippedTimes;
+				  }
+				  long peakHeap = 0;
+				  for(int i = 0; i < heapPools.size(); ++i) {
+					  peakHeap += ((MemoryPoolMXBean)heapPools.get(i)).getPeakUsage().getUsed();
+				  }
+				  log.log(Level.INFO, "Loaded "+regionList.size()+" regions in "
+						  +(System.currentTimeMillis()-startTime)+" ms, peak heap "+(peakHeap/(1024*1024))
+						  +" MB, skipped "+skippedVars+" unused variables and "+skippedTimes
+						  +" unused times");
+				  if(pageStore != null) {
+					  log.log(Level.INFO, "Paged "+(pageStore.getSize()/(1024*1024))+" MB of region data out to disk");
+				  }
 			  } catch(SAXException e) {
 				  e.printStackTrace();
 			  }
 			  log.log(Level.FINER, "data document parsed");
-			  rDocument = builder.build(rSource);
-			  log.log(Level.FINER, "region document parsed");
-			  cDocument = builder.build(cSource);
-			  log.log(Level.FINER, "command document parsed");
 		  } catch(FileNotFoundException e)
 		  {
 			  log.log(Level.SEVERE, "FileNotFound! in -> makeStreams");
@@ -4267,6 +4662,10 @@ public class ManipulationDriver
 	  private void runCommand(Element currCom)
 	  {
 		  log.log(Level.FINER, "parsing "+currCom.getName()+" command");
+		  if(lazy)
+		  {
+			  prepareLazyCommand(currCom);
+		  }
 		  if(currCom.getName().equals("variable"))
 		  {
 			  if(currCom.getAttributeValue("type").equals("data"))
@@ -4626,6 +5025,19 @@ public class ManipulationDriver
 			  return;
 		  }
 	  }
+	  /**
+	   * Adds a newly created variable unless one with the same name has been added
+	   * since the caller checked, which is done as a single step so that commands
+	   * running in parallel can not replace each other's variables.
+	   * @param name The name of the variable.
+	   * @param toAdd The variable to add.
+	   * @return The variable which is now in the list under that name.
+	   */
+	  private Variable addVariable(String name, Variable toAdd)
+	  {
+		  Variable existing = (Variable)variableList.putIfAbsent(name, toAdd);
+		  return existing != null ? existing : toAdd;
+	  }
 	  /**
 	   * Checks to make sure a variable referenced in some command currently exists.
 	   * @param name the name of the Variable
@@ -4681,15 +5093,193 @@ public class ManipulationDriver
 		  }
 	  }
 
+	  /**
+	   * Finds the fields, and the times of those fields, which the commands read from
+	   * the region data. These are all given by field elements, with a time element
+	   * next to them unless every time of the field is used, plus the land fraction
+	   * which is always needed.
+	   * @param root The root of the command document.
+	   * @return A map of field name to the set of times used, where a null set means all
+	   *         of the times, or null if all of the data should be loaded.
+	   */
+	  private Map findReferencedFields(Element root)
+	  {
+		  if("true".equals(root.getAttributeValue("loadAll")))
+		  {
+			  return null;
+		  }
+		  Map fields = new HashMap();
+		  Iterator it = root.getDescendants(new ElementFilter("field"));
+		  Element currField;
+		  Element currTime;
+		  String fieldName;
+		  while(it.hasNext())
+		  {
+			  currField = (Element)it.next();
+			  fieldName = currField.getAttributeValue("value");
+			  currTime = currField.getParentElement().getChild("time");
+			  if(currTime == null)
+			  { //every time is used
+				  fields.put(fieldName, null);
+			  } else if(!fields.containsKey(fieldName))
+			  {
+				  Set times = new HashSet();
+				  times.add(currTime.getAttributeValue("value"));
+				  fields.put(fieldName, times);
+			  } else if(fields.get(fieldName) != null)
+			  {
+				  ((Set)fields.get(fieldName)).add(currTime.getAttributeValue("value"));
+			  }
+		  }
+		  // the land fraction is read through getWorkingView by the reference variables
+		  // and shape, and so by sumValues, sumArea and freqAnalysis, without ever being
+		  // named in a field element (weight is always read for the same reason)
+		  fields.put(DataBuilder.LAND_FRACTION, null);
+		  return fields;
+	  }
+
+	  /**
+	   * Reads the sub regions from a binary region data file written by the
+	   * preprocessor.  This gives the same regions as streaming in the XML but each
+	   * matrix is copied in as a block rather than parsed a cell at a time.
+	   * @param referencedFields Fields and times to keep, null to keep everything.
+	   * @return The number of variables and times which were skipped.
+	   * @throws IOException If the file could not be read.
+	   */
+	  private int[] readRegionDataFile(Map referencedFields) throws IOException
+	  {
+		  int skippedVars = 0;
+		  int skippedTimes = 0;
+		  RegionDataFile in = new RegionDataFile(dSource);
+		  try {
+			  resolution = in.getResolution();
+			  // Normalize resolution to units of one quarter of a degree
+			  resolution = (double)( (int)Math.round(resolution*60*4) )/(60.0*4.0);
+			  Iterator it = in.getVariableInfo().iterator();
+			  while(it.hasNext()) {
+				  RegionDataFile.VariableInfo info = (RegionDataFile.VariableInfo)it.next();
+				  dataAvgAdd.put(info.name, new Boolean(info.avg));
+				  if(info.units != null) {
+					  dataUnits.put(info.name, info.units);
+				  }
+				  if(info.reference != null) {
+					  dataRef.put(info.name, info.reference);
+				  }
+			  }
+			  it = in.getRegions().iterator();
+			  while(it.hasNext()) {
+				  RegionDataFile.RegionInfo region = (RegionDataFile.RegionInfo)it.next();
+				  subRegion toAdd = new subRegion();
+				  toAdd.name = region.name;
+				  toAdd.resolution = resolution;
+				  toAdd.x = region.x;
+				  toAdd.y = region.y;
+				  toAdd.width = (region.sizeX*resolution);
+				  toAdd.height = (region.sizeY*resolution);
+				  // weight is needed first to weight the additive values
+				  double[][] weightTime = null;
+				  if(region.getVariables().contains("weight")) {
+					  Map toAddVar = new HashMap();
+					  Iterator timeIt = region.getTimes("weight").iterator();
+					  while(timeIt.hasNext()) {
+						  String timeName = (String)timeIt.next();
+						  toAddVar.put(timeName, in.readGrid(region, "weight", timeName));
+					  }
+					  toAdd.setData("weight", toAddVar);
+					  weightTime = (double[][])toAddVar.get("0");
+				  }
+				  Iterator varIt = region.getVariables().iterator();
+				  while(varIt.hasNext()) {
+					  String varName = (String)varIt.next();
+					  if(varName.equals("weight")) {
+						  continue;
+					  }
+					  if(referencedFields != null && !referencedFields.containsKey(varName)) {
+						  ++skippedVars;
+						  continue;
+					  }
+					  Set usedTimes = referencedFields == null ? null : (Set)referencedFields.get(varName);
+					  boolean avg = ((Boolean)dataAvgAdd.get(varName)).booleanValue();
+					  Map toAddVar = new HashMap();
+					  Iterator timeIt = region.getTimes(varName).iterator();
+					  while(timeIt.hasNext()) {
+						  String timeName = (String)timeIt.next();
+						  if(usedTimes != null && !usedTimes.contains(timeName)) {
+							  ++skippedTimes;
+							  continue;
+						  }
+						  if(avg && sourcePageStore != null) {
+							  // averaged values are used as they are in the file so can be paged from it
+							  toAddVar.put(timeName, sourcePageStore.page(in.getBlockOffset(region, varName, timeName),
+										  region.sizeY, region.sizeX));
+							  continue;
+						  }
+						  double[][] toAddTime = in.readGrid(region, varName, timeName);
+						  if(!avg) {
+							  //this is an additive value and should be initially weighted (now)
+							  for(int hy = 0; hy < toAddTime.length; hy++) {
+								  for(int wx = 0; wx < toAddTime[hy].length; wx++) {
+									  toAddTime[hy][wx] *= weightTime[hy][wx];
+								  }
+							  }
+						  }
+						  toAddVar.put(timeName, storeGrid(toAddTime));
+					  }
+					  if(!toAddVar.isEmpty()) {
+						  toAdd.setData(varName, toAddVar);
+					  }
+				  }
+				  //adding region to master list
+				  regionList.put(toAdd.name, toAdd);
+			  }
+		  } finally {
+			  in.close();
+		  }
+		  return new int[] { skippedVars, skippedTimes };
+	  }
+
+	  /**
+	   * Pages a variable's matrix out to disk if the user asked for region data to
+	   * be paged, otherwise it is kept in memory.  Weights are always kept in memory
+	   * as every command uses them.
+	   * @param grid The matrix which was read in.
+	   * @return What to store for the matrix in the region.
+	   */
+	  private Object storeGrid(double[][] grid)
+	  {
+		  if(pageStore == null) {
+			  return grid;
+		  }
+		  try {
+			  return pageStore.add(grid);
+		  } catch(IOException e) {
+			  log.log(Level.WARNING, "Could not page out region data, keeping it in memory: "+e);
+			  return grid;
+		  }
+	  }
+
 	  private class DataContentHandler extends DefaultHandler {
 		  subRegion toAdd;
 		  int sizeX, sizeY, currX, currY;
 		  Map toAddVar;
 		  double[][] toAddTime;
+		  double[][] weightTime; // the weights to apply to additive values
 		  String varName, timeName;
 		  boolean avg;
 		  boolean isVarInfo = false;
+		  Map referencedFields; // fields and times to keep, null to keep everything
+		  boolean skipVar = false;
+		  boolean skipTime = false;
+		  int skippedVars = 0;
+		  int skippedTimes = 0;
+		  DataContentHandler(Map referencedFields) {
+			  this.referencedFields = referencedFields;
+		  }
 		  public void startElement(String uri, String localName, String qName, Attributes attrs) {
+			  if(skipTime && localName.equals("data")) {
+				  // not used by any command so don't bother reading it
+				  return;
+			  }
 			  if(localName.equals("input")) {
 				  resolution = Double.parseDouble(attrs.getValue("res"));
 				  // Normalize resolution to units of one quarter of a degree
@@ -4709,19 +5299,30 @@ public class ManipulationDriver
 				  toAdd.height = (sizeY*resolution);
 			  } else if(localName.equals("weight")) {
 				  varName = "weight";
+				  skipVar = false;
 				  toAddVar = new HashMap(); // does this have to be a treemap?
 			  } else if(localName.equals("time")) {
 				  timeName = attrs.getValue("value");
+				  if(skipVar) {
+					  skipTime = true;
+					  return;
+				  } else if(referencedFields != null && !varName.equals("weight")
+						  && referencedFields.get(varName) != null
+						  && !((Set)referencedFields.get(varName)).contains(timeName)) {
+					  skipTime = true;
+					  ++skippedTimes;
+					  return;
+				  }
+				  skipTime = false;
+				  if(!varName.equals("weight") && !avg) {
+					  weightTime = (double[][])((Map)toAdd.data.get("weight")).get("0");
+				  }
 				  toAddTime = new double[sizeY][sizeX];
-				  for(int hy = 0; hy<sizeY; hy++)
-				  {
-					  for(int hx = 0; hx<sizeX; hx++)
+				  // weights start at 0 while variables start with no data
+				  if(!varName.equals("weight")) {
+					  for(int hy = 0; hy<sizeY; hy++)
 					  {
-						  if(varName.equals("weight")) {
-							  toAddTime[hy][hx] = 0;
-						  } else { // variable
-							  toAddTime[hy][hx] = Double.NaN;
-						  }
+						  Arrays.fill(toAddTime[hy], Double.NaN);
 					  }
 				  }
 			  } else if(localName.equals("data")) {
@@ -4743,14 +5344,19 @@ public class ManipulationDriver
 					  toAddTime[currY][currX] = stringToDouble(attrs.getValue("value"));
 					  if(!varName.equals("weight") && !avg)
 					  { //this is an additive value and should be initially weighted (now)
-						  toAddTime[currY][currX] *= ((double[][])((Map)toAdd.data.get("weight")).get("0"))[currY][currX];
+						  toAddTime[currY][currX] *= weightTime[currY][currX];
 					  }
 				  }
 			  } else if(localName.equals("variable")) {
 				  if(!isVarInfo) {
 					  varName = attrs.getValue("value");
 					  avg = ((Boolean)dataAvgAdd.get(varName)).booleanValue();
-					  toAddVar = new HashMap(); // again has to be TreeMap?
+					  skipVar = referencedFields != null && !referencedFields.containsKey(varName);
+					  if(skipVar) {
+						  ++skippedVars;
+					  } else {
+						  toAddVar = new HashMap(); // again has to be TreeMap?
+					  }
 				  } else {
 					  varName = attrs.getValue("name");
 				  }
@@ -4776,8 +5382,11 @@ public class ManipulationDriver
 				  //end getting weight
 			  } else if(localName.equals("time")) {
 				  //end getting time
-				  toAddVar.put(timeName, toAddTime);
-				  toAdd.data.put(varName, toAddVar);
+				  if(!skipTime) {
+					  toAddVar.put(timeName, varName.equals("weight") ? toAddTime : storeGrid(toAddTime));
+					  toAdd.setData(varName, toAddVar);
+				  }
+				  skipTime = false;
 			  } else if(localName.equals("data")) {
 				  //end getting data
 			  }
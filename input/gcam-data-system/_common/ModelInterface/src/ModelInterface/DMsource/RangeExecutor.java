@@ -0,0 +1,217 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utility to split up work over a range of independent items, such as grid cells or
+ * rows, across all of the available processors.  The range is broken up into more
+ * chunks than there are threads since some parts of a grid are often much quicker to
+ * process than others.  All calls share a single pool of threads and the calling
+ * thread works on the chunks as well, so tasks may call execute themselves without
+ * creating more threads or waiting on threads which are busy.
+ */
+public final class RangeExecutor {
+	static Logger log = Logger.getLogger("DataManipulation");
+
+	/**
+	 * The work to do for a contiguous part of the range.
+	 */
+	public interface RangeTask {
+		/**
+		 * Process the items from start up to but not including end.
+		 * @param start The first item to process.
+		 * @param end One past the last item to process.
+		 */
+		void run(int start, int end);
+	}
+
+	/**
+	 * A reduction over a range of items.  Each item is reduced on its own and the
+	 * partial results are then combined pairwise.
+	 */
+	public interface RangeReduction<T> {
+		/**
+		 * Calculate the partial result for a single item.
+		 * @param index The item to reduce.
+		 * @return The partial result for that item.
+		 */
+		T reduce(int index);
+
+		/**
+		 * Combine two partial results, the left one covers the items just before those
+		 * of the right one.  The left result may be updated and returned.
+		 * @param left The partial result for the earlier items.
+		 * @param right The partial result for the later items.
+		 * @return The partial result for both sets of items.
+		 */
+		T combine(T left, T right);
+	}
+
+	/**
+	 * Number of chunks to create per thread.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	/**
+	 * Number of threads to split the work over.
+	 */
+	private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The threads shared by all calls, created when first needed.  The threads are
+	 * daemons so that an idle pool does not keep the program running.
+	 */
+	private static ExecutorService pool = null;
+
+	private RangeExecutor() {
+	}
+
+	/**
+	 * Get the shared pool of threads creating it if necessary.
+	 * @return The shared pool.
+	 */
+	private static synchronized ExecutorService getPool() {
+		if(pool == null) {
+			pool = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger(0);
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "RangeExecutor-"+threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Run the task over the range 0 to size.  This will not return until all of
+	 * the work has completed.  Ranges smaller than minParallelSize are just run on
+	 * the current thread.
+	 * @param size The number of items in the range.
+	 * @param minParallelSize The smallest range which is worth splitting up.
+	 * @param task The work to do for each part of the range.
+	 * @throws CancellationException If the calling thread was interrupted while
+	 * 	waiting for the work to finish, the interrupt flag will still be set.
+	 * @throws RuntimeException If the task failed for any part of the range.
+	 */
+	public static void execute(final int size, int minParallelSize, final RangeTask task) {
+		if(NUM_THREADS == 1 || size < minParallelSize) {
+			task.run(0, size);
+			return;
+		}
+		final int chunkSize = Math.max(1, size / (NUM_THREADS * CHUNKS_PER_THREAD));
+		final int numChunks = (size + chunkSize - 1) / chunkSize;
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+		final CountDownLatch chunksDone = new CountDownLatch(numChunks);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Runnable worker = new Runnable() {
+			public void run() {
+				int chunk;
+				while((chunk = nextChunk.getAndIncrement()) < numChunks) {
+					try {
+						// once anything has failed the rest of the chunks are skipped
+						if(failure.get() == null) {
+							final int chunkStart = chunk * chunkSize;
+							task.run(chunkStart, Math.min(chunkStart + chunkSize, size));
+						}
+					} catch(Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						chunksDone.countDown();
+					}
+				}
+			}
+		};
+		// helpers which start after all chunks have been taken just return
+		final ExecutorService sharedPool = getPool();
+		for(int i = 1; i < Math.min(NUM_THREADS, numChunks); ++i) {
+			sharedPool.execute(worker);
+		}
+		worker.run();
+		// the only chunks which could still be running were started by helpers
+		// which are now working on them
+		try {
+			chunksDone.await();
+		} catch(InterruptedException e) {
+			failure.compareAndSet(null, e);
+			log.log(Level.WARNING, "Interrupted while waiting for results");
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for results");
+		}
+		if(failure.get() != null) {
+			log.log(Level.SEVERE, "Failed to process range: "+failure.get());
+			throw new RuntimeException(failure.get());
+		}
+	}
+
+	/**
+	 * Reduce the range 0 to size.  The partial results for each item are calculated
+	 * in parallel and then combined as a balanced tree, neighbours first.  The order
+	 * of the combines only depends on the size of the range and not on the number of
+	 * threads so that the result is the same on every machine.
+	 * @param size The number of items in the range.
+	 * @param minParallelSize The smallest range which is worth splitting up.
+	 * @param reduction The reduction to run.
+	 * @return The combined result or null if the range is empty.
+	 * @throws CancellationException If the calling thread was interrupted.
+	 * @throws RuntimeException If any item could not be reduced.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T reduce(int size, int minParallelSize, final RangeReduction<T> reduction) {
+		if(size == 0) {
+			return null;
+		}
+		final Object[] partials = new Object[size];
+		execute(size, minParallelSize, new RangeTask() {
+			public void run(int start, int end) {
+				for(int i = start; i < end; ++i) {
+					partials[i] = reduction.reduce(i);
+				}
+			}
+		});
+		for(int step = 1; step < size; step *= 2) {
+			for(int i = 0; i + step < size; i += 2 * step) {
+				partials[i] = reduction.combine((T)partials[i], (T)partials[i + step]);
+			}
+		}
+		return (T)partials[0];
+	}
+}
@@ -47,6 +47,7 @@ import java.text.DecimalFormat;
 import java.util.logging.*;
 import ModelInterface.PPsource.CoordConversions;
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 import java.io.*;
 
 import ModelInterface.PPsource.DataBuilder;
@@ -139,8 +140,8 @@ public class ReferenceVariable extends Variable
     w = r.width;
     h = r.height;
     res = r.resolution;
-    weight = r.getWorkingM("weight", "0");
-    landFract = r.getWorkingM(DataBuilder.LAND_FRACTION, "0.0");
+    weight = r.getWorkingView("weight", "0");
+    landFract = r.getWorkingView(DataBuilder.LAND_FRACTION, "0.0");
   } 
   /**
    * Creates a reference variable with information, including data of passed variable
@@ -165,8 +166,8 @@ public class ReferenceVariable extends Variable
     h = r.height;
     res = r.resolution;
     data = r.getWorkingM(v, t);
-    weight = r.getWorkingM("weight", "0");
-    landFract = r.getWorkingM(DataBuilder.LAND_FRACTION, "0.0");
+    weight = r.getWorkingView("weight", "0");
+    landFract = r.getWorkingView(DataBuilder.LAND_FRACTION, "0.0");
   }
   
   //***************************************************************************
@@ -362,24 +363,82 @@ public class ReferenceVariable extends Variable
   public double[][] buildWorldMatrix()
   {
     //System.out.println(x+", "+y+", "+w+", "+h);
-    int offsetY, offsetX;
+    int numLat = (int)Math.round(180/res);
+    int numLon = (int)Math.round(360/res);
+    double[] world = new double[numLat*numLon];
+    double[] weights = new double[numLat*numLon];
+    
+    //building a complete matrix of values to print from sub regions
+    addRegions(world, weights, false);
+    
+    double[][] worldMatrix = new double[numLat][numLon];
+    for(int i = 0; i < numLat; i++)
+    {
+      System.arraycopy(world, i*numLon, worldMatrix[i], 0, numLon);
+    }
+   return worldMatrix;
+// Diagnostic to return total weight for each grid point. Used to check calcs.  
+/*
+// Uncomment this block to write out weight coverage
+    for(int i = 0; i < weights.length; i++)
+    {
+        double temp = weights[i] ;
+        weights[i] = temp / temp;
+    }
+ */    
+/*
+   // Uncoment this to return weight matrix, copying weights rather than world above
+   return worldMatrix;
+
+
+    
+     * if((holdM[iY][iX]) > 1)
+              {
+                System.out.println("serious problem: "+(holdM[iY][iX])+" at "+(offsetY+iY)+", "+(offsetX+iX)+" with weight "+holdWM[(iY)][(iX)]);
+              }
+     * 
+     * if(toPrint[(offsetY+iY)][(offsetX+iX)] > 1)
+              {
+                System.out.println("still a problem: "+(holdM[iY][iX])+"->"+toPrint[(offsetY+iY)][(offsetX+iX)]+" at "+(offsetY+iY)+", "+(offsetX+iX)+" with weight "+holdWM[(iY)][(iX)]);
+              }
+     */
+  }
+  
+  /**
+   * Adds up the region data into a single world slice with the rows flipped so that
+   * row 0 is at -90, which is the order a NetCDF lat/lon slice is written in.  This
+   * does the same sums as buildWorldMatrix but into a flat array which the caller
+   * can reuse from one time to the next, and without tracking the total weights.
+   * @param world Destination of (180/res)*(360/res) values, cells with no valid
+   *              data are left as NaN.
+   */
+  public void fillWorldSlice(double[] world)
+  {
+    addRegions(world, null, true);
+  }
+  
+  /**
+   * Sums the data of every region into a flat world grid of (180/res) rows of
+   * (360/res) values.
+   * @param world Destination for the values, cells with no valid data are left as NaN.
+   * @param weights Destination for the total weight of each cell, or null to skip them.
+   * @param flipRows Whether row 0 is at -90 rather than +90.
+   */
+  private void addRegions(double[] world, double[] weights, boolean flipRows)
+  {
+    int numLat = (int)Math.round(180/res);
+    int numLon = (int)Math.round(360/res);
+    int offsetY, offsetX, row, cell;
     double[][] holdM;
     double[][] holdWM;
     ReferenceWrapper holdD;
     ReferenceWrapper holdW;
-    double[][] worldMatrix = new double[(int)Math.round(180/res)][(int)Math.round(360/res)];
-    double[][] weightMatrix = new double[(int)Math.round(180/res)][(int)Math.round(360/res)];
     
-    for(int i = 0; i < worldMatrix.length; i++)
+    Arrays.fill(world, Double.NaN);
+    if(weights != null)
     {
-      for(int k = 0; k < worldMatrix[i].length; k++)
-      {
-        worldMatrix[i][k] = Double.NaN;
-        weightMatrix[i][k] = 0;
-      }
+      Arrays.fill(weights, 0);
     }
-    
-    //building a complete matrix of values to print from sub regions
     for(int i = 0; i < data.length; i++)
     {
       //System.out.println("adding region: "+((ReferenceWrapper)data[i]).name);
@@ -408,70 +467,36 @@ public class ReferenceVariable extends Variable
       
       for(int iY = 0; iY < holdM.length; iY++)
       {
+        row = flipRows ? (numLat - (offsetY+iY)) - 1 : (offsetY+iY);
         for(int iX = 0; iX < holdM[iY].length; iX++)
         {
-		  if(!Double.isNaN( holdWM[iY][iX] ) ) {
-			  weightMatrix[(offsetY+iY)][(offsetX+iX)] += holdWM[iY][iX];
+          cell = row*numLon + offsetX+iX;
+		  if(weights != null && !Double.isNaN( holdWM[iY][iX] ) ) {
+			  weights[cell] += holdWM[iY][iX];
 		  }
           if(!Double.isNaN(holdM[iY][iX])) // Only proceed if valid number to be added
           {
-            if(Double.isNaN(worldMatrix[(offsetY+iY)][(offsetX+iX)]))
+            if(Double.isNaN(world[cell]))
             {
             	// If value up to this point is a NaN then put this value in array
 				if(avg) {
-					worldMatrix[(offsetY+iY)][(offsetX+iX)] = ((holdM[iY][iX])*holdWM[iY][iX]);
+					world[cell] = ((holdM[iY][iX])*holdWM[iY][iX]);
 				} else {
-					worldMatrix[(offsetY+iY)][(offsetX+iX)] = holdM[iY][iX];
+					world[cell] = holdM[iY][iX];
 				}
             } else //  NaN
             {
             	// If valid value already here, add this value to this. Weighting if average = true.
             	if(avg) {
-					worldMatrix[(offsetY+iY)][(offsetX+iX)] += ((holdM[iY][iX])*holdWM[iY][iX]);
+					world[cell] += ((holdM[iY][iX])*holdWM[iY][iX]);
 				} else {
-					worldMatrix[(offsetY+iY)][(offsetX+iX)] += holdM[iY][iX];
+					world[cell] += holdM[iY][iX];
 				}
-              /*
-              if(worldMatrix[(offsetY+iY)][(offsetX+iX)] > 1)
-              {
-                System.out.println("still a problem: "+(holdM[iY][iX])+"->"+worldMatrix[(offsetY+iY)][(offsetX+iX)]+" at "+(90-((offsetY+iY)*res))+", "+(((offsetX+iX)*res)-180)+" with weight "+holdWM[(iY)][(iX)]);
-              }
-              */
             }
           }
         }
       }
     }
-    
-   return worldMatrix;
-// Diagnostic to return total weight for each grid point. Used to check calcs.  
-/*
-// Uncomment this block to write out weight coverage
-    for(int i = 0; i < worldMatrix.length; i++)
-    {
-      for(int k = 0; k < worldMatrix[i].length; k++)
-      {
-        double temp = weightMatrix[i][k] ;
-        weightMatrix[i][k] = temp / temp;
-      }
-    }
- */    
-/*
-   // Uncoment this to return weight matrix
-   return weightMatrix;
-
-
-    
-     * if((holdM[iY][iX]) > 1)
-              {
-                System.out.println("serious problem: "+(holdM[iY][iX])+" at "+(offsetY+iY)+", "+(offsetX+iX)+" with weight "+holdWM[(iY)][(iX)]);
-              }
-     * 
-     * if(toPrint[(offsetY+iY)][(offsetX+iX)] > 1)
-              {
-                System.out.println("still a problem: "+(holdM[iY][iX])+"->"+toPrint[(offsetY+iY)][(offsetX+iX)]+" at "+(offsetY+iY)+", "+(offsetX+iX)+" with weight "+holdWM[(iY)][(iX)]);
-              }
-     */
   }
   
   //***************************************************************************
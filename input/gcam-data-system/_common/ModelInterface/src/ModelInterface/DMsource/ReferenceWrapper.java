@@ -114,6 +114,24 @@ public class ReferenceWrapper extends Wrapper
     mask = r.getBitMask();
     wrappedRegion = r;
   }
+  /**
+   * Region-based DataWrapper constructor which uses the passed matrix as its
+   * data rather than allocating one. The matrix is not copied.
+   * @param r Region whos values will construct this DataWrapper.
+   * @param d Matrix of values in the shape of the region.
+   */
+  public  ReferenceWrapper(Region r, double[][] d)
+  {
+    name = r.name;
+    res = r.resolution;
+    x = r.x;
+    y= r.y;
+    height = r.height;
+    width = r.width;
+    data = d;
+    mask = r.getBitMask();
+    wrappedRegion = r;
+  }
   /**
    * Simulated region-based DataWrapper constuctor. Passed values give the
    * approximation of a region for the allocation of data space but the
@@ -84,6 +84,10 @@ public abstract class Region extends Rectangle2D.Double
    * handle the case where a Region is contained by multiple Regions.
    */
   public Region parentRegion = null;
+  /**
+   * The number of times this region's data has been changed.
+   */
+  protected long changes = 0;
   
   public abstract boolean isSuper();
   /**
@@ -109,6 +113,16 @@ public abstract class Region extends Rectangle2D.Double
    * @return Array of DataWrappers each one of which correspond to a lowest level region of data.
    */
   public abstract ReferenceWrapper[] getWorkingM(String var, String year);
+  /**
+   * Gets the specified data values in the same way as getWorkingM but the
+   * DataWrappers reference this region's own matrices rather than copies, so
+   * they must only be read. Used for weights and land fractions which are
+   * never changed by the manipulation commands.
+   * @param var Variable you would like to extract.
+   * @param year Time you would like to extract for.
+   * @return Array of DataWrappers each one of which correspond to a lowest level region of data.
+   */
+  public abstract ReferenceWrapper[] getWorkingView(String var, String year);
   /**
    * Gets a bit mask which defines for each point in the regions bounds whether
    * or not it is in the actual region. This mask is aggregated up from any
@@ -136,6 +150,20 @@ public abstract class Region extends Rectangle2D.Double
    * @return true if this or a contained regions is called regionNameIn.
    */
   public abstract boolean containsRegion(String regionNameIn);
+  /**
+   * Gets a number which changes whenever the data in this region or any region
+   * it contains changes. Used to know when cached matrices are out of date.
+   * @return The current version of this region's data.
+   */
+  abstract long getVersion();
+  /**
+   * Must be called after this region's data has been changed so that any
+   * matrices cached from it are rebuilt.
+   */
+  public void dataChanged()
+  {
+    ++changes;
+  }
   /**
    * Prints this regions bit mask to the screen as a matrix of 0's (not in region)
    * and 1's (in region). Additionally gives some bounds for the region.
@@ -57,7 +57,9 @@ import Jama.Matrix;
  */
 public class subRegion extends Region
 {
-  TreeMap data;
+  TreeMap data; //variable -> time -> double[][] or a GridStore.Page when paged out
+  private byte[][] bitMask; //cached as every wrapper of this region needs it
+  private long bitMaskVersion = -1;
   
   public subRegion()
   {
@@ -75,7 +77,21 @@ public class subRegion extends Region
   
   public double[][] getM()
   {
-    return (double[][])((Map)data.get("weight")).get("0");
+    return grid(((Map)data.get("weight")).get("0"));
+  }
+  
+  /**
+   * Gets the matrix for a stored value, paging it in if it is not in memory.
+   * @param stored The double[][] or GridStore.Page which was stored.
+   * @return The matrix which must not be changed.
+   */
+  private static double[][] grid(Object stored)
+  {
+    if(stored instanceof GridStore.Page)
+    {
+      return ((GridStore.Page)stored).get();
+    }
+    return (double[][])stored;
   }
   
   //returns the matrix of values for the specified variable during the specified year
@@ -85,12 +101,12 @@ public class subRegion extends Region
     
     if(holdVar.containsKey(year))
     { //user enterd a time which exists, return it
-      return (double[][])holdVar.get(year);
+      return grid(holdVar.get(year));
     } else
     { //test if the user just forgot the .0 at the end of time, add for them
       if(holdVar.containsKey(year+".0"))
       {
-        return (double[][])holdVar.get(year+".0");
+        return grid(holdVar.get(year+".0"));
       } else
       { //this time just straight up doesnt exist
         return null;
@@ -98,8 +114,30 @@ public class subRegion extends Region
     }
   }
   
-  public byte[][] getBitMask()
+  long getVersion()
+  {
+    return changes;
+  }
+  
+  /**
+   * Sets the data of a variable in this region, replacing any it already had.
+   * Any matrices cached from this region or the regions containing it are
+   * rebuilt the next time they are needed.
+   * @param var The variable the data is for.
+   * @param times Map of time to the double[][] or GridStore.Page for that time.
+   */
+  public void setData(String var, Map times)
+  {
+    data.put(var, times);
+    dataChanged();
+  }
+  
+  public synchronized byte[][] getBitMask()
   {
+    if(bitMaskVersion == getVersion())
+    {
+      return bitMask;
+    }
     byte[][] toReturn;
     double[][] w = getM();
     toReturn = new byte[w.length][w[0].length];
@@ -108,6 +146,8 @@ public class subRegion extends Region
         if(w[i][k] != 0)
           toReturn[i][k] = 1;
     
+    bitMask = toReturn;
+    bitMaskVersion = getVersion();
     return toReturn;
   }
   
@@ -134,7 +174,7 @@ public class subRegion extends Region
           toReturn[0].data[i][k] = java.lang.Double.NaN;
     } else
     {
-      double[][] holdD = (double[][])((Map)data.get(var)).get(year);
+      double[][] holdD = grid(((Map)data.get(var)).get(year));
       toReturn[0] = new ReferenceWrapper(this);
       
       for(int i = 0; i < holdD.length; i++)
@@ -143,6 +183,16 @@ public class subRegion extends Region
     }
     return toReturn;
   }
+  public ReferenceWrapper[] getWorkingView(String var, String year)
+  {
+    if(!data.containsKey(var) || !((Map)data.get(var)).containsKey(year))
+    { //nothing to reference, will be cell sizes or no data
+      return getWorkingM(var, year);
+    }
+    ReferenceWrapper[] toReturn = new ReferenceWrapper[1];
+    toReturn[0] = new ReferenceWrapper(this, grid(((Map)data.get(var)).get(year)));
+    return toReturn;
+  }
   /**
    * Gets the value of the passed var, at the passed time, at the passed location in the matrix.
    * @param var Variable you require data from.
@@ -44,7 +44,8 @@
 package ModelInterface.DMsource;
 
 import java.util.*;
-
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -60,6 +61,26 @@ public class superRegion extends Region
 {
   
   List<Region> data; //a list of other stored regions, be they sub or super
+  /**
+   * Composite matrices, masks, and working sets which have been built from the
+   * contained regions. Entries are softly held and are rebuilt when the version
+   * of this region no longer matches the one they were built for.
+   */
+  private Map<String, CacheEntry> cache = new HashMap<String, CacheEntry>();
+  private static AtomicLong cacheHits = new AtomicLong();
+  private static AtomicLong cacheMisses = new AtomicLong();
+  
+  private static class CacheEntry
+  {
+    long version;
+    SoftReference<Object> value;
+    
+    CacheEntry(long version, Object value)
+    {
+      this.version = version;
+      this.value = new SoftReference<Object>(value);
+    }
+  }
   /**
    * Constucts a blank super region with imposible bounds all fields must
    * be set later by the user. Setting of bounds and filling of data should
@@ -84,7 +105,73 @@ public class superRegion extends Region
     return true;
   }
   
+  long getVersion()
+  { //children are only ever added so the count and their versions only go up
+    long version = changes + data.size();
+    for(int i = 0; i < data.size(); i++)
+    {
+      version += data.get(i).getVersion();
+    }
+    return version;
+  }
+  
+  /**
+   * Gets the number of times a cached matrix was used rather than built, for
+   * all super regions.
+   * @return Number of cache hits.
+   */
+  public static long getCacheHits()
+  {
+    return cacheHits.get();
+  }
+  
+  /**
+   * Gets the number of times a matrix had to be built, for all super regions.
+   * @return Number of cache misses.
+   */
+  public static long getCacheMisses()
+  {
+    return cacheMisses.get();
+  }
+  
+  private synchronized Object getCached(String key)
+  {
+    CacheEntry entry = cache.get(key);
+    if(entry != null && entry.version == getVersion())
+    {
+      Object value = entry.value.get();
+      if(value != null)
+      {
+        cacheHits.incrementAndGet();
+        return value;
+      }
+    }
+    cacheMisses.incrementAndGet();
+    return null;
+  }
+  
+  private synchronized void putCached(String key, long version, Object value)
+  {
+    cache.put(key, new CacheEntry(version, value));
+  }
+  
+  /**
+   * Gets the weight matrix built from all contained regions. The matrix is
+   * cached so it must not be changed.
+   */
   public double[][] getM() //getM returns the weight matrix
+  {
+    double[][] toReturn = (double[][])getCached("weight");
+    if(toReturn == null)
+    {
+      long version = getVersion();
+      toReturn = buildM();
+      putCached("weight", version, toReturn);
+    }
+    return toReturn;
+  }
+  
+  private double[][] buildM()
   { //does not weight return as it is returning weight (not weight^2)
     Region holdR;
     int offsetY, offsetX;
@@ -131,7 +218,24 @@ public class superRegion extends Region
     return toReturn;
   }
   
+  /**
+   * Gets the weighted values of a variable built from all contained regions.
+   * The matrix is cached so it must not be changed.
+   */
   public double[][] getM(String var, String year)
+  {
+    String key = "data:"+var+":"+year;
+    double[][] toReturn = (double[][])getCached(key);
+    if(toReturn == null)
+    {
+      long version = getVersion();
+      toReturn = buildM(var, year);
+      putCached(key, version, toReturn);
+    }
+    return toReturn;
+  }
+  
+  private double[][] buildM(String var, String year)
   {
     Region holdR;
     int offsetY, offsetX;
@@ -154,7 +258,7 @@ public class superRegion extends Region
       offsetX = (int)((holdR.x-x)/resolution);
       for(int iY = 0; iY < holdM.length; iY++)
       {
-        for(int iX = 0; iX < holdM[i].length; iX++)
+        for(int iX = 0; iX < holdM[iY].length; iX++)
         {
           if(!java.lang.Double.isNaN(holdM[iY][iX]))
           {
@@ -171,7 +275,12 @@ public class superRegion extends Region
   
   public byte[][] getBitMask()
   {
-    byte[][] toReturn;
+    byte[][] toReturn = (byte[][])getCached("mask");
+    if(toReturn != null)
+    {
+      return toReturn;
+    }
+    long version = getVersion();
     double[][] w = getM();
     toReturn = new byte[w.length][w[0].length];
     for(int i = 0; i < w.length; i++)
@@ -179,6 +288,7 @@ public class superRegion extends Region
         if(w[i][k] != 0)
           toReturn[i][k] = 1;
     
+    putCached("mask", version, toReturn);
     return toReturn;
   }
   
@@ -204,6 +314,31 @@ public class superRegion extends Region
     return toReturn;
   }
   
+  public ReferenceWrapper[] getWorkingView(String var, String year)
+  {
+    String key = "view:"+var+":"+year;
+    ReferenceWrapper[] toReturn = (ReferenceWrapper[])getCached(key);
+    if(toReturn == null)
+    {
+      long version = getVersion();
+      ReferenceWrapper[] holdD;
+      int currWrap = 0;
+      toReturn = new ReferenceWrapper[numSub];
+      for(int i = 0; i < data.size(); i++)
+      {
+        holdD = data.get(i).getWorkingView(var, year);
+        for(int k = 0; k < holdD.length; k++)
+        {
+          toReturn[currWrap] = holdD[k];
+          currWrap++;
+        }
+      }
+      putCached(key, version, toReturn);
+    }
+    //the wrappers are shared but the array may be filled in by the caller
+    return (ReferenceWrapper[])toReturn.clone();
+  }
+  
   public ArrayList<String> getTimeList(String var)
   {
     return data.get(0).getTimeList(var);
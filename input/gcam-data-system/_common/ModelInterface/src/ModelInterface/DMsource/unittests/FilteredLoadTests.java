@@ -0,0 +1,234 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.DMsource.unittests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import ModelInterface.DMsource.ManipulationDriver;
+import ModelInterface.PPsource.DataBuilder;
+import ModelInterface.PPsource.RegionDataFile;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for only loading the region data which the commands use.  Sums
+ * computed from a filtered load must match those from loading everything.
+ */
+public class FilteredLoadTests extends TestCase {
+
+    /**
+     * Directory the data, region and command files are written to.
+     */
+    File mDir = null;
+
+    /**
+     * Constructor for FilteredLoadTests.
+     * 
+     * @param name
+     */
+    public FilteredLoadTests(String name) {
+        super(name);
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("filteredload", "");
+        mDir.delete();
+        mDir.mkdir();
+        writeFile("regionDef.xml", "<regions numLevels=\"1\">"
+                + "<superRegion name=\"World\" level=\"1\"><region name=\"R\"/></superRegion>"
+                + "</regions>");
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        for(int i = 0; i < files.length; ++i) {
+            files[i].delete();
+        }
+        mDir.delete();
+        mDir = null;
+        super.tearDown();
+    }
+
+    /**
+     * Test sumValues on region data streamed in from XML.
+     */
+    public void testSumValuesXML() throws IOException {
+        String dataFile = writeXMLData();
+        checkSumValues(dataFile);
+    }
+
+    /**
+     * Test sumValues on region data read from a binary region data file.
+     */
+    public void testSumValuesBinary() throws IOException {
+        String dataFile = writeBinaryData();
+        checkSumValues(dataFile);
+    }
+
+    /**
+     * Sum an averaged variable, which needs the land fraction, once with
+     * everything loaded and once with only the referenced fields loaded.
+     * @param dataFile The region data to read.
+     */
+    private void checkSumValues(String dataFile) throws IOException {
+        double all = runSumValues(dataFile, true);
+        double filtered = runSumValues(dataFile, false);
+        assertFalse("Sum of all data is NaN", Double.isNaN(all));
+        assertFalse("Sum of filtered data is NaN", Double.isNaN(filtered));
+        assertEquals("Filtered sum differs", all, filtered, 0.0);
+    }
+
+    /**
+     * Run the sumValues command on the density field and read back the result.
+     * @param dataFile The region data to read.
+     * @param loadAll Whether to load all of the data or only the fields used.
+     * @return The sum printed by the command.
+     */
+    private double runSumValues(String dataFile, boolean loadAll) throws IOException {
+        File outFile = new File(mDir, "sum.txt");
+        outFile.delete();
+        String commandFile = writeFile("commands.xml", "<commands loadAll=\"" + loadAll + "\">"
+                + "<variable name=\"v\" type=\"reference\"><region value=\"R\"/>"
+                + "<field value=\"density\"/><time value=\"2000\"/></variable>"
+                + "<sumValues><target name=\"s\"/><argument name=\"v\"/></sumValues>"
+                + "<print variable=\"s\" file=\"" + outFile.getPath() + "\"/>"
+                + "</commands>");
+        new ManipulationDriver(dataFile, new File(mDir, "regionDef.xml").getPath(),
+                commandFile).runAll();
+        BufferedReader in = new BufferedReader(new FileReader(outFile));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                line = line.trim();
+                if(line.length() > 0) {
+                    return Double.parseDouble(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        fail("No sum was printed");
+        return Double.NaN;
+    }
+
+    /**
+     * Write the test region data as XML.
+     * @return The name of the file written.
+     */
+    private String writeXMLData() throws IOException {
+        StringBuffer data = new StringBuffer();
+        data.append("<input res=\"1.0\"><variableInfo>");
+        for(int i = 0; i < VARIABLES.length; ++i) {
+            data.append("<variable name=\"").append(VARIABLES[i])
+                .append("\"><average value=\"true\"/></variable>");
+        }
+        data.append("</variableInfo>");
+        data.append("<region name=\"R\" x=\"0.0\" y=\"0.0\" sizeX=\"2\" sizeY=\"2\">");
+        data.append("<weight>");
+        appendTime(data, "0", WEIGHT);
+        data.append("</weight>");
+        for(int i = 0; i < VARIABLES.length; ++i) {
+            data.append("<variable value=\"").append(VARIABLES[i]).append("\">");
+            appendTime(data, TIMES[i], VALUES[i]);
+            data.append("</variable>");
+        }
+        data.append("</region></input>");
+        return writeFile("data.xml", data.toString());
+    }
+
+    /**
+     * Write the test region data as a binary region data file.
+     * @return The name of the file written.
+     */
+    private String writeBinaryData() throws IOException {
+        String fileName = new File(mDir, "data" + RegionDataFile.EXTENSION).getPath();
+        RegionDataFile.Writer out = new RegionDataFile.Writer(fileName, 1.0);
+        for(int i = 0; i < VARIABLES.length; ++i) {
+            out.addVariableInfo(VARIABLES[i], true, null, null);
+        }
+        out.startRegion("R", 0.0, 0.0, 2, 2);
+        out.addGrid("weight", "0", WEIGHT);
+        for(int i = 0; i < VARIABLES.length; ++i) {
+            out.addGrid(VARIABLES[i], TIMES[i], VALUES[i]);
+        }
+        out.close();
+        return fileName;
+    }
+
+    private static void appendTime(StringBuffer data, String time, double[][] values) {
+        data.append("<time value=\"").append(time).append("\">");
+        for(int y = 0; y < values.length; ++y) {
+            for(int x = 0; x < values[y].length; ++x) {
+                data.append("<data x=\"").append(x).append("\" y=\"").append(y)
+                    .append("\" value=\"").append(values[y][x]).append("\"/>");
+            }
+        }
+        data.append("</time>");
+    }
+
+    private String writeFile(String name, String contents) throws IOException {
+        File file = new File(mDir, name);
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.print(contents);
+        out.close();
+        return file.getPath();
+    }
+
+    /**
+     * The fields in the test data, only density is used by the commands.
+     */
+    private static final String[] VARIABLES = { "density", DataBuilder.LAND_FRACTION, "unused" };
+
+    /**
+     * The time of each field, the land fraction is always read at 0.0.
+     */
+    private static final String[] TIMES = { "2000", "0.0", "2000" };
+
+    private static final double[][] WEIGHT = { { 1.0, 0.5 }, { 1.0, 0.25 } };
+
+    private static final double[][][] VALUES = {
+        { { 2.0, 4.0 }, { 6.0, 8.0 } },
+        { { 1.0, 0.5 }, { 0.75, 1.0 } },
+        { { 3.0, 3.0 }, { 3.0, 3.0 } }
+    };
+}
@@ -40,6 +40,7 @@ import ModelInterface.ModelGUI2.tables.CopyPaste;
 import ModelInterface.ModelGUI2.tables.TableTransferHandler;
 import ModelInterface.ModelGUI2.queries.QueryGenerator;
 import ModelInterface.ModelGUI2.queries.SingleQueryExtension;
+import ModelInterface.ModelGUI2.queries.SingleQueryListCacheBuilder;
 import ModelInterface.ModelGUI2.xmldb.XMLDB;
 import ModelInterface.ModelGUI2.xmldb.QueryBinding;
 import ModelInterface.common.FileChooser;
@@ -1575,6 +1576,13 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 		final JDialog scanDialog = new JDialog(parentFrame, "Update Single Query Cache", true);
 		final JTabbedPane selectionTabs = new JTabbedPane();
 
+        // scans are run in parallel using the same configuration parameter that
+        // controls the number of threads used for batch queries
+        final String coresToUsePropertyName = "coresToUse";
+        Properties prop = InterfaceMain.getInstance().getProperties();
+        final int numCoresToUse = Integer.valueOf(prop.getProperty(coresToUsePropertyName, Integer.toString(2)));
+		prop.setProperty(coresToUsePropertyName, Integer.toString(numCoresToUse));
+
 		// JLists expects these as arrays so create them now
 		final ScenarioListItem[] scenariosArr = new ScenarioListItem[scenarios.size()];
 		final String[] regionsArr = new String[regions.size()];
@@ -1626,46 +1634,24 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 				for(int selIndex : selIndexes) {
 					selQueries.add(queriesArr[selIndex]);
 				}
-				scanProgress.setMaximum(selIndexes.length);
-
-				// get the cache document, if there is an exception getting it then it 
-				// may not exsist so we can try to create it
-				XMLDB xmldbInstance = XMLDB.getInstance();
-                QueryProcessor queryProc = xmldbInstance.createQuery("/singleQueryListCache", null, null, null);
-				ANode doc = null;
-				try {
-                    Iter res = queryProc.iter();
-                    doc = (ANode)res.next();
-                    if(doc == null) {
-                        // Try to create it then get the doc
-                        xmldbInstance.addFile("cache.xml", "<singleQueryListCache />");
-                        queryProc = xmldbInstance.createQuery("/singleQueryListCache", null, null, null);
-                        res = queryProc.iter();
-                        doc = (ANode)res.next();
-                    }
-				} catch(QueryException e) {
-                    // TODO: put error to screen?
-                    e.printStackTrace();
-				} finally {
-                    queryProc.close();
-                }
+
+				// figure out which query, scenario, and region combinations have not
+				// already been scanned
+				progLabel.setText("Checking which queries need to be scanned");
+				final SingleQueryListCacheBuilder cacheBuilder = new SingleQueryListCacheBuilder(selQueries,
+						selScenarios, selRegions, numCoresToUse);
+				scanProgress.setMaximum(cacheBuilder.getNumTasks());
+
+				ANode doc = XMLDB.getInstance().getSingleQueryListIndex().getCacheDoc();
 
                 // a final check if we were not able to get the doc then do not scan
 				boolean wasInterrupted = doc == null;
 
-				// for each query that is enabled have the extension create and cache it's 
-				// single query list.  The cache will be set as metadata on the cache doc
-				// if we got interrupted we must stop now
-				for(Iterator<QueryGenerator> it = selQueries.iterator(); it.hasNext() && !wasInterrupted; ) {
-					QueryGenerator currQG = it.next();
-					progLabel.setText("Scanning "+currQG.toString());
-					SingleQueryExtension se = currQG.getSingleQueryExtension();
-					// could be null if the extension is not enabled
-					if(se != null) {
-						se.createSingleQueryListCache(doc, selScenarios, selRegions);
-					}
-					SwingUtilities.invokeLater(incProgress);
-					wasInterrupted = Thread.interrupted();
+				// scan each combination in parallel and write the single query lists
+				// on the cache doc, if we got interrupted nothing will be written
+				if(!wasInterrupted) {
+					progLabel.setText("Scanning "+cacheBuilder.getNumTasks()+" query lists");
+					cacheBuilder.build(doc, incProgress);
 				}
 
 				// clean up and take down the progress bar
@@ -1707,13 +1693,9 @@ public class DbViewer implements ActionListener, MenuAdder, BatchRunner {
 			public void actionPerformed(ActionEvent e) {
 				if(scanThread.isAlive()) {
 					progLabel.setText("Canceling Scan");
+					// the cache builder will interrupt all of the single query
+					// list queries when the scan thread is interrupted
 					scanThread.interrupt();
-					// this is in effect interrupting all single queries create list
-					// queries
-					int[] selIndexes = selectQueries.getSelectedIndices();
-					for(int selIndex : selIndexes) {
-						queriesArr[selIndex].getSingleQueryExtension().interruptGatherThread();
-					}
 					// will let the scan thread hide the dialog
 				} else {
 					// has not started yet so just hide it
@@ -29,14 +29,19 @@
 */
 package ModelInterface.ModelGUI2;
 
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.awt.event.ComponentListener;
 import java.awt.event.ComponentEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ActionEvent;
 
 import javax.swing.BorderFactory;
+import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -44,6 +49,9 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
 
 import org.jfree.chart.JFreeChart;
 
@@ -60,7 +68,10 @@ import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
 /**
  * Adds capability of running many queries parallel and will display
  * the results after the queries are run as well as change the icon 
- * to indicate to the user that it is done running.
+ * to indicate to the user that it is done running.  While the query
+ * is running the number of results processed so far is displayed along
+ * with the first results as they are categorized, and the user may cancel
+ * the query without having to close the tab.
  * 
  */
 
@@ -77,6 +88,24 @@ public class QueryResultsPanel extends JPanel {
 	/** The context for running queries which can be used to cancel it */
 	DbProcInterrupt context	= null;
 
+	/** The icon that will be changed when the query finishes */
+	private final TabCloseIcon icon;
+
+	/** The label which displays the progress of the query while it is running */
+	private JLabel progressLabel;
+
+	/** The results categorized so far, filled in while the query is running */
+	private DefaultTableModel partialModel;
+
+	/** Periodically updates the progressLabel and partialModel while the query is running */
+	private Timer progressTimer;
+
+	/** Set once the user cancels the query, only used from the gui thread */
+	private boolean canceled = false;
+
+	/** How often in milliseconds the progress label is updated */
+	private static final int PROGRESS_UPDATE_INTERVAL = 500;
+
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 1L;
 
@@ -90,8 +119,9 @@ public class QueryResultsPanel extends JPanel {
 	 * @param icon The icon that will be changing.
 	 */
 	public QueryResultsPanel(final QueryGenerator qg, final QueryBinding singleBinding, final Object[] scenarioListValues, final Object[] regionListValues, final TabCloseIcon icon){  
-		initializeWaiting();
+		this.icon = icon;
 		context = new DbProcInterrupt();
+		initializeWaiting();
 		final QueryResultsPanel thisThread= this;
 		runThread = new Thread(){
 			public void run(){
@@ -111,26 +141,41 @@ public class QueryResultsPanel extends JPanel {
 				if(isInterrupted())
 					return;
 
-				//clear the text box in preparation of adding the new component 
-				removeAll();
-
-				//icon is changed to the finished state
-				icon.finishedLoading();
-				//error message displayed
-				if(ret == null){
-					JPanel tempPanel = new JPanel();
-					tempPanel.setLayout(new BoxLayout(tempPanel, BoxLayout.X_AXIS));
-					tempPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-					tempPanel.add(new JLabel(errorMessage));
-					add(tempPanel);
-				}
-				//the new JPanel is added where the text box was
-				else{
-					setLayout(new BoxLayout(thisThread, BoxLayout.X_AXIS));
-					add(ret);
-				}
-				//the panel is refreshed to show the changes
-				revalidate();
+				// the components may only be changed on the gui thread, which is
+				// also where the cancel button runs so check it from there
+				final JComponent result = ret;
+				final String resultError = errorMessage;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if(canceled) {
+							return;
+						}
+						// no more progress to report
+						progressTimer.stop();
+
+						//clear the text box in preparation of adding the new component 
+						removeAll();
+
+						//icon is changed to the finished state
+						icon.finishedLoading();
+						//error message displayed
+						if(result == null){
+							JPanel tempPanel = new JPanel();
+							tempPanel.setLayout(new BoxLayout(tempPanel, BoxLayout.X_AXIS));
+							tempPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+							tempPanel.add(new JLabel(resultError));
+							add(tempPanel);
+						}
+						//the new JPanel is added where the text box was
+						else{
+							setLayout(new BoxLayout(thisThread, BoxLayout.X_AXIS));
+							add(result);
+						}
+						//the panel is refreshed to show the changes
+						revalidate();
+						repaint();
+					}
+				});
 			}
 		};
 		runThread.start();
@@ -145,6 +190,7 @@ public class QueryResultsPanel extends JPanel {
 	 * @see killThreadAndWait
 	 */
 	public void killThread(){
+		progressTimer.stop();
         context.interrupt();
 		runThread.interrupt();
 	}
@@ -170,17 +216,69 @@ public class QueryResultsPanel extends JPanel {
 
 	/**
 	 * Inserts a text box that will be displayed until the results
-	 * from the quert are available.
+	 * from the quert are available.  The text box will be updated
+	 * with the number of results processed so far and includes a
+	 * button to cancel the query.  Below it a table is filled in with
+	 * the results as they are categorized, a page at a time.
 	 */
 	public void initializeWaiting (){
 		//write the text-box
 		JPanel tempPanel = new JPanel();
 		tempPanel.setLayout(new BoxLayout(tempPanel, BoxLayout.X_AXIS));
 		tempPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-		tempPanel.add(new JLabel("Waiting for results. Close to terminate"));
-		add(tempPanel);
-
-
+		progressLabel = new JLabel("Waiting for results. Close to terminate");
+		tempPanel.add(progressLabel);
+		tempPanel.add(Box.createHorizontalStrut(10));
+		final JButton cancelButton = new JButton("Cancel");
+		cancelButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				final int numResults = context.getNumResults();
+				canceled = true;
+				killThread();
+				removeAll();
+				icon.finishedLoading();
+				JPanel canceledPanel = new JPanel();
+				canceledPanel.setLayout(new BoxLayout(canceledPanel, BoxLayout.X_AXIS));
+				canceledPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+				canceledPanel.add(new JLabel("Query canceled after processing "+numResults+" results."));
+				add(canceledPanel);
+				revalidate();
+				repaint();
+			}
+		});
+		tempPanel.add(cancelButton);
+
+		partialModel = new DefaultTableModel(new Object[] { "Row", "Column", "Value" }, 0);
+		JTable partialTable = new JTable(partialModel);
+		partialTable.setPreferredScrollableViewportSize(new Dimension(450, 300));
+		JPanel waitingPanel = new JPanel(new BorderLayout());
+		waitingPanel.add(tempPanel, BorderLayout.NORTH);
+		waitingPanel.add(new JScrollPane(partialTable), BorderLayout.CENTER);
+		add(waitingPanel);
+
+		// the timer runs on the gui thread so it is safe to update the label
+		// and add the results categorized since the last update to the table
+		final long startTime = System.currentTimeMillis();
+		progressTimer = new Timer(PROGRESS_UPDATE_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				for(Object[] partialResult : context.takePartialResults()) {
+					partialModel.addRow(partialResult);
+				}
+				final int numResults = context.getNumResults();
+				if(numResults > 0) {
+					long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
+					// the preview only keeps a limited number of rows, let the user know
+					// once some are left out so they do not take it for the whole result
+					String shown = context.isPartialResultsTruncated()
+						? ", previewing only the first "+partialModel.getRowCount()
+							+" (all results are shown when the query finishes)"
+						: ", showing "+partialModel.getRowCount();
+					progressLabel.setText("Processed "+numResults+" results in "+elapsedSeconds
+							+" seconds"+shown+". Close or cancel to terminate");
+				}
+			}
+		});
+		progressTimer.start();
 	}
 
 
@@ -46,6 +46,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
@@ -61,6 +62,7 @@ import ModelInterface.ModelGUI2.QueryTreeModel;
 import ModelInterface.ModelGUI2.ScenarioListItem;
 import ModelInterface.ModelGUI2.undo.MiUndoableEditListener;
 import ModelInterface.ModelGUI2.undo.EditQueryUndoableEdit;
+import ModelInterface.InterfaceMain;
 
 import org.basex.query.QueryException;
 import org.basex.query.QueryProcessor;
@@ -500,7 +502,6 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 			// make sure we only have one thread gathering at a time
 			// so we don't kill the system when a user is just trying
 			// to set their scenarios and regions
-			//setGatherThread(new Thread(getRunnableCreateListQuery(qt, parentPath, tree)));
 			setGatherThread(new Thread(getRunnableGetListQuery(qt, parentPath, tree)));
 			gatherThread.start();
 		}
@@ -623,77 +624,41 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 	       isEnabled = enable;
        }
        /**
-	* Gets a runnable that executes a query to create the single query list.
-	* @pre currSelection must be properly set.
-	* @param qt QueryTreeModel needed to update list.
-	* @param parentPath The path needed to update list.
-	* @param tree The tree which would be updated.
-	* @return a Runnable which can be executed to create the single query list.
+	* Scan the database for the distinct node level values of this query in
+	* a single scenario and region.  This does not change any of the state of
+	* this extension so it is safe to run scans on several threads at once.
+	* @param scenario The scenario to scan.
+	* @param region The region to scan.
+	* @param context The query context which can be used to interrupt the scan.
+	* @return The distinct node level values found or null if the query failed.
 	*/
-       private Runnable getRunnableCreateListQuery(final QueryTreeModel qt, final TreePath parentPath, final JTree tree) {
-	       final SingleQueryExtension thisClass = this;
-	       return (new Runnable() {
-		       public void run() {
-			       Object[] scenarios = currSelection.getKey().toArray();
-			       Object[] regions = currSelection.getValue().toArray();
-			       List<SingleQueryValue> tempValues;
-			       final long startTime = System.currentTimeMillis();
-			       QueryProcessor queryProc = XMLDB.getInstance().createQuery(new SingleQueryListQueryBinding(qg, 
-						       XMLDB.getInstance().getContainer(), qg.getCollapseOnList()), scenarios, regions, gatherContext);
-			       try {
-                       Iter res = queryProc.iter();
-				       if(res.size() == 0) {
-					       tempValues = noResultsList;
-				       } else {
-					       tempValues =  new ArrayList<SingleQueryValue>();
-					       Set<String> actualValues = new TreeSet<String>();
-                           Item curr = null;
-					       while((curr = res.next()) != null) {
-                               String currStr = (String)curr.toJava();
-						       SingleQueryValue tempValue = new SingleQueryValue(currStr);
-						       tempValues.add(tempValue);
-						       actualValues.add(currStr);
-					       }
-					       if(qt != null) {
-						       Map<String, String> rewriteMap = qg.getNodeLevelRewriteMap();
-						       addRewriteListValues(rewriteMap, tempValues, actualValues);
-					       }
-					       if(qg.isGroup() && qt != null) {
-						       tempValues.add(new SingleQueryValue("Total"));
-					       }
-				       }
-			       } catch(QueryException e) {
-				       e.printStackTrace();
-				       tempValues = noResultsList;
-			       } finally {
-                       queryProc.close();
-			       }
-			       System.out.println("Time : "+(System.currentTimeMillis()-startTime));
-			       singleLevelCache.put(currSelection, tempValues);
-
-			       boolean wasInterrupted = Thread.interrupted();
-
-			       // make sure we are still selected
-			       if(isSelected && !wasInterrupted) {
-				       // if qt is null we are just going to cache this so just
-				       // set the currValues
-				       if(qt == null) {
-					       currValues = tempValues;
-				       } else {
-					       // get rid of generating then add real values
-					       hideList(qt, parentPath);
-					       currValues = tempValues;
-					       qt.showSingleQuery(thisClass, parentPath);
-					       tree.makeVisible(parentPath.pathByAddingChild(getSingleQueryValueAt(
-									       (int)(getNumValues()/2))));
-				       }
-			       }
+       public List<String> scanSingleQueryList(ScenarioListItem scenario, String region, DbProcInterrupt context) {
+	       List<String> ret = null;
+	       QueryProcessor queryProc = XMLDB.getInstance().createQuery(new SingleQueryListQueryBinding(qg, 
+				       XMLDB.getInstance().getContainer(), qg.getCollapseOnList()), new Object[] { scenario },
+			       new Object[] { region }, context);
+	       try {
+		       Iter res = queryProc.iter();
+		       ret = new ArrayList<String>();
+		       Item curr = null;
+		       while((curr = res.next()) != null) {
+			       ret.add((String)curr.toJava());
 		       }
-	       });
+	       } catch(QueryException e) {
+		       e.printStackTrace();
+		       ret = null;
+	       } finally {
+		       queryProc.close();
+	       }
+	       return ret;
        }
 
        /**
-	* Gets a runnable that executes a query to get the single query list from metadata.
+	* Gets a runnable that looks up the single query list in the single query
+	* list index.  Any of the selected scenarios and regions which have not been
+	* indexed for this query yet, such as runs which were just added, are scanned
+	* first.  Only this query is scanned and the scan is stopped if the gather
+	* thread is interrupted.
 	* @pre currSelection must be properly set.
 	* @param qt QueryTreeModel needed to update list.
 	* @param parentPath The path needed to update list.
@@ -706,41 +671,44 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 		       public void run() {
 			       List<SingleQueryValue> tempValues = null;
 			       final long startTime = System.currentTimeMillis();
-                   QueryProcessor queryProc = XMLDB.getInstance().createQuery("/singleQueryListCache/cache[@id="
-					       +qg.getStorageHashCode()+"]/text()", null, null, null);
-			       try {
-				       boolean hasResults = false;
-                       Iter res = queryProc.iter();
-                       ANode curr = (ANode)res.next();
-				       if(curr != null) {
-					       String[] values = curr.toJava().getNodeValue().split(";");
-					       if(!(values.length == 1 && values[0].equals(""))) {
-						       hasResults = true;
-						       tempValues =  new ArrayList<SingleQueryValue>(values.length+1);
-						       Map<String, String> rewriteMap = qg.getNodeLevelRewriteMap();
-						       Set<String> actualValues = new TreeSet<String>();
-						       for(String val : values) {
-							       if(rewriteMap == null || !rewriteMap.containsKey(val)) {
-								       SingleQueryValue tempValue = new SingleQueryValue(val);
-								       tempValues.add(tempValue);
-							       } else {
-								       actualValues.add(val);
-							       }
-						       }
-						       addRewriteListValues(rewriteMap, tempValues, actualValues);
-						       if(qg.isGroup()) {
-							       tempValues.add(new SingleQueryValue("Total"));
-						       }
+			       final int numCoresToUse = Integer.valueOf(InterfaceMain.getInstance().getProperties().getProperty(
+						       "coresToUse", Integer.toString(2)));
+			       SingleQueryListCacheBuilder cacheBuilder = new SingleQueryListCacheBuilder(
+					       Collections.singletonList(qg),
+					       currSelection.getKey().toArray(new ScenarioListItem[currSelection.getKey().size()]),
+					       currSelection.getValue().toArray(new String[currSelection.getValue().size()]),
+					       numCoresToUse);
+			       if(cacheBuilder.getNumTasks() > 0) {
+				       ANode doc = XMLDB.getInstance().getSingleQueryListIndex().getCacheDoc();
+				       if(doc != null) {
+					       cacheBuilder.build(doc, null);
+				       }
+				       // the selection changed while scanning, nothing was indexed
+				       // and the next time the list is shown it will scan again
+				       if(Thread.currentThread().isInterrupted()) {
+					       return;
+				       }
+			       }
+			       List<String> values = XMLDB.getInstance().getSingleQueryListIndex().getValues(
+					       qg.getStorageHashCode(), currSelection.getKey(), currSelection.getValue());
+			       if(values != null && !values.isEmpty()) {
+				       tempValues =  new ArrayList<SingleQueryValue>(values.size()+1);
+				       Map<String, String> rewriteMap = qg.getNodeLevelRewriteMap();
+				       Set<String> actualValues = new TreeSet<String>();
+				       for(String val : values) {
+					       if(rewriteMap == null || !rewriteMap.containsKey(val)) {
+						       SingleQueryValue tempValue = new SingleQueryValue(val);
+						       tempValues.add(tempValue);
+					       } else {
+						       actualValues.add(val);
 					       }
 				       }
-				       if(!hasResults) {
-					       tempValues = noResultsList;
+				       addRewriteListValues(rewriteMap, tempValues, actualValues);
+				       if(qg.isGroup()) {
+					       tempValues.add(new SingleQueryValue("Total"));
 				       }
-			       } catch(QueryException e) {
-				       e.printStackTrace();
+			       } else {
 				       tempValues = noResultsList;
-			       } finally {
-                       queryProc.close();
 			       }
 			       System.out.println("Time : "+(System.currentTimeMillis()-startTime));
 			       singleLevelCache.put(currSelection, tempValues);
@@ -758,49 +726,6 @@ public class SingleQueryExtension implements TreeSelectionListener, ListSelectio
 	       });
        }
 
-       /**
-        * Set up and run whatever is needed to cache the query list.
-        * @param doc An XML document on which to add cache values.
-        * @param scenarions The list of scenarios to scan.
-        * @param regions The list of regions to scan.
-        */
-       public void createSingleQueryListCache(ANode doc, ScenarioListItem[] currScenario, String[] currRegion) {
-	       // set the scenarios and regions to scan
-	       setSelection(currScenario, currRegion);
-	       boolean isSelectedBefore = isSelected;
-	       isSelected = true;
-
-	       try {
-		       // set the gather thread and run it, but we don't really need it on another thread
-		       // becuase we have to wait for it anyways.
-		       setGatherThread(new Thread(getRunnableCreateListQuery(null, null, null)));
-		       gatherThread.start();
-		       gatherThread.join();
-
-		       // don't want to cache the no results
-		       if(currValues != noResultsList) {
-			       StringBuffer buff = new StringBuffer();
-			       for(Iterator<SingleQueryValue> it = currValues.iterator(); it.hasNext(); ) {
-				       buff.append(it.next().toString()).append(";");
-			       }
-                   System.out.println("About to cache "+qg.getStorageHashCode()+" -> "+buff.toString());
-			       XMLDB.getInstance().updateSingleCacheValue(doc, qg.getStorageHashCode(), buff.toString());
-		       }
-	       } catch(InterruptedException ie) {
-		       // I need to interrupt myself again because getting this exception already
-		       // cleared the status and the scanThread needs to know not to try to scan
-		       // anymore queries.  Also let the gather thread know to stop
-		       Thread.currentThread().interrupt();
-		       gatherThread.interrupt();
-	       }
-
-	       // reset stuff
-	       singleLevelCache.clear();
-	       resetList();
-	       isSelected = isSelectedBefore;
-	       // do I need to reset the selection?
-       }
-
        /**
 	* Determine if the this extension has been initialized.  It is
 	* initialized the first time the QueryGenerator is clicked on. It
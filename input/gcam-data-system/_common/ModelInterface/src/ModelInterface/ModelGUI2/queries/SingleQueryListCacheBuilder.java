@@ -0,0 +1,193 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.queries;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import ModelInterface.ModelGUI2.ScenarioListItem;
+import ModelInterface.ModelGUI2.xmldb.XMLDB;
+import ModelInterface.ModelGUI2.xmldb.DbProcInterrupt;
+import ModelInterface.ModelGUI2.xmldb.SingleQueryListIndex;
+
+import org.basex.query.value.node.ANode;
+
+/**
+ * Builds the single query list index for many queries at once.  Each
+ * query, scenario, and region combination which has not already been
+ * indexed is scanned as a seperate task on a bounded pool of threads.
+ * Nothing is written to the database until every scan has finished at
+ * which point all of the results are written in a single update.  This
+ * means all of the scans read the same state of the database and if the
+ * build is canceled none of the results are written.
+ * @author Pralit Patel
+ */
+public class SingleQueryListCacheBuilder {
+	/**
+	 * The scans which still need to be done.
+	 */
+	private final List<ScanTask> tasks = new ArrayList<ScanTask>();
+
+	/**
+	 * The number of threads to scan with.
+	 */
+	private final int numThreads;
+
+	/**
+	 * The scan of a single query in one scenario and region.
+	 */
+	private class ScanTask implements Callable<SingleQueryListIndex.Entry> {
+		final SingleQueryExtension se;
+		final int queryHash;
+		final ScenarioListItem scenario;
+		final String region;
+		final DbProcInterrupt context = new DbProcInterrupt();
+
+		ScanTask(SingleQueryExtension se, int queryHash, ScenarioListItem scenario, String region) {
+			this.se = se;
+			this.queryHash = queryHash;
+			this.scenario = scenario;
+			this.region = region;
+		}
+
+		public SingleQueryListIndex.Entry call() {
+			List<String> values = se.scanSingleQueryList(scenario, region, context);
+			// don't want to cache a failed scan
+			return values == null ? null :
+				new SingleQueryListIndex.Entry(queryHash, scenario, region, values);
+		}
+	}
+
+	/**
+	 * Constructor which determines which scans need to be done.
+	 * @param queries The queries to scan, queries which do not have a single
+	 * 	query extension are skipped.
+	 * @param scenarios The scenarios to scan.
+	 * @param regions The regions to scan.
+	 * @param numThreads The maximum number of scans to run at once.
+	 */
+	public SingleQueryListCacheBuilder(List<QueryGenerator> queries, ScenarioListItem[] scenarios,
+			String[] regions, int numThreads) {
+		this.numThreads = numThreads;
+		final SingleQueryListIndex index = XMLDB.getInstance().getSingleQueryListIndex();
+		for(QueryGenerator qg : queries) {
+			SingleQueryExtension se = qg.getSingleQueryExtension();
+			// could be null if the extension is not enabled
+			if(se == null) {
+				continue;
+			}
+			final int queryHash = qg.getStorageHashCode();
+			for(ScenarioListItem scenario : scenarios) {
+				for(String region : regions) {
+					// skip anything that has already been indexed
+					if(!index.hasEntry(queryHash, scenario, region)) {
+						tasks.add(new ScanTask(se, queryHash, scenario, region));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of scans that will be done.
+	 * @return The number of scans.
+	 */
+	public int getNumTasks() {
+		return tasks.size();
+	}
+
+	/**
+	 * Run all of the scans and write the results to the cache document.  If
+	 * the calling thread is interrupted all of the scans are stopped and none
+	 * of the results will be written.
+	 * @param cacheDoc The cache document in the database.
+	 * @param incProgress Will be run on the GUI thread as each scan finishes,
+	 * 	could be null.
+	 * @return True if the scans finished and were written, false if interrupted
+	 * 	or a scan failed unexpectedly.
+	 */
+	public boolean build(ANode cacheDoc, Runnable incProgress) {
+		final ExecutorService scanThreadPool = Executors.newFixedThreadPool(numThreads);
+		final ExecutorCompletionService<SingleQueryListIndex.Entry> completed =
+			new ExecutorCompletionService<SingleQueryListIndex.Entry>(scanThreadPool);
+		final List<SingleQueryListIndex.Entry> newEntries = new ArrayList<SingleQueryListIndex.Entry>(tasks.size());
+		final long startTime = System.currentTimeMillis();
+		boolean wasInterrupted = false;
+		boolean failed = false;
+		try {
+			for(ScanTask task : tasks) {
+				completed.submit(task);
+			}
+			for(int i = 0; i < tasks.size(); ++i) {
+				SingleQueryListIndex.Entry entry = completed.take().get();
+				if(entry != null) {
+					newEntries.add(entry);
+				}
+				if(incProgress != null) {
+					SwingUtilities.invokeLater(incProgress);
+				}
+			}
+		} catch(InterruptedException ie) {
+			wasInterrupted = true;
+		} catch(ExecutionException ee) {
+			ee.printStackTrace();
+			failed = true;
+		} finally {
+			if(wasInterrupted || failed) {
+				// stop any queries which are still running
+				for(Iterator<ScanTask> it = tasks.iterator(); it.hasNext(); ) {
+					it.next().context.interrupt();
+				}
+			}
+			scanThreadPool.shutdownNow();
+		}
+		Logger.global.log(Level.INFO, "Scanned "+tasks.size()+" single query lists in "
+				+(System.currentTimeMillis()-startTime)+" ms");
+		if(wasInterrupted) {
+			// let the caller know it was interrupted as well
+			Thread.currentThread().interrupt();
+			return false;
+		} else if(failed) {
+			return false;
+		}
+		XMLDB.getInstance().getSingleQueryListIndex().putEntries(cacheDoc, newEntries);
+		return true;
+	}
+}
@@ -66,6 +66,12 @@ public abstract class BaseTableModel extends AbstractTableModel {
 	protected TableSorter sortedTable;
 	private java.util.List<String> defaultYearList;
 
+	/**
+	 * Integer indexed copy of the data cells, built lazily by the derived
+	 * classes and thrown away when the data or axes change.
+	 */
+	protected CellStore cellStore;
+
 	// stuff for filtering
 	// can i move these somewhere
 	protected int currFilter;
@@ -94,6 +100,15 @@ public abstract class BaseTableModel extends AbstractTableModel {
 		sortedTable = new TableSorter(this);
 	}
 
+	/**
+	 * Discard the cell store so that it gets rebuilt from the data maps the
+	 * next time a value is requested.  This needs to be called any time the
+	 * data maps or the axes are changed.
+	 */
+	public void invalidateCellStore() {
+		cellStore = null;
+	}
+
 	/**
 	 * Constuctor initializes some necessary data members
 	 * @param tp Not required in the BaseTableModel, but will be in derived class to create xpath
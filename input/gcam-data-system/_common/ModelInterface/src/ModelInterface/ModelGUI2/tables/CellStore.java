@@ -0,0 +1,129 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.tables;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An integer indexed copy of the cells of one or more data maps.  The table models
+ * keep their data in maps keyed by colKey;rowKey which is convenient when building
+ * and editing the tables however looking up a cell that way requires creating the
+ * key String each time.  Since the renderer asks for cells constantly while
+ * scrolling the models instead resolve every key once into this store and then
+ * getting a value is just an array lookup.
+ * <p>
+ * Rows are numbered across all of the data maps, the way ComboTableModel numbers
+ * its rows, so row / numRows selects the data map and row % numRows the row label.
+ * Columns are positions in the column labels.  The store is just a snapshot so it
+ * must be rebuilt whenever the maps, the labels, or the flipped state change.
+ * </p>
+ */
+public class CellStore {
+	/**
+	 * The cells for each data map, stored row major.
+	 */
+	private final Object[][] cells;
+
+	/**
+	 * The number of row labels per data map.
+	 */
+	private final int numRows;
+
+	/**
+	 * The number of column labels.
+	 */
+	private final int numCols;
+
+	/**
+	 * Resolve the cells of the given data maps.
+	 * @param dataMaps The data maps which are keyed by colKey;rowKey.
+	 * @param rowLabels The labels for the rows of a single data map.
+	 * @param colLabels The labels for the columns, positions which are
+	 * 	  not data such as the row header are simply left empty.
+	 * @param flipped If the table has been flipped in which case the
+	 * 	  row labels go first in the keys.
+	 */
+	public CellStore(List dataMaps, List rowLabels, List colLabels, boolean flipped) {
+		numRows = rowLabels.size();
+		numCols = colLabels.size();
+		cells = new Object[dataMaps.size()][];
+		// convert the labels to arrays once up front
+		String[] rowKeys = new String[numRows];
+		for(int row = 0; row < numRows; ++row) {
+			rowKeys[row] = (String)rowLabels.get(row);
+		}
+		String[] colKeys = new String[numCols];
+		for(int col = 0; col < numCols; ++col) {
+			colKeys[col] = (String)colLabels.get(col);
+		}
+		for(int i = 0; i < cells.length; ++i) {
+			Map data = (Map)dataMaps.get(i);
+			Object[] currCells = new Object[numRows * numCols];
+			if(data != null && !data.isEmpty()) {
+				for(int row = 0; row < numRows; ++row) {
+					for(int col = 0; col < numCols; ++col) {
+						currCells[row * numCols + col] = data.get(flipped ? 
+								rowKeys[row]+";"+colKeys[col] : colKeys[col]+";"+rowKeys[row]);
+					}
+				}
+			}
+			cells[i] = currCells;
+		}
+	}
+
+	/**
+	 * Get the value of a cell.
+	 * @param row The row across all data maps.
+	 * @param col The position in the column labels.
+	 * @return The value from the data map or null if there was none.
+	 */
+	public Object get(int row, int col) {
+		return cells[row / numRows][(row % numRows) * numCols + col];
+	}
+
+	/**
+	 * Update the value of a cell, this does not change the backing data map.
+	 * @param row The row across all data maps.
+	 * @param col The position in the column labels.
+	 * @param val The new value for the cell.
+	 */
+	public void set(int row, int col, Object val) {
+		cells[row / numRows][(row % numRows) * numCols + col] = val;
+	}
+
+	/**
+	 * Get the number of rows in the store across all of the data maps.
+	 * @return The total number of rows.
+	 */
+	public int getRowCount() {
+		return cells.length * numRows;
+	}
+}
@@ -135,6 +135,7 @@ public class ComboTableModel extends BaseTableModel{
 		ind2Name= tempStr;
 		indCol.add(0, ind1Name);
 		flipped = !flipped;
+		invalidateCellStore();
 		// to set active rows appropriatly
 		doFilter( new Vector(tableFilterMaps.keySet()) );
 		fireTableStructureChanged();
@@ -177,7 +178,7 @@ public class ComboTableModel extends BaseTableModel{
 		regionAndYear = getRegionAndYearFromNode(tempNode.getParentNode(), tableFilterMaps);
 		regions.add(regionAndYear[0]);
 		years.add(regionAndYear[1]);
-		addToDataTree(tempNode, dataTree).put((String)regionAndYear[0]+";"+(String)regionAndYear[1], tempNode);
+		addToDataTree(tempNode, dataTree).put(LabelDictionary.internKey((String)regionAndYear[0], (String)regionAndYear[1]), tempNode);
 		if(units == null) {
 			units = ((Element)tempNode.getParentNode()).getAttribute("unit");
 		}
@@ -314,7 +315,7 @@ public class ComboTableModel extends BaseTableModel{
 					tempVector.add( firstHalf );
 				}
 				String secHalf = innerSt.nextToken(); //	year=1985
-				onerow.add( secHalf );
+				onerow.add( LabelDictionary.intern( secHalf ) );
 				}
 			}
 			if(leftHeaderVector == null) {
@@ -346,6 +347,19 @@ public class ComboTableModel extends BaseTableModel{
 	  return (String)indCol.get(col- leftHeaderVector.size())+";"+(String)indRow.get(row % (indRow.size()));
   }
 
+  /**
+   * Gets the integer indexed copy of the data maps in TreeMapVector, building
+   * it first if it has been invalidated.  Rows in the store are the same as the
+   * values in activeRows and columns are offset by the path headers.
+   * @return the cell store for the current axes
+   */
+  private CellStore getCellStore() {
+	  if(cellStore == null) {
+		  cellStore = new CellStore(TreeMapVector, indRow, indCol, flipped);
+	  }
+	  return cellStore;
+  }
+
   
         /**
 	 * Returns the total number of column headers, which include the path headers
@@ -380,7 +394,7 @@ public class ComboTableModel extends BaseTableModel{
 				return indRow.get( ((Integer)activeRows.get( row )).intValue() % (indRow.size()) );
 			// these columns represent data
 			}else{
-				Object temp = ((Map)TreeMapVector.get( ((Integer)activeRows.get( row )).intValue() / (indRow.size()))).get( getKey( (Integer)activeRows.get(row), col ) );
+				Object temp = getCellStore().get( ((Integer)activeRows.get( row )).intValue(), col - leftHeaderVector.size() );
 				if(temp instanceof Node) {
 					return new Double(((Node)temp).getNodeValue());
 				} else if(temp instanceof Double) {
@@ -394,7 +408,7 @@ public class ComboTableModel extends BaseTableModel{
 		} catch(NullPointerException e) {
 			return "";
 		} catch(NumberFormatException nf) { // if the data is not numbers
-			Object temp = ((Map)TreeMapVector.get( ((Integer)activeRows.get( row )).intValue() / (indRow.size()))).get( getKey( row, col ) );
+			Object temp = getCellStore().get( ((Integer)activeRows.get( row )).intValue(), col - leftHeaderVector.size() );
 			if(temp instanceof Node) {
 				return ((Node)temp).getNodeValue();
 			} else {
@@ -419,9 +433,8 @@ public class ComboTableModel extends BaseTableModel{
 	 */ 
 	protected boolean hasValueAt(int row, int col) {
 		return col > leftHeaderVector.size() && 
-			((Map)TreeMapVector.get( ((Integer)activeRows.get( row )).intValue() 
-					 / (indRow.size()))).containsKey( 
-					 getKey( (Integer)activeRows.get(row), col ) );
+			getCellStore().get( ((Integer)activeRows.get( row )).intValue(), 
+					col - leftHeaderVector.size() ) != null;
 	}
 
 	/**
@@ -434,7 +447,7 @@ public class ComboTableModel extends BaseTableModel{
 		if( col <= leftHeaderVector.size() ){
 			return null;
 		}
-		Object temp = ((Map)TreeMapVector.get( ((Integer)activeRows.get( row )).intValue() / (indRow.size()))).get( getKey( row, col ) );
+		Object temp = getCellStore().get( ((Integer)activeRows.get( row )).intValue(), col - leftHeaderVector.size() );
 		if(temp instanceof Node) {
 			return (Node)temp;
 		} else {
@@ -542,7 +555,9 @@ public class ComboTableModel extends BaseTableModel{
 	 * @see NewDataTableModel#setValueAt(Object, int, int)
 	 */
 	public void setValueAt(Object val, int row, int col) {
-		
+		// the data maps may be changed below so have the cell store rebuilt
+		// the next time a value is requested
+		invalidateCellStore();
 		Map data = ((Map)TreeMapVector.get( row / (indRow.size())));
 		CompoundEdit setEdit = new CompoundEdit();
 
@@ -804,12 +819,12 @@ public class ComboTableModel extends BaseTableModel{
         System.out.println("Before Function: "+System.currentTimeMillis());
         if(singleBinding == null) {
             buildTable(XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt), qgIn.isSumAll(), 
-                    isTotal, isGlobal);
+                    isTotal, isGlobal, interrupt);
         } else {
             // TODO: figure out a better way of telling if this is a Total
             isTotal = !(singleBinding instanceof ModelInterface.ModelGUI2.xmldb.SingleQueryQueryBinding);
             buildTable(XMLDB.getInstance().createQuery(singleBinding, scenarios, regions, interrupt), 
-                    qgIn.isSumAll(), isTotal, isGlobal);
+                    qgIn.isSumAll(), isTotal, isGlobal, interrupt);
         }
         ind2Name = qgIn.getVariable();
         indCol.add(0, ind1Name);
@@ -823,8 +838,7 @@ public class ComboTableModel extends BaseTableModel{
         for(int i = 0; i < (leftSideVector.size() * indRow.size() ); i++) {
             boolean allNulls = true;
             for( int col = leftHeaderVector.size() + 1; col < getColumnCount() && allNulls; ++col ) {
-                if(((Map)TreeMapVector.get( i 
-                                / (indRow.size()))).get( getKey( i, col ) ) != null) {
+                if(getCellStore().get( i, col - leftHeaderVector.size() ) != null) {
                     allNulls = false;
                                 }
             }
@@ -834,7 +848,8 @@ public class ComboTableModel extends BaseTableModel{
         }
         setColNameIndex(qg.getChartLabelColumnName());
     }
-    private void buildTable(QueryProcessor queryProc, boolean sumAll, boolean isTotal, boolean isGlobal) throws Exception {
+    private void buildTable(QueryProcessor queryProc, boolean sumAll, boolean isTotal, boolean isGlobal,
+            DbProcInterrupt interrupt) throws Exception {
         System.out.println("In Function: "+System.currentTimeMillis());
         Iter res = queryProc.iter();
         ANode tempNode;
@@ -848,6 +863,10 @@ public class ComboTableModel extends BaseTableModel{
         final DataPair<String, String> axisValues = new DataPair<String, String>();
         try {
             while((tempNode = (ANode)res.next()) != null) {
+                // let anyone watching know how far along we are
+                if(interrupt != null) {
+                    interrupt.resultProcessed();
+                }
                 BXNode domNode = BXNode.get(tempNode);
                 // catgorize this result
                 axisValues.setKey(null);
@@ -894,13 +913,18 @@ public class ComboTableModel extends BaseTableModel{
                 // add number into the lowest level table
                 // if there was already an entry in it's spot sum the values
                 double currNumber = Double.parseDouble(domNode.getNodeValue());
-                String currKey = axisValues.getKey()+";"+axisValues.getValue();
+                // share the keys across all of the tables since they repeat for
+                // every scenario and region
+                String currKey = LabelDictionary.internKey(axisValues.getKey(), axisValues.getValue());
                 Double ret = (Double)retMap.get(currKey);
                 retMap.put(currKey, ret == null ? currNumber : ret + currNumber);
+                if(interrupt != null) {
+                    interrupt.resultCategorized(axisValues.getValue(), axisValues.getKey(), currNumber);
+                }
 
                 // add the units for the current row under the Units column
                 // This will use the unit seen from the first value in the
-                retMap.put("Units;"+axisValues.getValue(), units);
+                retMap.put(LabelDictionary.internKey("Units", axisValues.getValue()), units);
             }
         } catch(Exception e) {
             e.printStackTrace();
@@ -931,8 +955,8 @@ public class ComboTableModel extends BaseTableModel{
         System.out.println("After build Tree: "+System.currentTimeMillis());
         recAddTables(dataTree, null, yearLevelAxis, nodeLevelAxis, "");
         System.out.println("After Add table: "+System.currentTimeMillis());
-        indRow = new Vector(nodeLevelAxis);
-        indCol = new Vector(yearLevelAxis);
+        indRow = LabelDictionary.internAll(nodeLevelAxis);
+        indCol = LabelDictionary.internAll(yearLevelAxis);
         ind1Name = qg.getAxis1Name();
     }
   public void exportToExcel(HSSFSheet sheet, HSSFWorkbook wb, HSSFPatriarch dp) {
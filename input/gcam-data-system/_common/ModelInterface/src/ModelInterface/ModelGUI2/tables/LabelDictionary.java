@@ -0,0 +1,107 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.tables;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+/**
+ * A dictionary of axis labels which is shared by all of the table models.  Labels
+ * such as scenario names, regions, years, and the colKey;rowKey strings used to
+ * reference into the data maps get repeated for every result returned by a query.
+ * Running them through this dictionary ensures that only a single copy of each
+ * distinct label is kept around no matter how many tables reference it.  Entries
+ * are weakly referenced so labels are released once no table uses them anymore.
+ */
+public final class LabelDictionary {
+	/**
+	 * The canonical instance of each label. The value is weakly referenced
+	 * as well otherwise it would keep its own key from being collected.
+	 */
+	private static final Map<String, WeakReference<String>> labels = 
+		new WeakHashMap<String, WeakReference<String>>();
+
+	/**
+	 * Private constructor, all access is through the static methods.
+	 */
+	private LabelDictionary() {
+	}
+
+	/**
+	 * Get the shared instance of the given label.
+	 * @param label The label to look up.
+	 * @return A String equal to label which is shared with all other users of
+	 *         the dictionary, or null if label was null.
+	 */
+	public static String intern(String label) {
+		if(label == null) {
+			return null;
+		}
+		synchronized(labels) {
+			WeakReference<String> ref = labels.get(label);
+			String ret = ref != null ? ref.get() : null;
+			if(ret == null) {
+				labels.put(label, new WeakReference<String>(label));
+				ret = label;
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Get the shared instance of the label created by joining the column
+	 * and row label as is done for the keys into the data maps.
+	 * @param colKey The column label.
+	 * @param rowKey The row label.
+	 * @return The shared instance of colKey;rowKey.
+	 */
+	public static String internKey(String colKey, String rowKey) {
+		return intern(colKey+";"+rowKey);
+	}
+
+	/**
+	 * Create a Vector of labels in which each label has been replaced by its
+	 * shared instance.  Iteration order of the given labels is preserved.
+	 * @param labelsIn The labels to intern.
+	 * @return A new Vector with the shared labels.
+	 */
+	public static Vector internAll(Collection labelsIn) {
+		Vector ret = new Vector(labelsIn.size());
+		for(Iterator it = labelsIn.iterator(); it.hasNext(); ) {
+			Object curr = it.next();
+			ret.add(curr instanceof String ? intern((String)curr) : curr);
+		}
+		return ret;
+	}
+}
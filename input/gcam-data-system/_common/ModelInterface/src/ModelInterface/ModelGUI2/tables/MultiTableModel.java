@@ -201,7 +201,7 @@ public class MultiTableModel extends BaseTableModel{
 		regionAndYear = getRegionAndYearFromNode(tempNode.getParentNode(), tableFilterMaps);
 		regions.add(regionAndYear[0]);
 		years.add(regionAndYear[1]);
-		addToDataTree(tempNode, dataTree).put((String)regionAndYear[0]+";"+(String)regionAndYear[1], tempNode);
+		addToDataTree(tempNode, dataTree).put(LabelDictionary.internKey((String)regionAndYear[0], (String)regionAndYear[1]), tempNode);
 		if(units == null) {
 			units = ((Element)tempNode.getParentNode()).getAttribute("unit");
 		}
@@ -510,7 +510,7 @@ public class MultiTableModel extends BaseTableModel{
         wild.add(qgIn.getYearLevel());
         System.out.println("Before Function: "+System.currentTimeMillis());
         boolean isGlobal = regions.length == 1 && regions[0].equals("Global");
-        buildTable(XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt), qgIn.isSumAll(), isGlobal);
+        buildTable(XMLDB.getInstance().createQuery(qgIn, scenarios, regions, interrupt), qgIn.isSumAll(), isGlobal, interrupt);
         tableEditor = new TableEditor();
         tableRenderer = new TableRenderer();
         activeRows = new Vector(tables.size());
@@ -527,7 +527,7 @@ public class MultiTableModel extends BaseTableModel{
         }
         title += "</body></html>";
     }
-    private void buildTable(QueryProcessor queryProc, boolean sumAll, boolean isGlobal) throws Exception {
+    private void buildTable(QueryProcessor queryProc, boolean sumAll, boolean isGlobal, DbProcInterrupt interrupt) throws Exception {
         System.out.println("In Function: "+System.currentTimeMillis());
         Iter res = queryProc.iter();
         ANode tempNode;
@@ -541,6 +541,10 @@ public class MultiTableModel extends BaseTableModel{
         final DataPair<String, String> axisValues = new DataPair<String, String>();
         try {
             while((tempNode = (ANode)res.next()) != null) {
+                // let anyone watching know how far along we are
+                if(interrupt != null) {
+                    interrupt.resultProcessed();
+                }
                 // catgorize this result
                 BXNode domNode = BXNode.get(tempNode);
                 axisValues.setKey(null);
@@ -580,20 +584,25 @@ public class MultiTableModel extends BaseTableModel{
                 // add number into the lowest level table
                 // if there was already an entry in it's spot sum the values
                 double currNumber = Double.parseDouble(domNode.getNodeValue());
-                String currKey = axisValues.getKey()+";"+axisValues.getValue();
+                // share the keys across all of the tables since they repeat for
+                // every scenario and region
+                String currKey = LabelDictionary.internKey(axisValues.getKey(), axisValues.getValue());
                 Double ret = (Double)retMap.get(currKey);
                 retMap.put(currKey, ret == null ? currNumber : ret + currNumber);
+                if(interrupt != null) {
+                    interrupt.resultCategorized(axisValues.getValue(), axisValues.getKey(), currNumber);
+                }
 
                 // also add the value to the total sum
-                currKey = axisValues.getKey()+";Total";
+                currKey = LabelDictionary.internKey(axisValues.getKey(), "Total");
                 ret = (Double)retMap.get(currKey);
                 retMap.put(currKey, ret == null ? currNumber : ret + currNumber);
 
                 // add the units for the current row under the Units column
                 // This will use the unit seen from the first value in the
                 // row, see comment above regarding units
-                retMap.put("Units;"+axisValues.getValue(), units);
-                retMap.put("Units;Total", units);
+                retMap.put(LabelDictionary.internKey("Units", axisValues.getValue()), units);
+                retMap.put(LabelDictionary.internKey("Units", "Total"), units);
             }
         } catch(Exception e) {
             e.printStackTrace();
@@ -38,6 +38,7 @@ import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.Map;
@@ -152,10 +153,10 @@ public class NewDataTableModel extends BaseTableModel{
 			col.add(regionAndYear[0]);
 			row.add(regionAndYear[1]);
 			// colKey;rowKey maps to the data that should go in that cell
-			data.put((String)regionAndYear[0]+";"+(String)regionAndYear[1], tempNode);
+			data.put(LabelDictionary.internKey((String)regionAndYear[0], (String)regionAndYear[1]), tempNode);
 		}
-		indCol = new Vector(col);
-		indRow = new Vector(row);
+		indCol = LabelDictionary.internAll(col);
+		indRow = LabelDictionary.internAll(row);
 	}
 
 	/**
@@ -216,9 +217,9 @@ public class NewDataTableModel extends BaseTableModel{
 		documentation = documentationIn;
 		w3 = w3In;
 		title = w3;
-		indCol = new Vector(set1);
+		indCol = LabelDictionary.internAll(set1);
 		indCol.add(0,set1Name);
-		indRow = new Vector(set2);
+		indRow = LabelDictionary.internAll(set2);
 		// adjust the available rows for those that really had values
 		// we should make sure we don't remove any rows which were added
 		// because of the shouldAppendRewriteValues flag
@@ -256,6 +257,7 @@ public class NewDataTableModel extends BaseTableModel{
 		ind2Name= tempStr;
 		indCol.add(0, ind1Name);
 		flipped = !flipped;
+		invalidateCellStore();
 		fireTableStructureChanged();
         final InterfaceMain main = InterfaceMain.getInstance();
 		if(row >= 0 && col >= 0) {
@@ -285,7 +287,7 @@ public class NewDataTableModel extends BaseTableModel{
 		if(col == 0) {
 			return null;
 		}
-		return ((Node)data.get(getKey(row,col)));
+		return ((Node)getCellStore().get(row, col));
 	}
 
 	/**
@@ -300,13 +302,13 @@ public class NewDataTableModel extends BaseTableModel{
 			return indRow.get(row);
 		}
 		if(doc == null) {
-			Object ret = data.get(getKey(row,col));
+			Object ret = getCellStore().get(row, col);
 			if(ret == null) {
 				return new Double(0.0);
 			}
 			return ret;
 		}
-		Node ret = ((Node)data.get(getKey(row,col)));
+		Node ret = ((Node)getCellStore().get(row, col));
 		if(ret == null) {
 			return "";
 		}
@@ -366,6 +368,18 @@ public class NewDataTableModel extends BaseTableModel{
 		return (String)indCol.get(col)+";"+(String)indRow.get(row);
 	}
 
+	/**
+	 * Gets the integer indexed copy of the data map, building it first
+	 * if it has been invalidated.
+	 * @return the cell store for the current axes
+	 */
+	private CellStore getCellStore() {
+		if(cellStore == null) {
+			cellStore = new CellStore(Collections.singletonList(data), indRow, indCol, flipped);
+		}
+		return cellStore;
+	}
+
 	/**
 	 * Update the value in the cell specified. It there was data backing the cell
 	 * previously, then it will just change the nodeValue, otherwise it will try to
@@ -376,6 +390,9 @@ public class NewDataTableModel extends BaseTableModel{
 	 * @param col the col of the cell being edited
 	 */
 	public void setValueAt(Object val, int row, int col) {
+		// the data map may be changed below so have the cell store rebuilt
+		// the next time a value is requested
+		invalidateCellStore();
 
 		//TreeMap data = ((TreeMap)TreeMapVector.get( row / (indRow.size())));
 
@@ -559,7 +576,7 @@ public class NewDataTableModel extends BaseTableModel{
 				}
 				boolean isAllNull = true;
 				for( int rowTemp = 0; rowTemp < getRowCount() && isAllNull; ++rowTemp ){
-					isAllNull = data.get(getKey(rowTemp, col)) == null;
+					isAllNull = getCellStore().get(rowTemp, col) == null;
 				}
 				if(isAllNull) {
 					continue;
@@ -117,9 +117,22 @@ public class TableSorter extends AbstractTableModel {
         }
     };
 
-    private Row[] viewToModel;
+    /**
+     * Tables with at least this many rows are sorted on a background thread
+     * when the user clicks on a header so that the GUI stays responsive.
+     */
+    private static final int BACKGROUND_SORT_ROWS = 10000;
+
+    private int[] viewToModel;
     private int[] modelToView;
 
+    /**
+     * Incremented each time the sorting state is cleared so that a background
+     * sort which was started before can tell its result is no longer valid.
+     */
+    private int sortGeneration;
+    private int backgroundSortGeneration = -1;
+
     private JTableHeader tableHeader;
     private MouseListener mouseListener;
     private TableModelListener tableModelListener;
@@ -145,6 +158,7 @@ public class TableSorter extends AbstractTableModel {
     private void clearSortingState() {
         viewToModel = null;
         modelToView = null;
+        ++sortGeneration;
     }
 
     public TableModel getTableModel() {
@@ -212,6 +226,11 @@ public class TableSorter extends AbstractTableModel {
     }
 
     public void setSortingStatus(int column, int status) {
+        updateDirective(column, status);
+        sortingStatusChanged();
+    }
+
+    private void updateDirective(int column, int status) {
         Directive directive = getDirective(column);
         if (directive != EMPTY_DIRECTIVE) {
             sortingColumns.remove(directive);
@@ -219,7 +238,6 @@ public class TableSorter extends AbstractTableModel {
         if (status != NOT_SORTED) {
             sortingColumns.add(new Directive(column, status));
         }
-        sortingStatusChanged();
     }
 
     protected Icon getHeaderRendererIcon(int column, int size) {
@@ -255,23 +273,164 @@ public class TableSorter extends AbstractTableModel {
         return LEXICAL_COMPARATOR;
     }
 
-    private Row[] getViewToModel() {
+    private int[] getViewToModel() {
         if (viewToModel == null) {
             int tableModelRowCount = tableModel.getRowCount();
-            viewToModel = new Row[tableModelRowCount];
-            for (int row = 0; row < tableModelRowCount; row++) {
-                viewToModel[row] = new Row(row);
-            }
-
             if (isSorting()) {
-                Arrays.sort(viewToModel);
+                viewToModel = sortRows(extractSortKeys(tableModelRowCount), tableModelRowCount);
+            } else {
+                viewToModel = identityOrder(tableModelRowCount);
             }
         }
         return viewToModel;
     }
 
     public int modelIndex(int viewIndex) {
-        return getViewToModel()[viewIndex].modelIndex;
+        return getViewToModel()[viewIndex];
+    }
+
+    private static int[] identityOrder(int rowCount) {
+        int[] order = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            order[row] = row;
+        }
+        return order;
+    }
+
+    /**
+     * Pull the values of each sorting column out of the table model once so that
+     * the sort itself does not need to call back into the model.  This needs to
+     * be done on the thread which owns the table model.
+     */
+    private SortKey[] extractSortKeys(int rowCount) {
+        SortKey[] keys = new SortKey[sortingColumns.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Directive directive = (Directive) sortingColumns.get(i);
+            keys[i] = new SortKey(directive.direction, getComparator(directive.column));
+            keys[i].extract(tableModel, directive.column, rowCount);
+        }
+        return keys;
+    }
+
+    /**
+     * Sort the rows by the given keys.  Only touches the extracted keys so
+     * may safely be run off of the Event Dispatch Thread.
+     * @return The model index for each view index.
+     */
+    private static int[] sortRows(final SortKey[] keys, int rowCount) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i].prepare();
+        }
+        int[] order = identityOrder(rowCount);
+        mergeSort(order, new RowComparator() {
+            public int compare(int row1, int row2) {
+                for (int i = 0; i < keys.length; i++) {
+                    int comparison = keys[i].compare(row1, row2);
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+                return 0;
+            }
+        });
+        return order;
+    }
+
+    /**
+     * A stable merge sort of row indices, which gives the same ordering
+     * Arrays.sort would have for the equivalent objects.
+     */
+    private static void mergeSort(int[] rows, RowComparator comparator) {
+        int[] buffer = new int[rows.length];
+        int[] src = rows;
+        int[] dest = buffer;
+        // bottom up so that there is no recursion on large tables
+        for (int width = 1; width < rows.length; width *= 2) {
+            for (int low = 0; low < rows.length; low += 2 * width) {
+                int mid = Math.min(low + width, rows.length);
+                int high = Math.min(low + 2 * width, rows.length);
+                int left = low;
+                int right = mid;
+                int out = low;
+                if (mid >= high || comparator.compare(src[mid - 1], src[mid]) <= 0) {
+                    // already in order or nothing to merge with
+                    System.arraycopy(src, low, dest, low, high - low);
+                    continue;
+                }
+                while (left < mid && right < high) {
+                    if (comparator.compare(src[right], src[left]) < 0) {
+                        dest[out++] = src[right++];
+                    } else {
+                        dest[out++] = src[left++];
+                    }
+                }
+                System.arraycopy(src, left, dest, out, mid - left);
+                out += mid - left;
+                System.arraycopy(src, right, dest, out, high - right);
+            }
+            int[] temp = src;
+            src = dest;
+            dest = temp;
+        }
+        if (src != rows) {
+            System.arraycopy(src, 0, rows, 0, rows.length);
+        }
+    }
+
+    /**
+     * Re-sort after the user has changed the sorting columns.  Large tables are
+     * sorted on a background thread and the current row order is kept until the
+     * new one is ready.
+     */
+    private void sortInBackground() {
+        final int rowCount = getRowCount();
+        if (!isSorting() || rowCount < BACKGROUND_SORT_ROWS) {
+            sortingStatusChanged();
+            return;
+        }
+        if (viewToModel == null || viewToModel.length != rowCount) {
+            viewToModel = identityOrder(rowCount);
+            modelToView = null;
+        }
+        final SortKey[] keys = extractSortKeys(rowCount);
+        final int generation = ++sortGeneration;
+        backgroundSortGeneration = generation;
+        if (tableHeader != null) {
+            tableHeader.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            tableHeader.repaint();
+        }
+        Thread sortThread = new Thread(new Runnable() {
+            public void run() {
+                int[] sorted = null;
+                try {
+                    sorted = sortRows(keys, rowCount);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                final int[] result = sorted;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (generation == backgroundSortGeneration && tableHeader != null) {
+                            tableHeader.setCursor(null);
+                        }
+                        if (generation != sortGeneration) {
+                            // the table or sorting columns have changed since
+                            return;
+                        }
+                        if (result != null) {
+                            viewToModel = result;
+                            modelToView = null;
+                            fireTableDataChanged();
+                        } else {
+                            // fall back to sorting the next time a row is requested
+                            sortingStatusChanged();
+                        }
+                    }
+                });
+            }
+        }, "TableSorter");
+        sortThread.setDaemon(true);
+        sortThread.start();
     }
 
     private int[] getModelToView() {
@@ -317,39 +476,118 @@ public class TableSorter extends AbstractTableModel {
 
     // Helper classes
     
-    private class Row implements Comparable {
-        private int modelIndex;
-
-        public Row(int index) {
-            this.modelIndex = index;
-        }
-
-        public int compareTo(Object o) {
-            int row1 = modelIndex;
-            int row2 = ((Row) o).modelIndex;
-
-            for (Iterator it = sortingColumns.iterator(); it.hasNext();) {
-                Directive directive = (Directive) it.next();
-                int column = directive.column;
-                Object o1 = tableModel.getValueAt(row1, column);
-                Object o2 = tableModel.getValueAt(row2, column);
-
-                int comparison = 0;
-                // Define null less than everything, except null.
-                if (o1 == null && o2 == null) {
-                    comparison = 0;
-                } else if (o1 == null) {
-                    comparison = -1;
-                } else if (o2 == null) {
-                    comparison = 1;
-                } else {
-                    comparison = getComparator(column).compare(o1, o2);
+    private interface RowComparator {
+        int compare(int row1, int row2);
+    }
+
+    /**
+     * The values of one sorting column pulled out of the table model.  Columns
+     * holding only Doubles are kept as primitives, anything else is reduced to
+     * an integer rank using the column's comparator so that comparing rows
+     * never needs to box or call a Comparator during the sort.
+     */
+    private static class SortKey {
+        private final int direction;
+        private final Comparator comparator;
+        private boolean[] isNull;
+        private double[] numbers;
+        private Object[] objects;
+        private int[] ranks;
+
+        public SortKey(int direction, Comparator comparator) {
+            this.direction = direction;
+            this.comparator = comparator;
+        }
+
+        public void extract(TableModel model, int column, int rowCount) {
+            objects = new Object[rowCount];
+            isNull = new boolean[rowCount];
+            boolean allDoubles = comparator == COMPARABLE_COMAPRATOR;
+            for (int row = 0; row < rowCount; row++) {
+                Object value = model.getValueAt(row, column);
+                objects[row] = value;
+                isNull[row] = value == null;
+                if (value != null && !(value instanceof Double)) {
+                    allDoubles = false;
+                }
+            }
+            if (allDoubles) {
+                numbers = new double[rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    if (!isNull[row]) {
+                        numbers[row] = ((Double) objects[row]).doubleValue();
+                    }
                 }
-                if (comparison != 0) {
-                    return directive.direction == DESCENDING ? -comparison : comparison;
+                objects = null;
+            }
+        }
+
+        /**
+         * Convert object values into ranks, equal values share a rank.  Labels
+         * repeat a lot so only the distinct values get sorted.
+         */
+        public void prepare() {
+            if (objects == null) {
+                return;
+            }
+            Map distinctRows = new HashMap();
+            int numDistinct = 0;
+            int[] distinct = new int[objects.length];
+            for (int row = 0; row < objects.length; row++) {
+                if (!isNull[row] && !distinctRows.containsKey(objects[row])) {
+                    distinctRows.put(objects[row], new Integer(row));
+                    distinct[numDistinct++] = row;
                 }
             }
-            return 0;
+            int[] order = new int[numDistinct];
+            System.arraycopy(distinct, 0, order, 0, numDistinct);
+            mergeSort(order, new RowComparator() {
+                public int compare(int row1, int row2) {
+                    return compareValues(row1, row2);
+                }
+            });
+            // rank 0 is left for nulls
+            int[] distinctRanks = new int[objects.length];
+            int rank = 0;
+            for (int i = 0; i < numDistinct; i++) {
+                if (i == 0 || compareValues(order[i - 1], order[i]) != 0) {
+                    ++rank;
+                }
+                distinctRanks[order[i]] = rank;
+            }
+            ranks = new int[objects.length];
+            for (int row = 0; row < objects.length; row++) {
+                if (!isNull[row]) {
+                    ranks[row] = distinctRanks[((Integer) distinctRows.get(objects[row])).intValue()];
+                }
+            }
+            objects = null;
+        }
+
+        private int compareValues(int row1, int row2) {
+            // Define null less than everything, except null.
+            if (isNull[row1] && isNull[row2]) {
+                return 0;
+            } else if (isNull[row1]) {
+                return -1;
+            } else if (isNull[row2]) {
+                return 1;
+            }
+            return comparator.compare(objects[row1], objects[row2]);
+        }
+
+        public int compare(int row1, int row2) {
+            int comparison;
+            if (ranks != null) {
+                int rank1 = ranks[row1];
+                int rank2 = ranks[row2];
+                comparison = rank1 < rank2 ? -1 : (rank1 == rank2 ? 0 : 1);
+            } else if (isNull[row1] || isNull[row2]) {
+                comparison = isNull[row1] == isNull[row2] ? 0 : (isNull[row1] ? -1 : 1);
+            } else {
+                comparison = Double.compare(numbers[row1], numbers[row2]);
+            }
+            return direction == DESCENDING ? -comparison : comparison;
         }
     }
 
@@ -419,13 +657,15 @@ public class TableSorter extends AbstractTableModel {
             if (column != -1) {
                 int status = getSortingStatus(column);
                 if (!e.isControlDown()) {
-                    cancelSorting();
+                    // keep showing the current order until the new one is ready
+                    sortingColumns.clear();
                 }
                 // Cycle the sorting states through {NOT_SORTED, ASCENDING, DESCENDING} or 
                 // {NOT_SORTED, DESCENDING, ASCENDING} depending on whether shift is pressed. 
                 status = status + (e.isShiftDown() ? -1 : 1);
                 status = (status + 4) % 3 - 1; // signed mod, returning {-1, 0, 1}
-                setSortingStatus(column, status);
+                updateDirective(column, status);
+                sortInBackground();
             }
         }
     }
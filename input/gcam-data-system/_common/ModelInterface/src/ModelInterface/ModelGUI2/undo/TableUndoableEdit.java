@@ -82,6 +82,7 @@ public class TableUndoableEdit extends AbstractUndoableEdit {
 				oldVal = tmp;
 			} else {
 				data.put(key, null);
+				bt.invalidateCellStore();
 			}
 			bt.fireTableCellUpdated(row, col);
 		} else {
@@ -97,6 +98,7 @@ public class TableUndoableEdit extends AbstractUndoableEdit {
 				oldVal = tmp;
 			} else {
 				data.put(key, n);
+				bt.invalidateCellStore();
 			}
 			bt.fireTableCellUpdated(row, col);
 		} else {
@@ -29,15 +29,52 @@
 */
 package ModelInterface.ModelGUI2.xmldb;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.basex.core.Proc;
 
 /**
  * A simple wrapper on a BaseX Proc that simply provides the interface
- * to interrupt a running query.
+ * to interrupt a running query.  It also keeps a count of the results
+ * that have been processed so far so that a long running query can
+ * report its progress, along with the first results once they have been
+ * categorized so that they can be shown while the rest are processed.
  * @author Pralit Patel.
  */ 
 public class DbProcInterrupt {
     Proc dbProc = null;
+
+    /**
+     * The most categorized results which will be kept for display while the
+     * query is still running.
+     */
+    public static final int MAX_PARTIAL_RESULTS = 5000;
+
+    /**
+     * The number of query results processed so far.  This is only written
+     * by the thread processing the results but may be read from the GUI thread.
+     */
+    private volatile int numResults = 0;
+
+    /**
+     * Categorized results which have not been picked up by the GUI yet, each
+     * one is the node level, year level and value of a single result.
+     */
+    private final List<Object[]> partialResults = new ArrayList<Object[]>();
+
+    /**
+     * The number of categorized results kept so far including those that were
+     * already picked up.
+     */
+    private int numPartialResults = 0;
+
+    /**
+     * Set once a categorized result had to be dropped because MAX_PARTIAL_RESULTS
+     * were already kept.
+     */
+    private boolean partialResultsTruncated = false;
+
 	public DbProcInterrupt() {
 	}
 	public DbProcInterrupt(Proc dbProcIn) {
@@ -51,4 +88,57 @@ public class DbProcInterrupt {
             dbProc.stop();
         }
     }
+    /**
+     * Notify this context that one more query result has been processed.
+     * Note only a single thread should be processing results.
+     */
+    public void resultProcessed() {
+        ++numResults;
+    }
+    /**
+     * Get the number of query results which have been processed so far.
+     * @return The number of results processed.
+     */
+    public int getNumResults() {
+        return numResults;
+    }
+    /**
+     * Keep a result once it has been categorized so that it may be displayed
+     * before the query finishes.  Only the first MAX_PARTIAL_RESULTS are kept.
+     * @param nodeLevel The node level (row) the result was put in.
+     * @param yearLevel The year level (column) the result was put in.
+     * @param value The value of the result.
+     */
+    public void resultCategorized(String nodeLevel, String yearLevel, double value) {
+        synchronized(partialResults) {
+            if(numPartialResults < MAX_PARTIAL_RESULTS) {
+                partialResults.add(new Object[] { nodeLevel, yearLevel, value });
+                ++numPartialResults;
+            } else {
+                partialResultsTruncated = true;
+            }
+        }
+    }
+    /**
+     * Whether categorized results have been dropped from the partial results since
+     * more than MAX_PARTIAL_RESULTS were categorized.  The results of the finished
+     * query are not affected.
+     * @return True if only the first MAX_PARTIAL_RESULTS are being kept.
+     */
+    public boolean isPartialResultsTruncated() {
+        synchronized(partialResults) {
+            return partialResultsTruncated;
+        }
+    }
+    /**
+     * Get the categorized results which have been kept since the last call.
+     * @return The new results, each one is the node level, year level, and value.
+     */
+    public List<Object[]> takePartialResults() {
+        synchronized(partialResults) {
+            List<Object[]> ret = new ArrayList<Object[]>(partialResults);
+            partialResults.clear();
+            return ret;
+        }
+    }
 }
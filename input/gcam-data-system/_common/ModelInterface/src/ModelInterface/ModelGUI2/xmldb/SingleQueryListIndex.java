@@ -0,0 +1,362 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.ModelGUI2.xmldb;
+
+import ModelInterface.common.LRUCacheMap;
+import ModelInterface.ModelGUI2.ScenarioListItem;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import org.basex.query.QueryException;
+import org.basex.query.QueryProcessor;
+import org.basex.query.iter.Iter;
+import org.basex.query.value.node.ANode;
+import org.basex.api.dom.BXNode;
+
+/**
+ * An index of the distinct node level values for each query broken down
+ * by scenario and region.  The index is persisted in the cache document
+ * of the database in the form:
+ * <pre>
+ * &lt;singleQueryListCache&gt;
+ *     &lt;cache id="queryHash"&gt;
+ *         &lt;entry scenario="docName" region="USA"&gt;
+ *             &lt;value&gt;coal&lt;/value&gt;
+ *         &lt;/entry&gt;
+ *     &lt;/cache&gt;
+ * &lt;/singleQueryListCache&gt;
+ * </pre>
+ * The entries for a query are only read from the database the first time
+ * they are needed and a limited number of queries are kept in memory.
+ * Entries are added for individual scenario/region combinations so that the
+ * index can be built incrementally as scenarios are added to the database.  Caches
+ * in the old format which stored a single semicolon seperated list for
+ * the query are still read and used if no entries exist.
+ * @author Pralit Patel
+ */
+public class SingleQueryListIndex {
+	/**
+	 * The maximum number of queries to keep loaded in memory.
+	 */
+	private static final int MAX_LOADED_QUERIES = 100;
+
+	/**
+	 * The loaded index entries for recently used queries keyed by the
+	 * query storage hash code.  Access must be synchronized on this map.
+	 */
+	private final Map<Integer, QueryEntries> loadedQueries =
+		new LRUCacheMap<Integer, QueryEntries>(MAX_LOADED_QUERIES);
+
+	/**
+	 * The database this index is stored in.
+	 */
+	private final XMLDB xmldb;
+
+	/**
+	 * The index entries for a single query.
+	 */
+	private static class QueryEntries {
+		/**
+		 * Values for each region in a scenario keyed by scenario doc name
+		 * and then region.
+		 */
+		final Map<String, Map<String, List<String>>> scenarioValues =
+			new HashMap<String, Map<String, List<String>>>();
+
+		/**
+		 * Values from an old style cache which did not distinguish scenario
+		 * or region, null if there was none.
+		 */
+		List<String> legacyValues = null;
+	}
+
+	/**
+	 * The values found for a query in a single scenario and region which
+	 * are ready to be added to the index.
+	 */
+	public static class Entry {
+		/**
+		 * The storage hash code of the query.
+		 */
+		final int queryHash;
+
+		/**
+		 * The scenario the values were found in.
+		 */
+		final ScenarioListItem scenario;
+
+		/**
+		 * The region the values were found in.
+		 */
+		final String region;
+
+		/**
+		 * The distinct node level values, which may be empty.
+		 */
+		final List<String> values;
+
+		public Entry(int queryHash, ScenarioListItem scenario, String region, List<String> values) {
+			this.queryHash = queryHash;
+			this.scenario = scenario;
+			this.region = region;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Constructor which just sets the database.
+	 * @param xmldb The database in which this index is stored.
+	 */
+	SingleQueryListIndex(XMLDB xmldb) {
+		this.xmldb = xmldb;
+	}
+
+	/**
+	 * Get the single query list cache document, creating it if it does
+	 * not exist yet.
+	 * @return The cache document or null if it could not be found or created.
+	 */
+	public ANode getCacheDoc() {
+		// if there is an exception getting it then it may not exsist
+		// so we can try to create it
+		QueryProcessor queryProc = xmldb.createQuery("/singleQueryListCache", null, null, null);
+		ANode doc = null;
+		try {
+			Iter res = queryProc.iter();
+			doc = (ANode)res.next();
+			if(doc == null) {
+				// Try to create it then get the doc
+				queryProc.close();
+				xmldb.addFile("cache.xml", "<singleQueryListCache />");
+				queryProc = xmldb.createQuery("/singleQueryListCache", null, null, null);
+				res = queryProc.iter();
+				doc = (ANode)res.next();
+			}
+		} catch(QueryException e) {
+			// TODO: put error to screen?
+			e.printStackTrace();
+		} finally {
+			queryProc.close();
+		}
+		return doc;
+	}
+
+	/**
+	 * Get the distinct node level values for a query in the given scenarios
+	 * and regions.  If any of the scenario/region combinations have not been
+	 * indexed the old style cached list is returned if it exists.
+	 * @param queryHash The storage hash code of the query.
+	 * @param scenarios The selected scenarios.
+	 * @param regions The selected regions.
+	 * @return The distinct values in the order they were found or null if
+	 * 	the values are not in the index.
+	 */
+	public List<String> getValues(int queryHash, List<ScenarioListItem> scenarios, List<String> regions) {
+		synchronized(loadedQueries) {
+			return getValues(getEntries(queryHash), scenarios, regions);
+		}
+	}
+
+	/**
+	 * Gather the values from the entries of a single query.
+	 * @param entries The entries for the query.
+	 * @param scenarios The selected scenarios.
+	 * @param regions The selected regions.
+	 * @return The distinct values in the order they were found or null if
+	 * 	the values are not in the index.
+	 */
+	private static List<String> getValues(QueryEntries entries, List<ScenarioListItem> scenarios, List<String> regions) {
+		Set<String> ret = new LinkedHashSet<String>();
+		boolean isComplete = !entries.scenarioValues.isEmpty();
+		for(Iterator<ScenarioListItem> scnIt = scenarios.iterator(); scnIt.hasNext() && isComplete; ) {
+			Map<String, List<String>> regionValues = entries.scenarioValues.get(scnIt.next().getDocName());
+			if(regionValues == null) {
+				isComplete = false;
+				break;
+			}
+			for(Iterator<String> regionIt = regions.iterator(); regionIt.hasNext() && isComplete; ) {
+				// Global is indexed as its own entry since the regions which have
+				// been indexed so far may not be all of the regions in the scenario
+				List<String> values = regionValues.get(regionIt.next());
+				if(values != null) {
+					ret.addAll(values);
+				} else {
+					isComplete = false;
+				}
+			}
+		}
+		if(isComplete) {
+			return new ArrayList<String>(ret);
+		} else {
+			return entries.legacyValues;
+		}
+	}
+
+	/**
+	 * Determine if the values for a query have been indexed for the given
+	 * scenario and region.
+	 * @param queryHash The storage hash code of the query.
+	 * @param scenario The scenario to check.
+	 * @param region The region to check.
+	 * @return True if the values are in the index.
+	 */
+	public boolean hasEntry(int queryHash, ScenarioListItem scenario, String region) {
+		synchronized(loadedQueries) {
+			Map<String, List<String>> regionValues = getEntries(queryHash).scenarioValues.get(scenario.getDocName());
+			return regionValues != null && regionValues.containsKey(region);
+		}
+	}
+
+	/**
+	 * Add or replace the values for queries in the given scenarios and regions.
+	 * All of the entries are written back to the database in a single update.
+	 * @param cacheDoc The cache document node in the database.
+	 * @param newEntries The entries to add.
+	 */
+	public void putEntries(ANode cacheDoc, List<Entry> newEntries) {
+		if(newEntries.isEmpty()) {
+			return;
+		}
+		xmldb.updateSingleQueryListEntries(cacheDoc, newEntries);
+		synchronized(loadedQueries) {
+			for(Entry newEntry : newEntries) {
+				// only need to update queries which are already loaded, the
+				// rest will get the new values when they are loaded
+				QueryEntries entries = loadedQueries.get(newEntry.queryHash);
+				if(entries == null) {
+					continue;
+				}
+				Map<String, List<String>> regionValues = entries.scenarioValues.get(newEntry.scenario.getDocName());
+				if(regionValues == null) {
+					regionValues = new HashMap<String, List<String>>();
+					entries.scenarioValues.put(newEntry.scenario.getDocName(), regionValues);
+				}
+				regionValues.put(newEntry.region, newEntry.values);
+			}
+		}
+	}
+
+	/**
+	 * Remove all of the index entries for a scenario.  This should be
+	 * called when the scenario is removed from the database.
+	 * @param docName The doc name of the scenario which was removed.
+	 */
+	public void removeScenario(String docName) {
+		xmldb.removeSingleQueryListEntries(docName);
+		synchronized(loadedQueries) {
+			for(QueryEntries entries : loadedQueries.values()) {
+				entries.scenarioValues.remove(docName);
+			}
+		}
+	}
+
+	/**
+	 * Get the entries for a query loading them from the database if
+	 * they are not already in memory.  The caller must be synchronized
+	 * on loadedQueries.
+	 * @param queryHash The storage hash code of the query.
+	 * @return The entries for the query which could be empty.
+	 */
+	private QueryEntries getEntries(int queryHash) {
+		QueryEntries ret = loadedQueries.get(queryHash);
+		if(ret == null) {
+			ret = loadEntries(queryHash);
+			loadedQueries.put(queryHash, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Read the entries for a query from the cache document.
+	 * @param queryHash The storage hash code of the query.
+	 * @return The entries read which could be empty.
+	 */
+	private QueryEntries loadEntries(int queryHash) {
+		QueryEntries ret = new QueryEntries();
+		QueryProcessor queryProc = xmldb.createQuery("/singleQueryListCache/cache[@id="+queryHash+"]", null, null, null);
+		try {
+			Iter res = queryProc.iter();
+			ANode cacheNode = (ANode)res.next();
+			if(cacheNode != null) {
+				NodeList children = BXNode.get(cacheNode).getChildNodes();
+				for(int i = 0; i < children.getLength(); ++i) {
+					Node child = children.item(i);
+					if(child.getNodeType() == Node.TEXT_NODE) {
+						ret.legacyValues = parseLegacyValues(child.getNodeValue());
+					} else if(child.getNodeName().equals("entry")) {
+						Map<String, String> attrs = XMLDB.getAttrMap(child);
+						Map<String, List<String>> regionValues = ret.scenarioValues.get(attrs.get("scenario"));
+						if(regionValues == null) {
+							regionValues = new HashMap<String, List<String>>();
+							ret.scenarioValues.put(attrs.get("scenario"), regionValues);
+						}
+						NodeList valueNodes = child.getChildNodes();
+						List<String> values = new ArrayList<String>(valueNodes.getLength());
+						for(int j = 0; j < valueNodes.getLength(); ++j) {
+							values.add(valueNodes.item(j).getTextContent());
+						}
+						regionValues.put(attrs.get("region"), values);
+					}
+				}
+			}
+		} catch(QueryException e) {
+			e.printStackTrace();
+		} finally {
+			queryProc.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Parse an old style cached list which is a semicolon seperated string.
+	 * @param cacheValue The cached string.
+	 * @return The list of values or null if there were none.
+	 */
+	private static List<String> parseLegacyValues(String cacheValue) {
+		String[] values = cacheValue.split(";");
+		if(values.length == 1 && values[0].equals("")) {
+			return null;
+		}
+		List<String> ret = new ArrayList<String>(values.length);
+		for(String val : values) {
+			ret.add(val);
+		}
+		return ret;
+	}
+}
@@ -80,6 +80,12 @@ public class XMLDB {
      */
     private String contName = null;
 
+    /**
+     * The index of single query list values stored in this database.
+     * It is created the first time it is requested.
+     */
+    private SingleQueryListIndex singleQueryListIndex = null;
+
 	/**
 	 * Gets the instance of the xml database.
 	 * @warning If the database is not open it will return null, ideally it
@@ -222,6 +228,8 @@ public class XMLDB {
 		} catch(BaseXException e) {
 			e.printStackTrace();
 		}
+		// the single query list values for this scenario are no longer valid
+		getSingleQueryListIndex().removeScenario(docName);
 	}
 	
 	/**
@@ -353,22 +361,80 @@ public class XMLDB {
 		}
 	}
 	/**
-	 * Inserts a single query cache onto the cache document.
-     * @param doc The cache document to add the cache value.
-	 * @param hash The hash value to use as an id
-	 * @param content The new value to set.
+	 * Gets the index of single query list values for this database.
+	 * @return The single query list index.
 	 */
-	public void updateSingleCacheValue(ANode doc, int hash, String content) {
-		// simple XQuery update query to replace the value of the given val
-		final String setValueXQuery = "declare variable $hashId as xs:integer external; declare variable $newCacheValue as xs:string external; if(exists(self::node()/cache[@id=$hashId])) then replace value of node self::node()/cache[@id=$hashId] with $newCacheValue else insert node element cache{ attribute id { $hashId }, text { $newCacheValue } } into self::node()";
+	public synchronized SingleQueryListIndex getSingleQueryListIndex() {
+		if(singleQueryListIndex == null) {
+			singleQueryListIndex = new SingleQueryListIndex(this);
+		}
+		return singleQueryListIndex;
+	}
+	/**
+	 * Inserts or replaces the single query list values found for queries in
+	 * scenarios and regions onto the cache document.  All of the entries are
+	 * written in a single update query.
+     * @param doc The cache document to add the entries.
+	 * @param entries The entries to write.
+	 */
+	public void updateSingleQueryListEntries(ANode doc, List<SingleQueryListIndex.Entry> entries) {
+		/* The XQuery update more readable:
+		declare variable $newEntries as xs:string external;
+		let $parsed := fn:parse-xml($newEntries)/entries
+		for $hashId in fn:distinct-values($parsed/entry/@id)
+		let $currNew := $parsed/entry[@id=$hashId],
+		    $toInsert := for $e in $currNew return element entry { $e/@scenario, $e/@region, $e/value },
+		    $cache := self::node()/cache[@id=$hashId]
+		return if(exists($cache))
+			then (delete node $cache/entry[some $e in $currNew satisfies (@scenario=$e/@scenario and @region=$e/@region)],
+			      insert node $toInsert into $cache)
+			else insert node element cache { attribute id { $hashId }, $toInsert } into self::node()
+		*/
+		final String setValueXQuery = "declare variable $newEntries as xs:string external; let $parsed := fn:parse-xml($newEntries)/entries for $hashId in fn:distinct-values($parsed/entry/@id) let $currNew := $parsed/entry[@id=$hashId], $toInsert := for $e in $currNew return element entry { $e/@scenario, $e/@region, $e/value }, $cache := self::node()/cache[@id=$hashId] return if(exists($cache)) then (delete node $cache/entry[some $e in $currNew satisfies (@scenario=$e/@scenario and @region=$e/@region)], insert node $toInsert into $cache) else insert node element cache { attribute id { $hashId }, $toInsert } into self::node()";
+		// pass all of the entries as a single document
+		StringBuilder entriesStr = new StringBuilder("<entries>");
+		for(SingleQueryListIndex.Entry entry : entries) {
+			entriesStr.append("<entry id=\"").append(entry.queryHash)
+				.append("\" scenario=\"").append(escapeXML(entry.scenario.getDocName()))
+				.append("\" region=\"").append(escapeXML(entry.region)).append("\">");
+			for(String value : entry.values) {
+				entriesStr.append("<value>").append(escapeXML(value)).append("</value>");
+			}
+			entriesStr.append("</entry>");
+		}
+		entriesStr.append("</entries>");
         QueryProcessor queryProc = new QueryProcessor(setValueXQuery, context);
 		try {
             // set doc as the context so that it knows which node to update
             queryProc.context(doc);
-			// setting the new value through the variable is safer and allows us to use
-			// the same query
-			queryProc.bind("hashId", hash, "xs:integer");
-			queryProc.bind("newCacheValue", content, "xs:string");
+			queryProc.bind("newEntries", entriesStr.toString(), "xs:string");
+			// not expecting anything to be in the results
+			queryProc.iter();
+		} catch(QueryException e) {
+			e.printStackTrace();
+		} finally {
+            queryProc.close();
+		}
+	}
+	/**
+	 * Escape the characters which are not allowed in XML text or attribute values.
+	 * @param value The value to escape.
+	 * @return The escaped value.
+	 */
+	private static String escapeXML(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+	/**
+	 * Removes all of the single query list entries for a scenario from the
+	 * cache document.
+	 * @param scenario The doc name of the scenario to remove.
+	 */
+	public void removeSingleQueryListEntries(String scenario) {
+		final String removeXQuery = "declare variable $scenario as xs:string external; delete node collection('"
+			+contName+"')/singleQueryListCache/cache/entry[@scenario=$scenario]";
+        QueryProcessor queryProc = new QueryProcessor(removeXQuery, context);
+		try {
+			queryProc.bind("scenario", scenario, "xs:string");
 			// not expecting anything to be in the results
 			queryProc.iter();
 		} catch(QueryException e) {
@@ -56,6 +56,11 @@ package ModelInterface.PPsource;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.*;
 import java.awt.geom.*;
 
@@ -110,6 +115,7 @@ public class DataBuilder
   private BufferedWriter rWriter; //the writer to the output file
   private boolean init; //whether or not the dataStruct has been initialized as of yet
   private boolean URes; //whether or not the User wishes to use their own resolution
+  private int numThreads; //how many files or regions to work on at once, from the threads attribute
   Logger log = Logger.getLogger("Preprocess"); //log class to use for all logging output
 
   /**
@@ -128,6 +134,11 @@ public class DataBuilder
    */
   final public static String GLOBAL_REGION_MASK = "Global-All"; 
 
+  /**
+   * About how many values to read from a NetCDF variable at once.
+   */
+  final private static int NETCDF_BAND_CELLS = 1 << 20;
+
 //*****************************************************************************
 //*****************Class Constructors******************************************
 //*****************************************************************************
@@ -180,6 +191,32 @@ public class DataBuilder
     globalVarList = new ArrayList<String>();
   }
   
+  /**
+   * Creates a builder to read a single file into its own buffer index so that files
+   * can be read in parallel and then merged into the parent.
+   * 
+   * @param parent The builder the data will be merged into.
+   */
+  private DataBuilder(DataBuilder parent)
+  {
+    init = true;
+    URes = parent.URes;
+    iSource = parent.iSource;
+    rSource = parent.rSource;
+    outFile = parent.outFile;
+    dataStruct = ((FlatIndex)parent.dataStruct).newBuffer();
+    regionList = new TreeSet();
+    maskList = new TreeMap();
+    printList = new TreeMap();
+    synchronized(parent)
+    {
+      dataAvg = new TreeMap(parent.dataAvg);
+      dataRef = new TreeMap(parent.dataRef);
+      dataUnits = new TreeMap(parent.dataUnits);
+    }
+    globalVarList = parent.globalVarList;
+  }
+  
 //*****************************************************************************
 //*************Begin Functions Proper******************************************
 //*****************************************************************************
@@ -203,6 +240,11 @@ public class DataBuilder
     makeStreams();
     
     Element root = iDocument.getRootElement();
+    if("tile".equals(root.getAttributeValue("index")))
+    { //keep the layers in tiles which are only created where there is data
+      log.log(Level.INFO, "using a tiled index");
+      dataStruct = new TileIndex(-180, 180, -90, 90);
+    }
     Element seed = root.getChild("seed");
     if(seed != null)
     { //we have a seed tree of data, add the new data to it
@@ -234,15 +276,22 @@ public class DataBuilder
       readMasks();
       log.log(Level.FINE, "Calling fillRegions()");
       fillRegions();
-      try
+      if(RegionDataFile.isRegionDataFile(outFile))
       {
-        rWriter = new BufferedWriter( new java.io.FileWriter(outFile));
-      } catch(IOException e)
+        log.log(Level.FINE, "Calling writeRegionsBinary()");
+        writeRegionsBinary();
+      } else
       {
-        log.log(Level.SEVERE, "IOException in -> runall");
+        try
+        {
+          rWriter = new BufferedWriter( new java.io.FileWriter(outFile));
+        } catch(IOException e)
+        {
+          log.log(Level.SEVERE, "IOException in -> runall");
+        }
+        log.log(Level.FINE, "Calling writeRegions()");
+        writeRegions();
       }
-      log.log(Level.FINE, "Calling writeRegions()");
-      writeRegions();
     }
     /*
     try{
@@ -278,6 +327,15 @@ public class DataBuilder
     }
     
     
+    String threadsAttr = root.getAttributeValue("threads");
+    numThreads = threadsAttr != null ? Integer.parseInt(threadsAttr) : 1;
+    if(numThreads > 1 && dataStruct instanceof FlatIndex)
+    {
+      log.log(Level.INFO, "reading data files with "+numThreads+" threads");
+      buildTreeParallel(fileChildren, numThreads);
+      return;
+    }
+    
     //MAIN XML READ LOOP FOR QBTREE BUILDING
     for(int i = 0; i < fileChildren.size(); i++)
     {
@@ -290,104 +348,262 @@ public class DataBuilder
       } catch(IOException e) {}
       */
       currFile = (Element)fileChildren.get(i);
-      // TODO: redo this so that it doesn't call getAttributeValue everytime
-      if(currFile.getName().equals("setTrackSums")) {
-	      dataStruct.setTrackSums(Boolean.valueOf(currFile.getAttributeValue("value")));
-      } else if(currFile.getName().equals("printSums")) {
-	      dataStruct.printSums();
-      } else if(currFile.getName().equals("addToGlobalVarMask")) {
-	      addToGlobalVarMask(currFile);
-      } else if(currFile.getName().equals("seed")) {
-	      // skip this
-      } else if(currFile.getAttributeValue("type").equals("txt"))
-      {
-        Element stor = currFile.getChild("storage");
-        if(stor != null)
-        {
-          if(stor.getAttributeValue("type").equals("values"))
-          { //we are just storing the values in the shapefile normally
-            addTxtData(currFile);
-          } else
-          { //the values are enumerated types, each gets its own variable
-            //values are the percent coverage for each block
-            addTxtEnum(currFile);
-          }
-        } else
+      addElement(currFile);
+    }
+    //END MAIN XML LOOP FOR TREE BUILD
+  }
+  
+  /**
+   * Reads files listed in the XML data file with several threads.  Each file which adds
+   * a new variable is read into its own buffer index on a worker thread and then merged
+   * into dataStruct, layer by layer, as soon as it is done.  Anything which depends on
+   * the order of the files, such as a file which overwrites a variable which already exists
+   * or is being read, a file whose variable names are only known once it is read, setting
+   * or printing the sums, or the first file when it sets the resolution, waits for all of
+   * the files before it and is then done on this thread just like a sequential run.
+   * @param fileChildren The elements listed in the XML data file.
+   * @param numThreads The number of files to read at once.
+   */
+  private void buildTreeParallel(List fileChildren, int numThreads)
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> pending = new ArrayList<Future<?>>();
+    Set<String> pendingNames = new HashSet<String>();
+    int numParallel = 0;
+    try
+    {
+      for(int i = 0; i < fileChildren.size(); i++)
+      {
+        final Element currFile = (Element)fileChildren.get(i);
+        String name = parallelDataName(currFile);
+        boolean known;
+        synchronized(this)
         {
-          addTxtData(currFile);
+          //workers add to dataAvg as they merge
+          known = name != null && dataAvg.containsKey(name);
         }
-      } else if(currFile.getAttributeValue("type").equals("UNEP"))
-      {
-        addUNEPData(currFile);
-      } else if(currFile.getAttributeValue("type").equals("1X1"))
-      {
-        log.log(Level.WARNING, "1X1 FILE TYPE NO LONGER USED. Use 'inLine; instead");
-        System.exit(1);
-      } else if(currFile.getAttributeValue("type").equals("inLine"))
-      {
-        addInLineData(currFile);
-      } else if(currFile.getAttributeValue("type").equals("ASC"))
-      {
-        addASCData(currFile);
-      } else if(currFile.getAttributeValue("type").equals("NASA"))
-      {
-        addNASAData(currFile);
-      } else if(currFile.getAttributeValue("type").equals("netcdf"))
-      {
-        Element stor = currFile.getChild("storage");
-        if(stor != null)
+        if(init && name != null && !known && !pendingNames.contains(name))
         {
-          if(stor.getAttributeValue("type").equals("values"))
-          { //we are just storing the values in the shapefile normally
-            addNetCDFData(currFile);
-          } else
-          { //the values are enumerated types, each gets its own variable
-            //values are the percent coverage for each block
-            addNetCDFEnum(currFile);
-          }
+          pendingNames.add(name);
+          final DataBuilder buffer = new DataBuilder(this);
+          pending.add(pool.submit(new Runnable() {
+            public void run()
+            {
+              buffer.addFile(currFile);
+              mergeBuffer(buffer);
+            }
+          }));
+          ++numParallel;
         } else
         {
-          addNetCDFData(currFile);
+          waitForFiles(pending);
+          pendingNames.clear();
+          addElement(currFile);
         }
-      } else if(currFile.getAttributeValue("type").equals("pointShapefile"))
+      }
+      waitForFiles(pending);
+    } finally
+    {
+      pool.shutdown();
+    }
+    log.log(Level.INFO, "read "+numParallel+" of "+fileChildren.size()+" data file entries in parallel");
+  }
+  
+  /**
+   * Gets the variable a file will add its data to if it can be read in parallel.
+   * @param currFile The element which describes the file.
+   * @return The name of the variable, or null if the file has to be read in order
+   *         because it is not a file, it has no single variable listed in the
+   *         XML, or it stores enumerated types each in their own variable.
+   */
+  private String parallelDataName(Element currFile)
+  {
+    if(!currFile.getName().equals("file") || currFile.getAttributeValue("type") == null)
+    {
+      return null;
+    }
+    Element stor = currFile.getChild("storage");
+    if(stor != null && !"values".equals(stor.getAttributeValue("type")))
+    {
+      return null;
+    }
+    Element data = currFile.getChild("data");
+    if(data == null || data.getAttributeValue("type") != null)
+    {
+      return null;
+    }
+    return data.getAttributeValue("value");
+  }
+  
+  /**
+   * Waits for every file which has been sent to read in parallel to be read
+   * and merged.
+   * @param pending The files being read, this is cleared once they are done.
+   */
+  private void waitForFiles(List<Future<?>> pending)
+  {
+    try
+    {
+      for(int i = 0; i < pending.size(); i++)
+      {
+        pending.get(i).get();
+      }
+    } catch(InterruptedException ie)
+    {
+      log.log(Level.SEVERE, "Interrupted while reading data files: "+ie);
+      System.exit(1);
+    } catch(ExecutionException ee)
+    {
+      log.log(Level.SEVERE, "Error reading data file: "+ee.getCause());
+      ee.getCause().printStackTrace();
+      System.exit(1);
+    }
+    pending.clear();
+  }
+  
+  /**
+   * Merges the data and variable information read by a buffer into this builder.
+   * This may be called by several workers at once.
+   * @param buffer The builder a file was read into.
+   */
+  private void mergeBuffer(DataBuilder buffer)
+  {
+    ((FlatIndex)dataStruct).merge((FlatIndex)buffer.dataStruct);
+    synchronized(this)
+    {
+      mergeNewKeys(dataAvg, buffer.dataAvg);
+      mergeNewKeys(dataRef, buffer.dataRef);
+      mergeNewKeys(dataUnits, buffer.dataUnits);
+    }
+  }
+  
+  private static void mergeNewKeys(Map to, Map from)
+  {
+    Iterator it = from.entrySet().iterator();
+    while(it.hasNext())
+    {
+      Map.Entry me = (Map.Entry)it.next();
+      if(!to.containsKey(me.getKey()))
+      {
+        to.put(me.getKey(), me.getValue());
+      }
+    }
+  }
+  
+  /**
+   * Handles a single element listed in the XML data file.
+   * @param currFile The element to handle.
+   */
+  private void addElement(Element currFile)
+  {
+    // TODO: redo this so that it doesn't call getAttributeValue everytime
+    if(currFile.getName().equals("setTrackSums")) {
+	    dataStruct.setTrackSums(Boolean.valueOf(currFile.getAttributeValue("value")));
+    } else if(currFile.getName().equals("printSums")) {
+	    dataStruct.printSums();
+    } else if(currFile.getName().equals("addToGlobalVarMask")) {
+	    addToGlobalVarMask(currFile);
+    } else if(currFile.getName().equals("seed")) {
+	    // skip this
+    } else {
+      addFile(currFile);
+    }
+  }
+  
+  /**
+   * Reads a single data file into dataStruct using the reader for its type.
+   * @param currFile The element which describes the file.
+   */
+  private void addFile(Element currFile)
+  {
+    if(currFile.getAttributeValue("type").equals("txt"))
+    {
+      Element stor = currFile.getChild("storage");
+      if(stor != null)
       {
-        Element stor = currFile.getChild("storage");
         if(stor.getAttributeValue("type").equals("values"))
         { //we are just storing the values in the shapefile normally
-          addPointShapeFileData(currFile);
+          addTxtData(currFile);
         } else
         { //the values are enumerated types, each gets its own variable
           //values are the percent coverage for each block
-          addPointShapeFileEnum(currFile);
+          addTxtEnum(currFile);
         }
-      } else if(currFile.getAttributeValue("type").equals("polygonShapefile"))
+      } else
+      {
+        addTxtData(currFile);
+      }
+    } else if(currFile.getAttributeValue("type").equals("UNEP"))
+    {
+      addUNEPData(currFile);
+    } else if(currFile.getAttributeValue("type").equals("1X1"))
+    {
+      log.log(Level.WARNING, "1X1 FILE TYPE NO LONGER USED. Use 'inLine; instead");
+      System.exit(1);
+    } else if(currFile.getAttributeValue("type").equals("inLine"))
+    {
+      addInLineData(currFile);
+    } else if(currFile.getAttributeValue("type").equals("ASC"))
+    {
+      addASCData(currFile);
+    } else if(currFile.getAttributeValue("type").equals("NASA"))
+    {
+      addNASAData(currFile);
+    } else if(currFile.getAttributeValue("type").equals("netcdf"))
+    {
+      Element stor = currFile.getChild("storage");
+      if(stor != null)
       {
-        Element stor = currFile.getChild("storage");
         if(stor.getAttributeValue("type").equals("values"))
         { //we are just storing the values in the shapefile normally
-          addPolyShapeFileData(currFile);
+          addNetCDFData(currFile);
         } else
         { //the values are enumerated types, each gets its own variable
           //values are the percent coverage for each block
-          addPolyShapeFileEnum(currFile);
+          addNetCDFEnum(currFile);
         }
-        
-      } else if(currFile.getAttributeValue("type").equals("raster"))
-      {
-        addRasterData(currFile);
-      } else if(currFile.getAttributeValue("type").equals("geoTiff"))
-      {
-	      addGeoTiffFile(currFile);
-      } else if(currFile.getAttributeValue("type").equals("flt"))
-      {
-	      addFLTFile(currFile);
       } else
       {
-        log.log(Level.WARNING, "Unsupported File Type -> "+currFile.getAttributeValue(null, "type"));
+        addNetCDFData(currFile);
       }
+    } else if(currFile.getAttributeValue("type").equals("pointShapefile"))
+    {
+      Element stor = currFile.getChild("storage");
+      if(stor.getAttributeValue("type").equals("values"))
+      { //we are just storing the values in the shapefile normally
+        addPointShapeFileData(currFile);
+      } else
+      { //the values are enumerated types, each gets its own variable
+        //values are the percent coverage for each block
+        addPointShapeFileEnum(currFile);
+      }
+    } else if(currFile.getAttributeValue("type").equals("polygonShapefile"))
+    {
+      Element stor = currFile.getChild("storage");
+      if(stor.getAttributeValue("type").equals("values"))
+      { //we are just storing the values in the shapefile normally
+        addPolyShapeFileData(currFile);
+      } else
+      { //the values are enumerated types, each gets its own variable
+        //values are the percent coverage for each block
+        addPolyShapeFileEnum(currFile);
+      }
+      
+    } else if(currFile.getAttributeValue("type").equals("raster"))
+    {
+      addRasterData(currFile);
+    } else if(currFile.getAttributeValue("type").equals("geoTiff"))
+    {
+	      addGeoTiffFile(currFile);
+    } else if(currFile.getAttributeValue("type").equals("flt"))
+    {
+	      addFLTFile(currFile);
+    } else
+    {
+      log.log(Level.WARNING, "Unsupported File Type -> "+currFile.getAttributeValue(null, "type"));
     }
-    //END MAIN XML LOOP FOR TREE BUILD
   }
+
   /**
    * Creates a list of {@link RegionMask}s from listed files.
    * Region information is supplied in the XML file which runs this
@@ -422,11 +638,41 @@ public class DataBuilder
     Element root = rDocument.getRootElement();
     List fileChildren = root.getChildren("file");
     Element currChild;
+    //masks already built from the same region files can be read from a cache
+    RegionMaskCache maskCache = null;
+    if(root.getAttributeValue("mask-cache") != null)
+    {
+      maskCache = new RegionMaskCache(new File(root.getAttributeValue("mask-cache")));
+    }
 
     //BEGIN MAIN XML LOOP FOR READING IN REGION MASKS
     for(int i = 0; i < fileChildren.size(); i++)
     {
       currChild = (Element)fileChildren.get(i);
+      //netcdf and unep region files also read the land fraction into the data, so
+      //only txt region files, which just make masks, can be skipped
+      String cacheKey = (maskCache != null && "txt".equals(currChild.getAttributeValue("type")))
+          ? RegionMaskCache.makeKey(currChild) : null;
+      if(cacheKey != null)
+      {
+        List<RegionMask> cached = maskCache.load(cacheKey);
+        if(cached != null)
+        {
+          log.log(Level.INFO, "read "+cached.size()+" region masks from the cache");
+          for(int k = 0; k < cached.size(); k++)
+          {
+            regionList.add(cached.get(k).name);
+            maskList.put(cached.get(k).name, cached.get(k));
+          }
+          continue;
+        }
+      }
+      Map<Object, Object> oldMasks = new IdentityHashMap<Object, Object>();
+      for(Iterator it = maskList.values().iterator(); it.hasNext(); )
+      {
+        Object holdR = it.next();
+        oldMasks.put(holdR, holdR);
+      }
       if(currChild.getAttributeValue("type").equals("txt"))
       {
         addTxtRegion(currChild);
@@ -439,6 +685,20 @@ public class DataBuilder
       } else
       {
         log.log(Level.WARNING, "Unsupported File Type -> "+currChild.getAttributeValue(null, "type"));
+        continue;
+      }
+      if(cacheKey != null)
+      {
+        List<RegionMask> newMasks = new ArrayList<RegionMask>();
+        for(Iterator it = maskList.values().iterator(); it.hasNext(); )
+        {
+          RegionMask holdR = (RegionMask)it.next();
+          if(!oldMasks.containsKey(holdR))
+          {
+            newMasks.add(holdR);
+          }
+        }
+        maskCache.save(cacheKey, newMasks);
       }
     }
     //END REGION MASK READING LOOP
@@ -456,6 +716,20 @@ public class DataBuilder
     Map holdToPrint;
     String rName;
     Iterator it = regionList.iterator();
+    if(numThreads > 1 && dataStruct instanceof FlatIndex)
+    {
+      //regions only read the data so they can all be extracted at once
+      List<RegionMask> masks = new ArrayList<RegionMask>();
+      while(it.hasNext())
+      {
+        rName = (String)it.next();
+        initializeExcludes(rName, (RegionMask)maskList.get(rName));
+        masks.add((RegionMask)maskList.get(rName));
+      }
+      log.log(Level.INFO, "extracting "+masks.size()+" regions with "+numThreads+" threads");
+      printList.putAll(((FlatIndex)dataStruct).extractMasks(masks, numThreads));
+      return;
+    }
     while(it.hasNext())
     {
       rName = (String)it.next();
@@ -578,32 +852,11 @@ public class DataBuilder
             //calculating normalized bounds of region
             //Do this by looping through index calc for weight variable and find min/max. 
             //Need to do it this way since no way to know where region boundaries lie with a working cell
-            Map tempMap = (Map)holdToPrint.get("weight");
-            tempMap = (Map)tempMap.get("0"); // get time, we know time has index of zero
-			Iterator weightDataIt =  tempMap.entrySet().iterator();
-
-			// Dummy initital values for max and min coordinate values. Make larger than any possible value.
-            maxXIndex = (int)( -2 ); // max val
-            maxYIndex = (int)( -2 );
-            minXIndex = (int)( 362.0 / dataStruct.getResolution() ); // min val
-            minYIndex = (int)( 182.0 / dataStruct.getResolution() );
-//		 	log.log(Level.FINER, "Region "+rName+" X&Y: "+((RegionMask)maskList.get(rName)).x+","+((RegionMask)maskList.get(rName)).y); 
-
-			while(weightDataIt.hasNext())
-			{
-			  data = (Map.Entry)weightDataIt.next();
-			  if(!((Double)data.getValue()).isNaN()) {
-				  //determine index values for this point. 
-				  Point2D.Double thisPointIndex, thisPoint;
-				  thisPoint = new Point2D.Double( ((Point2D.Double)data.getKey()).x, ((Point2D.Double)data.getKey()).y);
-				  thisPointIndex = CoordConversions.point2index( thisPoint, dataStruct.getResolution(), true );
-				  
-				  if ( (int)thisPointIndex.x < minXIndex ) { minXIndex = (int)thisPointIndex.x; }
-				  if ( (int)thisPointIndex.x > maxXIndex ) { maxXIndex = (int)thisPointIndex.x; }
-				  if ( (int)thisPointIndex.y < minYIndex ) { minYIndex = (int)thisPointIndex.y; }
-				  if ( (int)thisPointIndex.y > maxYIndex ) { maxYIndex = (int)thisPointIndex.y; }
-			  }
-			}
+            int[] bounds = weightIndexBounds(holdToPrint);
+            minXIndex = bounds[0];
+            maxXIndex = bounds[1];
+            minYIndex = bounds[2];
+            maxYIndex = bounds[3];
 			msizeX = maxXIndex - minXIndex + 1;
 			msizeY = maxYIndex - minYIndex + 1;
             normW = (double)msizeX * dataStruct.getResolution();
@@ -720,6 +973,148 @@ public class DataBuilder
       rWriter.close();
     } catch (IOException e){}
   }
+  /**
+   * Writes the same regions as writeRegions() to a binary region data file
+   * rather than XML.  Each variable and time of a region is written as its full
+   * matrix so the data manipulator can read it without parsing every cell.
+   * Cells with no weight are 0 and cells with no data are NaN, as they would be
+   * when the XML is read.
+   */
+  public void writeRegionsBinary()
+  {
+    Map holdToPrint;
+    String rName, varName;
+    Iterator itName, itVar, itTime, itData;
+    Map.Entry varEntry, timeEntry, data;
+    int msizeX, msizeY;
+    double res = dataStruct.getResolution();
+    try
+    {
+      RegionDataFile.Writer out = new RegionDataFile.Writer(outFile, res);
+      
+      //outputting the global data on variables (avg, units, reference)
+      itVar = dataAvg.entrySet().iterator();
+      while(itVar.hasNext())
+      {
+        varEntry = (Map.Entry)itVar.next();
+        // Don't write out cell area header for cell area data
+        if(!(varEntry.getKey().equals(CELL_AREA_DATA)))
+        {
+          out.addVariableInfo((String)varEntry.getKey(), ((Boolean)varEntry.getValue()).booleanValue(),
+              (String)dataUnits.get(varEntry.getKey()), (String)dataRef.get(varEntry.getKey()));
+        } else
+        {
+          log.log(Level.INFO, "Cell Area Data read in and incorprated into land fraction");
+        }
+      }
+      
+      itName = regionList.iterator();
+      while(itName.hasNext())
+      {
+        rName = (String)itName.next();
+        holdToPrint = (Map)printList.get(rName);
+        if((holdToPrint == null) || holdToPrint.isEmpty())
+        {
+          continue;
+        }
+        int[] bounds = weightIndexBounds(holdToPrint);
+        msizeX = bounds[1] - bounds[0] + 1;
+        msizeY = bounds[3] - bounds[2] + 1;
+        
+        // obtain corrdinate for corner this region. This LL coordinate of the the lower left corner cell.
+        Point2D.Double LLPoint, LLPointIndex, LLPointNormalized;
+        LLPoint = new Point2D.Double(((RegionMask)maskList.get(rName)).x, ((RegionMask)maskList.get(rName)).y);
+        LLPointIndex = CoordConversions.point2index(LLPoint, res, true);
+        LLPointNormalized = CoordConversions.index2point(LLPointIndex, res);
+        out.startRegion(rName, LLPointNormalized.x, LLPointNormalized.y, msizeY, msizeX);
+        
+        double[][] grid = new double[msizeY][msizeX];
+        itVar = holdToPrint.entrySet().iterator();
+        while(itVar.hasNext())
+        {
+          varEntry = (Map.Entry)itVar.next();
+          varName = (String)varEntry.getKey();
+          itTime = ((Map)varEntry.getValue()).entrySet().iterator();
+          while(itTime.hasNext())
+          {
+            timeEntry = (Map.Entry)itTime.next();
+            // weights start at 0 while variables start with no data
+            double empty = varName.equals("weight") ? 0 : Double.NaN;
+            for(int i = 0; i < msizeY; i++)
+            {
+              Arrays.fill(grid[i], empty);
+            }
+            itData = ((Map)timeEntry.getValue()).entrySet().iterator();
+            while(itData.hasNext())
+            {
+              data = (Map.Entry)itData.next();
+              double value = ((Double)data.getValue()).doubleValue();
+              if(!Double.isNaN(value))
+              {
+                //Indicies are relative to upper left corner
+                Point2D.Double thisPointIndex = CoordConversions.point2index((Point2D.Double)data.getKey(), res, true);
+                int yIndex = (int)(LLPointIndex.y + msizeY - thisPointIndex.y) - 1;
+                int xIndex = (int)(thisPointIndex.x - LLPointIndex.x);
+                if((yIndex < 0) || (xIndex < 0) || (yIndex >= msizeY) || (xIndex >= msizeX))
+                {
+                  log.log(Level.WARNING, "Out of bounds relative index ignored for region: "+rName);
+                  log.log(Level.FINER, "  -- xIndex: "+xIndex+"  -- yIndex: "+yIndex);
+                } else
+                {
+                  grid[yIndex][xIndex] = value;
+                }
+              }
+            }
+            out.addGrid(varName, String.valueOf(timeEntry.getKey()), grid);
+          }
+        }
+      }
+      out.close();
+    } catch(IOException e)
+    {
+      log.log(Level.SEVERE, "IOException in -> writeRegionsBinary");
+      e.printStackTrace();
+    }
+  }
+  
+  /**
+   * Finds the indicies of the cells a region covers from the cells which have a
+   * weight.  There is no other way to know where the region's boundaries lie
+   * once it has been built.
+   * @param holdToPrint The variables of the region to be written.
+   * @return The min x, max x, min y, and max y indicies.
+   */
+  private int[] weightIndexBounds(Map holdToPrint)
+  {
+    Map tempMap = (Map)holdToPrint.get("weight");
+    tempMap = (Map)tempMap.get("0"); // get time, we know time has index of zero
+    Iterator weightDataIt = tempMap.entrySet().iterator();
+    Map.Entry data;
+    
+    // Dummy initital values for max and min coordinate values. Make larger than any possible value.
+    int maxXIndex = -2; // max val
+    int maxYIndex = -2;
+    int minXIndex = (int)(362.0 / dataStruct.getResolution()); // min val
+    int minYIndex = (int)(182.0 / dataStruct.getResolution());
+    
+    while(weightDataIt.hasNext())
+    {
+      data = (Map.Entry)weightDataIt.next();
+      if(!((Double)data.getValue()).isNaN())
+      {
+        //determine index values for this point.
+        Point2D.Double thisPointIndex, thisPoint;
+        thisPoint = new Point2D.Double(((Point2D.Double)data.getKey()).x, ((Point2D.Double)data.getKey()).y);
+        thisPointIndex = CoordConversions.point2index(thisPoint, dataStruct.getResolution(), true);
+        
+        if((int)thisPointIndex.x < minXIndex) { minXIndex = (int)thisPointIndex.x; }
+        if((int)thisPointIndex.x > maxXIndex) { maxXIndex = (int)thisPointIndex.x; }
+        if((int)thisPointIndex.y < minYIndex) { minYIndex = (int)thisPointIndex.y; }
+        if((int)thisPointIndex.y > maxYIndex) { maxYIndex = (int)thisPointIndex.y; }
+      }
+    }
+    return new int[] { minXIndex, maxXIndex, minYIndex, maxYIndex };
+  }
   /**
    * Gets location of the seed data from input xml file and creates a Document
    * object from that file which is returned. Used to add a set of data to an
@@ -1056,9 +1451,7 @@ public class DataBuilder
     double res = 1;
     List infoChildren;
     Element currElem;
-    TreeMap timeValue;
     Double dataValue;
-    DataBlock toAdd;
     int skipLines = 0;
     double startLat = 90;
     double endLat = -90;
@@ -1194,17 +1587,17 @@ public class DataBuilder
        landFractionNativeResolution =res;
 	}
 	    
-    double curri =0;
-    double currk =0;
+    //values are read into a raster so they can be added at once, cells with the
+    //missing value are not added at all
+    GridRaster raster = new GridRaster(GridRaster.axis(-180, 179.9999, res, false), GridRaster.axis(startLat-res, endLat, -res, true), res, res, false);
+    int row = 0;
+    int col = 0;
     try {
   //reading the data from the file
-    for(double i = (startLat-res); i >= endLat; i-=res)
+    for(row = 0; row < raster.getRows(); row++)
     {
-      for(double k = -180; k < 179.9999; k+=res)
+      for(col = 0; col < raster.getCols(); col++)
       {
-	      curri = i;
-	      currk = k;
-        //System.out.println(k);
         if(dec)
         { //numbers stored in decimal format
           dataValue = Double.valueOf(readWord(input));
@@ -1212,32 +1605,25 @@ public class DataBuilder
         { //numbers stored in scientific notation
           dataValue = new Double(scientificToDouble(readWord(input)));
         }
-	if(dataValue != NaN) {
-        toAdd = new DataBlock(k, i, res, res);
-        timeValue = new TreeMap();
-        timeValue.put(time, dataValue);
-        
-        //check overwrite bit, if so, use hold instead of dataName
-        if(overwrite)
+        if(dataValue != NaN)
         {
-          //just replace name with hold, later, we will merge hold over old data
-          toAdd.data.put("hold", timeValue);
+          raster.set(row, col, dataValue);
         } else
         {
-          //add data as normal
-          toAdd.data.put(dataName, timeValue);
+          raster.setMissing(row, col);
         }
-        
-      //merging this data into the current tree
-        dataStruct.addData(toAdd, avg);
-      }
       }
     }
   } catch(NullPointerException e) {
-	  log.log(Level.WARNING, "Error reading data at (lat,long) ("+curri+", "+currk+"): "+e);
+	  log.log(Level.WARNING, "Error reading data at (lat,long) ("+raster.getY(row)+", "+raster.getX(col)+"): "+e);
 	  e.printStackTrace();
+	  //the rest of the file could not be read so it has no values
+	  raster.setMissingFrom(row, col);
   }
     
+    //check overwrite bit, if so, use hold instead of dataName and later merge hold over old data
+    dataStruct.addRaster((overwrite ? "hold" : dataName), time, raster, avg);
+    
     //done adding all data, if overwrite, must merge with old data now
     if(overwrite)
     {
@@ -1271,9 +1657,7 @@ public class DataBuilder
     double res = 1;
     List infoChildren;
     Element currElem;
-    TreeMap timeValue;
     Double dataValue;
-    DataBlock toAdd;
     
     //getting file info from XML
     infoChildren = currFile.getChildren();
@@ -1408,13 +1792,28 @@ public class DataBuilder
     }
     
     
-    //reading the data from the file
+    //the cells are read into a raster so they can be added at once, stepping through
+    //the coordinates the same way they used to be for each cell
 	baseYVal = (yLL+(numRows - 1)*res);
+    double[] colX = new double[numCols];
+    double[] rowY = new double[numRows];
+    currX = xLL;
+    for(int k = 0; k < numCols; k++)
+    {
+      colX[k] = currX;
+      currX += res;
+    }
     currY = baseYVal;
+    for(int i = 0; i < numRows; i++)
+    {
+      rowY[i] = currY;
+      currY -= res;
+    }
+    GridRaster raster = new GridRaster(colX, rowY, res, res, false);
     
+    //reading the data from the file
     for(int i = 0; i < numRows; i++)
     {
-      currX = xLL;
       for(int k = 0; k <numCols; k++)
       {
         dataValue = Double.valueOf(readNumber(input));
@@ -1434,29 +1833,17 @@ public class DataBuilder
         //only add this data if it is not the ignore value
         if(dataValue != ignore)
         {
-          toAdd = new DataBlock(currX, currY, res, res);
-          timeValue = new TreeMap();
-          timeValue.put(time, dataValue);
-          
-          //check overwrite bit, if so, use hold instead of dataName
-          if(overwrite)
-          {
-            //just replace name with hold, later, we will merge hold over old data
-            toAdd.data.put("hold", timeValue);
-          } else
-          {
-            //add data as normal
-            toAdd.data.put(dataName, timeValue);
-          }
-          
-        //merging this data into the current tree
-          dataStruct.addData(toAdd, avg);
+          raster.set(i, k, dataValue);
+        } else
+        {
+          raster.setMissing(i, k);
         }
-        currX += res;
       }
-      currY -= res;
     }
     
+    //check overwrite bit, if so, use hold instead of dataName and later merge hold over old data
+    dataStruct.addRaster((overwrite ? "hold" : dataName), time, raster, avg);
+    
     //done adding all data, if overwrite, must merge with old data now
     if(overwrite)
     {
@@ -1823,10 +2210,20 @@ public class DataBuilder
       */
     }
     
+    //values all go in one variable so they can be read into a raster and added at once,
+    //coverage needs a variable for each value so it is still added a cell at a time
+    GridRaster raster = null;
+    if(!storage.equals("coverage"))
+    {
+      raster = new GridRaster(GridRaster.axis(-180, 179.9999, res, false), GridRaster.axis(-90, 89.9999, res, true), res, res, false);
+    }
+    
     //reading the data from the file
-    for(double i = (-90); i <= 89.9999; i+=res)
+    int row = 0;
+    for(double i = (-90); i <= 89.9999; i+=res, row++)
     {
-      for(double k = -180; k < 179.9999; k+=res)
+      int col = 0;
+      for(double k = -180; k < 179.9999; k+=res, col++)
       {
         //System.out.println(k);
         //numbers stored in scientific notation
@@ -1836,6 +2233,11 @@ public class DataBuilder
         {
           dataValue = Double.NaN;
         }
+        if(raster != null)
+        {
+          raster.set(row, col, dataValue);
+          continue;
+        }
 	if(storage.equals("coverage")) {
           if(nameConvention.equals("single"))
           {
@@ -1858,30 +2260,7 @@ public class DataBuilder
 	} else {
 		target = dataName;
 	}
-          if(!overwrite.containsKey(target))
-          { //this is the first run, check for overwrite properties now
-            boolean over = false;
-            if(dataAvg.containsKey(target))
-            {
-              over = true;
-            }
-            overwrite.put(target, over);
-          }
-          
-          if(!overwrite.get(target))
-          {
-            //setting whether contained data is additive or averaged
-            if(!dataAvg.containsKey(target))
-            { //i cant believe this is the only way to do this
-              //its going to take forever to test every run
-              dataAvg.put(target, new Boolean(avg));
-              if(ref != null)
-              {
-                dataRef.put(target, ref);
-              }
-            }
-            //done settign avg/add ref and units
-          }
+          checkASCOverwrite(overwrite, target, avg, ref);
         
         toAdd = new DataBlock(k, i, res, res);
         timeValue = new TreeMap();
@@ -1920,6 +2299,11 @@ public class DataBuilder
       }
     }
 
+    if(raster != null)
+    {
+      checkASCOverwrite(overwrite, dataName, avg, ref);
+      dataStruct.addRaster((overwrite.get(dataName) ? ("hold"+dataName) : dataName), time, raster, avg);
+    }
 
     //done adding all data, if overwrite, must merge with old data now
     Map.Entry me;
@@ -1949,6 +2333,42 @@ public class DataBuilder
   //done reading data from file
   }
   
+  /**
+   * Checks whether an asc target variable is being overwritten the first time it is
+   * seen and if not sets whether it is additive or averaged and its reference.
+   * @param overwrite Whether each target seen so far is being overwritten.
+   * @param target The variable the data is going in.
+   * @param avg Whether the data is averaged.
+   * @param ref The reference for the data, may be null.
+   */
+  private void checkASCOverwrite(TreeMap<String, Boolean> overwrite, String target, boolean avg, String ref)
+  {
+    if(!overwrite.containsKey(target))
+    { //this is the first run, check for overwrite properties now
+      boolean over = false;
+      if(dataAvg.containsKey(target))
+      {
+        over = true;
+      }
+      overwrite.put(target, over);
+    }
+    
+    if(!overwrite.get(target))
+    {
+      //setting whether contained data is additive or averaged
+      if(!dataAvg.containsKey(target))
+      { //i cant believe this is the only way to do this
+        //its going to take forever to test every run
+        dataAvg.put(target, new Boolean(avg));
+        if(ref != null)
+        {
+          dataRef.put(target, ref);
+        }
+      }
+      //done settign avg/add ref and units
+    }
+  }
+  
   private void addNetCDFData(Element currFile)
   { /* function will add the data from the specified file of type 'netcdf'
      * 'netcdf'- defined as a .nc file associated with the NetCDF standard. Data
@@ -1969,9 +2389,7 @@ public class DataBuilder
     float userNaN = 123458;
     List infoChildren;
     Element currElem;
-    TreeMap timeValue;
     Double dataValue;
-    DataBlock toAdd;
     boolean isEosWeb = false;
     boolean shouldFlip = false;
     int internalTimeIndex = 0;
@@ -2051,16 +2469,20 @@ public class DataBuilder
       NetcdfFile nc = NetcdfFile.open(fileName);
       /* Read a variable named *readin* from the file, it contains the masks */
       Variable data = nc.findVariable(dataVar);
-      Array ma2Array;
-      if ( data != null ) {
-      	ma2Array = data.read();
-      } else {
+      if ( data == null ) {
         log.log(Level.SEVERE, "netCDF data field "+dataVar+" not found.");
         log.log(Level.SEVERE, "Exiting read routine.");
         return;
       }
       
-      int[] shp = ma2Array.getShape();
+      //the data is read a band of rows at a time later so only get the shape now
+      int[] shp = data.getShape();
+      final int rank = shp.length;
+      if(rank < 2 || rank > 4)
+      {
+        log.log(Level.SEVERE, "Array rank of "+rank+" not supported.");
+        return;
+      }
 
       double startY, startX;
       double endY, endX;
@@ -2168,11 +2590,10 @@ public class DataBuilder
       }
       //done doing overwrite check
 
-      Index in = ma2Array.getIndex();
       int i = 0;
       int k = 0;
       ucar.nc2.Attribute tempAttr = data.findAttribute("missing_value");
-      float NaN;
+      final float NaN;
       if ( userNaN == 123458 ) {
 		  if( tempAttr != null ) {
 			  NaN = tempAttr.getNumericValue().floatValue();
@@ -2213,10 +2634,42 @@ public class DataBuilder
       System.out.println("endY: "+endY);
       */
 
-	  log.log(Level.FINER, "Attempting to read netCDF data array array with rank "+ma2Array.getRank() );
+	  log.log(Level.FINER, "Attempting to read netCDF data array array with rank "+rank );
+
+      //the cells are the same for every time so only find their coordinates once
+      double[] colX = GridRaster.axis(startX, (endX+resX), resX, false);
+      for(k = 0; k < colX.length; k++)
+      {
+	      // Change x coordinates to negative if necessary
+	      if ( colX[k] >= 180 ) {
+		      colX[k] = colX[k] - 360;
+	      }
+      }
+      double[] rowY = GridRaster.axis(startY, endY, -resY, true);
+      if(shouldFlip) {
+	      for(i = 0; i < rowY.length; i++) {
+		      rowY[i] = -1*rowY[i];
+	      }
+      }
 
-      for(int currTimeIndex = 0; currTimeIndex < numTime; currTimeIndex += timeStep)
+      // read the data a band of rows for one time at a time so only a few bands are
+      // ever held, each band is resampled onto the working grid on its own thread and
+      // added in order as soon as it is done
+      int numCols = colX.length;
+      int numRows = Math.min(rowY.length, shp[rank-2]);
+      int bandRows = Math.max(1, NETCDF_BAND_CELLS / Math.max(1, numCols));
+      ExecutorService pool = null;
+      if(numThreads > 1 && dataStruct instanceof FlatIndex)
       {
+        pool = Executors.newFixedThreadPool(numThreads);
+      }
+      LinkedList<Future<FlatIndex.ResampledRaster>> bands = new LinkedList<Future<FlatIndex.ResampledRaster>>();
+      LinkedList<Double> bandTimes = new LinkedList<Double>();
+      String addName = overwrite ? "hold" : dataName;
+      try
+      {
+        for(int currTimeIndex = 0; currTimeIndex < numTime; currTimeIndex += timeStep)
+        {
 	      if(!isEosWeb && timeVar != null) {
 		      internalTimeIndex = findYearIndex(timeArr, timeInd, 0, timeArr.getShape()[0]-1, (float)(time+currTimeIndex));
 		      if(internalTimeIndex == -1) {
@@ -2226,63 +2679,69 @@ public class DataBuilder
 	      } else {
 		      internalTimeIndex += timeStep;
 	      }
-	      for(double y = startY; y >= endY; y-=resY)
+	      for(int firstRow = 0; firstRow < numRows; firstRow += bandRows)
 	      {
-		      k=0;
-		      for(double x = startX; x < (endX+resX); x+=resX)
+		      int bandSize = Math.min(bandRows, numRows-firstRow);
+		      int[] origin = new int[rank];
+		      int[] size = new int[rank];
+		      Arrays.fill(size, 1);
+		      if(rank > 2)
 		      {
-			      if(ma2Array.getRank() == 2)
-			      {
-				      dataValue = new Double((double)ma2Array.getFloat(in.set(i, k)));
-			      } else if(ma2Array.getRank() == 3)
-			      {
-				      dataValue = new Double(ma2Array.getDouble(in.set(internalTimeIndex, i, k)));
-			      } else if(ma2Array.getRank() == 4)
-			      {
-				      dataValue = new Double((double)ma2Array.getFloat(in.set(0, internalTimeIndex, i, k)));
-			      } else
-			      {
-				      log.log(Level.SEVERE, "Array rank of "+ma2Array.getRank()+" not supported.");
-				      return;
-			      }
-
-			      if(dataValue != NaN)
-			      {
-			      	  double xCoord = x;
-			      	  // Change x coordinates to negative if necessary
-			      	  if ( xCoord >= 180 ) {
-			      	  	xCoord = xCoord - 360;
-			      	  }
-				      if(!shouldFlip) {
-					      toAdd = new DataBlock(xCoord, y, resX, resY);
-				      } else {
-					      toAdd = new DataBlock(xCoord, -1*y, resX, resY);
-				      }
-				      timeValue = new TreeMap();
-				      timeValue.put(new Double(time+currTimeIndex), dataValue);
-
-				      //check overwrite bit, if so, use hold instead of dataName
-				      if(overwrite)
-				      {
-					      //just replace name with hold, later, we will merge hold over old data
-					      toAdd.data.put("hold", timeValue);
-				      } else
+			      origin[rank-3] = internalTimeIndex;
+		      }
+		      origin[rank-2] = firstRow;
+		      size[rank-2] = bandSize;
+		      size[rank-1] = numCols;
+		      final Array band = data.read(origin, size);
+		      final double[] bandY = Arrays.copyOfRange(rowY, firstRow, firstRow+bandSize);
+		      if(pool != null)
+		      {
+			      final double[] bandX = colX;
+			      final double bandResX = resX;
+			      final double bandResY = resY;
+			      final boolean bandAvg = avg;
+			      bands.add(pool.submit(new Callable<FlatIndex.ResampledRaster>() {
+				      public FlatIndex.ResampledRaster call()
 				      {
-					      //add data as normal
-					      toAdd.data.put(dataName, timeValue);
+					      GridRaster raster = netCDFBandRaster(band, rank, bandX, bandY, bandResX, bandResY, NaN);
+					      return ((FlatIndex)dataStruct).resampleRaster(raster, bandAvg);
 				      }
-
-				      //merging this data into the current tree
-				      //System.out.println("sending "+dataValue);
-				      dataStruct.addData(toAdd, avg);
+			      }));
+			      bandTimes.add(time+currTimeIndex);
+			      // hold on to a few bands ahead of the one being added at most
+			      while(bands.size() > 2*numThreads)
+			      {
+				      ((FlatIndex)dataStruct).addResampled(addName, bandTimes.removeFirst(), bands.removeFirst().get());
 			      }
-			      //else this value SUCKS!!!!
-
-			      k++;
+		      } else
+		      {
+			      dataStruct.addRaster(addName, (time+currTimeIndex), netCDFBandRaster(band, rank, colX, bandY, resX, resY, NaN), avg);
 		      }
-		      i++;
 	      }
-	      i = 0;
+        }
+        while(!bands.isEmpty())
+        {
+          ((FlatIndex)dataStruct).addResampled(addName, bandTimes.removeFirst(), bands.removeFirst().get());
+        }
+      } catch(InvalidRangeException ire)
+      {
+        log.log(Level.SEVERE, "Error reading NetCDF file -> "+fileName+": "+ire);
+        System.exit(1);
+      } catch(InterruptedException ie)
+      {
+        log.log(Level.SEVERE, "Interrupted while reading NetCDF file -> "+fileName);
+        System.exit(1);
+      } catch(ExecutionException ee)
+      {
+        log.log(Level.SEVERE, "Error reading NetCDF file -> "+fileName+": "+ee.getCause());
+        ee.getCause().printStackTrace();
+        System.exit(1);
+      } finally
+      {
+        if(pool != null)
+        {
+          pool.shutdown();
+        }
       }
       //done adding all data, if overwrite, must merge with old data now
       if(overwrite)
@@ -2298,6 +2757,40 @@ public class DataBuilder
     
   }
 
+  /**
+   * Copies a band of rows read from a NetCDF variable into a raster.
+   * @param band The values read, with only one time if the variable has times.
+   * @param rank The rank of the variable.
+   * @param colX The left edge of each column.
+   * @param bandY The bottom edge of each row in the band.
+   * @param resX The width of the cells.
+   * @param resY The height of the cells.
+   * @param NaN The value which marks missing data.
+   * @return The raster, missing values are left as NaN which the raster skips.
+   */
+  private static GridRaster netCDFBandRaster(Array band, int rank, double[] colX, double[] bandY,
+      double resX, double resY, float NaN)
+  {
+    GridRaster raster = new GridRaster(colX, bandY, resX, resY, true);
+    Index in = band.getIndex();
+    int[] pos = new int[rank];
+    for(int row = 0; row < bandY.length; row++)
+    {
+      pos[rank-2] = row;
+      for(int col = 0; col < colX.length; col++)
+      {
+        pos[rank-1] = col;
+        in.set(pos);
+        double dataValue = rank == 3 ? band.getDouble(in) : (double)band.getFloat(in);
+        if(dataValue != NaN)
+        {
+          raster.set(row, col, dataValue);
+        }
+      }
+    }
+    return raster;
+  }
+
   /**
    * Finds the year index from the passed in array.
    * @param arr The array to search in.
@@ -3942,7 +4435,6 @@ public class DataBuilder
     List infoChildren;
     Element currElem;
     TreeMap timeValue;
-    Double dataValue;
     DataBlock toAdd;
     
   //getting file info from XML
@@ -4028,114 +4520,69 @@ public class DataBuilder
     }
     
     
-    //reading the data from the file
+    //reading the data from the file, each line is the location followed by the 12
+    //monthly values and then the value for the year
     String nextWord;
-    double X, Y;
+    List<double[]> lines = new ArrayList<double[]>();
+    TreeSet<Double> xSet = new TreeSet<Double>();
+    TreeSet<Double> ySet = new TreeSet<Double>();
     while((nextWord = readWord(input)) != null)
     {
       //we know we have a line, so read all of this line
-      
-      if(dec)
-      { //numbers stored in decimal format
-        //get the location of this data
-        Y = Double.parseDouble(nextWord);
-        X = Double.parseDouble(readWord(input));
-        for(int i = 1; i <= 12; i++)
-        {
-          nextWord = readWord(input);
-          if(byMonth)
-          { //if we are storing info for each 
-            dataValue = Double.valueOf(nextWord);
-            toAdd = new DataBlock(X, Y, res, res);
-            timeValue = new TreeMap();
-            timeValue.put(new Double((time+(i*.01))), dataValue);
-            
-            //check overwrite bit, if so, use hold instead of dataName
-            if(overwrite)
-            {
-              //just replace name with hold, later, we will merge hold over old data
-              toAdd.data.put("hold", timeValue);
-            } else
-            {
-              //add data as normal
-              toAdd.data.put(dataName, timeValue);
-            }
-          //merging this data into the current tree
-            dataStruct.addData(toAdd, avg);
-          }
-        }
+      double[] line = new double[15];
+      line[0] = dec ? Double.parseDouble(nextWord) : scientificToDouble(nextWord);
+      for(int i = 1; i < line.length; i++)
+      {
         nextWord = readWord(input);
-        if(!byMonth)
-        { //if we are just reading 1 value for a year then add this
-          dataValue = Double.valueOf(nextWord);
-          toAdd = new DataBlock(X, Y, res, res);
-          timeValue = new TreeMap();
-          timeValue.put(new Double(time), dataValue);
-          
-          //check overwrite bit, if so, use hold instead of dataName
-          if(overwrite)
-          {
-            //just replace name with hold, later, we will merge hold over old data
-            toAdd.data.put("hold", timeValue);
-          } else
-          {
-            //add data as normal
-            toAdd.data.put(dataName, timeValue);
-          }
-        //merging this data into the current tree
-          dataStruct.addData(toAdd, avg);
-        }
-      } else
-      { //numbers stored in scientific notation
-        Y = scientificToDouble(nextWord);
-        X = scientificToDouble(readWord(input));
-        for(int i = 1; i <= 12; i++)
+        line[i] = dec ? Double.parseDouble(nextWord) : scientificToDouble(nextWord);
+      }
+      lines.add(line);
+      ySet.add(line[0]);
+      xSet.add(line[1]);
+    }
+    
+    //the locations are put on a grid so the values for each time can be added
+    //at once, a location given more than once is added again a cell at a time
+    //as it would have been before
+    double[] colX = new double[xSet.size()];
+    double[] rowY = new double[ySet.size()];
+    int pos = 0;
+    for(Iterator<Double> it = xSet.iterator(); it.hasNext(); )
+    {
+      colX[pos++] = it.next();
+    }
+    pos = 0;
+    for(Iterator<Double> it = ySet.iterator(); it.hasNext(); )
+    {
+      rowY[pos++] = it.next();
+    }
+    int numTimes = byMonth ? 12 : 1;
+    for(int t = 0; t < numTimes; t++)
+    {
+      //the year value comes after the 12 months
+      int valueIndex = byMonth ? (t+2) : 14;
+      double currTime = byMonth ? (time+((t+1)*.01)) : time;
+      GridRaster raster = new GridRaster(colX, rowY, res, res, false);
+      raster.setMissingFrom(0, 0);
+      for(int i = 0; i < lines.size(); i++)
+      {
+        double[] line = lines.get(i);
+        int row = Arrays.binarySearch(rowY, line[0]);
+        int col = Arrays.binarySearch(colX, line[1]);
+        if(!raster.hasValue(row, col))
         {
-          nextWord = readWord(input);
-          if(byMonth)
-          { //if we are storing info for each 
-            dataValue = new Double(scientificToDouble(nextWord));
-            toAdd = new DataBlock(X, Y, res, res);
-            timeValue = new TreeMap();
-            timeValue.put(new Double((time+(i*.01))), dataValue);
-            
-            //check overwrite bit, if so, use hold instead of dataName
-            if(overwrite)
-            {
-              //just replace name with hold, later, we will merge hold over old data
-              toAdd.data.put("hold", timeValue);
-            } else
-            {
-              //add data as normal
-              toAdd.data.put(dataName, timeValue);
-            }
-          //merging this data into the current tree
-            dataStruct.addData(toAdd, avg);
-          }
-        }
-        nextWord = readWord(input);
-        if(!byMonth)
-        { //if we are just reading 1 value for a year then add this
-          dataValue = new Double(scientificToDouble(nextWord));
-          toAdd = new DataBlock(X, Y, res, res);
+          raster.set(row, col, line[valueIndex]);
+        } else
+        {
+          toAdd = new DataBlock(line[1], line[0], res, res);
           timeValue = new TreeMap();
-          timeValue.put(new Double(time), dataValue);
-          
+          timeValue.put(new Double(currTime), new Double(line[valueIndex]));
           //check overwrite bit, if so, use hold instead of dataName
-          if(overwrite)
-          {
-            //just replace name with hold, later, we will merge hold over old data
-            toAdd.data.put("hold", timeValue);
-          } else
-          {
-            //add data as normal
-            toAdd.data.put(dataName, timeValue);
-          }
-        //merging this data into the current tree
+          toAdd.data.put((overwrite ? "hold" : dataName), timeValue);
           dataStruct.addData(toAdd, avg);
         }
-        dataValue = new Double(scientificToDouble(nextWord));
       }
+      dataStruct.addRaster((overwrite ? "hold" : dataName), currTime, raster, avg);
     }
     
     //done adding all data, if overwrite, must merge with old data now
@@ -5112,8 +5559,6 @@ public void addFLTFile(Element currFile)
 	double resY, resX;
 	boolean avg = true;
 	String dataName = "shutup,";
-	DataBlock toAdd;
-	TreeMap timeValue;
 	boolean overwrite = false;
 	double NaN = 0.0;
 	for(int i = 0; i < infoChildren.size(); i++)
@@ -5160,36 +5605,27 @@ public void addFLTFile(Element currFile)
 	try 
 	{
 		resY = resX = res;
-		DataInputStream input = new DataInputStream(new FileInputStream(fileName));
-		for(double y = (90-resY); y >= -90; y-=resY)
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		// values which are missing are left as NaN which the raster skips
+		GridRaster raster = new GridRaster(GridRaster.axis(-180, 180, resX, false), 
+				GridRaster.axis((90-resY), -90, -resY, true), resX, resY, true);
+		for(int row = 0; row < raster.getRows(); row++)
 		{
-			for(double x = -180; x < 180; x+=resX)
+			for(int col = 0; col < raster.getCols(); col++)
 			{
 				// this binary file seems to be the oposite endian java or my comp?? expects
 				// so I am reading as int and reversing the bytes
 				double dataValue = (double)Float.intBitsToFloat(Integer.reverseBytes(input.readInt()));
 				if(dataValue != NaN) {
-					toAdd = new DataBlock(x, y, resX, resY);
-				      timeValue = new TreeMap();
-				      timeValue.put(timeDouble, dataValue);
-
-				      //check overwrite bit, if so, use hold instead of dataName
-				      if(overwrite)
-				      {
-					      //just replace name with hold, later, we will merge hold over old data
-					      toAdd.data.put("hold", timeValue);
-				      } else
-				      {
-					      //add data as normal
-					      toAdd.data.put(dataName, timeValue);
-				      }
-
-				      //merging this data into the current tree
-				      dataStruct.addData(toAdd, avg);
-
+					raster.set(row, col, dataValue);
 				}
 			}
 		}
+
+		//check overwrite bit, if so, use hold instead of dataName
+		//merging this data into the current tree
+		dataStruct.addRaster((overwrite ? "hold" : dataName), timeDouble, raster, avg);
+
 		//done adding all data, if overwrite, must merge with old data now
 		if(overwrite)
 		{
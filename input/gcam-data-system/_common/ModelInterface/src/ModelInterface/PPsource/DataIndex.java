@@ -37,6 +37,11 @@ public interface DataIndex
   public double getResolution();
   public void fillWorld(double res);
   public void addData(DataBlock val, boolean avg);
+  /**
+   * Adds every cell of a raster to the named variable and time, weighting the values
+   * the same way addData does for each cell's DataBlock.
+   */
+  public void addRaster(String varName, double time, GridRaster raster, boolean avg);
   public void resolveOverwrite(String holdName, String varName);
   public Map extractMask( RegionMask m );
 
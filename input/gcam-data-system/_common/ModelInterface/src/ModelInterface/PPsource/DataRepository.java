@@ -57,6 +57,15 @@ public interface DataRepository
   
   public int mergeHoldTo(String holdName, String varName);
   
+  /*
+   * used to merge layers which were filled in separate repositories, addLayer
+   * must be safe to call from several threads at once as long as nothing else
+   * is changing this repository
+   */
+  public Set<String> getVarNames();
+  public Set<Double> getTimes(String varName);
+  public void addLayer(String varName, double time, double[][] layer);
+  
   public TreeMap<String, TreeMap<Double, Double>> getAllLayers(int X, int Y);
   
   public Map<String, Map<String, Map<Point2D.Double, Double>>> getRegion(int X, int Y, double[][] weights, double xL, double yL, double res, RegionMask mask);
@@ -30,23 +30,74 @@
 package ModelInterface.PPsource;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.awt.geom.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.*;
 
-public class DiskLayerRepository implements DataRepository
+/**
+ * A FlatLayerRepository which keeps each layer in its own file rather than on the heap
+ * so that grids larger than the heap can be preprocessed.  Layer files are memory mapped
+ * and accessed in place as DoubleBuffers so changing layers or reading a single cell does
+ * not read the whole layer.  Only a bounded number of layers are kept mapped, the least
+ * recently used one is dropped when another needs to be mapped and if it was changed its
+ * pages are forced back to disk on a background thread.  Errors mapping or writing a layer
+ * are logged and thrown as a RuntimeException rather than being lost.
+ * <p>
+ * Each layer file is kept open for as long as the layer exists.  Cells of layers which
+ * are not mapped are read a block at a time so reading every cell across all of the
+ * layers reads each file once rather than once per cell.
+ * </p>
+ */
+public class DiskLayerRepository extends FlatLayerRepository
 {
-  /*
-   * implements as a treemap of vars -> treemap of times -> location on disk
+  private static final int DEFAULT_MAX_MAPPED = 16;
+  private static final int PEEK_BLOCK_SIZE = 4096; //cells read at once from an unmapped layer
+  
+  private File dir; //where the layer files go
+  private List<File> layerFiles; //indexed by layer ID
+  private List<FileChannel> layerChannels; //indexed by layer ID, open until the layer is released
+  private List<PeekBlock> peekBlocks; //indexed by layer ID, null until a cell is peeked
+  private int maxMapped;
+  private LinkedHashMap<Integer, MappedLayer> mapped; //in least recently used order
+  private int lastId = -1; //the most recently used layer, which needs no reordering
+  private MappedLayer lastLayer;
+  private ExecutorService writer;
+  private volatile RuntimeException writeError;
+  private long mapCount;
+  
+  /**
+   * A layer file which is currently mapped.
+   */
+  private static class MappedLayer
+  {
+    MappedByteBuffer map;
+    DoubleBuffer values;
+    boolean dirty;
+  }
+  
+  /**
+   * Cells read from a layer file which is not mapped.  Dropped when the layer is
+   * mapped since it may be changed through the mapping.
    */
-  TreeMap<String, TreeMap<Double, String>> root;
-  double[][] currLayer;
-  String currName;
-  int xSize;
-  int ySize;
-  boolean dirty;
+  private static class PeekBlock
+  {
+    ByteBuffer bytes = ByteBuffer.allocate(PEEK_BLOCK_SIZE*8).order(ByteOrder.nativeOrder());
+    DoubleBuffer values = bytes.asDoubleBuffer();
+    int start = -1; //first cell in the block
+    int size; //number of cells in the block
+  }
   
 //*********************************************************
 //*****************Class Constructors**********************
@@ -54,396 +105,378 @@ public class DiskLayerRepository implements DataRepository
   
   public DiskLayerRepository()
   {
-    root = new TreeMap<String, TreeMap<Double, String>>();
-    xSize = 360;
-    ySize = 180;
-    currName = "";
-    dirty = false;
+    this(360, 180);
   }
   public DiskLayerRepository(int x, int y)
   {
-    root = new TreeMap<String, TreeMap<Double, String>>();
-    xSize = x;
-    ySize = y;
-    currName = "";
-    dirty = false;
+    this(x, y, null, DEFAULT_MAX_MAPPED);
+  }
+  /**
+   * Creates a repository which keeps its layer files in the given directory.
+   * @param x The number of cells in the X direction.
+   * @param y The number of cells in the Y direction.
+   * @param layerDir The directory to put layer files in, or null to use a new
+   *        temporary directory.
+   * @param maxMappedLayers The number of layers to keep mapped at once.
+   */
+  public DiskLayerRepository(int x, int y, File layerDir, int maxMappedLayers)
+  {
+    super(x, y);
+    if((long)x*y > Integer.MAX_VALUE/8)
+    {
+      throw new IllegalArgumentException("A layer of "+x+" by "+y+" is too big to map");
+    }
+    try
+    {
+      if(layerDir == null)
+      {
+        layerDir = File.createTempFile("layers", "");
+        layerDir.delete();
+      }
+      if(!layerDir.isDirectory() && !layerDir.mkdirs())
+      {
+        throw new IOException("Could not create "+layerDir);
+      }
+    } catch(IOException e)
+    {
+      log.log(Level.SEVERE, "Couldn't create the layer directory: "+e);
+      throw new RuntimeException(e);
+    }
+    layerDir.deleteOnExit();
+    dir = layerDir;
+    layerFiles = new ArrayList<File>();
+    layerChannels = new ArrayList<FileChannel>();
+    peekBlocks = new ArrayList<PeekBlock>();
+    maxMapped = Math.max(1, maxMappedLayers);
+    mapped = new LinkedHashMap<Integer, MappedLayer>();
+    writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "layer-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    log.log(Level.FINER, "keeping layers in "+dir);
   }
   
 //*********************************************************
 //*************Begin Functions Proper**********************
 //*********************************************************
   
-  public void changeLayer(String varName, double time)
+  /**
+   * Locks the whole repository before the layer IDs so that the locks are always
+   * taken in the same order.
+   */
+  public synchronized int getLayerId(String varName, double time)
+  {
+    return super.getLayerId(varName, time);
+  }
+  
+  /**
+   * Adds a layer which was filled elsewhere.  Locks the whole repository since a
+   * layer may be mapped to a different buffer each time it is used.
+   */
+  public synchronized void addLayer(String varName, double time, DoubleBuffer layer)
   {
-    if(!currName.equals((varName+time)))
+    super.addLayer(varName, time, layer);
+  }
+  
+  /**
+   * @return The number of times a layer file has had to be mapped.
+   */
+  public synchronized long getMapCount()
+  {
+    return mapCount;
+  }
+  
+  /**
+   * Forces every changed layer back to disk and waits for any background writes.
+   */
+  public synchronized void flush()
+  {
+    for(Iterator<MappedLayer> it = mapped.values().iterator(); it.hasNext(); )
     {
-      if(dirty)
+      MappedLayer m = it.next();
+      if(m.dirty)
       {
-        writeLayer(currName, currLayer);
+        m.map.force();
+        m.dirty = false;
       }
-      
-      double[][] thisLayer = createLayer(varName, time);
-      
-      currLayer = thisLayer;
-      currName = (varName+time);
-      dirty = false; //just changed layer after reading from disk (or writing to disk)
     }
-  }
-  public double[][] createLayer(String varName, double time)
-  {
-    if(!root.containsKey(varName))
-    { //create variable
-      root.put(varName, new TreeMap<Double, String>());
-    }
-    
-    TreeMap<Double, String> inVar = root.get(varName);
-    if(!inVar.containsKey(time))
-    { //create this field matrix
-      double[][] newb = new double[xSize][ySize];
-      //filling this new layer with NaN's
-      for(int i = 0; i < xSize; i ++)
-      {
-        for(int k = 0; k < ySize; k++)
+    try
+    {
+      writer.submit(new Runnable() {
+        public void run()
         {
-          newb[i][k] = Double.NaN;
         }
-      }
-      
-      //storing new matrix identifier
-      inVar.put(time, varName+time);
-      writeLayer(varName+time, newb);
-      
-      return newb;
+      }).get();
+    } catch(Exception e)
+    {
+      log.log(Level.WARNING, "Interrupted waiting for layer writes: "+e);
     }
-    
-    return readLayer(varName+time);
-  }
-  public double[][] getLayer(String varName, double time)
-  {
-    changeLayer(varName, time);
-    
-    return currLayer;
+    checkWriteError();
   }
   
-  public void setValue(int X, int Y, double value)
-  {
-    currLayer[X][Y] = value;
-    dirty = true;
-  }
-  public void setValue(String varName, double time, int X, int Y, double value)
+  /**
+   * Stops the background writer and removes all of the layer files.  The repository
+   * can not be used afterwards.
+   */
+  public synchronized void close()
   {
-    changeLayer(varName, time);
-    
-    setValue(X, Y, value);
+    writer.shutdown();
+    mapped.clear();
+    lastId = -1;
+    lastLayer = null;
+    for(int id = 0; id < layerFiles.size(); id++)
+    {
+      if(layerFiles.get(id) != null)
+      {
+        closeChannel(id);
+        layerFiles.get(id).delete();
+      }
+    }
+    dir.delete();
   }
-
-  public void addValue(int X, int Y, double value)
+  
+//*********************************************************
+//*************Layer Storage*******************************
+//*********************************************************
+  
+  protected synchronized DoubleBuffer allocateLayer(int id)
   {
+    File f = new File(dir, "layer"+id+".lay");
+    f.deleteOnExit();
+    while(layerFiles.size() <= id)
+    {
+      layerFiles.add(null);
+      layerChannels.add(null);
+      peekBlocks.add(null);
+    }
+    layerFiles.set(id, f);
     try
     {
-      if(Double.isNaN(currLayer[X][Y]))
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      try
       {
-        currLayer[X][Y] = value;
-      } else
+        raf.setLength((long)xSize*ySize*8);
+      } catch(IOException e)
       {
-        currLayer[X][Y] += value;
+        raf.close();
+        throw e;
       }
-      dirty = true;
-    } catch(ArrayIndexOutOfBoundsException e)
+      layerChannels.set(id, raf.getChannel());
+    } catch(IOException e)
     {
-      System.out.println("SEVERE: ("+X+","+Y+") out of bounds - PROGRAM TERMINATING");
-      System.exit(1);
+      log.log(Level.SEVERE, "Couldn't create layer file "+f+": "+e);
+      throw new RuntimeException(e);
     }
     
-    
-    
+    //filling this new layer with NaN's
+    DoubleBuffer values = getLayerBuffer(id, true);
+    double[] nan = new double[ySize];
+    Arrays.fill(nan, Double.NaN);
+    values = values.duplicate();
+    values.clear();
+    for(int i = 0; i < xSize; i++)
+    {
+      values.put(nan);
+    }
+    return null;
   }
-  public void addValue(String varName, double time, int X, int Y, double value)
-  {
-    changeLayer(varName, time);
-    
-    addValue(X, Y, value);
-  }  
   
-  public double getValue(int X, int Y)
+  protected synchronized DoubleBuffer adoptLayer(int id, DoubleBuffer values)
   {
-    return currLayer[X][Y];
+    allocateLayer(id);
+    DoubleBuffer from = values.duplicate();
+    from.clear();
+    DoubleBuffer to = getLayerBuffer(id, true).duplicate();
+    to.clear();
+    to.put(from);
+    return null;
   }
-  public double getValue(String varName, double time, int X, int Y)
-  {
-    changeLayer(varName, time);
-    
-    return getValue(X, Y);
-  }
-
-  public int mergeHoldTo(String holdName, String varName)
+  
+  protected synchronized DoubleBuffer getLayerBuffer(int id, boolean forWrite)
   {
-    //this will take whatever information is in the hold layer and merge it
-    //with the designated variable
-    //**this function can do multiple times at once, each time SHOULD align
-    //**with a time in the variable (time == time)
-    Map.Entry<Double, String> holdEntry;
-    Iterator<Map.Entry<Double, String>> iH;
-    Double thisTime;
-    TreeMap<Double, String> hold;
-    TreeMap<Double, String> overwrite;
-    double[][] holdTime;
-    double[][] overwriteTime;
-    
-    
-    //make sure hold exists and the var to overwrite exists
-    if((!root.containsKey(holdName))||(!root.containsKey(varName)))
+    checkWriteError();
+    MappedLayer m;
+    if(id == lastId)
     {
-      return -1;
-    }
-    hold = root.get(holdName);
-    overwrite = root.get(varName);
-    
-    //iterate through each time in hold
-    iH = hold.entrySet().iterator();
-    while(iH.hasNext())
+      //already the most recently used so the order does not change
+      m = lastLayer;
+    } else
     {
-      holdEntry = iH.next();
-      thisTime = holdEntry.getKey();
-      if(!overwrite.containsKey(thisTime))
+      //moved to the end by hand rather than by an access ordered map so peekValue can
+      //look at the mapped layers without changing which is used least
+      m = mapped.remove(id);
+      if(m == null)
       {
-        //this time didnt exist in what we are overwriting, cant merge them
-        return -1;
+        m = mapLayer(id);
+        mapped.put(id, m);
+        evict();
+      } else
+      {
+        mapped.put(id, m);
       }
-      holdTime = readLayer(holdEntry.getValue());
-      overwriteTime = readLayer(overwrite.get(thisTime));
-      
-      //actually putting them together
-      overwriteTime = overMerge(overwriteTime, holdTime);
-      //replaciung the old info with this new info
-      writeLayer(holdName+thisTime, overwriteTime);
+      lastId = id;
+      lastLayer = m;
     }
-    
-    //we have completely put hold's data in the passed var
-    //remove hold
-    removeLayer(holdName);
-    
-    return 1; //success
+    if(forWrite)
+    {
+      m.dirty = true;
+    }
+    return m.values;
   }
   
-  public TreeMap<String, TreeMap<Double, Double>> getAllLayers(int X, int Y)
+  /**
+   * Reads a cell from a layer which is mapped without making it the most recently used,
+   * or from a block of cells read from its file if it is not mapped.  Reading a cell
+   * across more layers than are kept mapped would otherwise map every layer in turn
+   * for each cell.
+   */
+  protected synchronized double peekValue(int id, int cell)
   {
-    /*
-     * this function will not return NaN values, they will be completly unreported
-     * this is because a NaN represents something that was never changed
-     * aka it was not in the data.
-     */
-    TreeMap<String, TreeMap<Double, Double>> toReturn = new TreeMap<String, TreeMap<Double, Double>>();
-    TreeMap<Double, Double> holdVar;
-    
-    Map.Entry<String, TreeMap<Double, String>> varEntry;
-    Map.Entry<Double, String> timeEntry;
-    Iterator<Map.Entry<Double, String>> iT;
-    Iterator<Map.Entry<String, TreeMap<Double, String>>> iV = root.entrySet().iterator();
-    Double value;
-    String varName;
-    Double timeName;
-    
-    while(iV.hasNext())
+    checkWriteError();
+    MappedLayer m = mapped.get(id);
+    if(m != null)
     {
-      varEntry = iV.next();
-      varName = varEntry.getKey();
-      iT = varEntry.getValue().entrySet().iterator();
-      while(iT.hasNext())
-      {
-        timeEntry = iT.next();
-        timeName = timeEntry.getKey();
-        changeLayer(varName, timeName);
-        value = currLayer[X][Y];
-        
-        if(!Double.isNaN(value))
-        {
-          if(!toReturn.containsKey(varName))
-          {
-            toReturn.put(varName, new TreeMap<Double, Double>());
-          }
-          holdVar = toReturn.get(varName);
-          
-          holdVar.put(timeName, value);
-        }
-      }
+      return m.values.get(cell);
     }
-    
-    return toReturn;
+    PeekBlock block = peekBlocks.get(id);
+    if(block == null)
+    {
+      block = new PeekBlock();
+      peekBlocks.set(id, block);
+    }
+    if(cell < block.start || cell >= block.start+block.size)
+    {
+      readPeekBlock(id, block, cell);
+    }
+    return block.values.get(cell-block.start);
   }
   
-  public Map<String, Map<String, Map<Point2D.Double, Double>>> getRegion(int X, int Y, double[][] weights, double xL, double yL, double res)
+  protected synchronized void releaseLayer(int id)
   {
-    /*
-     * X and Y are the top left corner
-     */
-    Map<String, Map<String, Map<Point2D.Double, Double>>> toReturn = new LinkedHashMap<String, Map<String, Map<Point2D.Double, Double>>>();
-    Map<String, Map<Point2D.Double, Double>> holdVar;
-    Map<Point2D.Double, Double> holdTime;
-    Map.Entry<String, TreeMap<Double, String>> varEntry;
-    Map.Entry<Double, String> timeEntry;
-    Iterator<Map.Entry<Double, String>> iT;
-    Iterator<Map.Entry<String, TreeMap<Double, String>>> iV = root.entrySet().iterator();
-    String varName;
-    Double timeName;
-    double currXL, currYL;
-
-    toReturn.put("time", new LinkedHashMap<String, Map<Point2D.Double, Double>>());
-    holdVar = toReturn.get("time");
-    holdVar.put("0", new TreeMap<Point2D.Double, Double>());
-    holdTime = holdVar.get("0");
-    currXL = xL;
-    for(int x = X; x < (X+weights[0].length); x++)
+    mapped.remove(id);
+    if(id == lastId)
     {
-      currYL = yL;
-      for(int y = Y; y > (Y-weights.length); y--)
-      {
-        if(weights[x][y] > 0)
-        {
-          //add weight
-          holdTime.put(new Point2D.Double(currXL, currYL), weights[x][y]);
-        }
-        currYL -= res;
-      }
-      currXL += res;
+      lastId = -1;
+      lastLayer = null;
     }
-    
-    while(iV.hasNext())
+    closeChannel(id);
+    File f = layerFiles.get(id);
+    if(f != null && !f.delete())
     {
-      varEntry = iV.next();
-      varName = varEntry.getKey();
-      toReturn.put(varName, new LinkedHashMap<String, Map<Point2D.Double, Double>>());
-      holdVar = toReturn.get(varName);
-      iT = varEntry.getValue().entrySet().iterator();
-      while(iT.hasNext())
-      {
-        timeEntry = iT.next();
-        timeName = timeEntry.getKey();
-        holdVar.put(timeName.toString(), new TreeMap<Point2D.Double, Double>());
-        holdTime = holdVar.get(timeName.toString());
-        
-        changeLayer(varName, timeName);
-        
-        currXL = xL;
-        for(int x = X; x < (X+weights[0].length); x++)
-        {
-          currYL = yL;
-          for(int y = Y; y > (Y-weights.length); y--)
-          {
-            if(weights[x][y] > 0)
-            {
-              //get this point's value
-              //add it to toReturn
-              holdTime.put(new Point2D.Double(currXL, currYL), (currLayer[x][y]));
-            }
-            currYL -= res;
-          }
-          currXL += res;
-        }
-      }
+      log.log(Level.FINER, "Couldn't delete "+f+" yet, it will be removed on exit");
     }
-    
-    return toReturn;
+    layerFiles.set(id, null);
   }
   
 //*********************************************************
 //*************Begin Private Functions*********************
 //*********************************************************
   
-  private double[][] overMerge(double[][] oldData, double[][] newData)
+  private MappedLayer mapLayer(int id)
   {
-    if((oldData.length != newData.length)||(oldData[0].length != newData[0].length))
+    MappedLayer m = new MappedLayer();
+    try
     {
-      return null;
-    }
-    double[][] toReturn = oldData;
-    
-    for(int i = 0; i < oldData.length; i++)
+      m.map = layerChannels.get(id).map(FileChannel.MapMode.READ_WRITE, 0, (long)xSize*ySize*8);
+    } catch(IOException e)
     {
-      for(int k = 0; k < oldData[0].length; k++)
-      {
-        if(!Double.isNaN(newData[i][k]))
-        {
-          //then we use the new value, otherwise just keep old value
-          toReturn[i][k] = newData[i][k];
-        }
-      } 
+      log.log(Level.SEVERE, "Couldn't map layer file "+layerFiles.get(id)+": "+e);
+      throw new RuntimeException(e);
     }
-    
-    //will now have a mesh of new and old values (new wherever they exist)
-    return toReturn;
+    //cells peeked before may be changed through the mapping
+    peekBlocks.set(id, null);
+    m.map.order(ByteOrder.nativeOrder());
+    m.values = m.map.asDoubleBuffer();
+    ++mapCount;
+    return m;
   }
-  private double[][] readLayer(String Lname)
+  
+  /**
+   * Reads the block of cells which holds the given cell from a layer file.  Changes to
+   * an evicted layer are already in the file even if they have not been forced to disk.
+   */
+  private void readPeekBlock(int id, PeekBlock block, int cell)
   {
-    String fileName = Lname+".lay";
-    double[][] toReturn = new double[xSize][ySize];
-    
-    InputStream fin;
+    int numCells = xSize*ySize;
+    block.start = cell-(cell%PEEK_BLOCK_SIZE);
+    block.size = Math.min(PEEK_BLOCK_SIZE, numCells-block.start);
+    block.bytes.clear();
+    block.bytes.limit(block.size*8);
+    FileChannel channel = layerChannels.get(id);
     try
     {
-      fin = new FileInputStream(fileName);
-      DataInputStream in = new DataInputStream(fin);
-      
-      for(int i = 0; i < xSize; i ++)
+      while(block.bytes.hasRemaining())
       {
-        for(int k = 0; k < ySize; k++)
+        if(channel.read(block.bytes, (long)block.start*8+block.bytes.position()) < 0)
         {
-          toReturn[i][k] = in.readDouble();
+          throw new EOFException("Layer file "+layerFiles.get(id)+" is truncated");
         }
       }
-    } catch(FileNotFoundException e){} 
-      catch(IOException e){}
-    
-    return toReturn;
+    } catch(IOException e)
+    {
+      block.start = -1;
+      log.log(Level.SEVERE, "Couldn't read layer file "+layerFiles.get(id)+": "+e);
+      throw new RuntimeException(e);
+    }
   }
-  private void writeLayer(String Lname, double[][] lay)
+  
+  private void closeChannel(int id)
   {
-    String fileName = Lname+".lay";
-    File myFile = new File(fileName);
-    OutputStream fout;
-    try
+    peekBlocks.set(id, null);
+    FileChannel channel = layerChannels.get(id);
+    if(channel != null)
     {
-      fout = new FileOutputStream(myFile);
-      DataOutputStream out = new DataOutputStream(fout);
-      
-      for(int i = 0; i < xSize; i++)
+      try
       {
-        for(int k = 0; k < ySize; k++)
-        {
-          out.writeDouble(lay[i][k]);
-        }
+        //closing the channel closes its file, mappings of it stay valid
+        channel.close();
+      } catch(IOException e)
+      {
+        log.log(Level.WARNING, "Couldn't close layer file "+layerFiles.get(id)+": "+e);
       }
-      
-      myFile.deleteOnExit();
-    } catch(FileNotFoundException e){} 
-      catch(IOException e){}
+      layerChannels.set(id, null);
+    }
   }
   
-  private void removeLayer(String varName, double time)
+  /**
+   * Drops the least recently used layers until no more than maxMapped are mapped,
+   * forcing the changes to any of them back to disk in the background.
+   */
+  private void evict()
   {
-    TreeMap<Double, String> hold = root.get(varName);
-    hold.remove(time);
-    
-    File toDelete = new File(varName+time+".lay");
-    toDelete.delete();
+    Iterator<Map.Entry<Integer, MappedLayer>> it = mapped.entrySet().iterator();
+    while(mapped.size() > maxMapped && it.hasNext())
+    {
+      final MappedLayer m = it.next().getValue();
+      it.remove();
+      if(m.dirty)
+      {
+        writer.execute(new Runnable() {
+          public void run()
+          {
+            try
+            {
+              m.map.force();
+            } catch(RuntimeException e)
+            {
+              log.log(Level.SEVERE, "Couldn't write layer back to disk: "+e);
+              writeError = e;
+            }
+          }
+        });
+      }
+    }
   }
-  private void removeLayer(String varName)
+  
+  private void checkWriteError()
   {
-    File toDelete;
-    Double timeName;
-    Map.Entry<Double, String> timeEntry;
-    TreeMap<Double, String> hold = root.get(varName);
-    Iterator<Map.Entry<Double, String>> iT = hold.entrySet().iterator();
-    
-    while(iT.hasNext())
+    if(writeError != null)
     {
-      timeEntry = iT.next();
-      timeName = timeEntry.getKey();
-
-      toDelete = new File(varName+timeName+".lay");
-      toDelete.delete();
+      throw new RuntimeException("Writing a layer to disk failed", writeError);
     }
-    
-    root.remove(varName);
   }
 }
@@ -31,10 +31,19 @@ package ModelInterface.PPsource;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.*;
 
 public class FlatIndex implements DataIndex
@@ -197,17 +206,220 @@ public class FlatIndex implements DataIndex
     }
   }
 
+  /**
+   * Adds a whole raster in one pass.  The raster is first resampled onto the working
+   * grid with {@link #resampleRaster} and then added with {@link #addResampled}.
+   */
+  public void addRaster(String varName, double time, GridRaster raster, boolean avg)
+  {
+    addResampled(varName, time, resampleRaster(raster, avg));
+  }
+
+  /**
+   * The values a raster adds to each working cell it covers, for the band of working
+   * rows it covers.  Cells it does not add anything to are NaN.
+   */
+  public static class ResampledRaster
+  {
+    GridRaster raster; //kept to track sums when it is added
+    boolean avg;
+    int minY; //first working row covered
+    int numY; //number of working rows covered
+    double[] values; //indexed by X*numY+(Y-minY) like the layers
+  }
+
+  /**
+   * Resamples a raster onto the working grid without adding it to any layer.  The
+   * overlap of a raster cell with a working cell is the product of their overlap in x
+   * and in y, so the overlaps for each raster column and row are found once up front
+   * and the weights for each cell are just products of those rather than a new Block and
+   * intersection for every pair of cells.  Nothing in the index is changed so several
+   * rasters may be resampled at once, for instance bands of rows from a large file.
+   * @param raster The raster to resample.
+   * @param avg Whether the values are averaged, otherwise they are additive.
+   * @return The values to add to each working cell.
+   */
+  public ResampledRaster resampleRaster(GridRaster raster, boolean avg)
+  {
+    synchronized(this)
+    {
+      if(!init)
+      {
+        init(raster.getCellWidth());
+      }
+    }
+
+    double width = raster.getCellWidth();
+    double height = raster.getCellHeight();
+    double cellArea = resolution*resolution;
+    double rasterArea = width*height;
+    int[] colMin = new int[raster.getCols()];
+    double[][] colOverlap = new double[raster.getCols()][];
+    int[] rowMin = new int[raster.getRows()];
+    double[][] rowOverlap = new double[raster.getRows()][];
+    for(int col = 0; col < colMin.length; col++)
+    {
+      colMin[col] = axisOverlap(raster.getX(col), width, true, colOverlap, col);
+    }
+    int xSize = (int)Math.round((maxX-minX)/resolution);
+    int ySize = (int)Math.round((maxY-minY)/resolution);
+    int lowY = ySize;
+    int highY = 0;
+    for(int row = 0; row < rowMin.length; row++)
+    {
+      rowMin[row] = axisOverlap(raster.getY(row), height, false, rowOverlap, row);
+      lowY = Math.min(lowY, Math.max(0, rowMin[row]));
+      highY = Math.max(highY, Math.min(ySize, rowMin[row]+rowOverlap[row].length));
+    }
+
+    ResampledRaster toReturn = new ResampledRaster();
+    toReturn.raster = raster;
+    toReturn.avg = avg;
+    toReturn.minY = lowY;
+    toReturn.numY = Math.max(0, highY-lowY);
+    toReturn.values = new double[xSize*toReturn.numY];
+    Arrays.fill(toReturn.values, Double.NaN);
+    for(int row = 0; row < rowMin.length; row++)
+    {
+      for(int col = 0; col < colMin.length; col++)
+      {
+        if(!raster.hasValue(row, col))
+        {
+          continue;
+        }
+        double value = raster.get(row, col);
+        for(int iY = 0; iY < rowOverlap[row].length; iY++)
+        {
+          for(int iX = 0; iX < colOverlap[col].length; iX++)
+          {
+            double overlap = rowOverlap[row][iY]*colOverlap[col][iX];
+            double weight = overlap/cellArea;
+            if(!avg)
+            { //additive so have to account for limited addition of values
+              weight *= overlap/rasterArea;
+            }
+            if(weight > 0)
+            {
+              //cells off the edge of the world have no overlap so are never here
+              int cell = (colMin[col]+iX)*toReturn.numY+(rowMin[row]+iY-lowY);
+              double old = toReturn.values[cell];
+              toReturn.values[cell] = Double.isNaN(old) ? value*weight : (old+value*weight);
+            }
+          }
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Adds a raster which was resampled with {@link #resampleRaster} to a layer.
+   * @param varName The variable to add the values to.
+   * @param time The time to add the values to.
+   * @param resampled The resampled raster.
+   */
+  public void addResampled(String varName, double time, ResampledRaster resampled)
+  {
+    addToTrackSum(varName, time, resampled.raster, resampled.avg);
+
+    data.changeLayer(varName, time);
+    int xSize = resampled.numY == 0 ? 0 : resampled.values.length/resampled.numY;
+    for(int X = 0; X < xSize; X++)
+    {
+      for(int iY = 0; iY < resampled.numY; iY++)
+      {
+        double value = resampled.values[X*resampled.numY+iY];
+        if(!Double.isNaN(value))
+        {
+          data.addValue(X, (resampled.minY+iY), value);
+        }
+      }
+    }
+  }
+
   public void resolveOverwrite(String holdName, String varName)
   {
     data.mergeHoldTo(holdName, varName);
   }
 
+  /**
+   * Adds all of the data and tracked sums from an index which was filled separately at
+   * the same resolution, such as when reading files in parallel.  Several buffers may be
+   * merged at once as long as nothing else is adding to this index.
+   * @param buffer The index to merge in, it should not be used afterwards since its
+   *        layers may now be shared with this index.
+   */
+  public void merge(FlatIndex buffer)
+  {
+    if(!init)
+    {
+      init(buffer.resolution);
+    }
+    if(data instanceof FlatLayerRepository && buffer.data instanceof FlatLayerRepository)
+    {
+      ((FlatLayerRepository)data).addAll((FlatLayerRepository)buffer.data);
+    } else
+    {
+      for(Iterator<String> itVar = buffer.data.getVarNames().iterator(); itVar.hasNext(); )
+      {
+        String varName = itVar.next();
+        for(Iterator<Double> itTime = buffer.data.getTimes(varName).iterator(); itTime.hasNext(); )
+        {
+          double time = itTime.next();
+          data.addLayer(varName, time, buffer.data.getLayer(varName, time));
+        }
+      }
+    }
+    if(trackSums)
+    {
+      synchronized(unAlteredSums)
+      {
+        for(Iterator<Map.Entry<String, Map<Double, Double>>> itNames = buffer.unAlteredSums.entrySet().iterator();
+            itNames.hasNext(); )
+        {
+          Map.Entry<String, Map<Double, Double>> currVar = itNames.next();
+          Map<Double, Double> sumVar = unAlteredSums.get(currVar.getKey());
+          if(sumVar == null)
+          {
+            sumVar = new HashMap<Double, Double>();
+            unAlteredSums.put(currVar.getKey(), sumVar);
+          }
+          for(Iterator<Map.Entry<Double, Double>> itTimes = currVar.getValue().entrySet().iterator();
+              itTimes.hasNext(); )
+          {
+            Map.Entry<Double, Double> currTime = itTimes.next();
+            Double currSum = sumVar.get(currTime.getKey());
+            sumVar.put(currTime.getKey(), (currSum == null ? 0.0 : currSum) + currTime.getValue());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates an empty index of the same kind, bounds and resolution as this one which
+   * can be filled separately and then added back in with {@link #merge}.
+   */
+  public FlatIndex newBuffer()
+  {
+    FlatIndex buffer = createEmpty(minX, maxX, minY, maxY);
+    buffer.fillWorld(resolution);
+    buffer.setTrackSums(trackSums);
+    return buffer;
+  }
+
+  /**
+   * Creates an empty index of the same kind as this one.
+   */
+  protected FlatIndex createEmpty(double x1, double x2, double y1, double y2)
+  {
+    return new FlatIndex(x1, x2, y1, y2);
+  }
+
   public Map extractMask(RegionMask m )
   {
     Point2D.Double min, max;
     double[][] toMask;
-    double weight;
-    Block entry;
     log.log(Level.FINER, "Extracting Region mask for "+m.name);
 
     if(m.name.equals(DataBuilder.LAND_FRACTION)) {
@@ -228,29 +440,63 @@ public class FlatIndex implements DataIndex
       return null;
     }
     // This is where the size of the region block is set. This array is in working resolution.
-    toMask = new double[(int)(max.y-min.y)][(int)(max.x-min.x)];
-
-    //X, and Y are now indicies
-    //for each block of info in the repository
-    for(int Y = (int)min.y; Y < max.y; Y++)
-    {
-      for(int X = (int)min.x; X < max.x; X++)
-      {
-        entry = index2area(new Point2D.Double(X, Y));
-        weight = m.inRegion(entry.x, entry.y, entry.width, entry.height);
-        if ( weight > 0 ) {
- 		}
-		
-        // min variable has already gone through the index conversion, so it is already an integer in terms of value, so (int) is fine here
-        toMask[(Y-(int)min.y)][(X-(int)min.x)] = weight; 
-       }
-    }
+    // Indexed by [Y-min.y][X-min.x], each entry being the portion of that cell in the region.
+    toMask = m.coverage((int)min.x, (int)min.y, (int)(max.y-min.y), (int)(max.x-min.x), resolution);
 
     // The x,y values passed in ultimately determine the coordinates of each data point
     // Pass in UR corner -- y value has already been rounded up -- one res unit is subtracted in getRegion to get to LL corner of top cell
     return data.getRegion((int)min.x, (int)max.y, toMask, minCoor.x, maxCoor.y, resolution, m); //returning data
   }
   
+  /**
+   * Extracts the data for several regions at once.  Each region is extracted on its
+   * own thread from the pool, nothing is written to the data while this runs so the
+   * layers can be read by all of them at the same time.
+   * @param masks The regions to extract.
+   * @param numThreads The number of regions to extract at once.
+   * @return The extracted data for each region which had any, by region name in the
+   *         same order as masks.
+   */
+  public Map<String, Map> extractMasks(List<RegionMask> masks, int numThreads)
+  {
+    Map<String, Map> toReturn = new LinkedHashMap<String, Map>();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    try
+    {
+      List<Future<Map>> pending = new ArrayList<Future<Map>>(masks.size());
+      for(int i = 0; i < masks.size(); i++)
+      {
+        final RegionMask m = masks.get(i);
+        pending.add(pool.submit(new Callable<Map>() {
+          public Map call()
+          {
+            return extractMask(m);
+          }
+        }));
+      }
+      for(int i = 0; i < masks.size(); i++)
+      {
+        Map region = pending.get(i).get();
+        if(region != null)
+        {
+          toReturn.put(masks.get(i).name, region);
+        }
+      }
+    } catch(InterruptedException ie)
+    {
+      log.log(Level.SEVERE, "Interrupted while extracting regions: "+ie);
+      throw new RuntimeException(ie);
+    } catch(ExecutionException ee)
+    {
+      log.log(Level.SEVERE, "Error extracting region: "+ee.getCause());
+      throw new RuntimeException(ee.getCause());
+    } finally
+    {
+      pool.shutdown();
+    }
+    return toReturn;
+  }
+  
   /*
   public TreeMap extractMask(RegionMask m)
   {
@@ -283,11 +529,30 @@ public class FlatIndex implements DataIndex
   {
     resolution = res;
     init = true;
-    //TODO maybe add an auto chooser based on resolution?
-    //need to make disklayer faster first
-    //data = new DiskLayerRepository((int)Math.floor((maxX-minX)/resolution), (int)Math.floor((maxY-minY)/resolution));
-    
-    data = new MatrixRepository((int)Math.round((maxX-minX)/resolution), (int)Math.round((maxY-minY)/resolution));
+    int xSize = (int)Math.round((maxX-minX)/resolution);
+    int ySize = (int)Math.round((maxY-minY)/resolution);
+    data = createRepository(xSize, ySize);
+  }
+
+  /**
+   * Creates the repository the layers are kept in once the resolution is known.
+   * @param xSize The number of cells across.
+   * @param ySize The number of cells down.
+   * @return The empty repository.
+   */
+  protected DataRepository createRepository(int xSize, int ySize)
+  {
+    //keep layers on disk when only a few of them would fit in the heap
+    long layerBytes = (long)xSize*ySize*8;
+    if(layerBytes > Runtime.getRuntime().maxMemory()/8)
+    {
+      log.log(Level.INFO, "layers of "+(layerBytes/(1024*1024))+" MB will be kept on disk");
+      return new DiskLayerRepository(xSize, ySize);
+    } else
+    {
+      //return new MatrixRepository(xSize, ySize);
+      return new FlatLayerRepository(xSize, ySize);
+    }
   }
   
   // Private function that assures this objects resolution is used in conversion
@@ -312,6 +577,45 @@ public class FlatIndex implements DataIndex
     //now return area from point
     return new Block(p.x, p.y, resolution, resolution);
   }
+  /**
+   * Finds the working indicies a raster cell covers along one axis and how much of
+   * each it covers.  Overlaps with indicies off the edge of the world are left as 0.
+   * @param start The lower coordinate of the raster cell.
+   * @param size The size of the raster cell along this axis.
+   * @param isX Whether this is the x axis, otherwise the y axis.
+   * @param overlaps Where to store the overlap lengths.
+   * @param pos Which entry of overlaps to store them in.
+   * @return The first index the cell covers.
+   */
+  private int axisOverlap(double start, double size, boolean isX, double[][] overlaps, int pos)
+  {
+    Point2D.Double min, max;
+    int numIndex;
+    if(isX)
+    {
+      min = point2index(new Point2D.Double(start, 0), true);
+      max = point2index(new Point2D.Double((start+size), 0), false);
+      numIndex = (int)Math.round((maxX-minX)/resolution);
+    } else
+    {
+      min = point2index(new Point2D.Double(0, start), true);
+      max = point2index(new Point2D.Double(0, (start+size)), false);
+      numIndex = (int)Math.round((maxY-minY)/resolution);
+    }
+    int first = (int)(isX ? min.x : min.y);
+    int last = (int)(isX ? max.x : max.y);
+    overlaps[pos] = new double[Math.max(0, last-first)];
+    for(int i = first; i < last; i++)
+    {
+      if(i >= 0 && i < numIndex)
+      {
+        Point2D.Double p = index2point(isX ? new Point2D.Double(i, 0) : new Point2D.Double(0, i));
+        double lower = isX ? p.x : p.y;
+        overlaps[pos][i-first] = Math.max(0, Math.min((start+size), (lower+resolution))-Math.max(start, lower));
+      }
+    }
+    return first;
+  }
   private double getWeight(Block val, Block ind, boolean avg)
   {
     double weight = 0;
@@ -439,6 +743,38 @@ public class FlatIndex implements DataIndex
 	  }
   }
 
+  /**
+   * Adds the unaltered values of a raster to the world level sums the same way
+   * {@link #addToTrackSum(DataBlock, boolean)} does for each cell.
+   */
+  private void addToTrackSum(String varName, double time, GridRaster raster, boolean avg) {
+	  if(trackSums) {
+		  Map<Double, Double> sumVar = unAlteredSums.get(varName);
+		  if(sumVar == null) {
+			  sumVar = new HashMap<Double, Double>();
+			  unAlteredSums.put(varName, sumVar);
+		  }
+		  Double currSum = sumVar.get(time);
+		  double sum = currSum == null ? 0.0 : currSum.doubleValue();
+		  Rectangle2D.Double cell = new Rectangle2D.Double();
+		  for(int row = 0; row < raster.getRows(); row++) {
+			  for(int col = 0; col < raster.getCols(); col++) {
+				  double value = raster.get(row, col);
+				  // only add the data if it is not NaN
+				  if(!Double.isNaN(value)) {
+					  if(avg) {
+						  cell.setRect(raster.getX(col), raster.getY(row), raster.getCellWidth(), raster.getCellHeight());
+						  sum += value * getArea(cell);
+					  } else {
+						  sum += value;
+					  }
+				  }
+			  }
+		  }
+		  sumVar.put(time, sum);
+	  }
+  }
+
   /**
    * Calculates the earth surface area for the passed in block.  The x represents
    * the upper left longitude, y is the upper left latitude.  The height is in latitude
@@ -0,0 +1,780 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.util.logging.*;
+import java.awt.geom.Point2D;
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+/**
+ * A DataRepository which gives each variable and time layer an integer ID and keeps
+ * its values in a single contiguous buffer indexed by X*ySize+Y rather than a double[][] found
+ * through nested TreeMaps.  Callers which add or read many cells can look the ID up once
+ * with {@link #getLayerId} and then use the cell accessors which take an ID so no
+ * strings are built or compared per cell.  The string based methods from DataRepository
+ * still work and only compare the name when the layer actually changes.
+ * <p>
+ * Values are read out for a cell across every layer with {@link #getAllLayers(int, int, double[])}
+ * which fills a buffer indexed by layer ID instead of building maps.
+ * </p>
+ * <p>
+ * Layers are accessed as DoubleBuffers through {@link #getLayerBuffer} so subclasses
+ * can keep them somewhere other than the heap, such as {@link DiskLayerRepository}.
+ * Cells are read and written through the cell and bulk storage methods, which use the
+ * buffer by default, so a subclass which does not keep a layer as one buffer, such as
+ * {@link TiledLayerRepository}, only needs to override those.
+ * </p>
+ */
+public class FlatLayerRepository implements DataRepository
+{
+  //var -> time -> layer ID, sorted so variables come out in the same order as MatrixRepository
+  private TreeMap<String, TreeMap<Double, Integer>> layerIds;
+  private List<DoubleBuffer> layers; //indexed by layer ID, null once a layer is removed
+  private List<String> layerVars; //null once a layer is removed
+  private List<Double> layerTimes;
+  protected int xSize;
+  protected int ySize;
+  private int currId;
+  private String currVar;
+  private double currTime;
+  Logger log = Logger.getLogger("Preprocess"); //log class to use for all logging output
+
+  //*********************************************************
+  //*****************Class Constructors**********************
+  //********************************************************* 
+
+  public FlatLayerRepository()
+  {
+    this(360, 180);
+  }
+
+  public FlatLayerRepository(int x, int y)
+  {
+    layerIds = new TreeMap<String, TreeMap<Double, Integer>>();
+    layers = new ArrayList<DoubleBuffer>();
+    layerVars = new ArrayList<String>();
+    layerTimes = new ArrayList<Double>();
+    xSize = x;
+    ySize = y;
+    currId = -1;
+  }
+
+  //*********************************************************
+  //*************Begin Functions Proper**********************
+  //*********************************************************
+
+  /**
+   * Gets the ID of a layer, creating the layer filled with NaN if it does not exist yet.
+   * @param varName The variable of the layer.
+   * @param time The time of the layer.
+   * @return The ID to use with the cell accessors.
+   */
+  public int getLayerId(String varName, double time)
+  {
+    synchronized(layerIds)
+    {
+      TreeMap<Double, Integer> inVar = layerIds.get(varName);
+      if(inVar == null)
+      { //create variable
+        inVar = new TreeMap<Double, Integer>();
+        layerIds.put(varName, inVar);
+      }
+      Integer id = inVar.get(time);
+      if(id == null)
+      { //create this field
+        id = putLayer(varName, time, null);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * @return The number of layer IDs which have been handed out, which is the size
+   *         a buffer passed to getAllLayers needs to be.
+   */
+  public int getNumLayerIds()
+  {
+    synchronized(layerIds)
+    {
+      return layerVars.size();
+    }
+  }
+
+  /**
+   * @return The variable of a layer, or null if the layer was removed.
+   */
+  public String getLayerVar(int id)
+  {
+    return layerVars.get(id);
+  }
+
+  public double getLayerTime(int id)
+  {
+    return layerTimes.get(id);
+  }
+
+  public void addValue(int id, int X, int Y, double value)
+  {
+    if(X < 0 || X >= xSize || Y < 0 || Y >= ySize)
+    {
+      log.log(Level.WARNING, "("+X+","+Y+") out of bounds("+xSize+","+ySize
+          +") with value: "+value);
+      return;
+    }
+    addToCell(id, X*ySize+Y, value);
+  }
+
+  public void setValue(int id, int X, int Y, double value)
+  {
+    setCell(id, cell(X, Y), value);
+  }
+
+  public double getValue(int id, int X, int Y)
+  {
+    return getCell(id, cell(X, Y));
+  }
+
+  /**
+   * Gets the value of a cell in every layer.
+   * @param X The X index of the cell.
+   * @param Y The Y index of the cell.
+   * @param values Filled with the value of each layer at its ID, NaN where the layer
+   *        has no value or was removed.  Must be at least getNumLayerIds() long.
+   * @return The number of layer IDs filled.
+   */
+  public int getAllLayers(int X, int Y, double[] values)
+  {
+    int cell = cell(X, Y);
+    int numIds = layerVars.size();
+    for(int id = 0; id < numIds; id++)
+    {
+      values[id] = layerVars.get(id) == null ? Double.NaN : peekValue(id, cell);
+    }
+    return numIds;
+  }
+
+  public void changeLayer(String varName, double time)
+  {
+    if(currId < 0 || currTime != time || !currVar.equals(varName))
+    {
+      currId = getLayerId(varName, time);
+      currVar = varName;
+      currTime = time;
+    }
+  }
+
+  /**
+   * Creates the layer if it does not exist.  Since layers are not kept as double[][]
+   * this returns a copy of its values.
+   */
+  public double[][] createLayer(String varName, double time)
+  {
+    return toMatrix(getLayerBuffer(getLayerId(varName, time), false));
+  }
+
+  /**
+   * Since layers are not kept as double[][] this returns a copy of its values which
+   * will not see any later changes.
+   */
+  public double[][] getLayer(String varName, double time)
+  {
+    changeLayer(varName, time);
+
+    return toMatrix(getLayerBuffer(currId, false));
+  }
+
+  public void setValue(int X, int Y, double value)
+  {
+    setCell(currId, cell(X, Y), value);
+  }
+
+  public void setValue(String varName, double time, int X, int Y, double value)
+  {
+    changeLayer(varName, time);
+
+    setValue(X, Y, value);
+  }
+
+  public void addValue(int X, int Y, double value)
+  {
+    if(X < 0 || X >= xSize || Y < 0 || Y >= ySize)
+    {
+      log.log(Level.WARNING, "("+X+","+Y+") out of bounds("+xSize+","+ySize
+          +") with value: "+value);
+      return;
+    }
+    addToCell(currId, X*ySize+Y, value);
+  }
+
+  public void addValue(String varName, double time, int X, int Y, double value)
+  {
+    changeLayer(varName, time);
+
+    addValue(X, Y, value);
+  }
+
+  public double getValue(int X, int Y)
+  {
+    return getCell(currId, cell(X, Y));
+  }
+
+  public double getValue(String varName, double time, int X, int Y)
+  {
+    changeLayer(varName, time);
+
+    return getValue(X, Y);
+  }
+
+  public Set<String> getVarNames()
+  {
+    return layerIds.keySet();
+  }
+
+  public Set<Double> getTimes(String varName)
+  {
+    if(!layerIds.containsKey(varName))
+    {
+      return new TreeSet<Double>();
+    }
+    return layerIds.get(varName).keySet();
+  }
+
+  /**
+   * Adds a layer which was filled elsewhere.  Only the lock on the layer IDs is held
+   * while finding the layer, adding the values locks just that layer.
+   */
+  public void addLayer(String varName, double time, double[][] layer)
+  {
+    double[] flat = new double[xSize*ySize];
+    for(int i = 0; i < xSize; i++)
+    {
+      System.arraycopy(layer[i], 0, flat, i*ySize, ySize);
+    }
+    addLayer(varName, time, DoubleBuffer.wrap(flat));
+  }
+
+  /**
+   * Adds a layer which was filled elsewhere, indexed the same way as the layers in
+   * this repository.  If there is no layer for the variable and time yet the passed
+   * layer is taken as is, otherwise its values are added the same way addValue would,
+   * skipping cells which were never set.
+   */
+  public void addLayer(String varName, double time, DoubleBuffer layer)
+  {
+    int id;
+    synchronized(layerIds)
+    {
+      TreeMap<Double, Integer> inVar = layerIds.get(varName);
+      if(inVar == null)
+      {
+        inVar = new TreeMap<Double, Integer>();
+        layerIds.put(varName, inVar);
+      }
+      if(!inVar.containsKey(time))
+      {
+        putLayer(varName, time, layer);
+        return;
+      }
+      id = inVar.get(time);
+    }
+    addToLayer(id, layer);
+  }
+
+  /**
+   * Adds every layer of a repository of the same size to this one.  The layers
+   * may end up shared so the other repository should not be used afterwards.
+   */
+  public void addAll(FlatLayerRepository other)
+  {
+    for(Iterator<Map.Entry<String, TreeMap<Double, Integer>>> iV = other.layerIds.entrySet().iterator(); iV.hasNext(); )
+    {
+      Map.Entry<String, TreeMap<Double, Integer>> varEntry = iV.next();
+      for(Iterator<Map.Entry<Double, Integer>> iT = varEntry.getValue().entrySet().iterator(); iT.hasNext(); )
+      {
+        Map.Entry<Double, Integer> timeEntry = iT.next();
+        addLayer(varEntry.getKey(), timeEntry.getKey(), other.getLayerBuffer(timeEntry.getValue(), false));
+      }
+    }
+  }
+
+  public int mergeHoldTo(String holdName, String varName)
+  {
+    //this will take whatever information is in the hold layer and merge it
+    //with the designated variable, each time SHOULD align with a time in the variable
+    if((!layerIds.containsKey(holdName))||(!layerIds.containsKey(varName)))
+    {
+      return -1;
+    }
+    TreeMap<Double, Integer> hold = layerIds.get(holdName);
+    TreeMap<Double, Integer> overwrite = layerIds.get(varName);
+
+    for(Iterator<Map.Entry<Double, Integer>> iH = hold.entrySet().iterator(); iH.hasNext(); )
+    {
+      Map.Entry<Double, Integer> holdEntry = iH.next();
+      Integer overwriteId = overwrite.get(holdEntry.getKey());
+      if(overwriteId == null)
+      {
+        // new time so just move the layer over to the variable
+        overwrite.put(holdEntry.getKey(), holdEntry.getValue());
+        layerVars.set(holdEntry.getValue(), varName);
+        layerRenamed(holdEntry.getValue());
+      } else
+      {
+        overwriteLayer(overwriteId, holdEntry.getValue());
+        layerVars.set(holdEntry.getValue(), null);
+        releaseLayer(holdEntry.getValue());
+      }
+    }
+
+    //we have completely put hold's data in the passed var
+    //remove hold
+    layerIds.remove(holdName);
+    currId = -1;
+
+    return 1; //success
+  }
+
+  public TreeMap<String, TreeMap<Double, Double>> getAllLayers(int X, int Y)
+  {
+    /*
+     * this function will not return NaN values, they will be completly unreported
+     * this is because a NaN represents something that was never changed
+     * aka it was not in the data.
+     */
+    TreeMap<String, TreeMap<Double, Double>> toReturn = new TreeMap<String, TreeMap<Double, Double>>();
+    double[] values = new double[getNumLayerIds()];
+    int numIds = getAllLayers(X, Y, values);
+    for(int id = 0; id < numIds; id++)
+    {
+      String varName = getLayerVar(id);
+      if(varName != null && !Double.isNaN(values[id]))
+      {
+        TreeMap<Double, Double> holdVar = toReturn.get(varName);
+        if(holdVar == null)
+        {
+          holdVar = new TreeMap<Double, Double>();
+          toReturn.put(varName, holdVar);
+        }
+        holdVar.put(layerTimes.get(id), values[id]);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Takes data from the global layers and transforms it to regional data blocks the same
+   * way {@link MatrixRepository#getRegion} does, including the weights and revised land
+   * fraction.
+   */
+  public Map<String, Map<String, Map<Point2D.Double, Double>>> getRegion(int X, int Y,
+      double[][] weights, double xL, double yL, double res, RegionMask mask)
+  {
+    /*
+     * X and Y are the top left corner
+     */
+    Map<String, Map<String, Map<Point2D.Double, Double>>> toReturn = new LinkedHashMap<String, Map<String, Map<Point2D.Double, Double>>>();
+    Map<String, Map<Point2D.Double, Double>> holdVar;
+    Map<Point2D.Double, Double> holdTime;
+    double currXL, currYL;
+    int landFraction = getLayerIdIfExists(DataBuilder.LAND_FRACTION, 0.0); //Binary mask of land fractions
+    int landFractionDetail = landFraction; //Just so var is defined
+    boolean hasCellArea = layerIds.containsKey(DataBuilder.CELL_AREA_DATA);
+
+    // Optional data that contains fraction of land within each cell
+    if(hasCellArea)
+    {
+      landFractionDetail = getLayerIdIfExists(DataBuilder.CELL_AREA_DATA, 0.0); // must set time in PP input to zero for this to work
+    }
+
+    // Put weight information into regional data variable. 
+    toReturn.put("weight", new LinkedHashMap<String, Map<Point2D.Double, Double>>());
+    holdVar = toReturn.get("weight");
+    holdVar.put("0", new LinkedHashMap<Point2D.Double, Double>());
+    holdTime = holdVar.get("0");
+    currXL = xL;
+    boolean isGlobalRegion = mask.name.equals(DataBuilder.GLOBAL_REGION_MASK);
+    for(int x = 0; x<(weights[0].length); x++)
+    {
+      currYL = (yL-res);
+      for(int y = (weights.length-1); y>=0; y--) // invert y coordinate
+      {
+        if(weights[(y)][(x)]>0)
+        {
+          //add weight
+          Point2D.Double hold = new Point2D.Double(currXL, currYL);
+          // Adjust weight for land-fraction so the sum of weights is 1 even at water boundaries.
+          int gX = x+X;
+          int gY = Y-((weights.length)-y);
+          if(gX < 0 || gX >= xSize || gY < 0 || gY >= ySize)
+          {
+            log.log(Level.WARNING, "Region weight "+weights[(y)][(x)]+" at ("+x+","+y+") falls outside of the grid at ("
+                +gX+","+gY+")");
+          } else if(!isGlobalRegion)
+          {
+            double fraction = getCellIfExists(landFraction, gX*ySize+gY);
+            if(fraction > 0)
+            {
+              holdTime.put(hold, Double.valueOf(weights[(y)][(x)] / fraction));
+            } else
+            {
+              log.log(Level.WARNING, "Inconsistent weight and land fraction value at ("+currXL+","+currYL+") ");
+            }
+          } else
+          {
+            holdTime.put(hold, weights[y][x]);
+          }
+        }
+        currYL -= res;
+      }
+      currXL += res;
+    }
+
+    // Find the cells with data in this region once, every layer is then read from the same
+    // cells and shares the same points as keys.
+    int numCells = 0;
+    int[] cells = new int[weights.length*weights[0].length];
+    double[] landFractionAdj = new double[cells.length];
+    Point2D.Double[] points = new Point2D.Double[cells.length];
+    currXL = xL;
+    for(int x = 0; x<(weights[0].length); x++)
+    {
+      currYL = (yL-res);
+      for(int y = (weights.length-1); y>=0; y--)
+      {
+        // Smallest weight if using 2.5 minute mask should be 2.5/60/res. So 1e-4 is ok.
+        if( weights[(y)][(x)] > 1e-4 )
+        {
+          cells[numCells] = cell((x+X), (Y-((weights.length)-y)));
+          // Adjust landfract by land area data if available 
+          landFractionAdj[numCells] = 1;
+          if(hasCellArea)
+          {
+            // This is ratio of read-in land area in cell to cell size. 
+            landFractionAdj[numCells] = getCellIfExists(landFractionDetail, cells[numCells]) / CoordConversions.area( res, res, currYL + res/2 );
+            // Correct for difference in resolution. 
+            landFractionAdj[numCells] = landFractionAdj[numCells] *  (res * res) /
+              (DataBuilder.landFractionNativeResolution*DataBuilder.landFractionNativeResolution);
+          }
+          points[numCells] = new Point2D.Double(currXL, currYL);
+          ++numCells;
+        }
+        currYL -= res;
+      }
+      currXL += res;
+    }
+
+    double[] values = new double[numCells];
+    for(Iterator<Map.Entry<String, TreeMap<Double, Integer>>> iV = layerIds.entrySet().iterator(); iV.hasNext(); )
+    {
+      Map.Entry<String, TreeMap<Double, Integer>> varEntry = iV.next();
+      String varName = varEntry.getKey();
+      // Don't write out CELL_AREA_DATA as an explicit variable. 
+      // It is incorporated into landFract below.
+      if(varName.equals(DataBuilder.CELL_AREA_DATA) || mask.shouldExcludeVariable(varName)) {
+        continue;
+      }
+
+      toReturn.put(varName, new LinkedHashMap<String, Map<Point2D.Double, Double>>());
+      holdVar = toReturn.get(varName);
+      boolean doAllOnes = isGlobalRegion && varName.equals(DataBuilder.LAND_FRACTION);
+      boolean adjustLandFract = varName.equals(DataBuilder.LAND_FRACTION) && hasCellArea;
+      for(Iterator<Map.Entry<Double, Integer>> iT = varEntry.getValue().entrySet().iterator(); iT.hasNext(); )
+      {
+        Map.Entry<Double, Integer> timeEntry = iT.next();
+        holdTime = new LinkedHashMap<Point2D.Double, Double>((int)(numCells/0.75)+1);
+        holdVar.put(timeEntry.getKey().toString(), holdTime);
+        readCells(timeEntry.getValue(), cells, numCells, values);
+
+        for(int i = 0; i < numCells; i++)
+        {
+          //add this point's value to toReturn
+          double dataValue = !doAllOnes ? values[i] * (adjustLandFract ? landFractionAdj[i] : 1) : 1.0;
+          holdTime.put(points[i], dataValue );
+        }
+      }
+    }
+
+    return toReturn;
+  }
+
+  public Map<String, Map<String, Map<Point2D.Double, Double>>> getLandFractPrintMap(double res) {
+    Map<String, Map<String, Map<Point2D.Double, Double>>> toReturn = 
+      new LinkedHashMap<String, Map<String, Map<Point2D.Double, Double>>>(1);
+    toReturn.put("weight", new LinkedHashMap<String, Map<Point2D.Double, Double>>());
+    Map<String, Map<Point2D.Double, Double>> holdVar = toReturn.get("weight");
+    holdVar.put("0", new LinkedHashMap<Point2D.Double, Double>(1));
+    Map<Point2D.Double, Double> holdTime = holdVar.get("0");
+    int landFractValues = getLayerIdIfExists(DataBuilder.LAND_FRACTION, 0.0);
+    double currXL = -180.0;
+    double yL = 90.0;
+    double currYL;
+    for(int x = 0; x < xSize; x++)
+    {
+      currYL = (yL-res);
+      for(int y = (ySize-1); y>=0; y--)
+      {
+        double fraction = getCellIfExists(landFractValues, x*ySize+y);
+        if(fraction>0)
+        {
+          //add fraction
+          Point2D.Double hold = new Point2D.Double(currXL, currYL);
+          holdTime.put(hold, Double.valueOf(fraction));
+        }
+        currYL -= res;
+      }
+      currXL += res;
+    }
+    return toReturn;
+  }
+
+  //*********************************************************
+  //*************Layer Storage*******************************
+  //*********************************************************
+
+  /**
+   * Creates the storage for a new layer filled with NaN.
+   * @param id The ID of the new layer.
+   * @return The layer's values, or null if the subclass keeps them itself and
+   *         overrides getLayerBuffer.
+   */
+  protected DoubleBuffer allocateLayer(int id)
+  {
+    double[] newb = new double[xSize*ySize];
+    Arrays.fill(newb, Double.NaN);
+    return DoubleBuffer.wrap(newb);
+  }
+
+  /**
+   * Stores values which were filled elsewhere as a new layer.  The heap version just
+   * keeps the passed buffer.
+   * @param id The ID of the new layer.
+   * @param values The values for the layer.
+   * @return The layer's values, or null if the subclass keeps them itself and
+   *         overrides getLayerBuffer.
+   */
+  protected DoubleBuffer adoptLayer(int id, DoubleBuffer values)
+  {
+    return values;
+  }
+
+  /**
+   * Gets the values of a layer.
+   * @param id The ID of the layer.
+   * @param forWrite Whether the caller may change the values.
+   * @return The values of the layer indexed by X*ySize+Y.
+   */
+  protected DoubleBuffer getLayerBuffer(int id, boolean forWrite)
+  {
+    return layers.get(id);
+  }
+
+  /**
+   * Reads one cell of a layer for callers which read a cell across every layer.  The
+   * heap version just indexes the layer.
+   * @param id The ID of the layer.
+   * @param cell Where the cell is in the layer, X*ySize+Y.
+   * @return The value of the cell.
+   */
+  protected double peekValue(int id, int cell)
+  {
+    return getLayerBuffer(id, false).get(cell);
+  }
+
+  /**
+   * Reads one cell of a layer.
+   * @param id The ID of the layer.
+   * @param cell Where the cell is in the layer, X*ySize+Y.
+   * @return The value of the cell.
+   */
+  protected double getCell(int id, int cell)
+  {
+    return getLayerBuffer(id, false).get(cell);
+  }
+
+  /**
+   * Writes one cell of a layer.
+   * @param id The ID of the layer.
+   * @param cell Where the cell is in the layer, X*ySize+Y.
+   * @param value The new value of the cell.
+   */
+  protected void setCell(int id, int cell, double value)
+  {
+    getLayerBuffer(id, true).put(cell, value);
+  }
+
+  /**
+   * Adds to one cell of a layer, a cell which was never set just takes the value.
+   * @param id The ID of the layer.
+   * @param cell Where the cell is in the layer, X*ySize+Y.
+   * @param value The value to add.
+   */
+  protected void addToCell(int id, int cell, double value)
+  {
+    DoubleBuffer layer = getLayerBuffer(id, true);
+    double old = layer.get(cell);
+    layer.put(cell, Double.isNaN(old) ? value : (old+value));
+  }
+
+  /**
+   * Reads a list of cells from a layer, such as the cells of a region.
+   * @param id The ID of the layer.
+   * @param cells Where each cell is in the layer, X*ySize+Y.
+   * @param numCells How many of the cells to read.
+   * @param values Filled with the value of each cell.
+   */
+  protected void readCells(int id, int[] cells, int numCells, double[] values)
+  {
+    DoubleBuffer layer = getLayerBuffer(id, false);
+    for(int i = 0; i < numCells; i++)
+    {
+      values[i] = layer.get(cells[i]);
+    }
+  }
+
+  /**
+   * Adds values to every cell of a layer the same way addToCell would, skipping cells
+   * which were never set.  Only the layer being added to is locked.
+   * @param id The ID of the layer.
+   * @param values The values to add indexed by X*ySize+Y.
+   */
+  protected void addToLayer(int id, DoubleBuffer values)
+  {
+    DoubleBuffer target = getLayerBuffer(id, true);
+    synchronized(target)
+    {
+      for(int cell = 0; cell < xSize*ySize; cell++)
+      {
+        double value = values.get(cell);
+        if(Double.isNaN(value))
+        {
+          continue;
+        }
+        double old = target.get(cell);
+        target.put(cell, Double.isNaN(old) ? value : (old+value));
+      }
+    }
+  }
+
+  /**
+   * Uses the value from another layer wherever it has one, otherwise keeps the old
+   * value.  The other layer is released afterwards so its storage may be taken over.
+   * @param id The ID of the layer to change.
+   * @param fromId The ID of the layer with the new values.
+   */
+  protected void overwriteLayer(int id, int fromId)
+  {
+    DoubleBuffer oldData = getLayerBuffer(id, true);
+    DoubleBuffer newData = getLayerBuffer(fromId, false);
+    for(int cell = 0; cell < xSize*ySize; cell++)
+    {
+      if(!Double.isNaN(newData.get(cell)))
+      {
+        oldData.put(cell, newData.get(cell));
+      }
+    }
+  }
+
+  /**
+   * Called once a layer has been merged into another and will not be used again.
+   */
+  protected void releaseLayer(int id)
+  {
+    layers.set(id, null);
+  }
+
+  /**
+   * Called when a layer has been moved to another variable.
+   */
+  protected void layerRenamed(int id)
+  {
+  }
+
+  //*********************************************************
+  //*************Begin Private Functions*********************
+  //*********************************************************
+
+  /**
+   * @return Where a cell is in a layer, throwing the same exception indexing a
+   *         double[][] out of bounds would rather than reading another cell.
+   */
+  private int cell(int X, int Y)
+  {
+    if(X < 0 || X >= xSize || Y < 0 || Y >= ySize)
+    {
+      throw new ArrayIndexOutOfBoundsException("("+X+","+Y+") out of bounds("+xSize+","+ySize+")");
+    }
+    return X*ySize+Y;
+  }
+
+  private int putLayer(String varName, double time, DoubleBuffer values)
+  {
+    int id = layerVars.size();
+    layerVars.add(varName);
+    layerTimes.add(time);
+    layers.add(null);
+    layers.set(id, values == null ? allocateLayer(id) : adoptLayer(id, values));
+    layerIds.get(varName).put(time, id);
+    return id;
+  }
+
+  /**
+   * @return The ID of a layer, or -1 if it does not exist.
+   */
+  private int getLayerIdIfExists(String varName, double time)
+  {
+    TreeMap<Double, Integer> inVar = layerIds.get(varName);
+    if(inVar == null || !inVar.containsKey(time))
+    {
+      return -1;
+    }
+    return inVar.get(time);
+  }
+
+  /**
+   * @return The value of a cell, NaN if the layer does not exist.
+   */
+  private double getCellIfExists(int id, int cell)
+  {
+    return id < 0 ? Double.NaN : getCell(id, cell);
+  }
+
+  private double[][] toMatrix(DoubleBuffer layer)
+  {
+    double[][] matrix = new double[xSize][ySize];
+    DoubleBuffer rows = layer.duplicate();
+    for(int i = 0; i < xSize; i++)
+    {
+      rows.position(i*ySize);
+      rows.get(matrix[i]);
+    }
+    return matrix;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+
+/**
+ * A whole grid of values for one variable and time as read from a gridded file.
+ * The values are kept in a flat array, row by row, and the position of each cell
+ * is given by the lower-left longitude of its column and the lower-left latitude
+ * of its row.  Keeping a coordinate per column and row rather than an origin and
+ * step lets readers pass the exact coordinates they calculate, including longitudes
+ * wrapped from 0-360 and rows which were flipped.
+ * <p>
+ * This is passed to {@link DataIndex#addRaster} so that a file can be added in one
+ * pass instead of as a {@link DataBlock} for every cell.
+ * </p>
+ */
+public class GridRaster
+{
+  private double[] values; //row by row
+  private double[] colX; //lower-left longitude of each column
+  private double[] rowY; //lower-left latitude of each row
+  private double cellWidth;
+  private double cellHeight;
+  private boolean skipNaN; //whether NaN values are missing or should be added as NaN
+  private BitSet missing; //cells which have no value at all, null until one is set
+  
+  /**
+   * Creates a raster with every value set to NaN.
+   * @param colX The lower-left longitude of each column.
+   * @param rowY The lower-left latitude of each row.
+   * @param cellWidth The width of every cell in degrees.
+   * @param cellHeight The height of every cell in degrees.
+   * @param skipNaN Whether NaN values are missing and should not be added at all, 
+   *        otherwise they are added as NaN just like any other value.
+   */
+  public GridRaster(double[] colX, double[] rowY, double cellWidth, double cellHeight, boolean skipNaN)
+  {
+    this.colX = colX;
+    this.rowY = rowY;
+    this.cellWidth = cellWidth;
+    this.cellHeight = cellHeight;
+    this.skipNaN = skipNaN;
+    values = new double[colX.length*rowY.length];
+    Arrays.fill(values, Double.NaN);
+  }
+  
+  /**
+   * Creates the coordinates for an evenly spaced axis by stepping from start until
+   * end is passed, the same way the readers step through a file.
+   * @param start The first coordinate.
+   * @param end The coordinate to stop at.
+   * @param step The amount to step each time, negative to step down.
+   * @param includeEnd Whether a coordinate which lands exactly on end is included.
+   * @return The coordinates.
+   */
+  public static double[] axis(double start, double end, double step, boolean includeEnd)
+  {
+    int count = 0;
+    for(double c = start; inAxis(c, end, step, includeEnd); c += step)
+    {
+      count++;
+    }
+    double[] coords = new double[count];
+    double c = start;
+    for(int i = 0; i < count; i++)
+    {
+      coords[i] = c;
+      c += step;
+    }
+    return coords;
+  }
+  
+  private static boolean inAxis(double c, double end, double step, boolean includeEnd)
+  {
+    if(step > 0)
+    {
+      return includeEnd ? (c <= end) : (c < end);
+    } else
+    {
+      return includeEnd ? (c >= end) : (c > end);
+    }
+  }
+  
+  public int getRows()
+  {
+    return rowY.length;
+  }
+  
+  public int getCols()
+  {
+    return colX.length;
+  }
+  
+  public double getCellWidth()
+  {
+    return cellWidth;
+  }
+  
+  public double getCellHeight()
+  {
+    return cellHeight;
+  }
+  
+  public boolean getSkipNaN()
+  {
+    return skipNaN;
+  }
+  
+  /**
+   * @return The lower-left longitude of the column.
+   */
+  public double getX(int col)
+  {
+    return colX[col];
+  }
+  
+  /**
+   * @return The lower-left latitude of the row.
+   */
+  public double getY(int row)
+  {
+    return rowY[row];
+  }
+  
+  public double get(int row, int col)
+  {
+    return values[row*colX.length+col];
+  }
+  
+  public void set(int row, int col, double value)
+  {
+    values[row*colX.length+col] = value;
+    if(missing != null)
+    {
+      missing.clear(row*colX.length+col);
+    }
+  }
+  
+  /**
+   * Marks a cell as having no value so that it is not added at all, for readers
+   * which have a missing value but still add NaN values which are in the file.
+   * Setting a value for the cell later clears this.
+   */
+  public void setMissing(int row, int col)
+  {
+    if(missing == null)
+    {
+      missing = new BitSet(values.length);
+    }
+    missing.set(row*colX.length+col);
+  }
+  
+  /**
+   * Marks this cell and every cell after it, row by row, as having no value.  Used
+   * when a file ends before all of the cells were read.
+   */
+  public void setMissingFrom(int row, int col)
+  {
+    for(int cell = row*colX.length+col; cell < values.length; cell++)
+    {
+      setMissing(cell/colX.length, cell%colX.length);
+    }
+  }
+  
+  /**
+   * Whether the cell has a value to add.
+   */
+  public boolean hasValue(int row, int col)
+  {
+    return !(skipNaN && Double.isNaN(get(row, col)))
+      && !(missing != null && missing.get(row*colX.length+col));
+  }
+  
+  /**
+   * Builds the DataBlock for a single cell for indexes which can only add data a 
+   * block at a time.
+   * @param row The row of the cell.
+   * @param col The column of the cell.
+   * @param varName The variable to store the value in.
+   * @param time The time to store the value in.
+   * @return A DataBlock with the cell's bounds and value.
+   */
+  public DataBlock toBlock(int row, int col, String varName, double time)
+  {
+    DataBlock block = new DataBlock(colX[col], rowY[row], cellHeight, cellWidth);
+    TreeMap<Double, Double> timeValue = new TreeMap<Double, Double>();
+    timeValue.put(time, get(row, col));
+    block.data.put(varName, timeValue);
+    return block;
+  }
+}
@@ -166,6 +166,70 @@ public class MatrixRepository implements DataRepository
     return getValue(X, Y);
   }
 
+  public Set<String> getVarNames()
+  {
+    return root.keySet();
+  }
+
+  public Set<Double> getTimes(String varName)
+  {
+    if(!root.containsKey(varName))
+    {
+      return new TreeSet<Double>();
+    }
+    return root.get(varName).keySet();
+  }
+
+  /**
+   * Adds a layer which was filled elsewhere to this repository.  If there is no layer
+   * for the variable and time yet the passed layer is just taken as is, otherwise its
+   * values are added the same way addValue would, skipping cells which were never set.
+   * The lock on root is only held while finding the layer, adding the values only locks
+   * the layer itself so layers for different variables can be merged at the same time.
+   * @param varName The variable the layer is for.
+   * @param time The time the layer is for.
+   * @param layer The values to add, indexed [X][Y].
+   */
+  public void addLayer(String varName, double time, double[][] layer)
+  {
+    double[][] target;
+    synchronized(root)
+    {
+      TreeMap<Double, double[][]> inVar = root.get(varName);
+      if(inVar == null)
+      {
+        inVar = new TreeMap<Double, double[][]>();
+        root.put(varName, inVar);
+      }
+      target = inVar.get(time);
+      if(target == null)
+      {
+        inVar.put(time, layer);
+        return;
+      }
+    }
+    synchronized(target)
+    {
+      for(int i = 0; i < xSize; i++)
+      {
+        for(int k = 0; k < ySize; k++)
+        {
+          if(Double.isNaN(layer[i][k]))
+          {
+            continue;
+          }
+          if(Double.isNaN(target[i][k]))
+          {
+            target[i][k] = layer[i][k];
+          } else
+          {
+            target[i][k] += layer[i][k];
+          }
+        }
+      }
+    }
+  }
+
   public int mergeHoldTo(String holdName, String varName)
   {
     //this will take whatever information is in the hold layer and merge it
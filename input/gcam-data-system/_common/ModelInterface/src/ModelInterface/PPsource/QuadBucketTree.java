@@ -260,6 +260,21 @@ public class QuadBucketTree implements DataIndex
       }
     }
   }
+  public void addRaster(String varName, double time, GridRaster raster, boolean avg)
+  {
+    //no bulk path for the tree so add a block for each cell
+    for(int row = 0; row < raster.getRows(); row++)
+    {
+      for(int col = 0; col < raster.getCols(); col++)
+      {
+        if(raster.hasValue(row, col))
+        {
+          addData(raster.toBlock(row, col, varName, time), avg);
+        }
+      }
+    }
+  }
+
   public void resolveOverwrite(String holdName, String varName)
   {
     //UNIMPLEMENTED
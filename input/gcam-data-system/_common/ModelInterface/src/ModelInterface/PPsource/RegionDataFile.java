@@ -0,0 +1,432 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A binary file of region data to pass from the preprocessor to the data manipulator
+ * in place of the XML output.  The file starts with a short header which gives the
+ * resolution and where the index is.  This is followed by a block for each region,
+ * variable, and time which holds every cell of the region's matrix as doubles, row by
+ * row.  The index at the end of the file gives the variable information and, for each
+ * region, its bounds and where the block for each variable and time starts.
+ * <p>
+ * Blocks are written straight through a FileChannel and are read back with positional
+ * reads a row at a time so reading a region is a bulk copy rather than parsing an
+ * element for every cell.
+ * Values are stored exactly as they were calculated.
+ * </p>
+ */
+public class RegionDataFile
+{
+  /**
+   * The file extension which selects this format rather than XML.
+   */
+  public static final String EXTENSION = ".dmgrid";
+  
+  private static final int MAGIC = 0x474d4447; // GMDG
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 24;
+  private static final int INDEX_OFFSET_POSITION = 16;
+  
+  /**
+   * Information about a variable which applies to all regions.
+   */
+  public static class VariableInfo
+  {
+    public final String name;
+    public final boolean avg; //whether the variable is averaged or added on aggregation
+    public final String units; //may be null
+    public final String reference; //may be null
+    
+    public VariableInfo(String name, boolean avg, String units, String reference)
+    {
+      this.name = name;
+      this.avg = avg;
+      this.units = units;
+      this.reference = reference;
+    }
+  }
+  
+  /**
+   * The bounds of a region and where its data is in the file.
+   */
+  public static class RegionInfo
+  {
+    public final String name;
+    public final double x;
+    public final double y;
+    public final int sizeY;
+    public final int sizeX;
+    //variable -> time -> offset of the block in the file
+    private final Map<String, Map<String, Long>> blocks = new LinkedHashMap<String, Map<String, Long>>();
+    
+    RegionInfo(String name, double x, double y, int sizeY, int sizeX)
+    {
+      this.name = name;
+      this.x = x;
+      this.y = y;
+      this.sizeY = sizeY;
+      this.sizeX = sizeX;
+    }
+    
+    /**
+     * Get the variables this region has data for, including weight.
+     * @return The names of the variables in the order they were written.
+     */
+    public Set<String> getVariables()
+    {
+      return Collections.unmodifiableSet(blocks.keySet());
+    }
+    
+    /**
+     * Get the times a variable has data for in this region.
+     * @param var The name of the variable.
+     * @return The times in the order they were written.
+     */
+    public Set<String> getTimes(String var)
+    {
+      return Collections.unmodifiableSet(blocks.get(var).keySet());
+    }
+  }
+  
+  /**
+   * Check if a file name is for this format.
+   * @param fileName The name of the file.
+   * @return True if the file is a region data file rather than XML.
+   */
+  public static boolean isRegionDataFile(String fileName)
+  {
+    return fileName.endsWith(EXTENSION);
+  }
+  
+//*****************************************************************************
+//*****************Reading*****************************************************
+//*****************************************************************************
+  
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private double resolution;
+  private List<VariableInfo> variableInfo;
+  private List<RegionInfo> regions;
+  private ByteBuffer rowBuffer; //reused to read the rows of the grids
+  
+  /**
+   * Open a region data file and read its index.
+   * @param fileName The file to read.
+   * @throws IOException If the file could not be read or is not a region data file.
+   */
+  public RegionDataFile(String fileName) throws IOException
+  {
+    file = new RandomAccessFile(fileName, "r");
+    channel = file.getChannel();
+    
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(header, 0);
+    header.flip();
+    if(header.getInt() != MAGIC || header.getInt() != VERSION)
+    {
+      close();
+      throw new IOException(fileName+" is not a version "+VERSION+" region data file");
+    }
+    resolution = header.getDouble();
+    long indexOffset = header.getLong();
+    
+    ByteBuffer indexBuffer = ByteBuffer.allocate((int)(channel.size()-indexOffset));
+    readFully(indexBuffer, indexOffset);
+    DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBuffer.array()));
+    
+    int numVars = index.readInt();
+    variableInfo = new ArrayList<VariableInfo>(numVars);
+    for(int i = 0; i < numVars; i++)
+    {
+      String name = index.readUTF();
+      boolean avg = index.readBoolean();
+      String units = index.readBoolean() ? index.readUTF() : null;
+      String reference = index.readBoolean() ? index.readUTF() : null;
+      variableInfo.add(new VariableInfo(name, avg, units, reference));
+    }
+    
+    int numRegions = index.readInt();
+    regions = new ArrayList<RegionInfo>(numRegions);
+    for(int i = 0; i < numRegions; i++)
+    {
+      RegionInfo region = new RegionInfo(index.readUTF(), index.readDouble(), index.readDouble(),
+          index.readInt(), index.readInt());
+      int numRegionVars = index.readInt();
+      for(int k = 0; k < numRegionVars; k++)
+      {
+        String var = index.readUTF();
+        int numTimes = index.readInt();
+        Map<String, Long> times = new LinkedHashMap<String, Long>();
+        for(int t = 0; t < numTimes; t++)
+        {
+          times.put(index.readUTF(), index.readLong());
+        }
+        region.blocks.put(var, times);
+      }
+      regions.add(region);
+    }
+  }
+  
+  public double getResolution()
+  {
+    return resolution;
+  }
+  
+  public List<VariableInfo> getVariableInfo()
+  {
+    return Collections.unmodifiableList(variableInfo);
+  }
+  
+  public List<RegionInfo> getRegions()
+  {
+    return Collections.unmodifiableList(regions);
+  }
+  
+  /**
+   * Read the matrix for a variable and time of a region.  The block is read a row
+   * at a time into a buffer which is reused from one read to the next.
+   * @param region The region to read.
+   * @param var The variable to read.
+   * @param time The time to read.
+   * @return A new matrix of sizeY by sizeX values.
+   * @throws IOException If the block could not be read.
+   */
+  public double[][] readGrid(RegionInfo region, String var, String time) throws IOException
+  {
+    long offset = region.blocks.get(var).get(time).longValue();
+    double[][] grid = new double[region.sizeY][region.sizeX];
+    int rowSize = region.sizeX*8;
+    if(rowBuffer == null || rowBuffer.capacity() < rowSize)
+    {
+      rowBuffer = ByteBuffer.allocate(rowSize);
+    }
+    for(int i = 0; i < grid.length; i++)
+    {
+      rowBuffer.clear();
+      rowBuffer.limit(rowSize);
+      readFully(rowBuffer, offset+(long)i*rowSize);
+      rowBuffer.flip();
+      rowBuffer.asDoubleBuffer().get(grid[i]);
+    }
+    return grid;
+  }
+  
+  /**
+   * Get where the block for a variable and time of a region starts so that it can
+   * be paged in later without reading it now.  Its rows are sizeX doubles each.
+   * @param region The region.
+   * @param var The variable.
+   * @param time The time.
+   * @return The offset of the block in the file.
+   */
+  public long getBlockOffset(RegionInfo region, String var, String time)
+  {
+    return region.blocks.get(var).get(time).longValue();
+  }
+  
+  public void close() throws IOException
+  {
+    channel.close();
+    file.close();
+  }
+  
+  private void readFully(ByteBuffer buffer, long position) throws IOException
+  {
+    while(buffer.hasRemaining())
+    {
+      if(channel.read(buffer, position+buffer.position()) < 0)
+      {
+        throw new EOFException("Region data file is truncated");
+      }
+    }
+  }
+  
+//*****************************************************************************
+//*****************Writing*****************************************************
+//*****************************************************************************
+  
+  /**
+   * Writes a region data file.  Variable information may be added at any time,
+   * while the grids for a region must be added after the region is started and
+   * before the next one.  Nothing is valid until the writer is closed.
+   */
+  public static class Writer
+  {
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private List<VariableInfo> variableInfo = new ArrayList<VariableInfo>();
+    private List<RegionInfo> regions = new ArrayList<RegionInfo>();
+    private RegionInfo currRegion;
+    private ByteBuffer rowBuffer;
+    
+    /**
+     * Create the file, replacing it if it exists.
+     * @param fileName The file to write.
+     * @param resolution The resolution of all of the data.
+     * @throws IOException If the file could not be created.
+     */
+    public Writer(String fileName, double resolution) throws IOException
+    {
+      file = new RandomAccessFile(fileName, "rw");
+      file.setLength(0);
+      channel = file.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putDouble(resolution);
+      header.putLong(0); //index offset is filled in on close
+      header.flip();
+      writeFully(header);
+    }
+    
+    public void addVariableInfo(String name, boolean avg, String units, String reference)
+    {
+      variableInfo.add(new VariableInfo(name, avg, units, reference));
+    }
+    
+    /**
+     * Start writing the grids for a region.
+     * @param name Name of the region.
+     * @param x Longitude of the lower left corner.
+     * @param y Latitude of the lower left corner.
+     * @param sizeY The number of rows in the region's matrices.
+     * @param sizeX The number of columns in the region's matrices.
+     */
+    public void startRegion(String name, double x, double y, int sizeY, int sizeX)
+    {
+      currRegion = new RegionInfo(name, x, y, sizeY, sizeX);
+      regions.add(currRegion);
+      rowBuffer = ByteBuffer.allocate(sizeX*8);
+    }
+    
+    /**
+     * Write the matrix for a variable and time of the current region.
+     * @param var The variable.
+     * @param time The time.
+     * @param grid The values which must be sizeY by sizeX of the current region.
+     * @throws IOException If the grid could not be written.
+     */
+    public void addGrid(String var, String time, double[][] grid) throws IOException
+    {
+      Map<String, Long> times = currRegion.blocks.get(var);
+      if(times == null)
+      {
+        times = new LinkedHashMap<String, Long>();
+        currRegion.blocks.put(var, times);
+      }
+      times.put(time, channel.position());
+      for(int i = 0; i < currRegion.sizeY; i++)
+      {
+        rowBuffer.clear();
+        rowBuffer.asDoubleBuffer().put(grid[i], 0, currRegion.sizeX);
+        writeFully(rowBuffer);
+      }
+    }
+    
+    /**
+     * Write the index and close the file.
+     * @throws IOException If the index could not be written.
+     */
+    public void close() throws IOException
+    {
+      long indexOffset = channel.position();
+      ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+      DataOutputStream index = new DataOutputStream(indexBytes);
+      index.writeInt(variableInfo.size());
+      for(VariableInfo info : variableInfo)
+      {
+        index.writeUTF(info.name);
+        index.writeBoolean(info.avg);
+        index.writeBoolean(info.units != null);
+        if(info.units != null)
+        {
+          index.writeUTF(info.units);
+        }
+        index.writeBoolean(info.reference != null);
+        if(info.reference != null)
+        {
+          index.writeUTF(info.reference);
+        }
+      }
+      index.writeInt(regions.size());
+      for(RegionInfo region : regions)
+      {
+        index.writeUTF(region.name);
+        index.writeDouble(region.x);
+        index.writeDouble(region.y);
+        index.writeInt(region.sizeY);
+        index.writeInt(region.sizeX);
+        index.writeInt(region.blocks.size());
+        for(Map.Entry<String, Map<String, Long>> var : region.blocks.entrySet())
+        {
+          index.writeUTF(var.getKey());
+          index.writeInt(var.getValue().size());
+          for(Map.Entry<String, Long> time : var.getValue().entrySet())
+          {
+            index.writeUTF(time.getKey());
+            index.writeLong(time.getValue().longValue());
+          }
+        }
+      }
+      index.flush();
+      writeFully(ByteBuffer.wrap(indexBytes.toByteArray()));
+      
+      ByteBuffer offset = ByteBuffer.allocate(8);
+      offset.putLong(indexOffset);
+      offset.flip();
+      while(offset.hasRemaining())
+      {
+        channel.write(offset, INDEX_OFFSET_POSITION+offset.position());
+      }
+      channel.force(true);
+      channel.close();
+      file.close();
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+      while(buffer.hasRemaining())
+      {
+        channel.write(buffer);
+      }
+    }
+  }
+}
@@ -66,7 +66,10 @@ import java.util.HashSet;
 public class RegionMask extends Rectangle2D.Double
 {
   public String name; //the name of the region this is a mask for
-  public byte  bMask[][]; //a bitmask which defines whether or not each point is in the region
+  private long[] maskWords; //bits for whether or not each point is in the region, 64 to a word, allocated once a bit is set
+  private int maskRows; //rows in the bit mask, counting down from the top
+  private int maskCols; //columns in the bit mask
+  private int wordsPerRow; //each row starts on a new word
   public double resolution; //how much space each bit represents
   Logger log = Logger.getLogger("Preprocess"); //log class to use for all logging output 
 
@@ -75,6 +78,16 @@ public class RegionMask extends Rectangle2D.Double
    */
   private Set<String> excludeVarNames;
 
+  /**
+   * Running counts of the set bits in each row, built the first time a portion is asked for.
+   */
+  private MaskSums maskSums;
+
+  /**
+   * Portions of the cells of the last working resolution asked for.
+   */
+  private CoverageRaster coverageRaster;
+
   //Rec2D already contains x, y, w, h so i wont store the min's and max's here...
   /**
    * Default Constructor. Creates an impossible rectangle with negative bounds.
@@ -108,8 +121,10 @@ public class RegionMask extends Rectangle2D.Double
   }
   /**
    * Gets the portion of the passed rectangle which overlaps this region.
-   * Checks bounds of rectangle vs bounds of region, then checks agains the
-   * bitmask of the region itself.
+   * When the rectangle is a cell of a working resolution grid the portion is looked
+   * up in a raster of portions for every cell of that grid, which is built once per
+   * working resolution.  Any other rectangle is measured with the running counts of
+   * set bits in each row of the mask, so it only depends on how many rows it covers.
    * 
    * @param X X-value of the bottom left-most point in a rectangle.
    * @param Y Y-value of the bottom left-most point in a rectangle.
@@ -119,111 +134,277 @@ public class RegionMask extends Rectangle2D.Double
    */
   public double inRegion(double X, double Y, double W, double H)
   {
-    //pretty self explanitory, checks if any part of the sent rectangle is in this specific region
-    //know it intersects in some way, now find if it additionally lays over a
-    //region of the mask which contains some 1's, return portion which is in region
-    double toReturn = 0;
-    Block inBlock = new Block(X, Y, H, W);
-    int lowX, highX, lowY, highY; //the range of indicies to check in the mask
-    double smallX, bigX, smallY, bigY; //used for proportion finding
-    double thisX, thisY; //x and y coordinates for the current place in bit mask
-    
-// Get index of base point of this region
-    Point2D.Double minThisRegion, minPassedPoint, maxThisRegion, maxPassedPoint;
+    if(W == H && W > 0)
+    {
+      double xIdx = (X/W)+(180/W);
+      double yIdx = (Y/W)+(90/W);
+      if(Math.abs(xIdx-Math.round(xIdx)) < 1e-6 && Math.abs(yIdx-Math.round(yIdx)) < 1e-6)
+      {
+        CoverageRaster raster = getCoverageRaster(W);
+        int col = (int)Math.round(xIdx)-raster.minX;
+        int row = (int)Math.round(yIdx)-raster.minY;
+        if(col < 0 || col >= raster.cols || row < 0 || row >= raster.rows)
+        {
+          return 0;
+        }
+        return raster.values[row*raster.cols+col];
+      }
+    }
+    return overlap(getMaskSums(), X, Y, W, H);
+  }
+  /**
+   * Gets the portion of each cell in a rectangle of working resolution cells which
+   * overlaps this region.  The portions are the same as calling {@link #inRegion} for
+   * each cell, but are found straight from the running counts without keeping a
+   * raster for the whole region.
+   *
+   * @param minX Working resolution index of the left most column of cells.
+   * @param minY Working resolution index of the bottom row of cells.
+   * @param rows Number of rows of cells.
+   * @param cols Number of columns of cells.
+   * @param res The working resolution.
+   * @return Portion of each cell in this region indexed by [row from the bottom][column].
+   */
+  public double[][] coverage(int minX, int minY, int rows, int cols, double res)
+  {
+    double[][] toReturn = new double[rows][cols];
+    MaskSums sums = getMaskSums();
+    //which bits each column and row of cells covers only has to be found once
+    AxisSpan[] colSpans = new AxisSpan[cols];
+    for(int c = 0; c < cols; c++)
+    {
+      double cellX = ((minX+c)-(180/res))*res;
+      colSpans[c] = sums.colSpan(cellX, res, resolution);
+    }
+    for(int r = 0; r < rows; r++)
+    {
+      double cellY = ((minY+r)-(90/res))*res;
+      AxisSpan rowSpan = sums.rowSpan(cellY, res, resolution);
+      for(int c = 0; c < cols; c++)
+      {
+        toReturn[r][c] = overlap(sums, rowSpan, colSpans[c], res, res);
+      }
+    }
+    return toReturn;
+  }
+  /**
+   * Gets the raster of portions for every cell at the given working resolution which
+   * this region's bounds touch, building it if the last one was for another resolution.
+   * @param res The working resolution.
+   * @return The raster of portions.
+   */
+  private synchronized CoverageRaster getCoverageRaster(double res)
+  {
+    if(coverageRaster != null && coverageRaster.res == res)
+    {
+      return coverageRaster;
+    }
+    CoverageRaster raster = new CoverageRaster();
+    Point2D.Double min, max;
+    min = CoordConversions.point2index( new Point2D.Double(x, y), res, true);
+    max = CoordConversions.point2index( new Point2D.Double(x + width, y + height), res, false);
+    raster.res = res;
+    raster.minX = (int)min.x;
+    raster.minY = (int)min.y;
+    raster.rows = Math.max(0, (int)(max.y-min.y));
+    raster.cols = Math.max(0, (int)(max.x-min.x));
+    double[][] portions = coverage(raster.minX, raster.minY, raster.rows, raster.cols, res);
+    raster.values = new double[raster.rows*raster.cols];
+    for(int r = 0; r < raster.rows; r++)
+    {
+      System.arraycopy(portions[r], 0, raster.values, r*raster.cols, raster.cols);
+    }
+    coverageRaster = raster;
+    return raster;
+  }
+  /**
+   * Gets the running counts of set bits along each row of the mask, building them the
+   * first time.
+   * @return The running counts.
+   */
+  private synchronized MaskSums getMaskSums()
+  {
+    if(maskSums != null)
+    {
+      return maskSums;
+    }
+    MaskSums sums = new MaskSums();
+    Point2D.Double minThisRegion, maxThisRegion;
     minThisRegion  = CoordConversions.point2index( new Point2D.Double(x, y), resolution, true);
     maxThisRegion  = CoordConversions.point2index( new Point2D.Double(x + width, y + height ), resolution, false);
-
-	// Next block takes the coordinates of the passed in rectangle and converts them native resolution
-	// indices aligned on working resolution cell boundaries
-	
-	// Working resolution indices
-    minPassedPoint = CoordConversions.point2index( new Point2D.Double(X, Y), H, true);
-    maxPassedPoint = CoordConversions.point2index( new Point2D.Double(X + W, Y + H ), H, false);
-
-    Point2D.Double thisPointConverted;
-	// Back to working resolution coordinates (since coordinates passed in are not necessarily at the boundary of a working resolution cell)
-    thisPointConverted = CoordConversions.index2point(minPassedPoint, H );
-    // Native resolution coordinates
-    minPassedPoint = CoordConversions.point2index( thisPointConverted, resolution, true);
-
-	// Back to working resolution coordinates (since coordinates passed in are not necessarily at the boundary of a working resolution cell)
-    thisPointConverted = CoordConversions.index2point(maxPassedPoint, H );
-    // Native resolution coordinates
-    maxPassedPoint = CoordConversions.point2index( thisPointConverted, resolution, false);
-
-	lowX  = (int)Math.round( minPassedPoint.x - minThisRegion.x );
-	highX = (int)Math.round( maxPassedPoint.x - minThisRegion.x );
-
-	// y dimension offset counts down from the top, but indicies count up from the bottom. 
-	// So min Y here (which is bmask offset) is maxY passed in 
-	lowY  = (int)Math.round( maxThisRegion.y - maxPassedPoint.y );
-	highY = (int)Math.round( maxThisRegion.y - minPassedPoint.y );
-
-    for(int i = (lowY); i< (highY); i++)
+    sums.minX = minThisRegion.x;
+    sums.maxY = maxThisRegion.y;
+    sums.rows = maskRows;
+    sums.cols = maskCols;
+    sums.stride = wordsPerRow+1;
+    sums.words = maskWords;
+    //rowCounts[i*stride+w] is the number of bits set in row i before word w
+    sums.rowCounts = new int[sums.rows*sums.stride];
+    if(maskWords != null)
     {
-      if((i<bMask.length)&&(i>=0)) //Check for out of bounds
+      for(int i = 0; i < sums.rows; i++)
       {
-        for(int k = (lowX); k< (highX); k++)
+        int rowCount = 0;
+        for(int w = 0; w < wordsPerRow; w++)
         {
-          if((k<bMask[i].length)&&(k>=0)) //Check for out of bounds
-          {
-     		Point2D.Double thisPoint;
-     		// check that y is properly defined
-            thisPoint = CoordConversions.index2point( new Point2D.Double(minThisRegion.x + k, maxThisRegion.y - i-1), resolution );
-//			previous method
-//         	thisX = (x+(k*resolution)); //counting down from the left
-//          thisY = (y+height-((i+1)*resolution)); //counting down from the top
-		    thisX = thisPoint.x; thisY = thisPoint.y;
-            
-           if(bMask[i][k]==1 && inBlock.intersects(thisX, thisY, resolution, resolution))
-            { //this portion of checked area lies in block, add it to the blocks weight
-
-              if(thisPoint.x > X)
-                smallX = thisPoint.x;
-              else
-                smallX = X;
-              if(thisPoint.y > Y)
-                smallY = thisPoint.y;
-              else
-                smallY = Y;
-              
-              if((thisPoint.x+resolution) < (X+W))
-                bigX = (thisPoint.x+resolution);
-              else
-                bigX = (X+W);
-              if((thisPoint.y+resolution) < (Y+H))
-                bigY = (thisPoint.y+resolution);
-              else
-                bigY = (Y+H);
-
-              toReturn += (((bigX-smallX)*(bigY-smallY))/(W*H));
-	      /*
-	      double oldWay = (((bigX-smallX)*(bigY-smallY))/(W*H));
-	      double newWay = inBlock.getOverlap(regionBlock);
-	  System.out.println("("+X+", "+Y+") - "+H+"x"+W);
-	  System.out.println("("+thisX+", "+thisY+") - "+resolution+"x"+resolution);
-    System.out.println("old: "+oldWay);
-    System.out.println("new: "+newWay);
-	  try {
-	  System.in.read();
-	  } catch(java.io.IOException e) {}
-	  */
-            }
-          }
+          sums.rowCounts[i*sums.stride+w] = rowCount;
+          rowCount += Long.bitCount(maskWords[i*wordsPerRow+w]);
+        }
+        sums.rowCounts[i*sums.stride+wordsPerRow] = rowCount;
+      }
+    }
+    maskSums = sums;
+    return sums;
+  }
+  /**
+   * Finds the portion of a rectangle covered by set bits.  Whole bits are counted a
+   * row at a time from the running counts and bit counts of the words at either end,
+   * and the bits cut by the edges of the rectangle are weighted by how much of them is
+   * inside it.
+   */
+  private double overlap(MaskSums sums, double X, double Y, double W, double H)
+  {
+    if(W <= 0 || H <= 0)
+    {
+      return 0;
+    }
+    return overlap(sums, sums.rowSpan(Y, H, resolution), sums.colSpan(X, W, resolution), W, H);
+  }
+  private double overlap(MaskSums sums, AxisSpan rowSpan, AxisSpan colSpan, double W, double H)
+  {
+    double covered = 0;
+    for(int r = 0; r < rowSpan.num; r++)
+    {
+      for(int c = 0; c < colSpan.num; c++)
+      {
+        int count = 0;
+        for(int i = rowSpan.start[r]; i < rowSpan.end[r]; i++)
+        {
+          count += sums.countRow(i, colSpan.start[c], colSpan.end[c]);
+        }
+        if(count > 0)
+        {
+          covered += count*rowSpan.frac[r]*colSpan.frac[c];
         }
       }
-    } //return the amount of overlap (DB of mask)
+    }
+    return covered*(resolution*resolution)/(W*H);
+  }
+  /**
+   * Running counts of the set bits along each row of the mask along with where the
+   * mask is in native indicies.
+   */
+  private static class MaskSums
+  {
+    double minX; //native index of the left most column
+    double maxY; //native index just above the top row
+    int rows;
+    int cols;
+    int stride; //entries of rowCounts per row, one more than the words per row
+    long[] words; //the mask, may be null if no bits are set
+    int[] rowCounts;
 
-    // for debugging. log rounding errors if they matter. 
-    if ( ( ( (highY - lowY ) != (int)Math.round( H/resolution ) ) ||
-           ( (highX - lowX ) != (int)Math.round( W/resolution ) ) ) &&
-         toReturn > 0 ) {
-         
-    	log.log(Level.FINE, " Rounding error encountered in region "+name+" with x and y bounds: ("
-    					+lowX+","+highX+")  and y ("+lowY+","+highY+") and weight of: "+toReturn);
-   	 }
- 
-    return toReturn;
+    /**
+     * Counts the bits set in columns first up to last of one row.
+     */
+    int countRow(int row, int first, int last)
+    {
+      if(words == null)
+      {
+        return 0;
+      }
+      return countBefore(row, last) - countBefore(row, first);
+    }
+    private int countBefore(int row, int col)
+    {
+      int word = col >>> 6;
+      int count = rowCounts[row*stride+word];
+      if((col & 63) != 0)
+      {
+        count += Long.bitCount(words[row*(stride-1)+word] & ((1L << (col & 63))-1));
+      }
+      return count;
+    }
+
+    /**
+     * Finds the mask columns a span of longitude covers.
+     */
+    AxisSpan colSpan(double start, double size, double resolution)
+    {
+      double left = (start/resolution)+(180/resolution)-minX;
+      double right = ((start+size)/resolution)+(180/resolution)-minX;
+      return new AxisSpan(left, right, cols);
+    }
+    /**
+     * Finds the mask rows, which count down from the top, a span of latitude covers.
+     */
+    AxisSpan rowSpan(double start, double size, double resolution)
+    {
+      double top = maxY-(((start+size)/resolution)+(90/resolution));
+      double bottom = maxY-((start/resolution)+(90/resolution));
+      return new AxisSpan(top, bottom, rows);
+    }
+  }
+  /**
+   * The bits a span along one axis covers split into the partly covered bit at the
+   * start, the run of whole bits, and the partly covered bit at the end, clipped to
+   * the mask.  Edges within rounding error of a bit boundary are put on the boundary.
+   */
+  private static class AxisSpan
+  {
+    int num;
+    int[] start = new int[3];
+    int[] end = new int[3];
+    double[] frac = new double[3];
+
+    AxisSpan(double lo, double hi, int size)
+    {
+      lo = snap(lo);
+      hi = snap(hi);
+      int loBit = (int)Math.floor(lo);
+      int hiBit = (int)Math.floor(hi);
+      if(loBit == hiBit)
+      {
+        add(loBit, loBit+1, hi-lo, size);
+        return;
+      }
+      int wholeStart = (int)Math.ceil(lo);
+      if(wholeStart != loBit)
+      {
+        add(loBit, loBit+1, wholeStart-lo, size);
+      }
+      add(Math.max(0, wholeStart), Math.min(size, hiBit), 1, size);
+      if(hi > hiBit)
+      {
+        add(hiBit, hiBit+1, hi-hiBit, size);
+      }
+    }
+    private void add(int first, int last, double portion, int size)
+    {
+      if(first >= 0 && last <= size && last > first && portion > 0)
+      {
+        start[num] = first;
+        end[num] = last;
+        frac[num++] = portion;
+      }
+    }
+    private static double snap(double idx)
+    {
+      double nearest = Math.rint(idx);
+      return Math.abs(idx-nearest) < 1e-6 ? nearest : idx;
+    }
+  }
+  /**
+   * Portions of each cell of one working resolution grid which overlap this region.
+   */
+  private static class CoverageRaster
+  {
+    double res;
+    int minX; //working index of the left most column
+    int minY; //working index of the bottom row
+    int rows;
+    int cols;
+    double[] values; //row major from the bottom
   }
   /**
    * Creates an empty bitmask matrix using the regions height, width, and resolution.
@@ -232,8 +413,93 @@ public class RegionMask extends Rectangle2D.Double
   public void makeMatrix()
   {
     if((height != -1)&&(width != -1))
+    {
 	    // try rounding instead of just truncating
-      bMask = new byte[(int)Math.round(height/resolution)][(int)Math.round(width/resolution)];
+      maskRows = (int)Math.round(height/resolution);
+      maskCols = (int)Math.round(width/resolution);
+      wordsPerRow = (maskCols+63) >>> 6;
+      //the words are only allocated once a bit is set
+      maskWords = null;
+    }
+    clearCoverage();
+  }
+  /**
+   * Gets the number of rows in the bit mask.
+   * @return The number of rows.
+   */
+  public int getMaskRows()
+  {
+    return maskRows;
+  }
+  /**
+   * Gets the number of columns in the bit mask.
+   * @return The number of columns.
+   */
+  public int getMaskCols()
+  {
+    return maskCols;
+  }
+  /**
+   * Checks whether a bit in the mask is set.
+   * @param row The row of the bit, counting down from the top.
+   * @param col The column of the bit.
+   * @return Whether that point is in the region.
+   */
+  public boolean isSet(int row, int col)
+  {
+    return maskWords != null && (maskWords[row*wordsPerRow+(col >>> 6)] & (1L << (col & 63))) != 0;
+  }
+  /**
+   * Sets a bit in the mask.
+   * @param row The row of the bit, counting down from the top.
+   * @param col The column of the bit.
+   */
+  public void setBit(int row, int col)
+  {
+    if(maskWords == null)
+    {
+      maskWords = new long[maskRows*wordsPerRow];
+    }
+    maskWords[row*wordsPerRow+(col >>> 6)] |= (1L << (col & 63));
+    clearCoverage();
+  }
+  /**
+   * Counts the bits set in the mask.
+   * @return The number of points in the region.
+   */
+  public long countSet()
+  {
+    long count = 0;
+    if(maskWords != null)
+    {
+      for(int i = 0; i < maskWords.length; i++)
+      {
+        count += Long.bitCount(maskWords[i]);
+      }
+    }
+    return count;
+  }
+  /**
+   * Gets the words the bits are packed into, each row starting on a new word.
+   * @return The words, or null if no bits have been set.
+   */
+  long[] getMaskWords()
+  {
+    return maskWords;
+  }
+  /**
+   * Replaces the bit mask with one which was packed by another mask.
+   * @param rows The number of rows in the mask.
+   * @param cols The number of columns in the mask.
+   * @param words The packed bits, or null if none are set.
+   */
+  void setMaskWords(int rows, int cols, long[] words)
+  {
+    maskRows = rows;
+    maskCols = cols;
+    wordsPerRow = (cols+63) >>> 6;
+    maskWords = words;
+    clearCoverage();
   }
   /**
    * Sets the given coordinates to true in the bit mask.
@@ -258,15 +524,23 @@ public class RegionMask extends Rectangle2D.Double
 	// Y index counts up from bottom. This flips to count down from top. maxThisRegion.y  should be 1 larger than any point.
 	int Yindx = (int)Math.round( maxThisRegion.y - thisPointIndex.y ) - 1; 
 	    
-      if( Yindx<=-1 || Yindx >=bMask.length ) {
+      if( Yindx<=-1 || Yindx >=maskRows ) {
 	    log.log(Level.WARNING,"In "+name+" Yindx is out of bounds with "+Yindx+" possibly due to rounding errors, setting to 0");
 	    Yindx = 0;
     }
-    if( Xindx<=-1 || Xindx >=bMask[0].length ) {
+    if( Xindx<=-1 || Xindx >=maskCols ) {
 	    log.log(Level.WARNING,"In "+name+" Xindx is out of bounds with "+Xindx+" possibly due to rounding errors, setting to 0");
 	    Xindx = 0;
     }
-    bMask[Yindx][Xindx] = 1;
+    setBit(Yindx, Xindx);
+  }
+  /**
+   * Throws away the running counts and raster of portions after the bit mask changes.
+   */
+  private void clearCoverage()
+  {
+    maskSums = null;
+    coverageRaster = null;
   }
   /**
    * Prints to standard out the bitmask for this region as well as its bounds.
@@ -277,11 +551,11 @@ public class RegionMask extends Rectangle2D.Double
   {
     System.out.println("Printing BitMask for: "+name);
     System.out.println("bounds: (x) "+x+" to "+(x+width)+" by (y) "+(y+height)+" to "+y);
-    for(int i = 0; i < bMask.length; i++)
+    for(int i = 0; i < maskRows; i++)
     {
-      for(int k = 0; k < bMask[i].length; k++)
+      for(int k = 0; k < maskCols; k++)
       {
-        System.out.print(bMask[i][k]);
+        System.out.print(isSet(i, k) ? 1 : 0);
       }
       System.out.println();
     }
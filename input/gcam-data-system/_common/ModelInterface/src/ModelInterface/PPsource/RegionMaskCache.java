@@ -0,0 +1,251 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.*;
+import org.jdom.Element;
+import org.jdom.output.XMLOutputter;
+
+/**
+ * A directory of region masks which have already been read from region files so that
+ * later runs over the same region definitions can skip building them.  Each entry holds
+ * every mask a single region file element made, with their bits still packed.  Entries
+ * are keyed by the element as written in the region XML, which includes the resolution
+ * and region keys, along with the path, size, and modification time of the file it
+ * names, so changing any of them builds the masks again.  A cache which can't be read
+ * or written is logged and the masks are built as if there was no cache.  Only the masks
+ * are kept, so region files which add anything else, such as the land fraction, can not
+ * be skipped with a cache.
+ */
+public class RegionMaskCache
+{
+  private static final int MAGIC = 0x474d534b; //GMSK
+  private static final int VERSION = 1;
+
+  private File dir; //where the cached masks go
+  Logger log = Logger.getLogger("Preprocess"); //log class to use for all logging output
+
+  /**
+   * Creates a cache in the given directory, creating the directory if needed.
+   * @param dir The directory to keep cached masks in.
+   */
+  public RegionMaskCache(File dir)
+  {
+    this.dir = dir;
+    if(!dir.isDirectory() && !dir.mkdirs())
+    {
+      log.log(Level.WARNING, "Couldn't create mask cache directory "+dir);
+    }
+  }
+
+  /**
+   * Builds the key for the masks a region file element makes.
+   * @param currFile The element from the region XML.
+   * @return The key, or null if the element does not name a file which exists.
+   */
+  public static String makeKey(Element currFile)
+  {
+    Element nameElem = currFile.getChild("name");
+    if(nameElem == null || nameElem.getAttributeValue("value") == null)
+    {
+      return null;
+    }
+    File source = new File(nameElem.getAttributeValue("value"));
+    if(!source.isFile())
+    {
+      return null;
+    }
+    String path;
+    try
+    {
+      path = source.getCanonicalPath();
+    } catch(IOException e)
+    {
+      path = source.getAbsolutePath();
+    }
+    return new XMLOutputter().outputString(currFile)+"\n"+path+"\n"+source.length()+"\n"+source.lastModified();
+  }
+
+  /**
+   * Reads the masks stored under a key.
+   * @param key The key the masks were saved with.
+   * @return The masks, or null if none are cached for the key.
+   */
+  public List<RegionMask> load(String key)
+  {
+    File f = fileFor(key);
+    if(!f.isFile())
+    {
+      return null;
+    }
+    DataInputStream in = null;
+    try
+    {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+      if(in.readInt() != MAGIC || in.readInt() != VERSION)
+      {
+        return null;
+      }
+      //the whole key is kept in case two keys hash to the same file name
+      byte[] keyBytes = new byte[in.readInt()];
+      in.readFully(keyBytes);
+      if(!key.equals(new String(keyBytes, "UTF-8")))
+      {
+        return null;
+      }
+      int numMasks = in.readInt();
+      List<RegionMask> masks = new ArrayList<RegionMask>(numMasks);
+      for(int i = 0; i < numMasks; i++)
+      {
+        RegionMask m = new RegionMask(in.readUTF(), in.readDouble());
+        m.x = in.readDouble();
+        m.y = in.readDouble();
+        m.width = in.readDouble();
+        m.height = in.readDouble();
+        int rows = in.readInt();
+        int cols = in.readInt();
+        int numWords = in.readInt();
+        long[] words = numWords < 0 ? null : new long[numWords];
+        for(int w = 0; w < numWords; w++)
+        {
+          words[w] = in.readLong();
+        }
+        m.setMaskWords(rows, cols, words);
+        masks.add(m);
+      }
+      return masks;
+    } catch(IOException e)
+    {
+      log.log(Level.WARNING, "Couldn't read cached masks from "+f+": "+e);
+      return null;
+    } finally
+    {
+      if(in != null)
+      {
+        try
+        {
+          in.close();
+        } catch(IOException e) {}
+      }
+    }
+  }
+
+  /**
+   * Stores masks under a key.  The entry is written to a temporary file first so a
+   * run which stops part way through never leaves a partial entry behind.
+   * @param key The key to save the masks with.
+   * @param masks The masks to save.
+   */
+  public void save(String key, List<RegionMask> masks)
+  {
+    File f = fileFor(key);
+    File tmp = new File(dir, f.getName()+".tmp");
+    DataOutputStream out = null;
+    try
+    {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      byte[] keyBytes = key.getBytes("UTF-8");
+      out.writeInt(keyBytes.length);
+      out.write(keyBytes);
+      out.writeInt(masks.size());
+      for(int i = 0; i < masks.size(); i++)
+      {
+        RegionMask m = masks.get(i);
+        out.writeUTF(m.name);
+        out.writeDouble(m.resolution);
+        out.writeDouble(m.x);
+        out.writeDouble(m.y);
+        out.writeDouble(m.width);
+        out.writeDouble(m.height);
+        out.writeInt(m.getMaskRows());
+        out.writeInt(m.getMaskCols());
+        long[] words = m.getMaskWords();
+        out.writeInt(words == null ? -1 : words.length);
+        for(int w = 0; words != null && w < words.length; w++)
+        {
+          out.writeLong(words[w]);
+        }
+      }
+      out.close();
+      out = null;
+      if(f.exists())
+      {
+        f.delete();
+      }
+      if(!tmp.renameTo(f))
+      {
+        log.log(Level.WARNING, "Couldn't move cached masks to "+f);
+      }
+    } catch(IOException e)
+    {
+      log.log(Level.WARNING, "Couldn't write cached masks to "+f+": "+e);
+    } finally
+    {
+      if(out != null)
+      {
+        try
+        {
+          out.close();
+        } catch(IOException e) {}
+      }
+      if(tmp.exists())
+      {
+        tmp.delete();
+      }
+    }
+  }
+
+  private File fileFor(String key)
+  {
+    StringBuilder name = new StringBuilder("masks-");
+    try
+    {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+      for(int i = 0; i < digest.length; i++)
+      {
+        name.append(Integer.toHexString((digest[i] & 0xff) | 0x100).substring(1));
+      }
+    } catch(NoSuchAlgorithmException e)
+    {
+      name.append(Integer.toHexString(key.hashCode()));
+    } catch(UnsupportedEncodingException e)
+    {
+      name.append(Integer.toHexString(key.hashCode()));
+    }
+    return new File(dir, name.append(".bin").toString());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.util.logging.*;
+
+/**
+ * A FlatIndex which keeps its layers in a {@link TiledLayerRepository}, cut into tiles
+ * of about a degree on a side.  Tiles are only created where data is added so inputs
+ * which only cover land or a part of the world take much less memory, and reading a
+ * region only touches the tiles it covers.  Adding, resampling and extracting all work
+ * the same as in FlatIndex.  Chosen with index="tile" on the root of the data file.
+ */
+public class TileIndex extends FlatIndex
+{
+  /**
+   * The size of a tile in degrees.
+   */
+  private static final double TILE_DEGREES = 1.0;
+
+  /**
+   * Tiles are never made smaller than this many cells on a side so that coarse
+   * resolutions do not end up with tiles of just a few cells.
+   */
+  private static final int MIN_TILE_CELLS = 8;
+
+//*********************************************************
+//*****************Class Constructors**********************
+//*********************************************************
+
+  public TileIndex()
+  {
+    super();
+  }
+
+  public TileIndex(double x1, double x2, double y1, double y2)
+  {
+    super(x1, x2, y1, y2);
+  }
+
+//*********************************************************
+//*************Begin Functions Proper**********************
+//*********************************************************
+
+  protected DataRepository createRepository(int xSize, int ySize)
+  {
+    int tileSize = Math.max(MIN_TILE_CELLS, (int)Math.round(TILE_DEGREES/resolution));
+    log.log(Level.FINE, "layers will be kept in tiles of "+tileSize+"x"+tileSize+" cells");
+    return new TiledLayerRepository(xSize, ySize, tileSize);
+  }
+
+  protected FlatIndex createEmpty(double x1, double x2, double y1, double y2)
+  {
+    return new TileIndex(x1, x2, y1, y2);
+  }
+}
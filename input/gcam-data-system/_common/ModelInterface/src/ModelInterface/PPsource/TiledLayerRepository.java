@@ -0,0 +1,352 @@
+/*
+* LEGAL NOTICE
+* This computer software was prepared by Battelle Memorial Institute,
+* hereinafter the Contractor, under Contract No. DE-AC05-76RL0 1830
+* with the Department of Energy (DOE). NEITHER THE GOVERNMENT NOR THE
+* CONTRACTOR MAKES ANY WARRANTY, EXPRESS OR IMPLIED, OR ASSUMES ANY
+* LIABILITY FOR THE USE OF THIS SOFTWARE. This notice including this
+* sentence must appear on any copies of this computer software.
+* 
+* Copyright 2012 Battelle Memorial Institute.  All Rights Reserved.
+* Distributed as open-source under the terms of the Educational Community 
+* License version 2.0 (ECL 2.0). http://www.opensource.org/licenses/ecl2.php
+* 
+* EXPORT CONTROL
+* User agrees that the Software will not be shipped, transferred or
+* exported into any country or used in any manner prohibited by the
+* United States Export Administration Act or any other applicable
+* export laws, restrictions or regulations (collectively the "Export Laws").
+* Export of the Software may require some form of license or other
+* authority from the U.S. Government, and failure to obtain such
+* export control license may result in criminal liability under
+* U.S. laws. In addition, if the Software is identified as export controlled
+* items under the Export Laws, User represents and warrants that User
+* is not a citizen, or otherwise located within, an embargoed nation
+* (including without limitation Iran, Syria, Sudan, Cuba, and North Korea)
+*     and that User is not otherwise prohibited
+* under the Export Laws from receiving the Software.
+* 
+*/
+package ModelInterface.PPsource;
+
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+/**
+ * A FlatLayerRepository which splits each variable and time layer into a fixed grid of
+ * square tiles, each one its own double[] indexed by (X%tileSize)*tileSize+(Y%tileSize).
+ * A tile is only created once a value is written into it and a missing tile reads as NaN,
+ * the same as a cell which was never set, so layers which only cover land or a part of
+ * the world take a fraction of the space of a full layer and merging them skips the empty
+ * tiles.  A cell is still found in constant time from its tile and offset.
+ * <p>
+ * Only the storage is tiled, layers are named, merged and read as regions the same way
+ * as in FlatLayerRepository.  The tiles can not be handed out as one buffer so
+ * getLayerBuffer returns a copy which can only be read.
+ * </p>
+ */
+public class TiledLayerRepository extends FlatLayerRepository
+{
+  private List<double[][]> layerTiles; //indexed by layer ID, null once a layer is removed
+  private int tileSize;
+  private int tilesX;
+  private int tilesY;
+
+  //*********************************************************
+  //*****************Class Constructors**********************
+  //*********************************************************
+
+  public TiledLayerRepository(int x, int y, int tile)
+  {
+    super(x, y);
+    layerTiles = new ArrayList<double[][]>();
+    tileSize = tile;
+    tilesX = (xSize+tileSize-1)/tileSize;
+    tilesY = (ySize+tileSize-1)/tileSize;
+  }
+
+  //*********************************************************
+  //*************Begin Functions Proper**********************
+  //*********************************************************
+
+  /**
+   * @return The number of cells along each side of a tile.
+   */
+  public int getTileSize()
+  {
+    return tileSize;
+  }
+
+  /**
+   * @return How many tiles have been created over every layer, a full layer has
+   *         tilesX*tilesY of them.
+   */
+  public long getNumTiles()
+  {
+    long count = 0;
+    for(Iterator<double[][]> it = layerTiles.iterator(); it.hasNext(); )
+    {
+      double[][] tiles = it.next();
+      for(int i = 0; tiles != null && i < tiles.length; i++)
+      {
+        if(tiles[i] != null)
+        {
+          ++count;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Adds every layer of another repository to this one.  When it is tiled the same way
+   * tiles which are only in the other repository are taken as they are so it should
+   * not be used afterwards.  Several repositories may be added at once.
+   */
+  public void addAll(FlatLayerRepository other)
+  {
+    if(!(other instanceof TiledLayerRepository) || ((TiledLayerRepository)other).tileSize != tileSize)
+    {
+      super.addAll(other);
+      return;
+    }
+    TiledLayerRepository tiled = (TiledLayerRepository)other;
+    for(Iterator<String> iV = tiled.getVarNames().iterator(); iV.hasNext(); )
+    {
+      String varName = iV.next();
+      for(Iterator<Double> iT = tiled.getTimes(varName).iterator(); iT.hasNext(); )
+      {
+        double time = iT.next();
+        double[][] source = tiled.layerTiles.get(tiled.getLayerId(varName, time));
+        double[][] target = layerTiles.get(getLayerId(varName, time));
+        synchronized(target)
+        {
+          for(int tile = 0; tile < source.length; tile++)
+          {
+            if(source[tile] == null)
+            {
+              continue;
+            }
+            if(target[tile] == null)
+            {
+              target[tile] = source[tile];
+              continue;
+            }
+            addTile(target[tile], source[tile]);
+          }
+        }
+      }
+    }
+  }
+
+  //*********************************************************
+  //*************Layer Storage*******************************
+  //*********************************************************
+
+  protected DoubleBuffer allocateLayer(int id)
+  {
+    //the tiles themselves are made when they are written to
+    setTiles(id, new double[tilesX*tilesY][]);
+    return null;
+  }
+
+  protected DoubleBuffer adoptLayer(int id, DoubleBuffer values)
+  {
+    double[][] tiles = new double[tilesX*tilesY][];
+    setTiles(id, tiles);
+    addToTiles(tiles, values);
+    return null;
+  }
+
+  protected DoubleBuffer getLayerBuffer(int id, boolean forWrite)
+  {
+    if(forWrite)
+    {
+      throw new UnsupportedOperationException("tiled layers are only written a cell at a time");
+    }
+    double[][] tiles = layerTiles.get(id);
+    double[] values = new double[xSize*ySize];
+    for(int X = 0; X < xSize; X++)
+    {
+      for(int Y = 0; Y < ySize; Y++)
+      {
+        values[X*ySize+Y] = read(tiles, tile(X, Y), offset(X, Y));
+      }
+    }
+    return DoubleBuffer.wrap(values);
+  }
+
+  protected double peekValue(int id, int cell)
+  {
+    return getCell(id, cell);
+  }
+
+  protected double getCell(int id, int cell)
+  {
+    int X = cell/ySize;
+    int Y = cell%ySize;
+    return read(layerTiles.get(id), tile(X, Y), offset(X, Y));
+  }
+
+  protected void setCell(int id, int cell, double value)
+  {
+    int X = cell/ySize;
+    int Y = cell%ySize;
+    double[][] tiles = layerTiles.get(id);
+    int tile = tile(X, Y);
+    if(tiles[tile] == null)
+    {
+      if(Double.isNaN(value))
+      {
+        //already reads as NaN
+        return;
+      }
+      tiles[tile] = newTile();
+    }
+    tiles[tile][offset(X, Y)] = value;
+  }
+
+  protected void addToCell(int id, int cell, double value)
+  {
+    int X = cell/ySize;
+    int Y = cell%ySize;
+    double[][] tiles = layerTiles.get(id);
+    int tile = tile(X, Y);
+    if(tiles[tile] == null)
+    {
+      tiles[tile] = newTile();
+    }
+    int offset = offset(X, Y);
+    double old = tiles[tile][offset];
+    tiles[tile][offset] = Double.isNaN(old) ? value : (old+value);
+  }
+
+  protected void readCells(int id, int[] cells, int numCells, double[] values)
+  {
+    double[][] tiles = layerTiles.get(id);
+    for(int i = 0; i < numCells; i++)
+    {
+      int X = cells[i]/ySize;
+      int Y = cells[i]%ySize;
+      values[i] = read(tiles, tile(X, Y), offset(X, Y));
+    }
+  }
+
+  protected void addToLayer(int id, DoubleBuffer values)
+  {
+    double[][] tiles = layerTiles.get(id);
+    synchronized(tiles)
+    {
+      addToTiles(tiles, values);
+    }
+  }
+
+  protected void overwriteLayer(int id, int fromId)
+  {
+    double[][] oldData = layerTiles.get(id);
+    double[][] newData = layerTiles.get(fromId);
+    for(int tile = 0; tile < newData.length; tile++)
+    {
+      if(newData[tile] == null)
+      {
+        continue;
+      }
+      if(oldData[tile] == null)
+      {
+        //the hold layer is released afterwards so its tile can be taken as is
+        oldData[tile] = newData[tile];
+        continue;
+      }
+      for(int cell = 0; cell < newData[tile].length; cell++)
+      {
+        if(!Double.isNaN(newData[tile][cell]))
+        {
+          oldData[tile][cell] = newData[tile][cell];
+        }
+      }
+    }
+  }
+
+  protected void releaseLayer(int id)
+  {
+    layerTiles.set(id, null);
+  }
+
+  private void setTiles(int id, double[][] tiles)
+  {
+    while(layerTiles.size() <= id)
+    {
+      layerTiles.add(null);
+    }
+    layerTiles.set(id, tiles);
+  }
+
+  /**
+   * Adds values indexed by X*ySize+Y to tiles, skipping cells which were never set so
+   * tiles are only created where there is data.
+   */
+  private void addToTiles(double[][] tiles, DoubleBuffer values)
+  {
+    for(int X = 0; X < xSize; X++)
+    {
+      for(int Y = 0; Y < ySize; Y++)
+      {
+        double value = values.get(X*ySize+Y);
+        if(Double.isNaN(value))
+        {
+          continue;
+        }
+        int tile = tile(X, Y);
+        if(tiles[tile] == null)
+        {
+          tiles[tile] = newTile();
+        }
+        int offset = offset(X, Y);
+        double old = tiles[tile][offset];
+        tiles[tile][offset] = Double.isNaN(old) ? value : (old+value);
+      }
+    }
+  }
+
+  private static void addTile(double[] target, double[] source)
+  {
+    for(int cell = 0; cell < source.length; cell++)
+    {
+      double value = source[cell];
+      if(!Double.isNaN(value))
+      {
+        double old = target[cell];
+        target[cell] = Double.isNaN(old) ? value : (old+value);
+      }
+    }
+  }
+
+  private double[] newTile()
+  {
+    double[] tile = new double[tileSize*tileSize];
+    Arrays.fill(tile, Double.NaN);
+    return tile;
+  }
+
+  private int tile(int X, int Y)
+  {
+    return (X/tileSize)*tilesY+(Y/tileSize);
+  }
+
+  private int offset(int X, int Y)
+  {
+    return (X%tileSize)*tileSize+(Y%tileSize);
+  }
+
+  /**
+   * @return The value of a cell, NaN if its tile or the whole layer does not exist.
+   */
+  private static double read(double[][] layer, int tile, int offset)
+  {
+    if(layer == null || layer[tile] == null)
+    {
+      return Double.NaN;
+    }
+    return layer[tile][offset];
+  }
+}